@@ -0,0 +1,205 @@
+/*
+ * Licensed to the Technische Universität Darmstadt under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The Technische Universität Darmstadt 
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.agreement;
+
+import static de.tudarmstadt.ukp.clarin.webanno.api.CasUpgradeMode.AUTO_CAS_UPGRADE;
+import static de.tudarmstadt.ukp.clarin.webanno.api.casstorage.CasAccessMode.SHARED_READ_ONLY_ACCESS;
+import static de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocumentState.FINISHED;
+import static java.util.Collections.emptyMap;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.FeatureStructure;
+import org.apache.uima.fit.util.FSUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.DocumentService;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil;
+import de.tudarmstadt.ukp.clarin.webanno.api.dao.casstorage.CasStorageSession;
+import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocument;
+import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocumentState;
+import de.tudarmstadt.ukp.clarin.webanno.model.Project;
+import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
+import de.tudarmstadt.ukp.clarin.webanno.security.model.User;
+
+/**
+ * Loads the CASes of multiple annotators on multiple documents for the purpose of calculating
+ * agreement. The CASes are loaded in parallel in shared read-only mode.
+ */
+@Component
+public class AgreementCasLoader
+    implements DisposableBean
+{
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private final DocumentService documentService;
+    private final ExecutorService loaderExecutor;
+
+    @Autowired
+    public AgreementCasLoader(DocumentService aDocumentService,
+            @Value("${agreement.loader.threads:4}") int aThreads)
+    {
+        documentService = aDocumentService;
+        loaderExecutor = Executors.newFixedThreadPool(aThreads);
+    }
+
+    @Override
+    public void destroy()
+    {
+        loaderExecutor.shutdownNow();
+    }
+
+    /**
+     * Load the CASes of the given users for the given documents.
+     * 
+     * @param aProject
+     *            the project.
+     * @param aUsers
+     *            the annotators.
+     * @param aDocuments
+     *            the documents.
+     * @param aLimitToFinishedDocuments
+     *            if set, the documents which a user has started but not finished are skipped.
+     * @param aErrorHandler
+     *            receives the exceptions which occurred while loading. Called on the calling
+     *            thread.
+     * @return for each user, a list with one CAS per document in the order of the given
+     *         documents. The list contains {@code null} for skipped documents and for documents
+     *         which could not be loaded.
+     */
+    public Map<String, List<CAS>> loadCases(Project aProject, List<User> aUsers,
+            List<SourceDocument> aDocuments, boolean aLimitToFinishedDocuments,
+            Consumer<Exception> aErrorHandler)
+    {
+        // Bulk-fetch the states of all annotation documents in the project which is faster than
+        // fetching them individually
+        Map<String, Map<Long, AnnotationDocumentState>> states = new HashMap<>();
+        for (AnnotationDocument annDoc : documentService.listAnnotationDocuments(aProject)) {
+            states.computeIfAbsent(annDoc.getUser(), k -> new HashMap<>())
+                    .put(annDoc.getDocument().getId(), annDoc.getState());
+        }
+
+        Map<String, List<Future<CAS>>> futures = new LinkedHashMap<>();
+        for (User user : aUsers) {
+            Map<Long, AnnotationDocumentState> userStates = states.getOrDefault(user.getUsername(),
+                    emptyMap());
+
+            List<Future<CAS>> userFutures = new ArrayList<>();
+            for (SourceDocument document : aDocuments) {
+                AnnotationDocumentState state = userStates.get(document.getId());
+                if (aLimitToFinishedDocuments && state != null && state != FINISHED) {
+                    // Add a skip marker (null) for the current CAS to the CAS list - this is
+                    // necessary because we expect the CAS lists for all users to have the same
+                    // size
+                    userFutures.add(null);
+                    continue;
+                }
+
+                userFutures.add(loaderExecutor.submit(() -> loadCas(document, user)));
+            }
+
+            futures.put(user.getUsername(), userFutures);
+        }
+
+        Map<String, List<CAS>> casMap = new LinkedHashMap<>();
+        for (Map.Entry<String, List<Future<CAS>>> e : futures.entrySet()) {
+            List<CAS> cases = new ArrayList<>();
+            for (int i = 0; i < aDocuments.size(); i++) {
+                Future<CAS> future = e.getValue().get(i);
+                CAS cas = future != null ? getCas(future, aErrorHandler) : null;
+                if (cas != null) {
+                    setDocumentMetadata(cas, aDocuments.get(i));
+                }
+                cases.add(cas);
+            }
+            casMap.put(e.getKey(), cases);
+        }
+
+        return casMap;
+    }
+
+    /**
+     * Set the CAS name in the DocumentMetaData so that we can pick it up in the Diff position for
+     * the purpose of debugging / transparency. The CASes are shared with other readers, so this
+     * is done on the calling thread before the CASes are handed out instead of on the loader
+     * threads. The metadata is only modified if it is not already set to the expected values, i.e.
+     * at most once for every CAS loaded into the shared cache. Since several agreement
+     * calculations may load the same CAS at the same time, the check is synchronized on the CAS.
+     */
+    private void setDocumentMetadata(CAS aCas, SourceDocument aDocument)
+    {
+        FeatureStructure dmd = WebAnnoCasUtil.getDocumentMetadata(aCas);
+        synchronized (aCas) {
+            if (!Objects.equals(FSUtil.getFeature(dmd, "documentId", String.class),
+                    aDocument.getName())) {
+                FSUtil.setFeature(dmd, "documentId", aDocument.getName());
+            }
+            if (!Objects.equals(FSUtil.getFeature(dmd, "collectionId", String.class),
+                    aDocument.getProject().getName())) {
+                FSUtil.setFeature(dmd, "collectionId", aDocument.getProject().getName());
+            }
+        }
+    }
+
+    private CAS getCas(Future<CAS> aFuture, Consumer<Exception> aErrorHandler)
+    {
+        try {
+            return aFuture.get();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            aFuture.cancel(true);
+            aErrorHandler.accept(e);
+        }
+        catch (ExecutionException e) {
+            log.error("Unable to load data", e.getCause());
+            aErrorHandler.accept(
+                    e.getCause() instanceof Exception ? (Exception) e.getCause() : e);
+        }
+
+        return null;
+    }
+
+    private CAS loadCas(SourceDocument aDocument, User aUser) throws Exception
+    {
+        // The loader threads are not part of the request, so they need a session of their own.
+        // Shared read-only CASes remain valid after the session has been closed.
+        try (CasStorageSession session = CasStorageSession.openNested()) {
+            // Reads the user's annotation document or the initial source document - depending on
+            // what is available
+            return documentService.readAnnotationCas(aDocument, aUser.getUsername(),
+                    AUTO_CAS_UPGRADE, SHARED_READ_ONLY_ACCESS);
+        }
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * Licensed to the Technische Universität Darmstadt under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The Technische Universität Darmstadt 
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.agreement;
+
+import java.util.Optional;
+
+/**
+ * Calculates agreement in the background and keeps the last result of each calculation. The
+ * summary of each result is persisted in the project folder. Once a calculation has been
+ * requested, it is refreshed in the background whenever the annotations of the project change.
+ */
+public interface AgreementService
+{
+    /**
+     * @param aRequest
+     *            the agreement settings.
+     * @return the last result calculated for the given settings. The result may be outdated if
+     *         annotations have changed since. Returns {@code null} if there is no such result.
+     */
+    CachedAgreementResult getLastResult(AgreementRequest aRequest);
+
+    /**
+     * Schedule the (re-)calculation of the agreement for the given settings. The calculation is
+     * skipped if none of the annotations changed since the last result was calculated and the
+     * full result is available. If only some of the documents changed, only these are loaded and
+     * compared again.
+     * 
+     * @param aRequest
+     *            the agreement settings.
+     * @return {@code false} if a calculation for these settings is already running.
+     */
+    boolean refresh(AgreementRequest aRequest);
+
+    /**
+     * @param aRequest
+     *            the agreement settings.
+     * @return if a calculation for the given settings is scheduled or running.
+     */
+    boolean isRefreshing(AgreementRequest aRequest);
+
+    /**
+     * @param aRequest
+     *            the agreement settings.
+     * @return the error which occurred during the last calculation for the given settings, if
+     *         any.
+     */
+    Optional<String> getLastError(AgreementRequest aRequest);
+}
@@ -0,0 +1,574 @@
+/*
+ * Licensed to the Technische Universität Darmstadt under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The Technische Universität Darmstadt 
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.agreement;
+
+import static de.tudarmstadt.ukp.clarin.webanno.model.PermissionLevel.ANNOTATOR;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyMap;
+import static java.util.concurrent.TimeUnit.DAYS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static java.util.stream.Collectors.joining;
+import static java.util.stream.Collectors.toList;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.apache.uima.cas.CAS;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import de.tudarmstadt.ukp.clarin.webanno.agreement.measures.AgreementMeasure;
+import de.tudarmstadt.ukp.clarin.webanno.agreement.measures.AgreementMeasureSupport;
+import de.tudarmstadt.ukp.clarin.webanno.agreement.measures.AgreementMeasureSupportRegistry;
+import de.tudarmstadt.ukp.clarin.webanno.agreement.results.coding.CodingAgreementMeasure_ImplBase;
+import de.tudarmstadt.ukp.clarin.webanno.api.AnnotationSchemaService;
+import de.tudarmstadt.ukp.clarin.webanno.api.CasStorageService;
+import de.tudarmstadt.ukp.clarin.webanno.api.DocumentService;
+import de.tudarmstadt.ukp.clarin.webanno.api.ProjectService;
+import de.tudarmstadt.ukp.clarin.webanno.api.dao.casstorage.CasStorageSession;
+import de.tudarmstadt.ukp.clarin.webanno.api.event.AfterCasWrittenEvent;
+import de.tudarmstadt.ukp.clarin.webanno.api.event.AnnotationStateChangeEvent;
+import de.tudarmstadt.ukp.clarin.webanno.api.event.BeforeProjectRemovedEvent;
+import de.tudarmstadt.ukp.clarin.webanno.api.event.DocumentStateChangedEvent;
+import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff;
+import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocument;
+import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationFeature;
+import de.tudarmstadt.ukp.clarin.webanno.model.Project;
+import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
+import de.tudarmstadt.ukp.clarin.webanno.model.Tag;
+import de.tudarmstadt.ukp.clarin.webanno.security.model.User;
+import de.tudarmstadt.ukp.clarin.webanno.support.JSONUtil;
+
+@Component
+public class AgreementServiceImpl
+    implements AgreementService, DisposableBean
+{
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private static final String AGREEMENT_FOLDER = "agreement";
+
+    /**
+     * Full results are only kept in memory, so the number of results is bounded. Each result can
+     * hold the diffs of all annotator pairs of a project. The summaries of the results are
+     * persisted and restored when a result is no longer in memory.
+     */
+    private static final int MAX_RESULTS = 100;
+
+    /**
+     * The per-document state holds the CASes of all annotators in a project, so it is only kept for
+     * a few requests and may be dropped by the garbage collector at any time.
+     */
+    private static final int MAX_INCREMENTAL_STATES = 10;
+
+    /**
+     * Settings for which nobody has looked at the agreement for this long are no longer refreshed
+     * in the background.
+     */
+    private static final long BACKGROUND_REFRESH_DAYS = 1;
+
+    private final ProjectService projectService;
+    private final DocumentService documentService;
+    private final AnnotationSchemaService annotationService;
+    private final CasStorageService casStorageService;
+    private final AgreementMeasureSupportRegistry agreementRegistry;
+    private final AgreementCasLoader casLoader;
+    private final long refreshDelay;
+
+    private final ExecutorService jobExecutor;
+    private final ScheduledExecutorService refreshScheduler;
+    private final Map<String, Future<?>> jobs = new ConcurrentHashMap<>();
+    private final Map<Long, ScheduledFuture<?>> scheduledRefreshes = new ConcurrentHashMap<>();
+    private final Cache<String, String> errors;
+    private final Cache<String, CachedAgreementResult> results;
+    private final Cache<String, AgreementRequest> requests;
+    private final Cache<String, IncrementalState> incrementalStates;
+
+    @Autowired
+    public AgreementServiceImpl(ProjectService aProjectService,
+            DocumentService aDocumentService, AnnotationSchemaService aAnnotationService,
+            CasStorageService aCasStorageService,
+            AgreementMeasureSupportRegistry aAgreementRegistry, AgreementCasLoader aCasLoader,
+            @Value("${agreement.jobs.threads:1}") int aThreads,
+            @Value("${agreement.jobs.refresh-delay:60}") long aRefreshDelaySeconds)
+    {
+        projectService = aProjectService;
+        documentService = aDocumentService;
+        annotationService = aAnnotationService;
+        casStorageService = aCasStorageService;
+        agreementRegistry = aAgreementRegistry;
+        casLoader = aCasLoader;
+        refreshDelay = aRefreshDelaySeconds;
+        jobExecutor = Executors.newFixedThreadPool(aThreads);
+        refreshScheduler = Executors.newSingleThreadScheduledExecutor();
+        results = Caffeine.newBuilder().maximumSize(MAX_RESULTS).build();
+        errors = Caffeine.newBuilder().maximumSize(MAX_RESULTS).build();
+        requests = Caffeine.newBuilder().maximumSize(MAX_RESULTS)
+                .expireAfterWrite(BACKGROUND_REFRESH_DAYS, DAYS).build();
+        incrementalStates = Caffeine.newBuilder().maximumSize(MAX_INCREMENTAL_STATES)
+                .softValues().build();
+    }
+
+    @Override
+    public void destroy()
+    {
+        refreshScheduler.shutdownNow();
+        jobExecutor.shutdownNow();
+    }
+
+    @Override
+    public CachedAgreementResult getLastResult(AgreementRequest aRequest)
+    {
+        return results.get(getKey(aRequest), key -> {
+            AgreementSummary summary = readSummary(aRequest.getProject(), key);
+            return summary != null ? new CachedAgreementResult(null, summary) : null;
+        });
+    }
+
+    @Override
+    public boolean refresh(AgreementRequest aRequest)
+    {
+        requests.put(getKey(aRequest), aRequest);
+
+        return refresh(aRequest, true);
+    }
+
+    private boolean refresh(AgreementRequest aRequest, boolean aDetailsRequired)
+    {
+        String key = getKey(aRequest);
+
+        // Only queued or running jobs need to be tracked
+        jobs.values().removeIf(Future::isDone);
+
+        boolean[] scheduled = { false };
+        jobs.compute(key, (k, job) -> {
+            if (job != null && !job.isDone()) {
+                return job;
+            }
+
+            errors.invalidate(key);
+            scheduled[0] = true;
+            return jobExecutor.submit(() -> runJob(aRequest, aDetailsRequired));
+        });
+
+        return scheduled[0];
+    }
+
+    @Override
+    public boolean isRefreshing(AgreementRequest aRequest)
+    {
+        Future<?> job = jobs.get(getKey(aRequest));
+        return job != null && !job.isDone();
+    }
+
+    @Override
+    public Optional<String> getLastError(AgreementRequest aRequest)
+    {
+        return Optional.ofNullable(errors.getIfPresent(getKey(aRequest)));
+    }
+
+    /**
+     * @param aDetailsRequired
+     *            if the full result is required. Otherwise, a result restored from its summary is
+     *            sufficient if the annotations did not change.
+     */
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    private void runJob(AgreementRequest aRequest, boolean aDetailsRequired)
+    {
+        Project project = aRequest.getProject();
+        String key = getKey(aRequest);
+
+        try (CasStorageSession session = CasStorageSession.openNested()) {
+            List<User> users = projectService.listProjectUsersWithPermissions(project, ANNOTATOR);
+            List<SourceDocument> documents = documentService.listSourceDocuments(project);
+
+            // The fingerprint is taken before loading the CASes, so that changes made while the
+            // agreement is being calculated are picked up by the next refresh
+            Map<String, String> fingerprint = fingerprint(aRequest.getFeature(), users,
+                    documents);
+
+            CachedAgreementResult lastResult = getLastResult(aRequest);
+            if (lastResult != null && fingerprint.equals(lastResult.getFingerprint())
+                    && (lastResult.getResult() != null || !aDetailsRequired)) {
+                log.debug("Agreement for feature [{}] in project [{}] is up-to-date",
+                        aRequest.getFeature().getName(), project.getName());
+                return;
+            }
+
+            AgreementMeasureSupport ams = agreementRegistry
+                    .getAgreementMeasureSupport(aRequest.getMeasure());
+            AgreementMeasure measure = ams.createMeasure(aRequest.getFeature(),
+                    aRequest.getTraits());
+
+            IncrementalState state = update(aRequest, key, users, documents, fingerprint,
+                    measure);
+            Map<String, List<CAS>> casMap = state.getCasMap();
+
+            if (casMap.values().stream()
+                    .allMatch(list -> list.stream().allMatch(Objects::isNull))) {
+                errors.put(key, "No documents with annotations were found.");
+                return;
+            }
+
+            Serializable result;
+            if (measure instanceof CodingAgreementMeasure_ImplBase) {
+                CasDiff diff = CasDiff.merge(state.getDiffs(), casMap);
+                result = ((CodingAgreementMeasure_ImplBase) measure).getAgreement(casMap, diff);
+            }
+            else {
+                result = measure.getAgreement(casMap);
+            }
+
+            AgreementSummary summary = new AgreementSummary(result, fingerprint,
+                    System.currentTimeMillis());
+            results.put(key, new CachedAgreementResult(result, summary));
+            writeSummary(project, key, summary);
+        }
+        catch (Exception e) {
+            errors.put(key,
+                    "Unable to calculate agreement: " + ExceptionUtils.getRootCauseMessage(e));
+            log.error("Unable to calculate agreement for feature [{}] in project [{}]",
+                    aRequest.getFeature().getName(), project.getName(), e);
+        }
+    }
+
+    /**
+     * Loads and - for coding measures - diffs the documents which changed since the last
+     * calculation for the given request. The other documents are taken from the last calculation.
+     */
+    @SuppressWarnings("rawtypes")
+    private IncrementalState update(AgreementRequest aRequest, String aKey, List<User> aUsers,
+            List<SourceDocument> aDocuments, Map<String, String> aFingerprint,
+            AgreementMeasure aMeasure)
+    {
+        List<String> schema = asList(aFingerprint.get("schema"), aFingerprint.get("tags"));
+        List<String> usernames = aUsers.stream().map(User::getUsername).collect(toList());
+        List<Long> documentIds = aDocuments.stream().map(SourceDocument::getId)
+                .collect(toList());
+
+        // The positions in the diff refer to the documents by their index, so the state can only
+        // be re-used as long as the annotators and the documents remain the same
+        IncrementalState state = incrementalStates.getIfPresent(aKey);
+        if (state == null || !state.isCompatible(schema, usernames, documentIds)) {
+            state = new IncrementalState(schema, usernames, documentIds);
+            incrementalStates.put(aKey, state);
+        }
+
+        List<Integer> changed = new ArrayList<>();
+        for (int i = 0; i < aDocuments.size(); i++) {
+            SourceDocument doc = aDocuments.get(i);
+            DocumentState docState = state.documentStates.get(doc.getId());
+            if (docState == null || !documentFingerprint(aFingerprint, usernames, doc)
+                    .equals(docState.fingerprint)) {
+                changed.add(i);
+            }
+        }
+
+        if (changed.isEmpty()) {
+            return state;
+        }
+
+        log.debug("Loading [{}] of [{}] documents to calculate agreement for feature [{}] in "
+                + "project [{}]", changed.size(), aDocuments.size(),
+                aRequest.getFeature().getName(), aRequest.getProject().getName());
+
+        boolean[] failed = { false };
+        Map<String, List<CAS>> loaded = casLoader.loadCases(aRequest.getProject(), aUsers,
+                changed.stream().map(aDocuments::get).collect(toList()),
+                aRequest.getTraits().isLimitToFinishedDocuments(), e -> {
+                    failed[0] = true;
+                    errors.asMap().putIfAbsent(aKey,
+                            "Unable to load data: " + ExceptionUtils.getRootCauseMessage(e));
+                });
+
+        for (int n = 0; n < changed.size(); n++) {
+            int index = changed.get(n);
+            SourceDocument doc = aDocuments.get(index);
+
+            DocumentState docState = new DocumentState();
+            // If anything could not be loaded, the documents are loaded again on the next refresh
+            docState.fingerprint = failed[0] ? null
+                    : documentFingerprint(aFingerprint, usernames, doc);
+            for (String user : usernames) {
+                List<CAS> cases = loaded.get(user);
+                docState.cases.put(user, cases != null ? cases.get(n) : null);
+            }
+            state.documentStates.put(doc.getId(), docState);
+
+            if (aMeasure instanceof CodingAgreementMeasure_ImplBase) {
+                docState.diff = ((CodingAgreementMeasure_ImplBase) aMeasure)
+                        .calculateDiff(state.getCasMap(index));
+            }
+        }
+
+        return state;
+    }
+
+    private Map<String, String> fingerprint(AnnotationFeature aFeature, List<User> aUsers,
+            List<SourceDocument> aDocuments)
+        throws IOException
+    {
+        Project project = aFeature.getProject();
+
+        Map<String, String> fingerprint = new LinkedHashMap<>();
+
+        // Changes to the layers and features of the project may change how the annotations are
+        // compared
+        fingerprint.put("schema", String.valueOf(annotationService.getSchemaVersion(project)));
+        if (aFeature.getTagset() != null) {
+            fingerprint.put("tags", annotationService.listTags(aFeature.getTagset()).stream()
+                    .map(Tag::getName).collect(joining("\n")));
+        }
+
+        Map<String, Map<Long, String>> states = new HashMap<>();
+        for (AnnotationDocument annDoc : documentService.listAnnotationDocuments(project)) {
+            states.computeIfAbsent(annDoc.getUser(), k -> new HashMap<>())
+                    .put(annDoc.getDocument().getId(), String.valueOf(annDoc.getState()));
+        }
+
+        for (User user : aUsers) {
+            Map<Long, String> userStates = states.getOrDefault(user.getUsername(),
+                    emptyMap());
+            for (SourceDocument doc : aDocuments) {
+                // Look at the file directly instead of using getCasTimestamp() which would borrow
+                // each CAS exclusively. If the file is just being rewritten, the fingerprint
+                // changes and the next refresh recalculates - which is what we want anyway.
+                File casFile = casStorageService.getCasFile(doc, user.getUsername());
+                fingerprint.put(user.getUsername() + "/" + doc.getId(),
+                        (casFile.exists() ? String.valueOf(casFile.lastModified()) : "-") + "/"
+                                + userStates.getOrDefault(doc.getId(), "-"));
+            }
+        }
+
+        return fingerprint;
+    }
+
+    private static Map<String, String> documentFingerprint(Map<String, String> aFingerprint,
+            List<String> aUsers, SourceDocument aDocument)
+    {
+        Map<String, String> fingerprint = new HashMap<>();
+        for (String user : aUsers) {
+            String key = user + "/" + aDocument.getId();
+            fingerprint.put(key, aFingerprint.get(key));
+        }
+        return fingerprint;
+    }
+
+    private File getSummaryFile(Project aProject, String aKey)
+    {
+        return new File(new File(projectService.getProjectFolder(aProject), AGREEMENT_FOLDER),
+                UUID.nameUUIDFromBytes(aKey.getBytes(UTF_8)) + ".json");
+    }
+
+    private void writeSummary(Project aProject, String aKey, AgreementSummary aSummary)
+    {
+        File file = getSummaryFile(aProject, aKey);
+        try {
+            JSONUtil.generatePrettyJson(aSummary, file);
+        }
+        catch (IOException e) {
+            log.error("Unable to persist agreement summary to [{}]", file, e);
+        }
+    }
+
+    private AgreementSummary readSummary(Project aProject, String aKey)
+    {
+        File file = getSummaryFile(aProject, aKey);
+        if (!file.exists()) {
+            return null;
+        }
+
+        try (InputStream is = new FileInputStream(file)) {
+            return JSONUtil.fromJsonStream(AgreementSummary.class, is);
+        }
+        catch (IOException e) {
+            log.warn("Unable to read agreement summary from [{}]", file, e);
+            return null;
+        }
+    }
+
+    @EventListener
+    public void afterCasWritten(AfterCasWrittenEvent aEvent)
+    {
+        scheduleRefresh(aEvent.getDocument().getProject());
+    }
+
+    @EventListener
+    public void onAnnotationStateChange(AnnotationStateChangeEvent aEvent)
+    {
+        scheduleRefresh(aEvent.getDocument().getProject());
+    }
+
+    @EventListener
+    public void onDocumentStateChanged(DocumentStateChangedEvent aEvent)
+    {
+        scheduleRefresh(aEvent.getDocument().getProject());
+    }
+
+    private void scheduleRefresh(Project aProject)
+    {
+        if (aProject == null || aProject.getId() == null) {
+            return;
+        }
+
+        String prefix = aProject.getId() + "|";
+        if (requests.asMap().keySet().stream().noneMatch(key -> key.startsWith(prefix))) {
+            return;
+        }
+
+        // Annotators save all the time while they are working, so further changes do not restart
+        // the delay - otherwise the refresh would be postponed for as long as anybody annotates
+        scheduledRefreshes.computeIfAbsent(aProject.getId(),
+                id -> refreshScheduler.schedule(() -> refreshProject(id), refreshDelay, SECONDS));
+    }
+
+    private void refreshProject(long aProjectId)
+    {
+        scheduledRefreshes.remove(aProjectId);
+
+        String prefix = aProjectId + "|";
+        requests.asMap().forEach((key, request) -> {
+            if (key.startsWith(prefix)) {
+                refresh(request, false);
+            }
+        });
+    }
+
+    @EventListener
+    public void beforeProjectRemoved(BeforeProjectRemovedEvent aEvent)
+    {
+        ScheduledFuture<?> refresh = scheduledRefreshes.remove(aEvent.getProject().getId());
+        if (refresh != null) {
+            refresh.cancel(false);
+        }
+
+        String prefix = aEvent.getProject().getId() + "|";
+        requests.asMap().keySet().removeIf(key -> key.startsWith(prefix));
+        incrementalStates.asMap().keySet().removeIf(key -> key.startsWith(prefix));
+        results.asMap().keySet().removeIf(key -> key.startsWith(prefix));
+        errors.asMap().keySet().removeIf(key -> key.startsWith(prefix));
+    }
+
+    private String getKey(AgreementRequest aRequest)
+    {
+        String traits;
+        try {
+            traits = JSONUtil.toJsonString(aRequest.getTraits());
+        }
+        catch (IOException e) {
+            throw new IllegalStateException("Unable to serialize agreement traits", e);
+        }
+
+        return aRequest.getProject().getId() + "|" + aRequest.getFeature().getId() + "|"
+                + aRequest.getMeasure() + "|" + traits;
+    }
+
+    /**
+     * The CASes and diffs of the individual documents from the last calculation for a particular
+     * request, so that documents which did not change need not be loaded and compared again.
+     * Only accessed by the job of the request, so there is no concurrent access.
+     */
+    private static class IncrementalState
+    {
+        private final List<String> schema;
+        private final List<String> users;
+        private final List<Long> documents;
+        private final Map<Long, DocumentState> documentStates = new HashMap<>();
+
+        public IncrementalState(List<String> aSchema, List<String> aUsers, List<Long> aDocuments)
+        {
+            schema = aSchema;
+            users = aUsers;
+            documents = aDocuments;
+        }
+
+        public boolean isCompatible(List<String> aSchema, List<String> aUsers,
+                List<Long> aDocuments)
+        {
+            return schema.equals(aSchema) && users.equals(aUsers) && documents.equals(aDocuments);
+        }
+
+        /**
+         * @return the CASes of all documents.
+         */
+        public Map<String, List<CAS>> getCasMap()
+        {
+            return getCasMap(-1);
+        }
+
+        /**
+         * @return the CASes of the document at the given index. At all other indexes, the lists
+         *         contain {@code null} such that the diff positions refer to the same index as in
+         *         the CAS map of all documents. If the index is negative, all documents are
+         *         included.
+         */
+        public Map<String, List<CAS>> getCasMap(int aIndex)
+        {
+            Map<String, List<CAS>> casMap = new LinkedHashMap<>();
+            for (String user : users) {
+                List<CAS> cases = new ArrayList<>();
+                for (int i = 0; i < documents.size(); i++) {
+                    DocumentState docState = documentStates.get(documents.get(i));
+                    cases.add(docState != null && (aIndex < 0 || aIndex == i)
+                            ? docState.cases.get(user)
+                            : null);
+                }
+                casMap.put(user, cases);
+            }
+            return casMap;
+        }
+
+        public List<CasDiff> getDiffs()
+        {
+            return documents.stream().map(id -> documentStates.get(id).diff).collect(toList());
+        }
+    }
+
+    private static class DocumentState
+    {
+        private Map<String, String> fingerprint;
+        private final Map<String, CAS> cases = new HashMap<>();
+        private CasDiff diff;
+    }
+}
@@ -0,0 +1,246 @@
+/*
+ * Licensed to the Technische Universität Darmstadt under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The Technische Universität Darmstadt 
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.agreement;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.dkpro.statistics.agreement.coding.ICodingAnnotationStudy;
+import org.dkpro.statistics.agreement.unitizing.IUnitizingAnnotationStudy;
+
+import de.tudarmstadt.ukp.clarin.webanno.agreement.results.coding.CodingAgreementResult;
+
+/**
+ * The pairwise agreement scores of an agreement result along with the state of the annotations
+ * they were calculated from. Unlike the full result, the summary does not refer to the diff or to
+ * the CASes, so it is persisted and survives a restart.
+ */
+public class AgreementSummary
+    implements Serializable
+{
+    private static final long serialVersionUID = 4316305446137612357L;
+
+    private Map<String, String> fingerprint = new LinkedHashMap<>();
+    private long timestamp;
+    private List<String> raters = new ArrayList<>();
+    private List<PairSummary> pairs = new ArrayList<>();
+
+    public AgreementSummary()
+    {
+        // Required for deserialization
+    }
+
+    public AgreementSummary(Serializable aResult, Map<String, String> aFingerprint,
+            long aTimestamp)
+    {
+        fingerprint = new LinkedHashMap<>(aFingerprint);
+        timestamp = aTimestamp;
+
+        if (!(aResult instanceof PairwiseAnnotationResult)) {
+            return;
+        }
+
+        PairwiseAnnotationResult<?> result = (PairwiseAnnotationResult<?>) aResult;
+        raters.addAll(result.getRaters());
+        for (int m = 0; m < raters.size(); m++) {
+            for (int n = m + 1; n < raters.size(); n++) {
+                Object study = result.getStudy(raters.get(m), raters.get(n));
+                if (study instanceof AgreementResult) {
+                    pairs.add(new PairSummary(raters.get(m), raters.get(n),
+                            (AgreementResult<?>) study));
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the timestamp and state of each annotator's annotations on each document at the
+     *         time the result was calculated.
+     */
+    public Map<String, String> getFingerprint()
+    {
+        return fingerprint;
+    }
+
+    public void setFingerprint(Map<String, String> aFingerprint)
+    {
+        fingerprint = aFingerprint;
+    }
+
+    /**
+     * @return time at which the result was calculated.
+     */
+    public long getTimestamp()
+    {
+        return timestamp;
+    }
+
+    public void setTimestamp(long aTimestamp)
+    {
+        timestamp = aTimestamp;
+    }
+
+    public List<String> getRaters()
+    {
+        return raters;
+    }
+
+    public void setRaters(List<String> aRaters)
+    {
+        raters = aRaters;
+    }
+
+    public List<PairSummary> getPairs()
+    {
+        return pairs;
+    }
+
+    public void setPairs(List<PairSummary> aPairs)
+    {
+        pairs = aPairs;
+    }
+
+    public PairSummary getPair(String aRater1, String aRater2)
+    {
+        for (PairSummary pair : pairs) {
+            if ((pair.rater1.equals(aRater1) && pair.rater2.equals(aRater2))
+                    || (pair.rater1.equals(aRater2) && pair.rater2.equals(aRater1))) {
+                return pair;
+            }
+        }
+
+        return null;
+    }
+
+    public static class PairSummary
+        implements Serializable
+    {
+        private static final long serialVersionUID = -8203364866396811455L;
+
+        private String rater1;
+        private String rater2;
+        private Double agreement;
+        private int itemCount;
+        private Integer completeSetCount;
+        private Integer relevantSetCount;
+
+        public PairSummary()
+        {
+            // Required for deserialization
+        }
+
+        public PairSummary(String aRater1, String aRater2, AgreementResult<?> aResult)
+        {
+            rater1 = aRater1;
+            rater2 = aRater2;
+            // NaN cannot be represented in JSON
+            agreement = Double.isNaN(aResult.getAgreement()) ? null : aResult.getAgreement();
+
+            if (aResult.getStudy() instanceof ICodingAnnotationStudy) {
+                itemCount = ((ICodingAnnotationStudy) aResult.getStudy()).getItemCount();
+            }
+            else if (aResult.getStudy() instanceof IUnitizingAnnotationStudy) {
+                itemCount = (int) ((IUnitizingAnnotationStudy) aResult.getStudy()).getUnitCount();
+            }
+
+            if (aResult instanceof CodingAgreementResult) {
+                CodingAgreementResult codingResult = (CodingAgreementResult) aResult;
+                completeSetCount = codingResult.getCompleteSets().size();
+                relevantSetCount = codingResult.getRelevantSetCount();
+            }
+        }
+
+        public String getRater1()
+        {
+            return rater1;
+        }
+
+        public void setRater1(String aRater1)
+        {
+            rater1 = aRater1;
+        }
+
+        public String getRater2()
+        {
+            return rater2;
+        }
+
+        public void setRater2(String aRater2)
+        {
+            rater2 = aRater2;
+        }
+
+        /**
+         * @return the agreement score or {@code null} if the score is undefined.
+         */
+        public Double getAgreement()
+        {
+            return agreement;
+        }
+
+        public void setAgreement(Double aAgreement)
+        {
+            agreement = aAgreement;
+        }
+
+        /**
+         * @return the number of items (coding measures) or units (unitizing measures) the score
+         *         was calculated from.
+         */
+        public int getItemCount()
+        {
+            return itemCount;
+        }
+
+        public void setItemCount(int aItemCount)
+        {
+            itemCount = aItemCount;
+        }
+
+        /**
+         * @return the number of positions included in the agreement or {@code null} if the
+         *         measure does not work on positions.
+         */
+        public Integer getCompleteSetCount()
+        {
+            return completeSetCount;
+        }
+
+        public void setCompleteSetCount(Integer aCompleteSetCount)
+        {
+            completeSetCount = aCompleteSetCount;
+        }
+
+        /**
+         * @return the total number of relevant positions or {@code null} if the measure does not
+         *         work on positions.
+         */
+        public Integer getRelevantSetCount()
+        {
+            return relevantSetCount;
+        }
+
+        public void setRelevantSetCount(Integer aRelevantSetCount)
+        {
+            relevantSetCount = aRelevantSetCount;
+        }
+    }
+}
@@ -52,6 +52,7 @@ import de.tudarmstadt.ukp.clarin.webanno.agreement.results.coding.CodingAgreemen
 import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff;
 import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff.Configuration;
 import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff.ConfigurationSet;
+import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff.DiffResult;
 import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.LinkCompareBehavior;
 import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.api.Position;
 import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.relation.RelationDiffAdapter;
@@ -88,6 +89,9 @@ public class AgreementUtils
         List<String> users = new ArrayList<>(aUsers);
         Collections.sort(users);
 
+        // The diff may cover more users than the ones we are looking at
+        DiffResult diffResult = aDiff.toResult().forCasGroups(users);
+
         List<ConfigurationSet> completeSets = new ArrayList<>();
         List<ConfigurationSet> setsWithDifferences = new ArrayList<>();
         List<ConfigurationSet> incompleteSetsByPosition = new ArrayList<>();
@@ -103,9 +107,11 @@ public class AgreementUtils
         if (someCas == null) {
             // Well... there is NOTHING here!
             // All positions are irrelevant
-            aDiff.getPositions().forEach(p -> irrelevantSets.add(aDiff.getConfigurationSet(p)));
+            aDiff.getPositions().stream().map(aDiff::getConfigurationSet)
+                    .filter(cfgSet -> isAnnotatedByAnyOf(cfgSet, users))
+                    .forEach(irrelevantSets::add);
 
-            return new CodingAgreementResult(aType, aFeature, aDiff.toResult(), study, users,
+            return new CodingAgreementResult(aType, aFeature, diffResult, study, users,
                     completeSets, irrelevantSets, setsWithDifferences, incompleteSetsByPosition,
                     incompleteSetsByLabel, pluralitySets, aExcludeIncomplete);
         }
@@ -115,9 +121,11 @@ public class AgreementUtils
         // We should just do the right thing here which is: do nothing
         if (ts.getType(aType) == null) {
             // All positions are irrelevant
-            aDiff.getPositions().forEach(p -> irrelevantSets.add(aDiff.getConfigurationSet(p)));
+            aDiff.getPositions().stream().map(aDiff::getConfigurationSet)
+                    .filter(cfgSet -> isAnnotatedByAnyOf(cfgSet, users))
+                    .forEach(irrelevantSets::add);
 
-            return new CodingAgreementResult(aType, aFeature, aDiff.toResult(), study, users,
+            return new CodingAgreementResult(aType, aFeature, diffResult, study, users,
                     completeSets, irrelevantSets, setsWithDifferences, incompleteSetsByPosition,
                     incompleteSetsByLabel, pluralitySets, aExcludeIncomplete);
         }
@@ -140,6 +148,13 @@ public class AgreementUtils
                 continue;
             }
 
+            // If none of the current users has made any annotation at this position, then skip
+            // it. This happens if the diff covers more users than the ones we are looking at.
+            // We do not consider these as irrelevant either.
+            if (!isAnnotatedByAnyOf(cfgSet, users)) {
+                continue nextPosition;
+            }
+
             // If the feature on a position is set, then it is a subposition
             boolean isSubPosition = p.getFeature() != null;
 
@@ -159,12 +174,6 @@ public class AgreementUtils
                 continue nextPosition;
             }
 
-            // If non of the current users has made any annotation at this position, then skip it
-            if (users.stream().filter(u -> cfgSet.getCasGroupIds().contains(u)).count() == 0) {
-                irrelevantSets.add(cfgSet);
-                continue nextPosition;
-            }
-
             Object[] values = new Object[users.size()];
             int i = 0;
             for (String user : users) {
@@ -260,11 +269,16 @@ public class AgreementUtils
             study.addItemAsArray(values);
         }
 
-        return new CodingAgreementResult(aType, aFeature, aDiff.toResult(), study, users,
+        return new CodingAgreementResult(aType, aFeature, diffResult, study, users,
                 completeSets, irrelevantSets, setsWithDifferences, incompleteSetsByPosition,
                 incompleteSetsByLabel, pluralitySets, aExcludeIncomplete);
     }
 
+    private static boolean isAnnotatedByAnyOf(ConfigurationSet aCfgSet, Collection<String> aUsers)
+    {
+        return aUsers.stream().anyMatch(u -> aCfgSet.getCasGroupIds().contains(u));
+    }
+
     private static Object extractValueForAgreement(FeatureStructure aFs, String aFeature,
             int aLinkIndex, LinkCompareBehavior aLCB)
     {
@@ -0,0 +1,71 @@
+/*
+ * Licensed to the Technische Universität Darmstadt under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The Technische Universität Darmstadt 
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.agreement;
+
+import java.io.Serializable;
+import java.util.Map;
+
+/**
+ * Agreement result as kept by the {@link AgreementService} along with the state of the
+ * annotations it was calculated from. Only the summary of the result is persisted. When a result
+ * has been restored from the summary, the full result is not available.
+ */
+public class CachedAgreementResult
+    implements Serializable
+{
+    private static final long serialVersionUID = -3512907381049385432L;
+
+    private final Serializable result;
+    private final AgreementSummary summary;
+
+    public CachedAgreementResult(Serializable aResult, AgreementSummary aSummary)
+    {
+        result = aResult;
+        summary = aSummary;
+    }
+
+    /**
+     * @return the full result or {@code null} if the result has been restored from its summary.
+     */
+    public Serializable getResult()
+    {
+        return result;
+    }
+
+    public AgreementSummary getSummary()
+    {
+        return summary;
+    }
+
+    /**
+     * @return the timestamp and state of each annotator's annotations on each document at the
+     *         time the result was calculated.
+     */
+    public Map<String, String> getFingerprint()
+    {
+        return summary.getFingerprint();
+    }
+
+    /**
+     * @return time at which the result was calculated.
+     */
+    public long getTimestamp()
+    {
+        return summary.getTimestamp();
+    }
+}
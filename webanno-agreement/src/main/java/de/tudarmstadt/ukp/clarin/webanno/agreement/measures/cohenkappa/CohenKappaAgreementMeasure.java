@@ -50,16 +50,21 @@ public class CohenKappaAgreementMeasure
     }
 
     @Override
-    public CodingAgreementResult calculatePairAgreement(Map<String, List<CAS>> aCasMap)
+    public CasDiff calculateDiff(Map<String, List<CAS>> aCasMap)
     {
-        AnnotationFeature feature = getFeature();
-        DefaultAgreementTraits traits = getTraits();
+        List<DiffAdapter> adapters = getDiffAdapters(annotationService,
+                asList(getFeature().getLayer()));
 
-        List<DiffAdapter> adapters = getDiffAdapters(annotationService, asList(feature.getLayer()));
+        return doDiff(adapters, getTraits().getLinkCompareBehavior(), aCasMap);
+    }
 
-        CasDiff diff = doDiff(adapters, traits.getLinkCompareBehavior(), aCasMap);
+    @Override
+    public CodingAgreementResult calculatePairAgreement(CasDiff aDiff,
+            Map<String, List<CAS>> aCasMap)
+    {
+        AnnotationFeature feature = getFeature();
 
-        CodingAgreementResult agreementResult = makeCodingStudy(diff, feature.getLayer().getName(),
+        CodingAgreementResult agreementResult = makeCodingStudy(aDiff, feature.getLayer().getName(),
                 feature.getName(), true, aCasMap);
 
         IAgreementMeasure agreement = new CohenKappaAgreement(agreementResult.getStudy());
@@ -49,6 +49,9 @@ public class CohenKappaAgreementMeasureSupport
     public AgreementMeasure<PairwiseAnnotationResult<CodingAgreementResult>> createMeasure(
             AnnotationFeature aFeature, DefaultAgreementTraits aTraits)
     {
-        return new CohenKappaAgreementMeasure(aFeature, aTraits, annotationService);
+        CohenKappaAgreementMeasure measure = new CohenKappaAgreementMeasure(aFeature, aTraits,
+                annotationService);
+        measure.setParallelism(getParallelism());
+        return measure;
     }
 }
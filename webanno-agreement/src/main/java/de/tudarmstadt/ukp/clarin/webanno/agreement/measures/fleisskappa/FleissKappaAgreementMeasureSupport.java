@@ -49,6 +49,9 @@ public class FleissKappaAgreementMeasureSupport
     public AgreementMeasure<PairwiseAnnotationResult<CodingAgreementResult>> createMeasure(
             AnnotationFeature aFeature, DefaultAgreementTraits aTraits)
     {
-        return new FleissKappaAgreementMeasure(aFeature, aTraits, annotationService);
+        FleissKappaAgreementMeasure measure = new FleissKappaAgreementMeasure(aFeature, aTraits,
+                annotationService);
+        measure.setParallelism(getParallelism());
+        return measure;
     }
 }
@@ -50,7 +50,10 @@ public class KrippendorffAlphaAgreementMeasureSupport
     public AgreementMeasure<PairwiseAnnotationResult<CodingAgreementResult>> createMeasure(
             AnnotationFeature aFeature, KrippendorffAlphaAgreementTraits aTraits)
     {
-        return new KrippendorffAlphaAgreementMeasure(aFeature, aTraits, annotationService);
+        KrippendorffAlphaAgreementMeasure measure = new KrippendorffAlphaAgreementMeasure(
+                aFeature, aTraits, annotationService);
+        measure.setParallelism(getParallelism());
+        return measure;
     }
 
     @Override
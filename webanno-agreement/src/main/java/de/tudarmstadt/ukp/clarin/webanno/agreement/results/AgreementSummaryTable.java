@@ -0,0 +1,155 @@
+/*
+ * Licensed to the Technische Universität Darmstadt under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The Technische Universität Darmstadt 
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.agreement.results;
+
+import static de.tudarmstadt.ukp.clarin.webanno.support.lambda.LambdaBehavior.visibleWhen;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.wicket.behavior.AttributeAppender;
+import org.apache.wicket.markup.html.basic.Label;
+import org.apache.wicket.markup.html.panel.Fragment;
+import org.apache.wicket.markup.html.panel.GenericPanel;
+import org.apache.wicket.markup.repeater.Item;
+import org.apache.wicket.markup.repeater.RefreshingView;
+import org.apache.wicket.model.IModel;
+import org.apache.wicket.model.LoadableDetachableModel;
+import org.apache.wicket.model.Model;
+
+import de.tudarmstadt.ukp.clarin.webanno.agreement.AgreementSummary;
+import de.tudarmstadt.ukp.clarin.webanno.agreement.AgreementSummary.PairSummary;
+import de.tudarmstadt.ukp.clarin.webanno.support.DefaultRefreshingView;
+
+/**
+ * Shows the pairwise agreement scores of an {@link AgreementSummary}. Used for results which have
+ * been restored after a restart and for which the details are not available until the agreement
+ * is calculated again.
+ */
+public class AgreementSummaryTable
+    extends GenericPanel<AgreementSummary>
+{
+    private static final long serialVersionUID = -2218454366462367325L;
+
+    public AgreementSummaryTable(String aId, IModel<AgreementSummary> aModel)
+    {
+        super(aId, aModel);
+
+        setOutputMarkupId(true);
+
+        // The "null" dummy rater accounts for the header columns of the table.
+        IModel<List<String>> ratersAdapter = LoadableDetachableModel.of(() -> {
+            List<String> raters = new ArrayList<>();
+            if (getModelObject() != null) {
+                raters.add(null);
+                raters.addAll(getModelObject().getRaters());
+            }
+            return raters;
+        });
+
+        RefreshingView<String> rows = new DefaultRefreshingView<String>("rows", ratersAdapter)
+        {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected void populateItem(final Item<String> aRowItem)
+            {
+                aRowItem.add(new DefaultRefreshingView<String>("cells", ratersAdapter)
+                {
+                    private static final long serialVersionUID = 1L;
+
+                    @Override
+                    protected void populateItem(Item<String> aCellItem)
+                    {
+                        aCellItem.setRenderBodyOnly(true);
+
+                        int row = aRowItem.getIndex();
+                        int col = aCellItem.getIndex();
+
+                        Fragment cell;
+                        if (row == 0) {
+                            cell = new Fragment("cell", "th-centered", AgreementSummaryTable.this);
+                        }
+                        else if (col == 0) {
+                            cell = new Fragment("cell", "th-right", AgreementSummaryTable.this);
+                        }
+                        else {
+                            cell = new Fragment("cell", "td", AgreementSummaryTable.this);
+                        }
+
+                        String label;
+                        if (row == 0) {
+                            label = col == 0 ? "" : aCellItem.getModelObject();
+                        }
+                        else if (col == 0) {
+                            label = aRowItem.getModelObject();
+                        }
+                        else if (row == col) {
+                            label = "-";
+                        }
+                        else {
+                            PairSummary pair = getModelObject().getPair(aRowItem.getModelObject(),
+                                    aCellItem.getModelObject());
+                            label = col > row ? agreementLabel(pair) : countLabel(pair);
+                        }
+
+                        cell.add(new Label("label", Model.of(label)));
+                        aCellItem.add(cell);
+                    }
+                });
+                // Odd/even coloring is reversed here to account for the header row at index 0
+                aRowItem.add(new AttributeAppender("class",
+                        (aRowItem.getIndex() % 2 == 0) ? "odd" : "even"));
+            }
+        };
+        add(rows);
+
+        add(visibleWhen(
+                () -> getModelObject() != null && !getModelObject().getRaters().isEmpty()));
+    }
+
+    private static String agreementLabel(PairSummary aPair)
+    {
+        if (aPair == null) {
+            return "-";
+        }
+        else if (aPair.getItemCount() == 0) {
+            return "no positions";
+        }
+        else if (aPair.getAgreement() == null) {
+            return "NaN";
+        }
+        else {
+            return String.format("%.2f", aPair.getAgreement());
+        }
+    }
+
+    private static String countLabel(PairSummary aPair)
+    {
+        if (aPair == null) {
+            return "-";
+        }
+        else if (aPair.getCompleteSetCount() != null && aPair.getRelevantSetCount() != null) {
+            return String.format("%d/%d", aPair.getCompleteSetCount(),
+                    aPair.getRelevantSetCount());
+        }
+        else {
+            return String.valueOf(aPair.getItemCount());
+        }
+    }
+}
@@ -32,6 +32,7 @@ import org.apache.wicket.markup.html.panel.Panel;
 import org.apache.wicket.model.IModel;
 import org.danekja.java.util.function.serializable.SerializableSupplier;
 import org.dkpro.statistics.agreement.coding.ICodingAnnotationStudy;
+import org.springframework.beans.factory.annotation.Value;
 
 import de.tudarmstadt.ukp.clarin.webanno.agreement.PairwiseAnnotationResult;
 import de.tudarmstadt.ukp.clarin.webanno.agreement.measures.AgreementMeasureSupport_ImplBase;
@@ -43,6 +44,17 @@ public abstract class AbstractCodingAgreementMeasureSupport<T extends DefaultAgr
     extends
     AgreementMeasureSupport_ImplBase<T, PairwiseAnnotationResult<CodingAgreementResult>, ICodingAnnotationStudy>
 {
+    private @Value("${agreement.parallelism:0}") int parallelism;
+
+    /**
+     * @return number of annotator pairs for which the agreement is calculated concurrently. If
+     *         this is not a positive value, the common fork/join pool is used.
+     */
+    public int getParallelism()
+    {
+        return parallelism;
+    }
+
     @Override
     public boolean accepts(AnnotationFeature aFeature)
     {
@@ -21,44 +21,142 @@ import java.util.ArrayList;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 import org.apache.uima.cas.CAS;
 
 import de.tudarmstadt.ukp.clarin.webanno.agreement.PairwiseAnnotationResult;
 import de.tudarmstadt.ukp.clarin.webanno.agreement.measures.AgreementMeasure_ImplBase;
 import de.tudarmstadt.ukp.clarin.webanno.agreement.measures.DefaultAgreementTraits;
+import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationFeature;
 
 public abstract class CodingAgreementMeasure_ImplBase<T extends DefaultAgreementTraits>
     extends AgreementMeasure_ImplBase<PairwiseAnnotationResult<CodingAgreementResult>, T>
 {
+    /**
+     * Pools shared by all measures which use the same parallelism. Since the parallelism is
+     * configured globally, there is normally at most one of these. The worker threads of a
+     * {@link ForkJoinPool} are daemon threads which terminate when idle, so the pools do not need
+     * to be shut down.
+     */
+    private static final Map<Integer, ForkJoinPool> POOLS = new ConcurrentHashMap<>();
+
+    private int parallelism = 0;
+
     public CodingAgreementMeasure_ImplBase(AnnotationFeature aFeature, T aTraits)
     {
         super(aFeature, aTraits);
     }
 
+    /**
+     * @param aParallelism
+     *            number of annotator pairs for which the agreement is calculated concurrently. If
+     *            this is not a positive value, the common fork/join pool is used.
+     */
+    public void setParallelism(int aParallelism)
+    {
+        parallelism = aParallelism;
+    }
+
+    public int getParallelism()
+    {
+        return parallelism;
+    }
+
     @Override
     public PairwiseAnnotationResult<CodingAgreementResult> getAgreement(
             Map<String, List<CAS>> aCasMap)
+    {
+        // The diff is calculated once over all annotators and then shared by all pairs instead of
+        // re-diffing the CASes of each annotator once for every other annotator
+        return getAgreement(aCasMap, calculateDiff(aCasMap));
+    }
+
+    /**
+     * Calculate the agreement between all pairs of annotators using the given diff.
+     * 
+     * @param aCasMap
+     *            the CASes of the annotators.
+     * @param aDiff
+     *            a diff which covers all the CASes in the CAS map, e.g. one which has been
+     *            combined from diffs calculated earlier on the individual documents.
+     * @return the pairwise agreement.
+     */
+    public PairwiseAnnotationResult<CodingAgreementResult> getAgreement(
+            Map<String, List<CAS>> aCasMap, CasDiff aDiff)
     {
         PairwiseAnnotationResult<CodingAgreementResult> result = new PairwiseAnnotationResult<>(
                 getFeature(), getTraits());
-        List<Entry<String, List<CAS>>> entryList = new ArrayList<>(aCasMap.entrySet());
-        for (int m = 0; m < entryList.size(); m++) {
-            for (int n = 0; n < entryList.size(); n++) {
-                // Triangle matrix mirrored
-                if (n < m) {
-                    Map<String, List<CAS>> pairwiseCasMap = new LinkedHashMap<>();
-                    pairwiseCasMap.put(entryList.get(m).getKey(), entryList.get(m).getValue());
-                    pairwiseCasMap.put(entryList.get(n).getKey(), entryList.get(n).getValue());
-                    CodingAgreementResult res = calculatePairAgreement(pairwiseCasMap);
-                    result.add(entryList.get(m).getKey(), entryList.get(n).getKey(), res);
-                }
+
+        List<String> raters = new ArrayList<>(aCasMap.keySet());
+        if (raters.size() < 2) {
+            return result;
+        }
+
+        List<String[]> pairs = new ArrayList<>();
+        List<Callable<CodingAgreementResult>> tasks = new ArrayList<>();
+        for (int m = 0; m < raters.size(); m++) {
+            // Triangle matrix mirrored
+            for (int n = 0; n < m; n++) {
+                Map<String, List<CAS>> pairwiseCasMap = new LinkedHashMap<>();
+                pairwiseCasMap.put(raters.get(m), aCasMap.get(raters.get(m)));
+                pairwiseCasMap.put(raters.get(n), aCasMap.get(raters.get(n)));
+                pairs.add(new String[] { raters.get(m), raters.get(n) });
+                tasks.add(() -> calculatePairAgreement(aDiff, pairwiseCasMap));
+            }
+        }
+
+        ForkJoinPool pool = parallelism > 0
+                ? POOLS.computeIfAbsent(parallelism, ForkJoinPool::new)
+                : ForkJoinPool.commonPool();
+        try {
+            List<Future<CodingAgreementResult>> futures = pool.invokeAll(tasks);
+            for (int i = 0; i < pairs.size(); i++) {
+                result.add(pairs.get(i)[0], pairs.get(i)[1], futures.get(i).get());
+            }
+            return result;
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Agreement calculation was interrupted", e);
+        }
+        catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
             }
+            throw new IllegalStateException(e.getCause());
         }
-        return result;
     }
 
-    public abstract CodingAgreementResult calculatePairAgreement(Map<String, List<CAS>> aCasMap);
+    public CodingAgreementResult calculatePairAgreement(Map<String, List<CAS>> aCasMap)
+    {
+        return calculatePairAgreement(calculateDiff(aCasMap), aCasMap);
+    }
+
+    /**
+     * Calculate the diff over the CASes of the given annotators.
+     * 
+     * @param aCasMap
+     *            the CASes of the annotators.
+     * @return the diff.
+     */
+    public abstract CasDiff calculateDiff(Map<String, List<CAS>> aCasMap);
+
+    /**
+     * Calculate the agreement between the annotators in the given CAS map.
+     * 
+     * @param aDiff
+     *            a diff which covers at least the annotators in the CAS map, but which may also
+     *            cover additional annotators.
+     * @param aCasMap
+     *            the CASes of the annotators to compare.
+     * @return the agreement result.
+     */
+    public abstract CodingAgreementResult calculatePairAgreement(CasDiff aDiff,
+            Map<String, List<CAS>> aCasMap);
 }
@@ -0,0 +1,151 @@
+/*
+ * Licensed to the Technische Universität Darmstadt under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The Technische Universität Darmstadt 
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.agreement;
+
+import static de.tudarmstadt.ukp.clarin.webanno.api.CasUpgradeMode.AUTO_CAS_UPGRADE;
+import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil.getDocumentMetadata;
+import static de.tudarmstadt.ukp.clarin.webanno.api.casstorage.CasAccessMode.SHARED_READ_ONLY_ACCESS;
+import static de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocumentState.FINISHED;
+import static de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocumentState.IN_PROGRESS;
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.uima.cas.CAS;
+import org.apache.uima.fit.factory.JCasFactory;
+import org.apache.uima.fit.util.FSUtil;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.DocumentService;
+import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocument;
+import de.tudarmstadt.ukp.clarin.webanno.model.Project;
+import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
+import de.tudarmstadt.ukp.clarin.webanno.security.model.User;
+
+public class AgreementCasLoaderTest
+{
+    private @Mock DocumentService documentService;
+
+    private AgreementCasLoader sut;
+
+    private Project project;
+    private List<SourceDocument> documents;
+    private List<User> users;
+
+    @Before
+    public void setup() throws Exception
+    {
+        initMocks(this);
+
+        project = new Project();
+        project.setName("project");
+
+        documents = new ArrayList<>();
+        for (long id = 1; id <= 3; id++) {
+            SourceDocument doc = new SourceDocument("doc" + id, project, "text");
+            doc.setId(id);
+            documents.add(doc);
+        }
+
+        users = asList(new User("user1"), new User("user2"));
+
+        AnnotationDocument finished = new AnnotationDocument("doc1", project, "user1",
+                documents.get(0));
+        finished.setState(FINISHED);
+        AnnotationDocument inProgress = new AnnotationDocument("doc2", project, "user1",
+                documents.get(1));
+        inProgress.setState(IN_PROGRESS);
+        when(documentService.listAnnotationDocuments(project))
+                .thenReturn(asList(finished, inProgress));
+
+        when(documentService.readAnnotationCas(any(SourceDocument.class), anyString(),
+                eq(AUTO_CAS_UPGRADE), eq(SHARED_READ_ONLY_ACCESS)))
+                        .then(_call -> JCasFactory.createJCas().getCas());
+
+        sut = new AgreementCasLoader(documentService, 2);
+    }
+
+    @After
+    public void tearDown()
+    {
+        sut.destroy();
+    }
+
+    @Test
+    public void thatCasesAreLoadedForAllUsersAndDocuments()
+    {
+        List<Exception> errors = new ArrayList<>();
+        Map<String, List<CAS>> casMap = sut.loadCases(project, users, documents, false,
+                errors::add);
+
+        assertTrue(errors.isEmpty());
+        assertEquals(asList("user1", "user2"), new ArrayList<>(casMap.keySet()));
+        for (List<CAS> cases : casMap.values()) {
+            assertEquals(documents.size(), cases.size());
+            for (int i = 0; i < documents.size(); i++) {
+                assertNotNull(cases.get(i));
+                assertEquals(documents.get(i).getName(), FSUtil.getFeature(
+                        getDocumentMetadata(cases.get(i)), "documentId", String.class));
+            }
+        }
+    }
+
+    @Test
+    public void thatUnfinishedDocumentsAreSkipped()
+    {
+        Map<String, List<CAS>> casMap = sut.loadCases(project, users, documents, true,
+                e -> {
+                });
+
+        List<CAS> user1Cases = casMap.get("user1");
+        assertNotNull(user1Cases.get(0));
+        assertNull(user1Cases.get(1));
+        assertNotNull(user1Cases.get(2));
+        assertEquals(documents.size(), casMap.get("user2").size());
+    }
+
+    @Test
+    public void thatLoadErrorsAreReportedAndSkipped() throws Exception
+    {
+        when(documentService.readAnnotationCas(eq(documents.get(2)), eq("user2"),
+                eq(AUTO_CAS_UPGRADE), eq(SHARED_READ_ONLY_ACCESS)))
+                        .thenThrow(new IllegalStateException("broken"));
+
+        List<Exception> errors = new ArrayList<>();
+        Map<String, List<CAS>> casMap = sut.loadCases(project, users, documents, false,
+                errors::add);
+
+        assertEquals(1, errors.size());
+        assertNull(casMap.get("user2").get(2));
+        assertNotNull(casMap.get("user1").get(2));
+    }
+}
@@ -0,0 +1,257 @@
+/*
+ * Licensed to the Technische Universität Darmstadt under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The Technische Universität Darmstadt 
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.agreement;
+
+import static de.tudarmstadt.ukp.clarin.webanno.model.PermissionLevel.ANNOTATOR;
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.uima.cas.CAS;
+import org.apache.uima.fit.factory.JCasFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.Mock;
+
+import de.tudarmstadt.ukp.clarin.webanno.agreement.measures.AgreementMeasure;
+import de.tudarmstadt.ukp.clarin.webanno.agreement.measures.AgreementMeasureSupport;
+import de.tudarmstadt.ukp.clarin.webanno.agreement.measures.AgreementMeasureSupportRegistry;
+import de.tudarmstadt.ukp.clarin.webanno.agreement.measures.DefaultAgreementTraits;
+import de.tudarmstadt.ukp.clarin.webanno.api.AnnotationSchemaService;
+import de.tudarmstadt.ukp.clarin.webanno.api.CasStorageService;
+import de.tudarmstadt.ukp.clarin.webanno.api.DocumentService;
+import de.tudarmstadt.ukp.clarin.webanno.api.ProjectService;
+import de.tudarmstadt.ukp.clarin.webanno.api.event.AfterCasWrittenEvent;
+import de.tudarmstadt.ukp.clarin.webanno.api.event.BeforeProjectRemovedEvent;
+import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocument;
+import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationFeature;
+import de.tudarmstadt.ukp.clarin.webanno.model.Project;
+import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
+import de.tudarmstadt.ukp.clarin.webanno.security.model.User;
+
+public class AgreementServiceImplTest
+{
+    public @Rule TemporaryFolder repositoryFolder = new TemporaryFolder();
+
+    private @Mock ProjectService projectService;
+    private @Mock DocumentService documentService;
+    private @Mock AnnotationSchemaService annotationService;
+    private @Mock CasStorageService casStorageService;
+    private @Mock AgreementMeasureSupportRegistry agreementRegistry;
+    private @Mock AgreementCasLoader casLoader;
+    private @Mock AgreementMeasureSupport<DefaultAgreementTraits, String, ?> measureSupport;
+    private @Mock AgreementMeasure<String> measure;
+
+    private AgreementServiceImpl sut;
+    private AgreementRequest request;
+    private List<User> users;
+    private SourceDocument doc1;
+    private SourceDocument doc2;
+    private CAS cas;
+    private File casFile1;
+    private File casFile2;
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    @Before
+    public void setup() throws Exception
+    {
+        initMocks(this);
+
+        Project project = new Project();
+        project.setId(1l);
+        project.setName("project");
+
+        AnnotationFeature feature = new AnnotationFeature();
+        feature.setId(1l);
+        feature.setName("value");
+        feature.setProject(project);
+
+        doc1 = new SourceDocument("doc1", project, "text");
+        doc1.setId(1l);
+        doc2 = new SourceDocument("doc2", project, "text");
+        doc2.setId(2l);
+
+        users = asList(new User("user1"), new User("user2"));
+        cas = JCasFactory.createJCas().getCas();
+
+        casFile1 = repositoryFolder.newFile("doc1.ser");
+        casFile1.setLastModified(1000);
+        casFile2 = repositoryFolder.newFile("doc2.ser");
+        casFile2.setLastModified(1000);
+
+        when(projectService.listProjectUsersWithPermissions(project, ANNOTATOR))
+                .thenReturn(users);
+        when(projectService.getProjectFolder(project))
+                .thenReturn(repositoryFolder.newFolder("project"));
+        when(documentService.listSourceDocuments(project)).thenReturn(asList(doc1, doc2));
+        when(documentService.listAnnotationDocuments(project)).thenReturn(new ArrayList<>());
+        when(casStorageService.getCasFile(eq(doc1), anyString())).thenReturn(casFile1);
+        when(casStorageService.getCasFile(eq(doc2), anyString())).thenReturn(casFile2);
+        when(casLoader.loadCases(eq(project), eq(users), any(), anyBoolean(), any()))
+                .thenAnswer(invocation -> {
+                    List<SourceDocument> docs = invocation.getArgument(2);
+                    Map<String, List<CAS>> casMap = new LinkedHashMap<>();
+                    for (User user : users) {
+                        List<CAS> cases = new ArrayList<>();
+                        docs.forEach(doc -> cases.add(cas));
+                        casMap.put(user.getUsername(), cases);
+                    }
+                    return casMap;
+                });
+        when(agreementRegistry.getAgreementMeasureSupport("measure"))
+                .thenReturn((AgreementMeasureSupport) measureSupport);
+        when(measureSupport.createMeasure(any(), any())).thenReturn(measure);
+        when(measure.getAgreement(any())).thenReturn("result");
+
+        sut = createService();
+
+        request = new AgreementRequest(feature, "measure", new DefaultAgreementTraits());
+    }
+
+    @After
+    public void tearDown()
+    {
+        sut.destroy();
+    }
+
+    @Test
+    public void thatResultIsOnlyRecalculatedWhenAnnotationsChange() throws Exception
+    {
+        assertNull(sut.getLastResult(request));
+
+        refreshAndWait();
+
+        CachedAgreementResult result = sut.getLastResult(request);
+        assertNotNull(result);
+        assertEquals("result", result.getResult());
+        assertFalse(sut.getLastError(request).isPresent());
+
+        // Nothing changed - the result is kept
+        refreshAndWait();
+        verify(measure, times(1)).getAgreement(any());
+        assertEquals(result.getTimestamp(), sut.getLastResult(request).getTimestamp());
+
+        // Annotations changed - the result is recalculated
+        casFile1.setLastModified(2000);
+        refreshAndWait();
+        verify(measure, times(2)).getAgreement(any());
+    }
+
+    @Test
+    public void thatOnlyChangedDocumentsAreReloaded() throws Exception
+    {
+        refreshAndWait();
+        verify(casLoader).loadCases(any(), any(), eq(asList(doc1, doc2)), anyBoolean(), any());
+
+        casFile2.setLastModified(2000);
+        refreshAndWait();
+        verify(casLoader).loadCases(any(), any(), eq(asList(doc2)), anyBoolean(), any());
+        verify(measure, times(2)).getAgreement(any());
+    }
+
+    @Test
+    public void thatSummaryIsRestoredAfterRestart() throws Exception
+    {
+        refreshAndWait();
+        CachedAgreementResult result = sut.getLastResult(request);
+        sut.destroy();
+
+        sut = createService();
+
+        CachedAgreementResult restored = sut.getLastResult(request);
+        assertNotNull(restored);
+        assertNull(restored.getResult());
+        assertEquals(result.getTimestamp(), restored.getTimestamp());
+        assertEquals(result.getFingerprint(), restored.getFingerprint());
+
+        // The details are not available, so the result is recalculated when requested
+        refreshAndWait();
+        verify(measure, times(2)).getAgreement(any());
+        assertEquals("result", sut.getLastResult(request).getResult());
+    }
+
+    @Test
+    public void thatResultIsRefreshedWhenAnnotationsAreWritten() throws Exception
+    {
+        refreshAndWait();
+        verify(measure, times(1)).getAgreement(any());
+
+        casFile1.setLastModified(2000);
+        sut.afterCasWritten(new AfterCasWrittenEvent(this,
+                new AnnotationDocument("doc1", request.getProject(), "user1", doc1), cas));
+
+        verify(measure, timeout(5000).times(2)).getAgreement(any());
+    }
+
+    @Test
+    public void thatResultIsRecalculatedWhenSchemaChanges() throws Exception
+    {
+        refreshAndWait();
+        verify(measure, times(1)).getAgreement(any());
+
+        when(annotationService.getSchemaVersion(request.getProject())).thenReturn(1l);
+        refreshAndWait();
+        verify(measure, times(2)).getAgreement(any());
+    }
+
+    @Test
+    public void thatResultsAreDroppedWhenProjectIsRemoved() throws Exception
+    {
+        refreshAndWait();
+        assertNotNull(sut.getLastResult(request));
+
+        sut.beforeProjectRemoved(new BeforeProjectRemovedEvent(this, request.getProject()));
+
+        assertNull(sut.getLastResult(request));
+    }
+
+    private AgreementServiceImpl createService()
+    {
+        return new AgreementServiceImpl(projectService, documentService, annotationService,
+                casStorageService, agreementRegistry, casLoader, 1, 0);
+    }
+
+    private void refreshAndWait() throws InterruptedException
+    {
+        assertTrue(sut.refresh(request));
+        while (sut.isRefreshing(request)) {
+            Thread.sleep(10);
+        }
+    }
+}
@@ -478,6 +478,9 @@ public interface AnnotationSchemaService
     /**
      * Returns the full type system for the project (including any types discovered on the classpath
      * via uimaFIT) including any internal types such as {@link CASMetadata}.
+     * <p>
+     * The type system is cached until the layer configuration of the project changes. The returned
+     * description is a copy of the cached one, so it may be modified.
      */
     TypeSystemDescription getFullProjectTypeSystem(Project aProject)
         throws ResourceInitializationException;
@@ -485,10 +488,42 @@ public interface AnnotationSchemaService
     /**
      * Returns the full type system for the project (including any types discovered on the classpath
      * via uimaFIT) optionally including any internal types such as {@link CASMetadata}.
+     * <p>
+     * The type system is cached until the layer configuration of the project changes. The returned
+     * description is a copy of the cached one, so it may be modified.
      */
     TypeSystemDescription getFullProjectTypeSystem(Project aProject, boolean aIncludeInternalTypes)
         throws ResourceInitializationException;
 
+    /**
+     * Returns the schema version of the project. The version changes whenever the layers or
+     * features of the project change. It is only kept in memory, so it must only be compared to
+     * versions obtained from the same running instance.
+     */
+    long getSchemaVersion(Project aProject);
+
+    /**
+     * Creates an empty CAS with the given type system. If the type system description was obtained
+     * from {@link #getFullProjectTypeSystem} or {@link #getTypeSystemForExport} and has not been
+     * modified since, the compiled type system is reused instead of compiling the description
+     * again.
+     */
+    CAS createCas(TypeSystemDescription aTypeSystem) throws ResourceInitializationException;
+
+    /**
+     * Creates an empty CAS with the current type system of the project including the internal
+     * types. The compiled type system is shared by all CASes created for the same schema version
+     * of the project.
+     */
+    CAS createCas(Project aProject) throws ResourceInitializationException;
+
+    /**
+     * Creates an empty CAS with the current type system of the project. The compiled type system is
+     * shared by all CASes created for the same schema version of the project.
+     */
+    CAS createCas(Project aProject, boolean aIncludeInternalTypes)
+        throws ResourceInitializationException;
+
     /**
      * Upgrade the CAS to the current project type system. This also compacts the CAS and removes
      * any unreachable feature structures. This should be called at key points such as when the user
@@ -18,19 +18,20 @@
 package de.tudarmstadt.ukp.clarin.webanno.api.annotation.rendering;
 
 import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil.getAddr;
-import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil.selectAnnotationByAddr;
 import static java.util.Collections.emptyList;
 import static java.util.Comparator.comparingInt;
 import static org.apache.uima.fit.util.CasUtil.getType;
 import static org.apache.uima.fit.util.CasUtil.selectCovered;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentSkipListSet;
 import java.util.stream.Collectors;
 
 import org.apache.uima.cas.CAS;
@@ -110,11 +111,13 @@ public class RelationRenderer
         FeatureStructure dependentFs;
         FeatureStructure governorFs;
 
-        Map<Integer, Set<Integer>> relationLinks = getRelationLinks(aCas, aWindowBegin, aWindowEnd,
-                type, dependentFeature, governorFeature, arcSpanFeature);
+        Map<AnnotationFS, List<AnnotationFS>> relationLinks = getRelationLinks(aCas, aWindowBegin,
+                aWindowEnd, type, dependentFeature, governorFeature, arcSpanFeature);
 
         // if this is a governor for more than one dependent, avoid duplicate yield
-        List<Integer> yieldDeps = new ArrayList<>();
+        Set<AnnotationFS> yieldDeps = new HashSet<>();
+        // The yields of all governors are computed together once they are first needed
+        Map<AnnotationFS, Set<AnnotationFS>> yields = null;
 
         // Index mapping annotations to the corresponding rendered arcs
         Map<AnnotationFS, VArc> annoToArcIdx = new HashMap<>();
@@ -165,17 +168,13 @@ public class RelationRenderer
             // Render errors if required features are missing
             renderRequiredFeatureErrors(visibleFeatures, fs, aResponse);
 
-            if (relationLinks.keySet().contains(getAddr(governorFs))
-                    && !yieldDeps.contains(getAddr(governorFs))) {
-                yieldDeps.add(getAddr(governorFs));
-
-                // sort the annotations (begin, end)
-                List<Integer> sortedDepFs = new ArrayList<>(relationLinks.get(getAddr(governorFs)));
-                sortedDepFs
-                        .sort(comparingInt(arg0 -> selectAnnotationByAddr(aCas, arg0).getBegin()));
-
-                String cm = getYieldMessage(aCas, sortedDepFs);
-                aResponse.add(new VComment(governorFs, VCommentType.YIELD, cm));
+            AnnotationFS governor = (AnnotationFS) governorFs;
+            if (relationLinks.containsKey(governor) && yieldDeps.add(governor)) {
+                if (yields == null) {
+                    yields = getYields(relationLinks);
+                }
+                aResponse.add(new VComment(governorFs, VCommentType.YIELD,
+                        getYieldMessage(sortYield(yields.get(governor)))));
             }
         }
 
@@ -184,46 +183,148 @@ public class RelationRenderer
         }
     }
 
+    /**
+     * Collect for each annotation in the dependency graph the annotation itself and all
+     * annotations transitively depending on it. Instead of traversing the graph once for every
+     * governor, the yields are computed in a single pass: the strongly connected components of
+     * the graph are determined using Tarjan's algorithm which completes each component only after
+     * all components reachable from it. The yield of a component is then made up of its members
+     * and the already known yields of the components they link to. Cyclic structures form a
+     * single component and share their yield. The graph is traversed iteratively, so also deep
+     * structures are handled.
+     */
+    private Map<AnnotationFS, Set<AnnotationFS>> getYields(
+            Map<AnnotationFS, List<AnnotationFS>> aRelationLinks)
+    {
+        Map<AnnotationFS, Set<AnnotationFS>> yields = new HashMap<>();
+        Map<AnnotationFS, Integer> indexes = new HashMap<>();
+        Map<AnnotationFS, Integer> lowLinks = new HashMap<>();
+        Deque<AnnotationFS> component = new ArrayDeque<>();
+        Set<AnnotationFS> onComponent = new HashSet<>();
+        Deque<AnnotationFS> path = new ArrayDeque<>();
+        Deque<Iterator<AnnotationFS>> pathDeps = new ArrayDeque<>();
+
+        for (AnnotationFS root : aRelationLinks.keySet()) {
+            if (indexes.containsKey(root)) {
+                continue;
+            }
+
+            indexes.put(root, indexes.size());
+            lowLinks.put(root, indexes.get(root));
+            component.push(root);
+            onComponent.add(root);
+            path.push(root);
+            pathDeps.push(aRelationLinks.getOrDefault(root, emptyList()).iterator());
+
+            while (!path.isEmpty()) {
+                AnnotationFS current = path.peek();
+                Iterator<AnnotationFS> deps = pathDeps.peek();
+
+                if (deps.hasNext()) {
+                    AnnotationFS dep = deps.next();
+                    if (!indexes.containsKey(dep)) {
+                        indexes.put(dep, indexes.size());
+                        lowLinks.put(dep, indexes.get(dep));
+                        component.push(dep);
+                        onComponent.add(dep);
+                        path.push(dep);
+                        pathDeps.push(aRelationLinks.getOrDefault(dep, emptyList()).iterator());
+                    }
+                    else if (onComponent.contains(dep)) {
+                        lowLinks.put(current, Math.min(lowLinks.get(current), indexes.get(dep)));
+                    }
+                    continue;
+                }
+
+                path.pop();
+                pathDeps.pop();
+                if (!path.isEmpty()) {
+                    AnnotationFS parent = path.peek();
+                    lowLinks.put(parent, Math.min(lowLinks.get(parent), lowLinks.get(current)));
+                }
+
+                if (!lowLinks.get(current).equals(indexes.get(current))) {
+                    continue;
+                }
+
+                // current is the root of a component - all components reachable from it have
+                // already been completed
+                List<AnnotationFS> members = new ArrayList<>();
+                AnnotationFS member;
+                do {
+                    member = component.pop();
+                    onComponent.remove(member);
+                    members.add(member);
+                }
+                while (member != current);
+
+                Set<AnnotationFS> yield = new HashSet<>(members);
+                for (AnnotationFS m : members) {
+                    for (AnnotationFS dep : aRelationLinks.getOrDefault(m, emptyList())) {
+                        // Members of the current component do not have a yield yet
+                        Set<AnnotationFS> depYield = yields.get(dep);
+                        if (depYield != null) {
+                            yield.addAll(depYield);
+                        }
+                    }
+                }
+
+                for (AnnotationFS m : members) {
+                    yields.put(m, yield);
+                }
+            }
+        }
+
+        return yields;
+    }
+
+    /**
+     * Sort the annotations of a yield (begin, address).
+     */
+    private List<AnnotationFS> sortYield(Set<AnnotationFS> aYield)
+    {
+        List<AnnotationFS> yield = new ArrayList<>(aYield);
+        yield.sort(comparingInt(AnnotationFS::getBegin).thenComparingInt(fs -> getAddr(fs)));
+        return yield;
+    }
+
     /**
      * The relations yield message
      */
-    private String getYieldMessage(CAS aCas, List<Integer> sortedDepFs)
+    private String getYieldMessage(List<AnnotationFS> aYield)
     {
         StringBuilder cm = new StringBuilder();
         int end = -1;
-        for (Integer depFs : sortedDepFs) {
+        for (AnnotationFS depFs : aYield) {
             if (end == -1) {
-                cm.append(selectAnnotationByAddr(aCas, depFs).getCoveredText());
-                end = selectAnnotationByAddr(aCas, depFs).getEnd();
+                cm.append(depFs.getCoveredText());
             }
             // if no space between token and punct
-            else if (end == selectAnnotationByAddr(aCas, depFs).getBegin()) {
-                cm.append(selectAnnotationByAddr(aCas, depFs).getCoveredText());
-                end = selectAnnotationByAddr(aCas, depFs).getEnd();
+            else if (end == depFs.getBegin()) {
+                cm.append(depFs.getCoveredText());
             }
-            else if (end + 1 != selectAnnotationByAddr(aCas, depFs).getBegin()) {
-                cm.append(" ... ").append(selectAnnotationByAddr(aCas, depFs).getCoveredText());
-                end = selectAnnotationByAddr(aCas, depFs).getEnd();
+            else if (end + 1 != depFs.getBegin()) {
+                cm.append(" ... ").append(depFs.getCoveredText());
             }
             else {
-                cm.append(" ").append(selectAnnotationByAddr(aCas, depFs).getCoveredText());
-                end = selectAnnotationByAddr(aCas, depFs).getEnd();
+                cm.append(" ").append(depFs.getCoveredText());
             }
-
+            end = depFs.getEnd();
         }
         return cm.toString();
     }
 
     /**
-     * Get relation links to display in relation yield
+     * Get the direct dependents of each governor in the window to display in relation yield
      */
-    private Map<Integer, Set<Integer>> getRelationLinks(CAS aCas, int aWindowBegin, int aWindowEnd,
-            Type type, Feature dependentFeature, Feature governorFeature, Feature arcSpanFeature)
+    private Map<AnnotationFS, List<AnnotationFS>> getRelationLinks(CAS aCas, int aWindowBegin,
+            int aWindowEnd, Type type, Feature dependentFeature, Feature governorFeature,
+            Feature arcSpanFeature)
     {
         RelationAdapter typeAdapter = getTypeAdapter();
         FeatureStructure dependentFs;
         FeatureStructure governorFs;
-        Map<Integer, Set<Integer>> relations = new ConcurrentHashMap<>();
+        Map<AnnotationFS, List<AnnotationFS>> relations = new HashMap<>();
 
         for (AnnotationFS fs : selectCovered(aCas, type, aWindowBegin, aWindowEnd)) {
             if (typeAdapter.getAttachFeatureName() != null) {
@@ -239,36 +340,11 @@ public class RelationRenderer
                         + getAddr(fs) + "] has loose ends - cannot render.");
                 continue;
             }
-            Set<Integer> links = relations.get(getAddr(governorFs));
-            if (links == null) {
-                links = new ConcurrentSkipListSet<>();
-            }
 
-            links.add(getAddr(dependentFs));
-            relations.put(getAddr(governorFs), links);
+            relations.computeIfAbsent((AnnotationFS) governorFs, k -> new ArrayList<>())
+                    .add((AnnotationFS) dependentFs);
         }
 
-        // Update other subsequent links
-        for (int i = 0; i < relations.keySet().size(); i++) {
-            for (Integer fs : relations.keySet()) {
-                updateLinks(relations, fs);
-            }
-        }
-        // to start displaying the text from the governor, include it
-        for (Integer fs : relations.keySet()) {
-            relations.get(fs).add(fs);
-        }
         return relations;
     }
-
-    private void updateLinks(Map<Integer, Set<Integer>> aRelLinks, Integer aGov)
-    {
-        for (Integer dep : aRelLinks.get(aGov)) {
-            if (aRelLinks.containsKey(dep)
-                    && !aRelLinks.get(aGov).containsAll(aRelLinks.get(dep))) {
-                aRelLinks.get(aGov).addAll(aRelLinks.get(dep));
-                updateLinks(aRelLinks, dep);
-            }
-        }
-    }
 }
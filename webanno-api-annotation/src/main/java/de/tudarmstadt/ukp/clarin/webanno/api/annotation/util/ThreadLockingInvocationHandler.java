@@ -73,6 +73,11 @@ public class ThreadLockingInvocationHandler
         return target;
     }
 
+    Object getUncheckedTarget()
+    {
+        return target;
+    }
+
     private String getTrace()
     {
         return Stream.of(trace).map(e -> "\t * " + e.toString()).collect(joining("\n"))
@@ -17,6 +17,7 @@
  */
 package de.tudarmstadt.ukp.clarin.webanno.api.annotation.util;
 
+import static java.util.Collections.synchronizedMap;
 import static org.apache.uima.cas.CAS.FEATURE_BASE_NAME_BEGIN;
 import static org.apache.uima.cas.CAS.FEATURE_BASE_NAME_END;
 import static org.apache.uima.cas.CAS.FEATURE_BASE_NAME_LANGUAGE;
@@ -31,8 +32,11 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.StreamSupport;
 
 import org.apache.commons.lang3.StringUtils;
@@ -42,6 +46,7 @@ import org.apache.uima.cas.CAS;
 import org.apache.uima.cas.Feature;
 import org.apache.uima.cas.FeatureStructure;
 import org.apache.uima.cas.Type;
+import org.apache.uima.cas.TypeSystem;
 import org.apache.uima.cas.impl.CASImpl;
 import org.apache.uima.cas.text.AnnotationFS;
 import org.apache.uima.fit.util.CasUtil;
@@ -63,26 +68,80 @@ import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Token;
  */
 public class WebAnnoCasUtil
 {
+    private static final String PROP_CHECK_CAS_OWNERSHIP = "webanno.check_cas_ownership";
+
     private static final String PROP_ENFORCE_CAS_THREAD_LOCK = "webanno.debug.enforce_cas_thread_lock";
 
+    private static final String PROP_CAS_THREAD_LOCK_SAMPLING = "webanno.debug.cas_thread_lock_sampling";
+
+    /**
+     * Cheap ownership check: the thread owning a CAS is recorded when the CAS is borrowed for
+     * exclusive access and is verified when the CAS enters a session or is returned.
+     */
+    private static final boolean CHECK_CAS_OWNERSHIP = System
+            .getProperty(PROP_CHECK_CAS_OWNERSHIP, "true").equals("true");
+
+    /**
+     * Diagnostic mode: wraps CASes into a proxy which checks the owning thread on every method
+     * call. This is expensive and therefore disabled by default.
+     */
     private static final boolean ENFORCE_CAS_THREAD_LOCK = System
-            .getProperty(PROP_ENFORCE_CAS_THREAD_LOCK, "true").equals("true");
+            .getProperty(PROP_ENFORCE_CAS_THREAD_LOCK, "false").equals("true");
+
+    /**
+     * In diagnostic mode, only every n-th CAS is wrapped into a proxy.
+     */
+    private static final int CAS_THREAD_LOCK_SAMPLING = Math.max(1,
+            Integer.getInteger(PROP_CAS_THREAD_LOCK_SAMPLING, 1));
+
+    private static final AtomicLong casCounter = new AtomicLong();
+
+    private static final Map<CAS, Thread> casOwners = synchronizedMap(new WeakHashMap<>());
+
+    private static volatile TypeSystem emptyTypeSystem;
 
     public static CAS createCas(TypeSystemDescription aTSD) throws ResourceInitializationException
     {
-        CAS cas = CasCreationUtils.createCas(aTSD, null, null);
+        return lockToCurrentThread(CasCreationUtils.createCas(aTSD, null, null));
+    }
+
+    /**
+     * Creates a CAS using an already compiled type system. This avoids compiling the type system
+     * again for every new CAS.
+     */
+    public static CAS createCas(TypeSystem aTypeSystem) throws ResourceInitializationException
+    {
+        return lockToCurrentThread(CasCreationUtils.createCas(aTypeSystem, null, null, null));
+    }
 
-        if (ENFORCE_CAS_THREAD_LOCK) {
-            cas = (CAS) Proxy.newProxyInstance(cas.getClass().getClassLoader(),
-                    new Class[] { CAS.class }, new ThreadLockingInvocationHandler(cas));
+    /**
+     * Creates a CAS which only contains the built-in UIMA types. Such CASes are typically used as
+     * targets for deserialization which replaces the type system anyway, so the same compiled type
+     * system is shared by all of them.
+     */
+    public static CAS createCas() throws ResourceInitializationException
+    {
+        // Racing threads may both compile the type system, but UIMA consolidates equal type
+        // systems anyway, so this is harmless
+        TypeSystem ts = emptyTypeSystem;
+        if (ts == null) {
+            ts = CasCreationUtils.createCas((TypeSystemDescription) null, null, null)
+                    .getTypeSystem();
+            emptyTypeSystem = ts;
         }
 
-        return cas;
+        return createCas(ts);
     }
 
-    public static CAS createCas() throws ResourceInitializationException
+    private static CAS lockToCurrentThread(CAS aCas)
     {
-        return createCas(null);
+        if (!ENFORCE_CAS_THREAD_LOCK
+                || casCounter.getAndIncrement() % CAS_THREAD_LOCK_SAMPLING != 0) {
+            return aCas;
+        }
+
+        return (CAS) Proxy.newProxyInstance(aCas.getClass().getClassLoader(),
+                new Class[] { CAS.class }, new ThreadLockingInvocationHandler(aCas));
     }
 
     public static CAS getRealCas(CAS aCas)
@@ -102,6 +161,10 @@ public class WebAnnoCasUtil
 
     public static void transferCasOwnershipToCurrentThread(CAS aCas)
     {
+        if (CHECK_CAS_OWNERSHIP) {
+            casOwners.put(unwrap(aCas), Thread.currentThread());
+        }
+
         if (!ENFORCE_CAS_THREAD_LOCK) {
             return;
         }
@@ -115,6 +178,51 @@ public class WebAnnoCasUtil
         handler.transferOwnershipToCurrentThread();
     }
 
+    /**
+     * Forgets the owner of the given CAS, e.g. because it is returned to a pool from which another
+     * thread may borrow it next.
+     */
+    public static void releaseCasOwnership(CAS aCas)
+    {
+        if (CHECK_CAS_OWNERSHIP) {
+            casOwners.remove(unwrap(aCas));
+        }
+    }
+
+    /**
+     * Checks that the given CAS is not owned by a different thread than the current thread. CASes
+     * for which no owner has been recorded pass the check.
+     * 
+     * @param aCas
+     *            a CAS.
+     * @throws IllegalStateException
+     *             if the CAS is owned by another thread.
+     */
+    public static void assertCasOwnedByCurrentThread(CAS aCas)
+    {
+        if (!CHECK_CAS_OWNERSHIP) {
+            return;
+        }
+
+        Thread owner = casOwners.get(unwrap(aCas));
+        Thread current = Thread.currentThread();
+        if (owner != null && owner != current) {
+            throw new IllegalStateException("CAS [" + aCas.hashCode() + "] bound to thread "
+                    + owner + " but was accessed by thread " + current);
+        }
+    }
+
+    private static CAS unwrap(CAS aCas)
+    {
+        // Unlike getRealCas(), this does not check the thread ownership of the proxy
+        if (Proxy.isProxyClass(aCas.getClass())) {
+            return (CAS) ((ThreadLockingInvocationHandler) Proxy.getInvocationHandler(aCas))
+                    .getUncheckedTarget();
+        }
+
+        return aCas;
+    }
+
     /**
      * Return true if these two annotations agree on every non slot features
      */
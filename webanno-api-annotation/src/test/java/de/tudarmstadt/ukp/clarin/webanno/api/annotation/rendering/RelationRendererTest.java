@@ -32,6 +32,7 @@ import static de.tudarmstadt.ukp.clarin.webanno.model.OverlapMode.STACKING_ONLY;
 import static java.util.Arrays.asList;
 import static org.apache.uima.fit.util.JCasUtil.select;
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -160,6 +161,46 @@ public class RelationRendererTest
                 new VComment(dep, ERROR, "Crossing sentence boundaries is not permitted."));
     }
 
+    @Test
+    public void thatYieldIncludesTransitiveDependents() throws Exception
+    {
+        TokenBuilder<Token, Sentence> builder = new TokenBuilder<>(Token.class, Sentence.class);
+        builder.buildTokens(jcas, "This is a test . Unrelated");
+
+        for (Token t : select(jcas, Token.class)) {
+            POS pos = new POS(jcas, t.getBegin(), t.getEnd());
+            t.setPos(pos);
+            pos.addToIndexes();
+        }
+
+        RelationAdapter adapter = new RelationAdapter(layerSupportRegistry, featureSupportRegistry,
+                null, depLayer, FEAT_REL_TARGET, FEAT_REL_SOURCE,
+                () -> asList(dependencyLayerGovernor, dependencyLayerDependent), behaviors);
+
+        List<POS> pos = new ArrayList<>(select(jcas, POS.class));
+
+        depLayer.setOverlapMode(ANY_OVERLAP);
+        adapter.add(document, username, pos.get(1), pos.get(0), jcas.getCas());
+        adapter.add(document, username, pos.get(1), pos.get(3), jcas.getCas());
+        adapter.add(document, username, pos.get(3), pos.get(2), jcas.getCas());
+        adapter.add(document, username, pos.get(3), pos.get(4), jcas.getCas());
+        // Cycles must not cause the yield calculation to loop
+        adapter.add(document, username, pos.get(2), pos.get(3), jcas.getCas());
+
+        RelationRenderer sut = new RelationRenderer(adapter, layerSupportRegistry,
+                featureSupportRegistry, asList());
+
+        VDocument vdoc = new VDocument();
+        sut.render(jcas.getCas(), asList(), vdoc, 0, jcas.getDocumentText().length());
+
+        assertThat(vdoc.comments()).filteredOn(c -> YIELD.equals(c.getCommentType()))
+                .extracting(VComment::getVid, VComment::getComment)
+                .containsExactlyInAnyOrder( //
+                        tuple(new VID(pos.get(1)), "This is a test ."),
+                        tuple(new VID(pos.get(3)), "a test ."),
+                        tuple(new VID(pos.get(2)), "a test ."));
+    }
+
     @Test
     public void thatRelationOverlapBehaviorOnRenderGeneratesErrors() throws Exception
     {
@@ -17,11 +17,15 @@
  */
 package de.tudarmstadt.ukp.clarin.webanno.api.annotation.util;
 
+import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil.assertCasOwnedByCurrentThread;
 import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil.createCas;
 import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil.getRealCas;
+import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil.releaseCasOwnership;
+import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil.transferCasOwnershipToCurrentThread;
 import static org.apache.uima.cas.CAS.TYPE_NAME_DOCUMENT_ANNOTATION;
 import static org.apache.uima.fit.factory.TypeSystemDescriptionFactory.createTypeSystemDescription;
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 
 import org.apache.uima.cas.CAS;
 import org.apache.uima.jcas.tcas.DocumentAnnotation;
@@ -32,6 +36,36 @@ import de.tudarmstadt.ukp.dkpro.core.api.metadata.type.DocumentMetaData;
 
 public class WebAnnoCasUtilTest
 {
+    @Test
+    public void thatEmptyCasesShareTheirTypeSystem() throws Exception
+    {
+        CAS cas1 = getRealCas(createCas());
+        CAS cas2 = getRealCas(createCas());
+
+        assertThat(cas1).isNotSameAs(cas2);
+        assertThat(cas1.getTypeSystem()).isSameAs(cas2.getTypeSystem());
+        assertThat(cas1.getTypeSystem().getType(TYPE_NAME_DOCUMENT_ANNOTATION)).isNotNull();
+    }
+
+    @Test
+    public void thatCasOwnedByOtherThreadIsDetected() throws Exception
+    {
+        CAS cas = createCas();
+
+        Thread otherThread = new Thread(() -> transferCasOwnershipToCurrentThread(cas));
+        otherThread.start();
+        otherThread.join();
+
+        assertThatThrownBy(() -> assertCasOwnedByCurrentThread(cas))
+                .isInstanceOf(IllegalStateException.class);
+
+        releaseCasOwnership(cas);
+        assertCasOwnedByCurrentThread(cas);
+
+        transferCasOwnershipToCurrentThread(cas);
+        assertCasOwnedByCurrentThread(cas);
+    }
+
     @Test
     public void thatCreateDocumentMetadataUpgradesExistingDocumentAnnotation() throws Exception
     {
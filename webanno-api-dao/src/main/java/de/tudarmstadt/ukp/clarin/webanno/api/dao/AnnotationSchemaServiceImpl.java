@@ -37,19 +37,25 @@ import static org.apache.uima.fit.factory.TypeSystemDescriptionFactory.createTyp
 import static org.apache.uima.util.CasCreationUtils.mergeTypeSystems;
 import static org.hibernate.annotations.QueryHints.CACHEABLE;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.persistence.EntityManager;
 import javax.persistence.NoResultException;
 import javax.persistence.PersistenceContext;
 
+import org.apache.commons.io.output.UnsynchronizedByteArrayOutputStream;
+import org.apache.commons.lang3.tuple.Pair;
 import org.apache.uima.UIMAException;
 import org.apache.uima.cas.CAS;
 import org.apache.uima.cas.Feature;
@@ -58,7 +64,9 @@ import org.apache.uima.cas.Type;
 import org.apache.uima.cas.TypeSystem;
 import org.apache.uima.cas.impl.CASCompleteSerializer;
 import org.apache.uima.cas.impl.CASImpl;
+import org.apache.uima.cas.impl.LowLevelException;
 import org.apache.uima.cas.text.AnnotationFS;
+import org.apache.uima.cas.text.AnnotationIndex;
 import org.apache.uima.fit.factory.CasFactory;
 import org.apache.uima.fit.util.CasUtil;
 import org.apache.uima.resource.ResourceInitializationException;
@@ -73,9 +81,13 @@ import org.slf4j.LoggerFactory;
 import org.slf4j.MDC;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.EventListener;
 import org.springframework.stereotype.Component;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
+import com.github.benmanes.caffeine.cache.Cache;
 import com.github.benmanes.caffeine.cache.Caffeine;
 import com.github.benmanes.caffeine.cache.LoadingCache;
 
@@ -86,13 +98,21 @@ import de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.adapter.RelationAdapter;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.adapter.SpanAdapter;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.adapter.TypeAdapter;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.event.FeatureValueUpdatedEvent;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.event.RelationCreatedEvent;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.event.RelationDeletedEvent;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.event.SpanCreatedEvent;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.event.SpanDeletedEvent;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.feature.FeatureSupportRegistry;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.layer.LayerSupport;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.layer.LayerSupportRegistry;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.model.LinkWithRoleModel;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.TypeSystemAnalysis;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.TypeSystemAnalysis.RelationDetails;
+import de.tudarmstadt.ukp.clarin.webanno.api.dao.AttachedAnnotationIndex.ReverseIndex;
 import de.tudarmstadt.ukp.clarin.webanno.api.dao.casstorage.CasStorageSession;
+import de.tudarmstadt.ukp.clarin.webanno.api.event.BeforeProjectRemovedEvent;
+import de.tudarmstadt.ukp.clarin.webanno.api.event.LayerConfigurationChangedEvent;
 import de.tudarmstadt.ukp.clarin.webanno.api.event.TagCreatedEvent;
 import de.tudarmstadt.ukp.clarin.webanno.api.event.TagDeletedEvent;
 import de.tudarmstadt.ukp.clarin.webanno.api.event.TagUpdatedEvent;
@@ -126,6 +146,11 @@ public class AnnotationSchemaServiceImpl
     private final LayerSupportRegistry layerSupportRegistry;
     private final FeatureSupportRegistry featureSupportRegistry;
     private final LoadingCache<TagSet, List<ImmutableTag>> immutableTagsCache;
+    private final Cache<Pair<Long, Boolean>, ProjectTypeSystem> projectTypeSystemCache;
+    private final Cache<TypeSystemDescription, ProjectTypeSystem> handedOutTypeSystems;
+    private final Map<Long, Long> projectSchemaVersions = new ConcurrentHashMap<>();
+    private final Map<CAS, AttachedAnnotationIndex> attachedAnnotationIndexes = Collections
+            .synchronizedMap(new WeakHashMap<>());
     private final TypeSystemDescription builtInTypes;
 
     @Autowired
@@ -140,6 +165,13 @@ public class AnnotationSchemaServiceImpl
         immutableTagsCache = Caffeine.newBuilder().expireAfterAccess(5, MINUTES)
                 .maximumSize(10 * 1024).build(this::loadImmutableTags);
 
+        projectTypeSystemCache = Caffeine.newBuilder().expireAfterAccess(5, MINUTES)
+                .maximumSize(1024).build();
+
+        // Weak keys are compared by identity, so each copy handed out maps to the project type
+        // system (i.e. project and schema version) it was copied from
+        handedOutTypeSystems = Caffeine.newBuilder().weakKeys().build();
+
         try {
             builtInTypes = createTypeSystemDescription();
         }
@@ -261,6 +293,8 @@ public class AnnotationSchemaServiceImpl
             entityManager.merge(aLayer);
         }
 
+        incrementSchemaVersion(aLayer.getProject());
+
         try (MDC.MDCCloseable closable = MDC.putCloseable(Logging.KEY_PROJECT_ID,
                 String.valueOf(aLayer.getProject().getId()))) {
             Project project = aLayer.getProject();
@@ -280,6 +314,8 @@ public class AnnotationSchemaServiceImpl
             entityManager.merge(aFeature);
         }
 
+        incrementSchemaVersion(aFeature.getProject());
+
         try (MDC.MDCCloseable closable = MDC.putCloseable(Logging.KEY_PROJECT_ID,
                 String.valueOf(aFeature.getProject().getId()))) {
             Project project = aFeature.getProject();
@@ -452,7 +488,8 @@ public class AnnotationSchemaServiceImpl
 
         TypeSystemDescription tsd;
         try {
-            tsd = getFullProjectTypeSystem(aProject);
+            // Only reading, so no need to copy the cached description
+            tsd = getProjectTypeSystem(aProject, true).getDescription();
         }
         catch (ResourceInitializationException e) {
             throw new RuntimeException(e);
@@ -827,6 +864,8 @@ public class AnnotationSchemaServiceImpl
         entityManager.remove(
                 entityManager.contains(aFeature) ? aFeature : entityManager.merge(aFeature));
 
+        incrementSchemaVersion(aFeature.getProject());
+
         try (MDC.MDCCloseable closable = MDC.putCloseable(Logging.KEY_PROJECT_ID,
                 String.valueOf(aFeature.getProject().getId()))) {
             Project project = aFeature.getProject();
@@ -857,6 +896,8 @@ public class AnnotationSchemaServiceImpl
 
         entityManager.remove(layer);
 
+        incrementSchemaVersion(aLayer.getProject());
+
         try (MDC.MDCCloseable closable = MDC.putCloseable(Logging.KEY_PROJECT_ID,
                 String.valueOf(aLayer.getProject().getId()))) {
             Project project = aLayer.getProject();
@@ -1048,6 +1089,121 @@ public class AnnotationSchemaServiceImpl
     public TypeSystemDescription getFullProjectTypeSystem(Project aProject,
             boolean aIncludeInternalTypes)
         throws ResourceInitializationException
+    {
+        // The cached description is shared, so callers get a copy they may modify
+        ProjectTypeSystem pts = getProjectTypeSystem(aProject, aIncludeInternalTypes);
+        TypeSystemDescription tsd = (TypeSystemDescription) pts.getDescription().clone();
+        handedOutTypeSystems.put(tsd, pts);
+        return tsd;
+    }
+
+    @EventListener
+    public void beforeLayerConfigurationChanged(LayerConfigurationChangedEvent aEvent)
+    {
+        incrementSchemaVersion(aEvent.getProject());
+    }
+
+    @EventListener
+    public void beforeProjectRemoved(BeforeProjectRemovedEvent aEvent)
+    {
+        Long projectId = aEvent.getProject().getId();
+        if (projectId == null) {
+            return;
+        }
+
+        // Removing the layers of the project increments the schema version, so the version is
+        // only forgotten once the removal has been committed
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(
+                    new TransactionSynchronization()
+                    {
+                        @Override
+                        public void afterCompletion(int aStatus)
+                        {
+                            if (aStatus == STATUS_COMMITTED) {
+                                forgetProject(projectId);
+                            }
+                        }
+                    });
+        }
+        else {
+            forgetProject(projectId);
+        }
+    }
+
+    private void forgetProject(Long aProjectId)
+    {
+        projectSchemaVersions.remove(aProjectId);
+        projectTypeSystemCache.invalidate(Pair.of(aProjectId, true));
+        projectTypeSystemCache.invalidate(Pair.of(aProjectId, false));
+    }
+
+    /**
+     * Increments the schema version of the given project. Cached project type systems with an
+     * older version are no longer used.
+     */
+    private void incrementSchemaVersion(Project aProject)
+    {
+        if (aProject == null || aProject.getId() == null) {
+            return;
+        }
+
+        Long projectId = aProject.getId();
+        projectSchemaVersions.merge(projectId, 1l, Long::sum);
+
+        // Until the transaction is committed, another thread may still build the type system from
+        // the old layers and cache it under the new version, so the version needs to be
+        // incremented again once the transaction is complete
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(
+                    new TransactionSynchronization()
+                    {
+                        @Override
+                        public void afterCompletion(int aStatus)
+                        {
+                            // Do not bring back the version of a project which has been removed
+                            projectSchemaVersions.computeIfPresent(projectId,
+                                    (_id, _version) -> _version + 1);
+                        }
+                    });
+        }
+    }
+
+    @Override
+    public long getSchemaVersion(Project aProject)
+    {
+        return projectSchemaVersions.getOrDefault(aProject.getId(), 0l);
+    }
+
+    private ProjectTypeSystem getProjectTypeSystem(Project aProject,
+            boolean aIncludeInternalTypes)
+        throws ResourceInitializationException
+    {
+        // Projects which have not been saved yet cannot be tracked
+        if (aProject == null || aProject.getId() == null) {
+            return new ProjectTypeSystem(0,
+                    createFullProjectTypeSystem(aProject, aIncludeInternalTypes));
+        }
+
+        // The version is obtained before building the type system. If the schema changes while
+        // the type system is being built, the version is incremented and the possibly outdated
+        // type system is rebuilt on the next access.
+        long version = projectSchemaVersions.getOrDefault(aProject.getId(), 0l);
+        Pair<Long, Boolean> key = Pair.of(aProject.getId(), aIncludeInternalTypes);
+
+        ProjectTypeSystem pts = projectTypeSystemCache.getIfPresent(key);
+        if (pts == null || pts.getVersion() != version) {
+            pts = new ProjectTypeSystem(version,
+                    createFullProjectTypeSystem(aProject, aIncludeInternalTypes));
+            projectTypeSystemCache.put(key, pts);
+        }
+
+        return pts;
+    }
+
+    private TypeSystemDescription createFullProjectTypeSystem(Project aProject,
+            boolean aIncludeInternalTypes)
+        throws ResourceInitializationException
     {
         List<TypeSystemDescription> typeSystems = new ArrayList<>();
 
@@ -1121,8 +1277,9 @@ public class AnnotationSchemaServiceImpl
     @Override
     public void upgradeCas(CAS aCas, Project aProject) throws UIMAException, IOException
     {
-        TypeSystemDescription ts = getFullProjectTypeSystem(aProject);
-        upgradeCas(aCas, ts);
+        ProjectTypeSystem pts = getProjectTypeSystem(aProject, true);
+        upgradeCas(aCas, aCas, pts.getEmptyCas());
+        pts.markCompatible(aCas.getTypeSystem());
     }
 
     @Override
@@ -1143,7 +1300,7 @@ public class AnnotationSchemaServiceImpl
     public boolean upgradeCasIfRequired(Iterable<CAS> aCasIter, Project aProject)
         throws UIMAException, IOException
     {
-        TypeSystemDescription ts = getFullProjectTypeSystem(aProject);
+        ProjectTypeSystem pts = getProjectTypeSystem(aProject, true);
 
         // Check if the current CAS already contains the required type system
         boolean upgradePerformed = false;
@@ -1156,10 +1313,18 @@ public class AnnotationSchemaServiceImpl
             // eventually figure out that no upgrade is required.
             CasStorageSession.get().assertWritingPermitted(cas);
 
-            if (isUpgradeRequired(cas, ts)) {
-                upgradeCas(cas, ts);
+            // CASes often share their type system, so once a type system is known to be
+            // compatible with the current project schema, it does not need to be checked again
+            if (pts.isCompatible(cas.getTypeSystem())) {
+                continue nextCas;
+            }
+
+            if (isUpgradeRequired(cas, pts.getDescription())) {
+                upgradeCas(cas, cas, pts.getEmptyCas());
                 upgradePerformed = true;
             }
+
+            pts.markCompatible(cas.getTypeSystem());
         }
 
         return upgradePerformed;
@@ -1177,12 +1342,13 @@ public class AnnotationSchemaServiceImpl
             TypeSystemDescription aFullProjectTypeSystem)
         throws ResourceInitializationException, UIMAException, IOException
     {
-        TypeSystemDescription tsd = aFullProjectTypeSystem;
-        if (tsd == null) {
-            tsd = getTypeSystemForExport(aSourceDocument.getProject());
+        if (aFullProjectTypeSystem == null) {
+            upgradeCas(aSourceCas, aTargetCas,
+                    getProjectTypeSystem(aSourceDocument.getProject(), false).getEmptyCas());
+        }
+        else {
+            upgradeCas(aSourceCas, aTargetCas, aFullProjectTypeSystem);
         }
-
-        upgradeCas(aSourceCas, aTargetCas, tsd);
     }
 
     @Override
@@ -1200,14 +1366,75 @@ public class AnnotationSchemaServiceImpl
     @Override
     public void upgradeCas(CAS aSourceCas, CAS aTargetCas, TypeSystemDescription aTargetTypeSystem)
         throws UIMAException, IOException
+    {
+        ProjectTypeSystem pts = findProjectTypeSystem(aTargetTypeSystem);
+        CASCompleteSerializer template = pts != null ? pts.getEmptyCas()
+                : serializeCASComplete((CASImpl) CasFactory.createCas(aTargetTypeSystem));
+        upgradeCas(aSourceCas, aTargetCas, template);
+    }
+
+    @Override
+    public CAS createCas(TypeSystemDescription aTypeSystem) throws ResourceInitializationException
+    {
+        ProjectTypeSystem pts = findProjectTypeSystem(aTypeSystem);
+        if (pts != null) {
+            return CasCreationUtils.createCas(pts.getTypeSystem(), null, null, null);
+        }
+
+        return CasFactory.createCas(aTypeSystem);
+    }
+
+    @Override
+    public CAS createCas(Project aProject) throws ResourceInitializationException
+    {
+        return createCas(aProject, true);
+    }
+
+    @Override
+    public CAS createCas(Project aProject, boolean aIncludeInternalTypes)
+        throws ResourceInitializationException
+    {
+        return CasCreationUtils.createCas(
+                getProjectTypeSystem(aProject, aIncludeInternalTypes).getTypeSystem(), null, null,
+                null);
+    }
+
+    /**
+     * @return the project type system from which the given description was copied if the copy has
+     *         not been modified since, otherwise {@code null}.
+     */
+    private ProjectTypeSystem findProjectTypeSystem(TypeSystemDescription aTypeSystem)
+    {
+        if (aTypeSystem == null) {
+            return null;
+        }
+
+        // The copies handed out may have been modified by the caller, so the copy still needs to
+        // be compared to the project type system it was made from - but only to that one
+        ProjectTypeSystem pts = handedOutTypeSystems.getIfPresent(aTypeSystem);
+        if (pts != null && pts.isDescribedBy(aTypeSystem)) {
+            return pts;
+        }
+
+        return null;
+    }
+
+    /**
+     * @param aTemplate
+     *            an empty CAS with the target type system.
+     */
+    private void upgradeCas(CAS aSourceCas, CAS aTargetCas, CASCompleteSerializer aTemplate)
+        throws UIMAException, IOException
     {
         CasStorageSession.get().assertWritingPermitted(aTargetCas);
 
         // Save source CAS type system (do this early since we might do an in-place upgrade)
         TypeSystem sourceTypeSystem = aSourceCas.getTypeSystem();
 
-        // Save source CAS contents
-        ByteArrayOutputStream serializedCasContents = new ByteArrayOutputStream();
+        // Save source CAS contents - the buffer grows in chunks and is read back without copying
+        // it into a single large array
+        UnsynchronizedByteArrayOutputStream serializedCasContents = //
+                new UnsynchronizedByteArrayOutputStream();
         CAS realSourceCas = getRealCas(aSourceCas);
         // UIMA-6162 Workaround: synchronize CAS during de/serialization
         synchronized (((CASImpl) realSourceCas).getBaseCAS()) {
@@ -1216,15 +1443,15 @@ public class AnnotationSchemaServiceImpl
 
         // Re-initialize the target CAS with new type system
         CAS realTargetCas = getRealCas(aTargetCas);
+        // All annotations are replaced, so the attached annotation index is no longer valid
+        attachedAnnotationIndexes.remove(((CASImpl) realTargetCas).getBaseCAS());
         // UIMA-6162 Workaround: synchronize CAS during de/serialization
         synchronized (((CASImpl) realTargetCas).getBaseCAS()) {
-            CAS tempCas = CasFactory.createCas(aTargetTypeSystem);
-            CASCompleteSerializer serializer = serializeCASComplete((CASImpl) tempCas);
-            deserializeCASComplete(serializer, (CASImpl) realTargetCas);
+            deserializeCASComplete(aTemplate, (CASImpl) realTargetCas);
 
             // Leniently load the source CAS contents into the target CAS
-            CasIOUtils.load(new ByteArrayInputStream(serializedCasContents.toByteArray()),
-                    getRealCas(aTargetCas), sourceTypeSystem);
+            CasIOUtils.load(serializedCasContents.toInputStream(), realTargetCas,
+                    sourceTypeSystem);
         }
     }
 
@@ -1374,6 +1601,7 @@ public class AnnotationSchemaServiceImpl
     public List<AttachedAnnotation> getAttachedRels(AnnotationLayer aLayer, AnnotationFS aFs)
     {
         CAS cas = aFs.getCAS();
+        AttachedAnnotationIndex index = getAttachedAnnotationIndex(cas);
         List<AttachedAnnotation> result = new ArrayList<>();
         for (AnnotationLayer relationLayer : listAttachedRelationLayers(aLayer)) {
             RelationAdapter relationAdapter = (RelationAdapter) getAdapter(relationLayer);
@@ -1395,11 +1623,12 @@ public class AnnotationSchemaServiceImpl
                         .getFeatureByBaseName(relationAdapter.getAttachFeatureName());
             }
 
-            for (AnnotationFS relationFS : CasUtil.select(cas, relationType)) {
-                if (!(relationFS instanceof AnnotationFS)) {
-                    continue;
-                }
+            // Only check the relations which are indexed as touching the given annotation
+            List<AnnotationFS> candidates = selectAttachedRelationCandidates(index, relationLayer,
+                    relationType, sourceFeature, targetFeature, relationSourceAttachFeature,
+                    relationTargetAttachFeature, aFs);
 
+            for (AnnotationFS relationFS : candidates) {
                 // Here we get the annotations that the relation is pointing to in the UI
                 AnnotationFS sourceFS;
                 if (relationSourceAttachFeature != null) {
@@ -1464,28 +1693,23 @@ public class AnnotationSchemaServiceImpl
         List<AttachedAnnotation> result = new ArrayList<>();
         TypeAdapter adapter = getAdapter(aLayer);
         if (adapter instanceof SpanAdapter) {
+            AttachedAnnotationIndex index = getAttachedAnnotationIndex(cas);
             for (AnnotationFeature linkFeature : listAttachedLinkFeatures(aLayer)) {
                 if (MultiValueMode.ARRAY.equals(linkFeature.getMultiValueMode())
                         && LinkMode.WITH_ROLE.equals(linkFeature.getLinkMode())) {
-                    // Fetch slot hosts that could link to the current FS and check if any of
-                    // them actually links to the current FS
-                    Type linkHost = CasUtil.getType(cas, linkFeature.getLayer().getName());
-                    for (FeatureStructure linkFS : CasUtil.selectFS(cas, linkHost)) {
-                        if (!(linkFS instanceof AnnotationFS)) {
-                            continue;
-                        }
-
+                    // Fetch slot hosts that are indexed as linking to the current FS and check if
+                    // they actually link to the current FS
+                    for (AnnotationFS linkFS : selectAttachedLinkHostCandidates(index, linkFeature,
+                            aFs)) {
                         List<LinkWithRoleModel> links = adapter.getFeatureValue(linkFeature,
                                 linkFS);
                         for (int li = 0; li < links.size(); li++) {
                             LinkWithRoleModel link = links.get(li);
-                            AnnotationFS linkTarget = selectByAddr(cas, AnnotationFS.class,
-                                    link.targetAddr);
                             // If the current annotation fills a slot, then add the slot host to
                             // our list of attached links.
-                            if (isSame(linkTarget, aFs)) {
-                                result.add(new AttachedAnnotation(linkFeature.getLayer(),
-                                        (AnnotationFS) linkFS, INCOMING));
+                            if (link.targetAddr == getAddr(aFs)) {
+                                result.add(new AttachedAnnotation(linkFeature.getLayer(), linkFS,
+                                        INCOMING));
                             }
                         }
                     }
@@ -1494,4 +1718,317 @@ public class AnnotationSchemaServiceImpl
         }
         return result;
     }
+
+    /* package private */ AttachedAnnotationIndex getAttachedAnnotationIndex(CAS aCas)
+    {
+        CAS baseCas = ((CASImpl) aCas).getBaseCAS();
+        synchronized (attachedAnnotationIndexes) {
+            AttachedAnnotationIndex index = attachedAnnotationIndexes.get(baseCas);
+            if (index == null || index.getTypeSystem() != aCas.getTypeSystem()) {
+                index = new AttachedAnnotationIndex(aCas.getTypeSystem());
+                attachedAnnotationIndexes.put(baseCas, index);
+            }
+            return index;
+        }
+    }
+
+    private Optional<AttachedAnnotationIndex> getExistingAttachedAnnotationIndex(
+            FeatureStructure aFs)
+    {
+        if (aFs == null) {
+            return Optional.empty();
+        }
+
+        return Optional.ofNullable(
+                attachedAnnotationIndexes.get(((CASImpl) aFs.getCAS()).getBaseCAS()));
+    }
+
+    private List<AnnotationFS> selectAttachedRelationCandidates(AttachedAnnotationIndex aIndex,
+            AnnotationLayer aRelationLayer, Type aRelationType, Feature aSourceFeature,
+            Feature aTargetFeature, Feature aSourceAttachFeature, Feature aTargetAttachFeature,
+            AnnotationFS aFs)
+    {
+        CAS cas = aFs.getCAS();
+        AnnotationIndex<AnnotationFS> relationIndex = cas.getAnnotationIndex(aRelationType);
+
+        // Relations are indexed by the annotations they actually point to. If the relation layer
+        // is attached via a feature, these are the annotations pointing to the given annotation
+        // via the attach feature.
+        Set<Integer> endpoints = new LinkedHashSet<>();
+        collectRelationEndpoints(endpoints, aSourceFeature, aSourceAttachFeature, aFs);
+        collectRelationEndpoints(endpoints, aTargetFeature, aTargetAttachFeature, aFs);
+
+        Set<Integer> relationAddrs = new LinkedHashSet<>();
+        synchronized (aIndex) {
+            ReverseIndex reverseIndex = aIndex.getRelations(aRelationLayer.getName());
+            if (reverseIndex == null || !reverseIndex.isValid(relationIndex.size(), cas)) {
+                reverseIndex = new ReverseIndex(relationIndex.size(), cas);
+                for (AnnotationFS relationFS : relationIndex) {
+                    int addr = getAddr(relationFS);
+                    FeatureStructure source = relationFS.getFeatureValue(aSourceFeature);
+                    if (source != null) {
+                        reverseIndex.add(getAddr(source), addr);
+                    }
+                    FeatureStructure target = relationFS.getFeatureValue(aTargetFeature);
+                    if (target != null) {
+                        reverseIndex.add(getAddr(target), addr);
+                    }
+                }
+                aIndex.putRelations(aRelationLayer.getName(), reverseIndex);
+            }
+
+            for (int endpoint : endpoints) {
+                relationAddrs.addAll(reverseIndex.get(endpoint));
+            }
+        }
+
+        List<AnnotationFS> candidates = selectIndexedAnnotations(cas, aRelationType,
+                relationAddrs);
+        // Return the relations in the same order as the CAS index does
+        candidates.sort(relationIndex::compare);
+        return candidates;
+    }
+
+    private void collectRelationEndpoints(Set<Integer> aEndpoints, Feature aEndpointFeature,
+            Feature aAttachFeature, AnnotationFS aFs)
+    {
+        if (aAttachFeature == null) {
+            aEndpoints.add(getAddr(aFs));
+            return;
+        }
+
+        // The annotation pointing to the given annotation via the attach feature is always
+        // located at the same position
+        for (AnnotationFS endpoint : CasUtil.selectCovered(aFs.getCAS(),
+                aEndpointFeature.getRange(), aFs)) {
+            if (isSame(endpoint.getFeatureValue(aAttachFeature), aFs)) {
+                aEndpoints.add(getAddr(endpoint));
+            }
+        }
+    }
+
+    private List<AnnotationFS> selectAttachedLinkHostCandidates(AttachedAnnotationIndex aIndex,
+            AnnotationFeature aLinkFeature, AnnotationFS aFs)
+    {
+        CAS cas = aFs.getCAS();
+        String hostLayer = aLinkFeature.getLayer().getName();
+        Type hostType = CasUtil.getType(cas, hostLayer);
+        AnnotationIndex<AnnotationFS> hostIndex = cas.getAnnotationIndex(hostType);
+
+        Set<Integer> hostAddrs = new LinkedHashSet<>();
+        synchronized (aIndex) {
+            ReverseIndex reverseIndex = aIndex.getLinks(hostLayer, aLinkFeature.getName());
+            if (reverseIndex == null || !reverseIndex.isValid(hostIndex.size(), cas)) {
+                TypeAdapter hostAdapter = getAdapter(aLinkFeature.getLayer());
+                reverseIndex = new ReverseIndex(hostIndex.size(), cas);
+                for (AnnotationFS hostFS : hostIndex) {
+                    List<LinkWithRoleModel> links = hostAdapter.getFeatureValue(aLinkFeature,
+                            hostFS);
+                    for (LinkWithRoleModel link : links) {
+                        reverseIndex.add(link.targetAddr, getAddr(hostFS));
+                    }
+                }
+                aIndex.putLinks(hostLayer, aLinkFeature.getName(), reverseIndex);
+            }
+
+            hostAddrs.addAll(reverseIndex.get(getAddr(aFs)));
+        }
+
+        List<AnnotationFS> candidates = selectIndexedAnnotations(cas, hostType, hostAddrs);
+        candidates.sort(hostIndex::compare);
+        return candidates;
+    }
+
+    private List<AnnotationFS> selectIndexedAnnotations(CAS aCas, Type aType,
+            Collection<Integer> aAddrs)
+    {
+        List<AnnotationFS> annotations = new ArrayList<>(aAddrs.size());
+        for (int addr : aAddrs) {
+            AnnotationFS annotation;
+            try {
+                annotation = selectByAddr(aCas, AnnotationFS.class, addr);
+            }
+            catch (LowLevelException e) {
+                // The annotation no longer exists
+                continue;
+            }
+
+            // The annotation may still exist but may have been removed from the indexes
+            for (AnnotationFS indexed : CasUtil.selectAt(aCas, aType, annotation.getBegin(),
+                    annotation.getEnd())) {
+                if (indexed == annotation) {
+                    annotations.add(annotation);
+                    break;
+                }
+            }
+        }
+        return annotations;
+    }
+
+    @EventListener
+    public void onRelationCreated(RelationCreatedEvent aEvent)
+    {
+        getExistingAttachedAnnotationIndex(aEvent.getAnnotation()).ifPresent(index -> {
+            synchronized (index) {
+                ReverseIndex reverseIndex = index.getRelations(aEvent.getLayer().getName());
+                if (reverseIndex != null) {
+                    int addr = getAddr(aEvent.getAnnotation());
+                    if (aEvent.getSourceAnno() != null) {
+                        reverseIndex.add(getAddr(aEvent.getSourceAnno()), addr);
+                    }
+                    if (aEvent.getTargetAnnotation() != null) {
+                        reverseIndex.add(getAddr(aEvent.getTargetAnnotation()), addr);
+                    }
+                    reverseIndex.adjustExpectedSize(1);
+                }
+                index.acknowledgeCreated(getAddr(aEvent.getAnnotation()),
+                        aEvent.getAnnotation().getCAS());
+            }
+        });
+    }
+
+    @EventListener
+    public void onRelationDeleted(RelationDeletedEvent aEvent)
+    {
+        getExistingAttachedAnnotationIndex(aEvent.getAnnotation()).ifPresent(index -> {
+            synchronized (index) {
+                ReverseIndex reverseIndex = index.getRelations(aEvent.getLayer().getName());
+                if (reverseIndex != null) {
+                    int addr = getAddr(aEvent.getAnnotation());
+                    if (aEvent.getSourceAnno() != null) {
+                        reverseIndex.remove(getAddr(aEvent.getSourceAnno()), addr);
+                    }
+                    if (aEvent.getTargetAnnotation() != null) {
+                        reverseIndex.remove(getAddr(aEvent.getTargetAnnotation()), addr);
+                    }
+                    reverseIndex.adjustExpectedSize(-1);
+                }
+            }
+        });
+    }
+
+    @EventListener
+    public void onSpanCreated(SpanCreatedEvent aEvent)
+    {
+        // A new slot host does not link to anything yet
+        getExistingAttachedAnnotationIndex(aEvent.getAnnotation()).ifPresent(index -> {
+            synchronized (index) {
+                index.getLinks(aEvent.getLayer().getName()).values()
+                        .forEach(reverseIndex -> reverseIndex.adjustExpectedSize(1));
+                index.acknowledgeCreated(getAddr(aEvent.getAnnotation()),
+                        aEvent.getAnnotation().getCAS());
+            }
+        });
+    }
+
+    @EventListener
+    public void onSpanDeleted(SpanDeletedEvent aEvent)
+    {
+        getExistingAttachedAnnotationIndex(aEvent.getAnnotation()).ifPresent(index -> {
+            synchronized (index) {
+                index.removeLinks(aEvent.getLayer().getName());
+            }
+        });
+    }
+
+    @EventListener
+    public void onFeatureValueUpdated(FeatureValueUpdatedEvent aEvent)
+    {
+        if (!LinkMode.WITH_ROLE.equals(aEvent.getFeature().getLinkMode())) {
+            return;
+        }
+
+        getExistingAttachedAnnotationIndex(aEvent.getFS()).ifPresent(index -> {
+            synchronized (index) {
+                index.removeLinks(aEvent.getFeature().getLayer().getName());
+            }
+        });
+    }
+
+    /**
+     * The type system of a project at a particular schema version.
+     */
+    private static final class ProjectTypeSystem
+    {
+        private final long version;
+        private final TypeSystemDescription description;
+        private final Set<TypeSystem> compatibleTypeSystems = Collections
+                .synchronizedSet(Collections.newSetFromMap(new WeakHashMap<>()));
+        private volatile TypeSystem typeSystem;
+        private volatile CASCompleteSerializer emptyCas;
+
+        public ProjectTypeSystem(long aVersion, TypeSystemDescription aDescription)
+        {
+            version = aVersion;
+            description = aDescription;
+        }
+
+        public long getVersion()
+        {
+            return version;
+        }
+
+        public TypeSystemDescription getDescription()
+        {
+            return description;
+        }
+
+        public boolean isDescribedBy(TypeSystemDescription aDescription)
+        {
+            if (aDescription == description) {
+                return true;
+            }
+
+            return aDescription != null
+                    && aDescription.getTypes().length == description.getTypes().length
+                    && description.equals(aDescription);
+        }
+
+        /**
+         * @return the compiled type system - it is only created once and then shared by all CASes
+         *         upgraded to this project type system.
+         */
+        public TypeSystem getTypeSystem() throws ResourceInitializationException
+        {
+            if (typeSystem == null) {
+                synchronized (this) {
+                    if (typeSystem == null) {
+                        typeSystem = CasCreationUtils.createCas(description, null, null)
+                                .getTypeSystem();
+                    }
+                }
+            }
+
+            return typeSystem;
+        }
+
+        /**
+         * @return an empty CAS with this type system in serialized form. It is only created once
+         *         and then used to re-initialize all CASes upgraded to this project type system.
+         *         Deserializing it does not modify it, so it can be used by several threads.
+         */
+        public CASCompleteSerializer getEmptyCas() throws ResourceInitializationException
+        {
+            if (emptyCas == null) {
+                synchronized (this) {
+                    if (emptyCas == null) {
+                        emptyCas = serializeCASComplete((CASImpl) CasCreationUtils
+                                .createCas(getTypeSystem(), null, null, null));
+                    }
+                }
+            }
+
+            return emptyCas;
+        }
+
+        public boolean isCompatible(TypeSystem aTypeSystem)
+        {
+            return aTypeSystem == typeSystem || compatibleTypeSystems.contains(aTypeSystem);
+        }
+
+        public void markCompatible(TypeSystem aTypeSystem)
+        {
+            compatibleTypeSystems.add(aTypeSystem);
+        }
+    }
 }
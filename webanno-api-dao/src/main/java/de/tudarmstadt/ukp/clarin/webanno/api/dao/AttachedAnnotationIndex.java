@@ -0,0 +1,183 @@
+/*
+ * Licensed to the Technische Universität Darmstadt under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The Technische Universität Darmstadt 
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.dao;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.TypeSystem;
+import org.apache.uima.cas.impl.CASImpl;
+
+/**
+ * Reverse index from annotations to the relations and slot links attached to them. The index
+ * belongs to a single CAS and only refers to annotations by their address, so it does not keep the
+ * CAS alive. Each part of the index remembers the number of annotations it was built from as well
+ * as the number of CAS resets and the last feature structure ID at that time, so changes which were
+ * made without notifying the index (e.g. a reset CAS being refilled or slot links being replaced
+ * while events are silenced) can be detected and the affected part can be rebuilt.
+ */
+class AttachedAnnotationIndex
+{
+    private final TypeSystem typeSystem;
+
+    /**
+     * Relation layer name -> relations by address of their source or target.
+     */
+    private final Map<String, ReverseIndex> relations = new HashMap<>();
+
+    /**
+     * Link host layer name -> link feature name -> link hosts by address of their slot fillers.
+     */
+    private final Map<String, Map<String, ReverseIndex>> links = new HashMap<>();
+
+    public AttachedAnnotationIndex(TypeSystem aTypeSystem)
+    {
+        typeSystem = aTypeSystem;
+    }
+
+    public TypeSystem getTypeSystem()
+    {
+        return typeSystem;
+    }
+
+    public ReverseIndex getRelations(String aLayer)
+    {
+        return relations.get(aLayer);
+    }
+
+    public void putRelations(String aLayer, ReverseIndex aIndex)
+    {
+        relations.put(aLayer, aIndex);
+    }
+
+    public ReverseIndex getLinks(String aHostLayer, String aFeature)
+    {
+        Map<String, ReverseIndex> byFeature = links.get(aHostLayer);
+        return byFeature != null ? byFeature.get(aFeature) : null;
+    }
+
+    public void putLinks(String aHostLayer, String aFeature, ReverseIndex aIndex)
+    {
+        links.computeIfAbsent(aHostLayer, key -> new HashMap<>()).put(aFeature, aIndex);
+    }
+
+    public Map<String, ReverseIndex> getLinks(String aHostLayer)
+    {
+        return links.getOrDefault(aHostLayer, Collections.emptyMap());
+    }
+
+    public void removeLinks(String aHostLayer)
+    {
+        links.remove(aHostLayer);
+    }
+
+    /**
+     * Records that the feature structures starting at the given ID have been created by a change
+     * the index has been notified about. Parts of the index which were up to date right before that
+     * change remain valid.
+     */
+    public void acknowledgeCreated(int aFirstCreatedFsId, CAS aCas)
+    {
+        relations.values().forEach(index -> index.acknowledgeCreated(aFirstCreatedFsId, aCas));
+        links.values().forEach(byFeature -> byFeature.values()
+                .forEach(index -> index.acknowledgeCreated(aFirstCreatedFsId, aCas)));
+    }
+
+    private static int getCasResets(CAS aCas)
+    {
+        return ((CASImpl) aCas).getBaseCAS().getCasResets();
+    }
+
+    private static int getLastUsedFsId(CAS aCas)
+    {
+        return ((CASImpl) aCas).getBaseCAS().getLastUsedFsId();
+    }
+
+    static class ReverseIndex
+    {
+        private final Map<Integer, List<Integer>> annotationsByEndpoint = new HashMap<>();
+        private final int casResets;
+        private int expectedSize;
+        private int lastFsId;
+
+        public ReverseIndex(int aExpectedSize, CAS aCas)
+        {
+            expectedSize = aExpectedSize;
+            casResets = getCasResets(aCas);
+            lastFsId = getLastUsedFsId(aCas);
+        }
+
+        /**
+         * @return whether the index was built from (or has been kept up to date with) the given
+         *         number of annotations and the CAS has neither been reset nor received any feature
+         *         structures the index has not been notified about since.
+         */
+        public boolean isValid(int aActualSize, CAS aCas)
+        {
+            return expectedSize == aActualSize && casResets == getCasResets(aCas)
+                    && lastFsId == getLastUsedFsId(aCas);
+        }
+
+        public void add(int aEndpoint, int aAnnotation)
+        {
+            List<Integer> annotations = annotationsByEndpoint.computeIfAbsent(aEndpoint,
+                    key -> new ArrayList<>(1));
+            if (!annotations.contains(aAnnotation)) {
+                annotations.add(aAnnotation);
+            }
+        }
+
+        public void remove(int aEndpoint, int aAnnotation)
+        {
+            List<Integer> annotations = annotationsByEndpoint.get(aEndpoint);
+            if (annotations != null) {
+                annotations.remove(Integer.valueOf(aAnnotation));
+                if (annotations.isEmpty()) {
+                    annotationsByEndpoint.remove(aEndpoint);
+                }
+            }
+        }
+
+        public List<Integer> get(int aEndpoint)
+        {
+            return annotationsByEndpoint.getOrDefault(aEndpoint, Collections.emptyList());
+        }
+
+        /**
+         * Records that an annotation has been added to or removed from the CAS.
+         */
+        public void adjustExpectedSize(int aDelta)
+        {
+            expectedSize += aDelta;
+        }
+
+        /**
+         * @see AttachedAnnotationIndex#acknowledgeCreated(int, CAS)
+         */
+        public void acknowledgeCreated(int aFirstCreatedFsId, CAS aCas)
+        {
+            if (casResets == getCasResets(aCas) && lastFsId == aFirstCreatedFsId - 1) {
+                lastFsId = getLastUsedFsId(aCas);
+            }
+        }
+    }
+}
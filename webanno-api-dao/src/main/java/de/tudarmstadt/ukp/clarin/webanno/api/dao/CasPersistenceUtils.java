@@ -18,15 +18,26 @@
 package de.tudarmstadt.ukp.clarin.webanno.api.dao;
 
 import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil.getRealCas;
+import static org.apache.uima.cas.SerialFormat.COMPRESSED_FILTERED_TSI;
 import static org.apache.uima.cas.impl.Serialization.deserializeCASComplete;
 import static org.apache.uima.cas.impl.Serialization.serializeCASComplete;
+import static org.apache.uima.util.CasLoadMode.REINIT;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.uima.cas.CAS;
@@ -39,12 +50,25 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil;
+import de.tudarmstadt.ukp.clarin.webanno.api.dao.casstorage.CasStorageFormat;
 import de.tudarmstadt.ukp.dkpro.core.api.metadata.type.DocumentMetaData;
 
 public final class CasPersistenceUtils
 {
     private final static Logger LOG = LoggerFactory.getLogger(CasPersistenceUtils.class);
 
+    /**
+     * Files in the {@link CasStorageFormat#COMPACT_BINARY} format start with these bytes. Files
+     * in the {@link CasStorageFormat#JAVA_SERIALIZED} format start with the Java serialization
+     * stream magic {@code 0xACED} instead, so the two can be told apart reliably.
+     */
+    private static final byte[] COMPACT_BINARY_MAGIC = { 'W', 'A', 'C', 'S' };
+    private static final int COMPACT_BINARY_VERSION = 1;
+    private static final int COMPRESSION_NONE = 0;
+    private static final int COMPRESSION_DEFLATE = 1;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
     private CasPersistenceUtils()
     {
         // No instances
@@ -83,6 +107,54 @@ public final class CasPersistenceUtils
         }
     }
 
+    /**
+     * Writes the CAS in the {@link CasStorageFormat#COMPACT_BINARY} format, i.e. as UIMA
+     * compressed binary form 6 with an embedded type system. The file remains self-contained so it
+     * can still be copied as-is e.g. into a project export.
+     * 
+     * @param aCas
+     *            the CAS to write.
+     * @param aFile
+     *            the target file.
+     * @param aCompress
+     *            whether to additionally deflate the data.
+     * @throws IOException
+     *             if the CAS could not be written.
+     */
+    public static void writeCompactBinaryCas(CAS aCas, File aFile, boolean aCompress)
+        throws IOException
+    {
+        FileUtils.forceMkdir(aFile.getParentFile());
+
+        CAS realCas = getRealCas(aCas);
+        // UIMA-6162 Workaround: synchronize CAS during de/serialization
+        synchronized (((CASImpl) realCas).getBaseCAS()) {
+            try (OutputStream os = new BufferedOutputStream(new FileOutputStream(aFile),
+                    BUFFER_SIZE)) {
+                os.write(COMPACT_BINARY_MAGIC);
+                os.write(COMPACT_BINARY_VERSION);
+
+                if (aCompress) {
+                    os.write(COMPRESSION_DEFLATE);
+                    Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+                    try {
+                        DeflaterOutputStream dos = new DeflaterOutputStream(os, deflater,
+                                BUFFER_SIZE);
+                        CasIOUtils.save(realCas, dos, COMPRESSED_FILTERED_TSI);
+                        dos.finish();
+                    }
+                    finally {
+                        deflater.end();
+                    }
+                }
+                else {
+                    os.write(COMPRESSION_NONE);
+                    CasIOUtils.save(realCas, os, COMPRESSED_FILTERED_TSI);
+                }
+            }
+        }
+    }
+
     private static void preserveForDebugging(File aFile, CAS aCas,
             CASCompleteSerializer aSerializer)
     {
@@ -113,14 +185,33 @@ public final class CasPersistenceUtils
         }
     }
 
+    /**
+     * Reads a CAS from the given file. The storage format of the file is detected automatically,
+     * i.e. the file may be in any of the formats defined in {@link CasStorageFormat}. The type
+     * system of the given CAS is replaced by the type system stored in the file.
+     * 
+     * @param aCas
+     *            the CAS to load the data into.
+     * @param aFile
+     *            the source file.
+     * @throws IOException
+     *             if the CAS could not be read.
+     */
     public static void readSerializedCas(CAS aCas, File aFile) throws IOException
     {
         CAS realCas = getRealCas(aCas);
         // UIMA-6162 Workaround: synchronize CAS during de/serialization
         synchronized (((CASImpl) realCas).getBaseCAS()) {
-            try (ObjectInputStream is = new ObjectInputStream(new FileInputStream(aFile))) {
-                CASCompleteSerializer serializer = (CASCompleteSerializer) is.readObject();
-                deserializeCASComplete(serializer, (CASImpl) realCas);
+            try (InputStream is = new BufferedInputStream(new FileInputStream(aFile),
+                    BUFFER_SIZE)) {
+                if (skipCompactBinaryMagic(is)) {
+                    readCompactBinaryCas(realCas, is);
+                }
+                else {
+                    ObjectInputStream ois = new ObjectInputStream(is);
+                    CASCompleteSerializer serializer = (CASCompleteSerializer) ois.readObject();
+                    deserializeCASComplete(serializer, (CASImpl) realCas);
+                }
 
                 // Workaround for UIMA adding back deleted DocumentAnnotations
                 // https://issues.apache.org/jira/browse/UIMA-6199
@@ -137,4 +228,68 @@ public final class CasPersistenceUtils
             }
         }
     }
+
+    /**
+     * Detects the storage format of the given file.
+     * 
+     * @param aFile
+     *            a CAS file.
+     * @return the format of the file.
+     * @throws IOException
+     *             if the file could not be read.
+     */
+    public static CasStorageFormat getStorageFormat(File aFile) throws IOException
+    {
+        try (InputStream is = new BufferedInputStream(new FileInputStream(aFile))) {
+            return skipCompactBinaryMagic(is) ? CasStorageFormat.COMPACT_BINARY
+                    : CasStorageFormat.JAVA_SERIALIZED;
+        }
+    }
+
+    /**
+     * Checks if the stream starts with the {@link #COMPACT_BINARY_MAGIC}. If this is the case, the
+     * magic is consumed. Otherwise, the stream is reset to its initial position.
+     */
+    private static boolean skipCompactBinaryMagic(InputStream aIs) throws IOException
+    {
+        aIs.mark(COMPACT_BINARY_MAGIC.length);
+        byte[] magic = aIs.readNBytes(COMPACT_BINARY_MAGIC.length);
+        if (Arrays.equals(COMPACT_BINARY_MAGIC, magic)) {
+            return true;
+        }
+
+        aIs.reset();
+        return false;
+    }
+
+    private static void readCompactBinaryCas(CAS aRealCas, InputStream aIs) throws IOException
+    {
+        int version = aIs.read();
+        if (version != COMPACT_BINARY_VERSION) {
+            throw new IOException("Unsupported compact binary CAS format version [" + version
+                    + "]");
+        }
+
+        int compression = aIs.read();
+        switch (compression) {
+        case COMPRESSION_NONE:
+            CasIOUtils.load(aIs, null, aRealCas, REINIT);
+            break;
+        case COMPRESSION_DEFLATE: {
+            Inflater inflater = new Inflater();
+            try {
+                InputStream iis = new BufferedInputStream(
+                        new InflaterInputStream(aIs, inflater, BUFFER_SIZE), BUFFER_SIZE);
+                CasIOUtils.load(iis, null, aRealCas, REINIT);
+            }
+            finally {
+                inflater.end();
+            }
+            break;
+        }
+        default:
+            throw new IOException("Unsupported compact binary CAS compression [" + compression
+                    + "]");
+        }
+    }
 }
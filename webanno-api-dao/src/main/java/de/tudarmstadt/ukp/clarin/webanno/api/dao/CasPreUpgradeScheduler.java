@@ -0,0 +1,234 @@
+/*
+ * Licensed to the Technische Universität Darmstadt under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The Technische Universität Darmstadt 
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.dao;
+
+import static de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst.CORRECTION_USER;
+import static de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst.CURATION_USER;
+import static de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst.INITIAL_CAS_PSEUDO_USER;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.slf4j.MDC;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.CasStorageService;
+import de.tudarmstadt.ukp.clarin.webanno.api.DocumentService;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.event.DocumentOpenedEvent;
+import de.tudarmstadt.ukp.clarin.webanno.api.dao.CasStorageProperties.PreUpgradeOptions;
+import de.tudarmstadt.ukp.clarin.webanno.api.dao.casstorage.CasKey;
+import de.tudarmstadt.ukp.clarin.webanno.api.event.LayerConfigurationChangedEvent;
+import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocument;
+import de.tudarmstadt.ukp.clarin.webanno.model.Project;
+import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
+import de.tudarmstadt.ukp.clarin.webanno.support.logging.Logging;
+
+/**
+ * Upgrades the stored CASes of a project in the background after its layer configuration has
+ * changed, so that users do not have to wait for the upgrade when they next open a document.
+ * Unless configured otherwise, only the CASes of recently opened documents are upgraded. The
+ * remaining CASes are upgraded when they are next used.
+ */
+@Component
+public class CasPreUpgradeScheduler
+    implements DisposableBean
+{
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private final DocumentService documentService;
+    private final CasStorageService casStorageService;
+    private final CasStorageProperties casStorageProperties;
+
+    private final ScheduledExecutorService upgradeExecutor;
+    private final Map<Long, ScheduledFuture<?>> scheduledUpgrades = new ConcurrentHashMap<>();
+    private final Map<Long, Long> schemaGenerations = new ConcurrentHashMap<>();
+    private final Cache<CasKey, SourceDocument> recentDocuments;
+
+    public CasPreUpgradeScheduler(@Autowired DocumentService aDocumentService,
+            @Autowired CasStorageService aCasStorageService,
+            @Autowired CasStorageProperties aCasStorageProperties)
+    {
+        documentService = aDocumentService;
+        casStorageService = aCasStorageService;
+        casStorageProperties = aCasStorageProperties;
+
+        PreUpgradeOptions options = casStorageProperties.getPreUpgrade();
+        if (options.isEnabled()) {
+            upgradeExecutor = Executors.newScheduledThreadPool(options.getThreads());
+            if (options.isAllDocuments()) {
+                recentDocuments = null;
+                log.info("CAS pre-upgrade enabled - threads: {}  delay: {}  scope: all documents",
+                        options.getThreads(), options.getDelay());
+            }
+            else {
+                recentDocuments = Caffeine.newBuilder() //
+                        .maximumSize(options.getRecentDocuments()) //
+                        .expireAfterWrite(options.getRecentPeriod()) //
+                        .build();
+                log.info("CAS pre-upgrade enabled - threads: {}  delay: {}  scope: {} documents "
+                        + "opened in the last {}", options.getThreads(), options.getDelay(),
+                        options.getRecentDocuments(), options.getRecentPeriod());
+            }
+        }
+        else {
+            upgradeExecutor = null;
+            recentDocuments = null;
+            log.info("CAS pre-upgrade disabled");
+        }
+    }
+
+    @Override
+    public void destroy()
+    {
+        if (upgradeExecutor != null) {
+            upgradeExecutor.shutdownNow();
+        }
+    }
+
+    @EventListener
+    public void onDocumentOpened(DocumentOpenedEvent aEvent)
+    {
+        if (recentDocuments == null || aEvent.getDocument() == null
+                || aEvent.getAnnotator() == null) {
+            return;
+        }
+
+        recentDocuments.put(new CasKey(aEvent.getDocument(), aEvent.getAnnotator()),
+                aEvent.getDocument());
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void afterLayerConfigurationChanged(LayerConfigurationChangedEvent aEvent)
+    {
+        Project project = aEvent.getProject();
+        if (upgradeExecutor == null || project == null || project.getId() == null) {
+            return;
+        }
+
+        // A running upgrade for an older schema stops once it notices the new generation
+        long generation = schemaGenerations.merge(project.getId(), 1l, Long::sum);
+
+        // Layer configurations are usually changed in several steps, so each change restarts the
+        // delay and only the last one actually triggers the upgrade
+        scheduledUpgrades.compute(project.getId(), (id, pending) -> {
+            if (pending != null) {
+                pending.cancel(false);
+            }
+
+            return upgradeExecutor.schedule(() -> upgradeProject(project, generation),
+                    casStorageProperties.getPreUpgrade().getDelay().toMillis(), MILLISECONDS);
+        });
+    }
+
+    private void upgradeProject(Project aProject, long aGeneration)
+    {
+        scheduledUpgrades.remove(aProject.getId());
+
+        try (MDC.MDCCloseable closable = MDC.putCloseable(Logging.KEY_PROJECT_ID,
+                String.valueOf(aProject.getId()))) {
+            log.info("Upgrading CASes of project [{}]({}) to the current layer configuration",
+                    aProject.getName(), aProject.getId());
+
+            long t0 = System.currentTimeMillis();
+            int upgraded = 0;
+            for (Entry<CasKey, SourceDocument> e : listCases(aProject).entrySet()) {
+                if (!isCurrent(aProject, aGeneration) || Thread.currentThread().isInterrupted()) {
+                    log.info("Upgrading CASes of project [{}]({}) superseded by a newer layer "
+                            + "configuration change", aProject.getName(), aProject.getId());
+                    return;
+                }
+
+                SourceDocument doc = e.getValue();
+                String user = e.getKey().getUserId();
+                try {
+                    if (casStorageService.upgradeCasIfRequired(doc, user)) {
+                        upgraded++;
+                    }
+                }
+                catch (Exception ex) {
+                    log.error("Unable to upgrade CAS of user [{}] for document [{}]({}) in "
+                            + "project [{}]({})", user, doc.getName(), doc.getId(),
+                            aProject.getName(), aProject.getId(), ex);
+                }
+            }
+
+            log.info("Upgraded {} CASes of project [{}]({}) in {}ms", upgraded, aProject.getName(),
+                    aProject.getId(), System.currentTimeMillis() - t0);
+        }
+        catch (Exception e) {
+            log.error("Unable to upgrade CASes of project [{}]({})", aProject.getName(),
+                    aProject.getId(), e);
+        }
+    }
+
+    private boolean isCurrent(Project aProject, long aGeneration)
+    {
+        return Objects.equals(schemaGenerations.get(aProject.getId()), aGeneration);
+    }
+
+    private Map<CasKey, SourceDocument> listCases(Project aProject)
+    {
+        Map<CasKey, SourceDocument> cases = new LinkedHashMap<>();
+
+        if (recentDocuments != null) {
+            for (Entry<CasKey, SourceDocument> e : recentDocuments.asMap().entrySet()) {
+                if (e.getKey().getProjectId() == aProject.getId()) {
+                    cases.put(e.getKey(), e.getValue());
+                }
+            }
+            return cases;
+        }
+
+        for (SourceDocument doc : documentService.listSourceDocuments(aProject)) {
+            for (String user : listCasUsers(doc)) {
+                cases.put(new CasKey(doc, user), doc);
+            }
+        }
+        return cases;
+    }
+
+    private Set<String> listCasUsers(SourceDocument aDocument)
+    {
+        Set<String> users = new LinkedHashSet<>();
+        users.add(INITIAL_CAS_PSEUDO_USER);
+        for (AnnotationDocument annDoc : documentService.listAnnotationDocuments(aDocument)) {
+            users.add(annDoc.getUser());
+        }
+        users.add(CORRECTION_USER);
+        users.add(CURATION_USER);
+        return users;
+    }
+}
@@ -0,0 +1,377 @@
+/*
+ * Licensed to the Technische Universität Darmstadt under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The Technische Universität Darmstadt 
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.dao;
+
+import static de.tudarmstadt.ukp.clarin.webanno.api.dao.casstorage.CasStorageFormat.JAVA_SERIALIZED;
+import static java.time.temporal.ChronoUnit.HOURS;
+import static java.time.temporal.ChronoUnit.MILLIS;
+import static java.time.temporal.ChronoUnit.MINUTES;
+
+import java.time.Duration;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.convert.DurationUnit;
+import org.springframework.stereotype.Component;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.dao.casstorage.CasStorageFormat;
+
+@Component
+@ConfigurationProperties("cas-storage")
+public class CasStorageProperties
+{
+    private CasStorageFormat format = JAVA_SERIALIZED;
+    private boolean compress = false;
+    private final WriteBehindOptions writeBehind = new WriteBehindOptions();
+    private final SharedCacheOptions sharedCache = new SharedCacheOptions();
+    private final ExclusivePoolOptions exclusivePool = new ExclusivePoolOptions();
+    private final PreUpgradeOptions preUpgrade = new PreUpgradeOptions();
+    private final JournalOptions journal = new JournalOptions();
+
+    public CasStorageFormat getFormat()
+    {
+        return format;
+    }
+
+    public void setFormat(CasStorageFormat aFormat)
+    {
+        format = aFormat;
+    }
+
+    public boolean isCompress()
+    {
+        return compress;
+    }
+
+    public void setCompress(boolean aCompress)
+    {
+        compress = aCompress;
+    }
+
+    public WriteBehindOptions getWriteBehind()
+    {
+        return writeBehind;
+    }
+
+    public SharedCacheOptions getSharedCache()
+    {
+        return sharedCache;
+    }
+
+    public ExclusivePoolOptions getExclusivePool()
+    {
+        return exclusivePool;
+    }
+
+    public PreUpgradeOptions getPreUpgrade()
+    {
+        return preUpgrade;
+    }
+
+    public JournalOptions getJournal()
+    {
+        return journal;
+    }
+
+    public static class WriteBehindOptions
+    {
+        private boolean enabled = false;
+        private int threads = 2;
+
+        @DurationUnit(MILLIS)
+        private Duration delay = Duration.ofSeconds(1);
+
+        private int maxAttempts = 3;
+
+        public boolean isEnabled()
+        {
+            return enabled;
+        }
+
+        public void setEnabled(boolean aEnabled)
+        {
+            enabled = aEnabled;
+        }
+
+        public int getThreads()
+        {
+            return threads;
+        }
+
+        public void setThreads(int aThreads)
+        {
+            threads = aThreads;
+        }
+
+        /**
+         * @return time a modified CAS is kept in memory before it is written. Further
+         *         modifications within this time are merged into a single write.
+         */
+        public Duration getDelay()
+        {
+            return delay;
+        }
+
+        public void setDelay(Duration aDelay)
+        {
+            delay = aDelay;
+        }
+
+        /**
+         * @return number of attempts to write a modified CAS in the background. After that, the
+         *         CAS is written directly the next time it is saved, so errors are reported to the
+         *         user.
+         */
+        public int getMaxAttempts()
+        {
+            return maxAttempts;
+        }
+
+        public void setMaxAttempts(int aMaxAttempts)
+        {
+            maxAttempts = aMaxAttempts;
+        }
+    }
+
+    public static class SharedCacheOptions
+    {
+        private long maxSize = -1;
+
+        @DurationUnit(MINUTES)
+        private Duration evictAfterIdle = Duration.ofMinutes(5);
+
+        /**
+         * @return estimated heap size (megabytes) which may be occupied by the CASes in the shared
+         *         read-only cache. If this is not a positive value, a quarter of the maximum heap
+         *         size is used.
+         */
+        public long getMaxSize()
+        {
+            return maxSize;
+        }
+
+        public void setMaxSize(long aMaxSize)
+        {
+            maxSize = aMaxSize;
+        }
+
+        public Duration getEvictAfterIdle()
+        {
+            return evictAfterIdle;
+        }
+
+        public void setEvictAfterIdle(Duration aEvictAfterIdle)
+        {
+            evictAfterIdle = aEvictAfterIdle;
+        }
+    }
+
+    public static class ExclusivePoolOptions
+    {
+        private int maxTotal = -1;
+
+        @DurationUnit(MINUTES)
+        private Duration evictAfterIdle = Duration.ofMinutes(5);
+
+        @DurationUnit(MINUTES)
+        private Duration borrowTimeout = Duration.ofMinutes(3);
+
+        /**
+         * @return maximum number of CASes held in the exclusive access pool. If the limit is
+         *         reached, idle CASes are dropped from the pool to make room. A negative value
+         *         means no limit.
+         */
+        public int getMaxTotal()
+        {
+            return maxTotal;
+        }
+
+        public void setMaxTotal(int aMaxTotal)
+        {
+            maxTotal = aMaxTotal;
+        }
+
+        public Duration getEvictAfterIdle()
+        {
+            return evictAfterIdle;
+        }
+
+        public void setEvictAfterIdle(Duration aEvictAfterIdle)
+        {
+            evictAfterIdle = aEvictAfterIdle;
+        }
+
+        /**
+         * @return time to wait for exclusive access to a CAS before giving up.
+         */
+        public Duration getBorrowTimeout()
+        {
+            return borrowTimeout;
+        }
+
+        public void setBorrowTimeout(Duration aBorrowTimeout)
+        {
+            borrowTimeout = aBorrowTimeout;
+        }
+    }
+
+    public static class PreUpgradeOptions
+    {
+        private boolean enabled = true;
+        private int threads = 1;
+
+        @DurationUnit(MILLIS)
+        private Duration delay = Duration.ofSeconds(30);
+
+        private boolean allDocuments = false;
+        private int recentDocuments = 200;
+
+        @DurationUnit(HOURS)
+        private Duration recentPeriod = Duration.ofHours(24);
+
+        /**
+         * @return whether CASes are upgraded in the background after the layer configuration of
+         *         their project has changed.
+         */
+        public boolean isEnabled()
+        {
+            return enabled;
+        }
+
+        public void setEnabled(boolean aEnabled)
+        {
+            enabled = aEnabled;
+        }
+
+        public int getThreads()
+        {
+            return threads;
+        }
+
+        public void setThreads(int aThreads)
+        {
+            threads = aThreads;
+        }
+
+        /**
+         * @return time to wait after a layer configuration change before the CASes are
+         *         upgraded. Further changes within this time restart the wait.
+         */
+        public Duration getDelay()
+        {
+            return delay;
+        }
+
+        public void setDelay(Duration aDelay)
+        {
+            delay = aDelay;
+        }
+
+        /**
+         * @return whether all CASes of a project are upgraded. Otherwise, only the CASes of
+         *         recently opened documents are upgraded.
+         */
+        public boolean isAllDocuments()
+        {
+            return allDocuments;
+        }
+
+        public void setAllDocuments(boolean aAllDocuments)
+        {
+            allDocuments = aAllDocuments;
+        }
+
+        /**
+         * @return maximum number of recently opened documents (across all projects) whose CASes
+         *         are upgraded.
+         */
+        public int getRecentDocuments()
+        {
+            return recentDocuments;
+        }
+
+        public void setRecentDocuments(int aRecentDocuments)
+        {
+            recentDocuments = aRecentDocuments;
+        }
+
+        /**
+         * @return time after which a document no longer counts as recently opened.
+         */
+        public Duration getRecentPeriod()
+        {
+            return recentPeriod;
+        }
+
+        public void setRecentPeriod(Duration aRecentPeriod)
+        {
+            recentPeriod = aRecentPeriod;
+        }
+    }
+
+    public static class JournalOptions
+    {
+        private boolean enabled = false;
+        private double maxSizeRatio = 0.5;
+
+        @DurationUnit(MINUTES)
+        private Duration maxAge = Duration.ofMinutes(30);
+
+        /**
+         * @return whether changes to a CAS are appended as deltas to a journal next to the CAS
+         *         file instead of rewriting the whole CAS on every save. Only applies to the
+         *         {@link CasStorageFormat#JAVA_SERIALIZED} format.
+         */
+        public boolean isEnabled()
+        {
+            return enabled;
+        }
+
+        public void setEnabled(boolean aEnabled)
+        {
+            enabled = aEnabled;
+        }
+
+        /**
+         * @return size of the journal relative to the size of the CAS file at which the whole CAS
+         *         is written again and the journal is dropped.
+         */
+        public double getMaxSizeRatio()
+        {
+            return maxSizeRatio;
+        }
+
+        public void setMaxSizeRatio(double aMaxSizeRatio)
+        {
+            maxSizeRatio = aMaxSizeRatio;
+        }
+
+        /**
+         * @return age of the journal at which the whole CAS is written again and the journal is
+         *         dropped.
+         */
+        public Duration getMaxAge()
+        {
+            return maxAge;
+        }
+
+        public void setMaxAge(Duration aMaxAge)
+        {
+            maxAge = aMaxAge;
+        }
+    }
+}
@@ -22,7 +22,9 @@ import static de.tudarmstadt.ukp.clarin.webanno.api.CasUpgradeMode.NO_CAS_UPGRAD
 import static de.tudarmstadt.ukp.clarin.webanno.api.ProjectService.ANNOTATION_FOLDER;
 import static de.tudarmstadt.ukp.clarin.webanno.api.ProjectService.DOCUMENT_FOLDER;
 import static de.tudarmstadt.ukp.clarin.webanno.api.ProjectService.PROJECT_FOLDER;
+import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil.assertCasOwnedByCurrentThread;
 import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil.getRealCas;
+import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil.releaseCasOwnership;
 import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil.setDocumentId;
 import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil.transferCasOwnershipToCurrentThread;
 import static de.tudarmstadt.ukp.clarin.webanno.api.casstorage.CasAccessMode.EXCLUSIVE_WRITE_ACCESS;
@@ -35,19 +37,28 @@ import static java.lang.System.currentTimeMillis;
 import static java.nio.file.Files.move;
 import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
 import static java.util.Collections.newSetFromMap;
+import static java.util.Collections.synchronizedMap;
 import static java.util.Collections.synchronizedSet;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static java.util.concurrent.TimeUnit.MINUTES;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
 import static org.apache.commons.lang3.ArrayUtils.contains;
 
 import java.io.File;
 import java.io.FileFilter;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
 import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -59,12 +70,19 @@ import org.apache.commons.pool2.impl.GenericKeyedObjectPoolConfig;
 import org.apache.uima.UIMAException;
 import org.apache.uima.cas.AbstractCas;
 import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.CASRuntimeException;
+import org.apache.uima.cas.Marker;
 import org.apache.uima.cas.impl.CASImpl;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.slf4j.MDC;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.event.EventListener;
 import org.springframework.dao.DataRetrievalFailureException;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.core.session.SessionDestroyedEvent;
 import org.springframework.stereotype.Component;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.transaction.event.TransactionalEventListener;
@@ -79,12 +97,17 @@ import de.tudarmstadt.ukp.clarin.webanno.api.CasStorageService;
 import de.tudarmstadt.ukp.clarin.webanno.api.CasUpgradeMode;
 import de.tudarmstadt.ukp.clarin.webanno.api.RepositoryProperties;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil;
+import de.tudarmstadt.ukp.clarin.webanno.api.dao.CasStorageProperties.ExclusivePoolOptions;
+import de.tudarmstadt.ukp.clarin.webanno.api.dao.CasStorageProperties.JournalOptions;
+import de.tudarmstadt.ukp.clarin.webanno.api.dao.CasStorageProperties.SharedCacheOptions;
 import de.tudarmstadt.ukp.clarin.webanno.api.casstorage.CasAccessMode;
 import de.tudarmstadt.ukp.clarin.webanno.api.casstorage.CasSessionException;
 import de.tudarmstadt.ukp.clarin.webanno.api.casstorage.CasStorageServiceAction;
 import de.tudarmstadt.ukp.clarin.webanno.api.casstorage.CasStorageServiceLoader;
 import de.tudarmstadt.ukp.clarin.webanno.api.dao.casstorage.CasHolder;
+import de.tudarmstadt.ukp.clarin.webanno.api.dao.casstorage.CasJournal;
 import de.tudarmstadt.ukp.clarin.webanno.api.dao.casstorage.CasKey;
+import de.tudarmstadt.ukp.clarin.webanno.api.dao.casstorage.CasStorageFormat;
 import de.tudarmstadt.ukp.clarin.webanno.api.dao.casstorage.CasStorageSession;
 import de.tudarmstadt.ukp.clarin.webanno.api.dao.casstorage.PooledCasHolderFactory;
 import de.tudarmstadt.ukp.clarin.webanno.api.dao.casstorage.SessionManagedCas;
@@ -98,23 +121,26 @@ import de.tudarmstadt.ukp.clarin.webanno.support.wicket.WicketUtil;
 
 @Component(CasStorageService.SERVICE_NAME)
 public class CasStorageServiceImpl
-    implements CasStorageService
+    implements CasStorageService, DisposableBean
 {
     private final Logger log = LoggerFactory.getLogger(getClass());
 
-    private final long EVICT_IDLE_CASES_AFTER_MINUTES = 5;
-    private final long SHARED_CAS_CACHE_SIZE = 10_000;
-    private final long CAS_BORROW_WAIT_TIMEOUT_MINUTES = 3;
-
     private final CasDoctor casDoctor;
     private final AnnotationSchemaService schemaService;
     private final RepositoryProperties repositoryProperties;
     private final BackupProperties backupProperties;
+    private final CasStorageProperties casStorageProperties;
 
     private final GenericKeyedObjectPool<CasKey, CasHolder> exclusiveAccessPool;
     private final Set<CasHolder> exclusiveAccessHolders = synchronizedSet(
             newSetFromMap(new WeakHashMap<>()));
     private final Cache<CasKey, CasHolder> sharedAccessCache;
+    private final long sharedAccessCacheMaxWeight;
+
+    private final Map<CasKey, PendingWrite> pendingWrites = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService writeBehindExecutor;
+
+    private final Map<CAS, JournalState> journalStates = synchronizedMap(new WeakHashMap<>());
 
     public static enum RepairAndUpgradeFlags
     {
@@ -130,16 +156,24 @@ public class CasStorageServiceImpl
      *            (optional) if present, CAS validation can take place
      * @param aSchemaService
      *            (optional) if present, CAS upgrades can be performed
+     * @param aRepositoryProperties
+     *            the repository settings
+     * @param aBackupProperties
+     *            the backup settings
+     * @param aCasStorageProperties
+     *            the CAS storage settings
      */
     public CasStorageServiceImpl(@Autowired(required = false) CasDoctor aCasDoctor,
             @Autowired(required = false) AnnotationSchemaService aSchemaService,
             @Autowired RepositoryProperties aRepositoryProperties,
-            @Autowired BackupProperties aBackupProperties)
+            @Autowired BackupProperties aBackupProperties,
+            @Autowired CasStorageProperties aCasStorageProperties)
     {
         casDoctor = aCasDoctor;
         schemaService = aSchemaService;
         repositoryProperties = aRepositoryProperties;
         backupProperties = aBackupProperties;
+        casStorageProperties = aCasStorageProperties;
 
         GenericKeyedObjectPoolConfig<CasHolder> config = new GenericKeyedObjectPoolConfig<>();
         // Since we want the pool to control exclusive access to a particular CAS, we only ever
@@ -147,10 +181,12 @@ public class CasStorageServiceImpl
         config.setMaxTotalPerKey(1);
         // Setting this to 0 because we do not want any CAS to stick around in memory indefinitely
         config.setMinIdlePerKey(0);
-        // Run an evictor thread every 5 minutes
-        config.setTimeBetweenEvictionRunsMillis(MINUTES.toMillis(EVICT_IDLE_CASES_AFTER_MINUTES));
-        // Allow the evictor to drop idle CASes from the pool after 5 minutes (i.e. on each run)
-        config.setMinEvictableIdleTimeMillis(MINUTES.toMillis(EVICT_IDLE_CASES_AFTER_MINUTES));
+        // Run an evictor thread every few minutes (default 5)
+        ExclusivePoolOptions poolOptions = casStorageProperties.getExclusivePool();
+        config.setTimeBetweenEvictionRunsMillis(poolOptions.getEvictAfterIdle().toMillis());
+        // Allow the evictor to drop idle CASes from the pool after the same time (i.e. on each
+        // run)
+        config.setMinEvictableIdleTimeMillis(poolOptions.getEvictAfterIdle().toMillis());
         // Allow the evictor to drop all idle CASes on every eviction run
         config.setNumTestsPerEvictionRun(-1);
         // Allow viewing the pool in JMX
@@ -162,13 +198,26 @@ public class CasStorageServiceImpl
         // is returned
         config.setTestOnReturn(true);
         config.setTestOnBorrow(true);
-        config.setMaxWaitMillis(MINUTES.toMillis(CAS_BORROW_WAIT_TIMEOUT_MINUTES));
-        // We do not have to set maxTotal because the default is already to have no limit (-1)
-        exclusiveAccessPool = new GenericKeyedObjectPool<>(new PooledCasHolderFactory(), config);
-
+        config.setMaxWaitMillis(poolOptions.getBorrowTimeout().toMillis());
+        // By default, there is no limit (-1). If a limit is set and reached, the pool drops idle
+        // CASes of other documents to make room.
+        config.setMaxTotal(poolOptions.getMaxTotal());
+        exclusiveAccessPool = new GenericKeyedObjectPool<>(
+                new PooledCasHolderFactory(this::beforeExclusiveCasDropped), config);
+
+        // The shared cache is bounded by the estimated heap size of the cached CASes (in KB)
+        // instead of by the number of entries - a few large documents should not be able to
+        // exhaust the heap
+        SharedCacheOptions cacheOptions = casStorageProperties.getSharedCache();
+        sharedAccessCacheMaxWeight = cacheOptions.getMaxSize() > 0
+                ? cacheOptions.getMaxSize() * 1024
+                : Runtime.getRuntime().maxMemory() / 4 / 1024;
         sharedAccessCache = Caffeine.newBuilder()
-                .expireAfterAccess(EVICT_IDLE_CASES_AFTER_MINUTES, MINUTES)
-                .maximumSize(SHARED_CAS_CACHE_SIZE).recordStats().build();
+                .expireAfterAccess(cacheOptions.getEvictAfterIdle())
+                .maximumWeight(sharedAccessCacheMaxWeight)
+                .weigher((CasKey key, CasHolder holder) -> (int) Math.min(Integer.MAX_VALUE,
+                        Math.max(1, holder.getEstimatedCasSize() / 1024)))
+                .recordStats().build();
 
         if (casDoctor == null) {
             log.info("CAS doctor not available - unable to check/repair CASes");
@@ -182,6 +231,108 @@ public class CasStorageServiceImpl
         else {
             log.info("CAS backups disabled");
         }
+
+        log.info("CAS storage format: {}  compress: {}", casStorageProperties.getFormat(),
+                casStorageProperties.isCompress());
+        log.info("Shared CAS cache - max-size: {}MB  evict-after-idle: {}",
+                sharedAccessCacheMaxWeight / 1024, cacheOptions.getEvictAfterIdle());
+        log.info("Exclusive CAS pool - max-total: {}  evict-after-idle: {}  borrow-timeout: {}",
+                poolOptions.getMaxTotal(), poolOptions.getEvictAfterIdle(),
+                poolOptions.getBorrowTimeout());
+
+        if (casStorageProperties.getWriteBehind().isEnabled()) {
+            // Pending changes only exist in the CAS held by the exclusive access pool. They must
+            // be written before the evictor gets a chance to drop the CAS from the pool.
+            Validate.isTrue(
+                    casStorageProperties.getWriteBehind().getDelay()
+                            .compareTo(poolOptions.getEvictAfterIdle()) < 0,
+                    "CAS write-behind delay must be less than the exclusive pool idle time (%s)",
+                    poolOptions.getEvictAfterIdle());
+
+            writeBehindExecutor = Executors
+                    .newScheduledThreadPool(casStorageProperties.getWriteBehind().getThreads());
+            log.info("CAS write-behind enabled - threads: {}  delay: {}",
+                    casStorageProperties.getWriteBehind().getThreads(),
+                    casStorageProperties.getWriteBehind().getDelay());
+        }
+        else {
+            writeBehindExecutor = null;
+            log.info("CAS write-behind disabled");
+        }
+
+        JournalOptions journalOptions = casStorageProperties.getJournal();
+        if (journalOptions.isEnabled()) {
+            log.info("CAS journal enabled - max-size-ratio: {}  max-age: {}",
+                    journalOptions.getMaxSizeRatio(), journalOptions.getMaxAge());
+        }
+        else {
+            log.info("CAS journal disabled");
+        }
+    }
+
+    @Override
+    public long getSharedCasCacheHits()
+    {
+        return sharedAccessCache.stats().hitCount();
+    }
+
+    @Override
+    public long getSharedCasCacheMisses()
+    {
+        return sharedAccessCache.stats().missCount();
+    }
+
+    @Override
+    public double getSharedCasCacheAverageLoadTime()
+    {
+        return sharedAccessCache.stats().averageLoadPenalty()
+                / (double) NANOSECONDS.convert(1, MILLISECONDS);
+    }
+
+    @Override
+    public long getSharedCasCacheEvictions()
+    {
+        return sharedAccessCache.stats().evictionCount();
+    }
+
+    @Override
+    public long getSharedCasCacheEntries()
+    {
+        return sharedAccessCache.estimatedSize();
+    }
+
+    @Override
+    public long getSharedCasCacheWeight()
+    {
+        return sharedAccessCache.policy().eviction().map(e -> e.weightedSize().orElse(0))
+                .orElse(0L);
+    }
+
+    @Override
+    public long getSharedCasCacheMaxWeight()
+    {
+        return sharedAccessCacheMaxWeight;
+    }
+
+    @Override
+    public void destroy()
+    {
+        if (writeBehindExecutor == null) {
+            return;
+        }
+
+        // Write all pending changes before shutting down
+        for (PendingWrite pendingWrite : new ArrayList<>(pendingWrites.values())) {
+            writeBehind(pendingWrite.document, pendingWrite.username);
+        }
+
+        writeBehindExecutor.shutdown();
+        try {
+            writeBehindExecutor.awaitTermination(1, MINUTES);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
     }
 
     @Override
@@ -218,10 +369,19 @@ public class CasStorageServiceImpl
                         + mCas.get().getSourceDocumentId() + "]");
             }
 
-            realWriteCas(aDocument, aUserName, aCas);
+            if (!scheduleWriteBehind(aDocument, aUserName, aCas)) {
+                realWriteCas(aDocument, aUserName, aCas);
+
+                // If the CAS could not be written in the background before, its changes have now
+                // been written along with the current ones
+                cancelPendingWrite(new CasKey(aDocument, aUserName));
+            }
         }
         else {
             try (WithExclusiveAccess access = new WithExclusiveAccess(aDocument, aUserName)) {
+                // Any changes to the CAS previously stored under this name are superseded now
+                cancelPendingWrite(access.getKey());
+
                 realWriteCas(aDocument, aUserName, aCas);
 
                 // If the CAS which was written does not match the CAS in the session for the given
@@ -256,15 +416,269 @@ public class CasStorageServiceImpl
      */
     void writeSerializedCas(CAS aCas, File aFile) throws IOException
     {
-        CasPersistenceUtils.writeSerializedCas(aCas, aFile);
+        // Files in an older format are migrated lazily, i.e. we always write the configured format
+        // and the format is detected when reading.
+        switch (casStorageProperties.getFormat()) {
+        case COMPACT_BINARY:
+            CasPersistenceUtils.writeCompactBinaryCas(aCas, aFile,
+                    casStorageProperties.isCompress());
+            break;
+        case JAVA_SERIALIZED:
+            CasPersistenceUtils.writeSerializedCas(aCas, aFile);
+            break;
+        default:
+            throw new IllegalStateException(
+                    "Unknown CAS storage format [" + casStorageProperties.getFormat() + "]");
+        }
+    }
+
+    /**
+     * If write-behind is enabled and the given CAS is held by the exclusive access pool, the CAS is
+     * scheduled to be written in the background. Until then, the modified CAS remains available to
+     * sessions requesting exclusive access from the pool. Further writes of the same CAS until the
+     * scheduled write actually happens are merged into that write.
+     * <p>
+     * The CAS is analyzed right away, so problems found by the CAS doctor are reported to the caller
+     * instead of making the background write fail. If writing the CAS in the background has failed
+     * repeatedly, the write is not deferred, so that the caller learns about the problem.
+     * 
+     * @return whether the write has been deferred.
+     */
+    private boolean scheduleWriteBehind(SourceDocument aDocument, String aUserName, CAS aCas)
+    {
+        if (writeBehindExecutor == null) {
+            return false;
+        }
+
+        CasKey key = new CasKey(aDocument, aUserName);
+        if (!isHeldInExclusiveAccessPool(key, aCas)) {
+            return false;
+        }
+
+        PendingWrite failedWrite = pendingWrites.get(key);
+        if (failedWrite != null && failedWrite.isAbandoned()) {
+            return false;
+        }
+
+        analyze(aDocument.getProject(), aDocument.getName(), aDocument.getId(), aUserName, aCas);
+
+        pendingWrites.computeIfAbsent(key,
+                _key -> new PendingWrite(aDocument, aUserName,
+                        writeBehindExecutor.schedule(() -> writeBehind(aDocument, aUserName),
+                                casStorageProperties.getWriteBehind().getDelay().toMillis(),
+                                MILLISECONDS),
+                        0));
+
+        log.trace("Deferred writing CAS for user [{}] on document [{}]({})", aUserName,
+                aDocument.getName(), aDocument.getId());
+
+        return true;
+    }
+
+    private boolean isHeldInExclusiveAccessPool(CasKey aKey, CAS aCas)
+    {
+        // Must synchronize on the set because we are iterating over it
+        synchronized (exclusiveAccessHolders) {
+            for (CasHolder holder : exclusiveAccessHolders) {
+                if (Objects.equals(holder.getKey(), aKey) && holder.isCasSet()
+                        && holder.getCas() == aCas && !holder.isDeleted()
+                        && !holder.isTypeSystemOutdated()) {
+                    return true;
+                }
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Writes a deferred CAS. This method is called from the write-behind executor, so it must not
+     * throw any exceptions.
+     */
+    private void writeBehind(SourceDocument aDocument, String aUserName)
+    {
+        try (CasStorageSession session = CasStorageSession.openNested()) {
+            // Waits until no other session holds the CAS anymore
+            try (WithExclusiveAccess access = new WithExclusiveAccess(aDocument, aUserName)) {
+                flushPendingWrite(access);
+            }
+        }
+        catch (Exception e) {
+            log.error("Unable to write deferred CAS for user [{}] on document [{}]({}) in project "
+                    + "[{}]({})", aUserName, aDocument.getName(), aDocument.getId(),
+                    aDocument.getProject().getName(), aDocument.getProject().getId(), e);
+
+            // The pending write is only dropped once the CAS has been written successfully, so
+            // if we failed to obtain exclusive access or to write the CAS, then try again later
+            reschedulePendingWrite(new CasKey(aDocument, aUserName));
+        }
+    }
+
+    /**
+     * Schedules another attempt to write the deferred CAS for the given key, if there is still a
+     * pending write for it. Once the maximum number of attempts has been reached, no further
+     * attempts are scheduled. The pending write is kept though, so the changes are still written
+     * when the CAS is saved the next time, flushed explicitly or dropped from the pool.
+     */
+    private void reschedulePendingWrite(CasKey aKey)
+    {
+        if (writeBehindExecutor == null || writeBehindExecutor.isShutdown()) {
+            return;
+        }
+
+        pendingWrites.computeIfPresent(aKey, (_key, _pendingWrite) -> {
+            _pendingWrite.cancel();
+
+            int attempts = _pendingWrite.attempts + 1;
+            if (attempts >= casStorageProperties.getWriteBehind().getMaxAttempts()) {
+                log.error("Giving up writing deferred CAS for user [{}] on document [{}]({}) in "
+                        + "project [{}]({}) in the background after {} attempts - the CAS is "
+                        + "written directly the next time it is saved", _pendingWrite.username,
+                        _pendingWrite.document.getName(), _pendingWrite.document.getId(),
+                        _pendingWrite.document.getProject().getName(),
+                        _pendingWrite.document.getProject().getId(), attempts);
+                return new PendingWrite(_pendingWrite.document, _pendingWrite.username, null,
+                        attempts);
+            }
+
+            return new PendingWrite(_pendingWrite.document, _pendingWrite.username,
+                    writeBehindExecutor.schedule(
+                            () -> writeBehind(_pendingWrite.document, _pendingWrite.username),
+                            casStorageProperties.getWriteBehind().getDelay().toMillis(),
+                            MILLISECONDS),
+                    attempts);
+        });
+    }
+
+    /**
+     * Writes the deferred CAS for the given document/user immediately, if there is one.
+     */
+    private void flushPendingWrite(SourceDocument aDocument, String aUserName) throws IOException
+    {
+        if (!pendingWrites.containsKey(new CasKey(aDocument, aUserName))) {
+            return;
+        }
+
+        try (CasStorageSession session = CasStorageSession.openNested()) {
+            try (WithExclusiveAccess access = new WithExclusiveAccess(aDocument, aUserName)) {
+                flushPendingWrite(access);
+            }
+        }
+        catch (IOException e) {
+            throw e;
+        }
+        catch (Exception e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Writes the deferred CAS for the document/user immediately, if there is one. The caller must
+     * already have exclusive access to the CAS. If writing fails, the pending write is kept and
+     * retried later and the exception is passed on to the caller.
+     */
+    private void flushPendingWrite(WithExclusiveAccess aAccess) throws IOException
+    {
+        PendingWrite pendingWrite = pendingWrites.get(aAccess.getKey());
+        if (pendingWrite == null) {
+            return;
+        }
+
+        if (!aAccess.isCasSet()) {
+            cancelPendingWrite(aAccess.getKey());
+            log.error("Deferred CAS for user [{}] on document [{}]({}) in project [{}]({}) is no "
+                    + "longer available - changes have been lost", pendingWrite.username,
+                    pendingWrite.document.getName(), pendingWrite.document.getId(),
+                    pendingWrite.document.getProject().getName(),
+                    pendingWrite.document.getProject().getId());
+            return;
+        }
+
+        try {
+            // The CAS has already been analyzed when the write was deferred
+            realWriteCas(pendingWrite.document, pendingWrite.username, aAccess.getCas(), false);
+        }
+        catch (IOException | RuntimeException e) {
+            reschedulePendingWrite(aAccess.getKey());
+            throw e;
+        }
+
+        // Since we hold exclusive access, nobody can have scheduled another write in the meantime
+        cancelPendingWrite(aAccess.getKey());
+    }
+
+    /**
+     * Called when the exclusive access pool drops a CAS, e.g. because it has been idle for too long
+     * or to make room for the CASes of other documents. Deferred changes only exist in the pooled
+     * CAS, so they are written before the CAS is gone. While the pool drops the CAS, nobody else
+     * can obtain exclusive access to it.
+     */
+    private void beforeExclusiveCasDropped(CasHolder aHolder)
+    {
+        PendingWrite pendingWrite = pendingWrites.get(aHolder.getKey());
+        if (pendingWrite == null) {
+            return;
+        }
+
+        if (!aHolder.isCasSet() || aHolder.isDeleted()) {
+            cancelPendingWrite(aHolder.getKey());
+            return;
+        }
+
+        try (CasStorageSession session = CasStorageSession.openNested()) {
+            transferCasOwnershipToCurrentThread(aHolder.getCas());
+            realWriteCas(pendingWrite.document, pendingWrite.username, aHolder.getCas(), false);
+            log.trace("Wrote deferred CAS for user [{}] on document [{}]({}) before it was "
+                    + "dropped from the exclusive access pool", pendingWrite.username,
+                    pendingWrite.document.getName(), pendingWrite.document.getId());
+        }
+        catch (Exception e) {
+            log.error("Unable to write deferred CAS for user [{}] on document [{}]({}) in project "
+                    + "[{}]({}) before it was dropped from memory - changes have been lost",
+                    pendingWrite.username, pendingWrite.document.getName(),
+                    pendingWrite.document.getId(), pendingWrite.document.getProject().getName(),
+                    pendingWrite.document.getProject().getId(), e);
+        }
+
+        cancelPendingWrite(aHolder.getKey());
+    }
+
+    private void cancelPendingWrite(CasKey aKey)
+    {
+        PendingWrite pendingWrite = pendingWrites.remove(aKey);
+        if (pendingWrite != null) {
+            pendingWrite.cancel();
+        }
     }
 
     private void realWriteCas(SourceDocument aDocument, String aUserName, CAS aCas)
         throws IOException
+    {
+        realWriteCas(aDocument, aUserName, aCas, true);
+    }
+
+    private void realWriteCas(SourceDocument aDocument, String aUserName, CAS aCas,
+            boolean aAnalyze)
+        throws IOException
+    {
+        realWriteCas(aDocument, aUserName, aCas, aAnalyze, true);
+    }
+
+    /**
+     * @param aUseJournal
+     *            whether the changes may be appended to the journal. Otherwise, the whole CAS is
+     *            written and the journal is dropped.
+     */
+    private void realWriteCas(SourceDocument aDocument, String aUserName, CAS aCas,
+            boolean aAnalyze, boolean aUseJournal)
+        throws IOException
     {
         long t0 = currentTimeMillis();
 
-        analyze(aDocument.getProject(), aDocument.getName(), aDocument.getId(), aUserName, aCas);
+        if (aAnalyze) {
+            analyze(aDocument.getProject(), aDocument.getName(), aDocument.getId(), aUserName,
+                    aCas);
+        }
 
         log.debug("Preparing to update annotations for user [{}] on document [{}]({}) " //
                 + "in project [{}]({})", aUserName, aDocument.getName(), aDocument.getId(),
@@ -273,18 +687,30 @@ public class CasStorageServiceImpl
         File annotationFolder = getAnnotationFolder(aDocument);
         File currentVersion = new File(annotationFolder, aUserName + ".ser");
         File oldVersion = new File(annotationFolder, aUserName + ".ser.old");
+        File currentJournal = CasJournal.getJournalFile(currentVersion);
+        File oldJournal = CasJournal.getJournalFile(oldVersion);
 
         // Check if there was a concurrent change to the file on disk
         if (currentVersion.exists()) {
             failOnConcurrentModification(aCas, currentVersion, aDocument, aUserName);
         }
 
+        if (aUseJournal && appendToJournal(aDocument, aUserName, aCas, currentVersion)) {
+            CasMetadataUtils.addOrUpdateCasMetadata(aCas, currentVersion, aDocument, aUserName);
+            WicketUtil.serverTiming("realWriteCas", currentTimeMillis() - t0);
+            return;
+        }
+
         // Save current version
         try {
-            // Make a backup of the current version of the file before overwriting
+            // Make a backup of the current version of the file before overwriting. The journal
+            // belongs to the current version, so it is moved along with it.
             if (currentVersion.exists()) {
                 move(currentVersion.toPath(), oldVersion.toPath());
             }
+            if (currentJournal.exists()) {
+                move(currentJournal.toPath(), oldJournal.toPath(), REPLACE_EXISTING);
+            }
 
             // Now write the new version to "<username>.ser" or CURATION_USER.ser
             long start = currentTimeMillis();
@@ -317,6 +743,9 @@ public class CasStorageServiceImpl
                     aDocument.getProject().getName(), aDocument.getProject().getId(), oldVersion);
             try {
                 move(oldVersion.toPath(), currentVersion.toPath(), REPLACE_EXISTING);
+                if (oldJournal.exists()) {
+                    move(oldJournal.toPath(), currentJournal.toPath(), REPLACE_EXISTING);
+                }
             }
             catch (Exception ex) {
                 log.error("Unable to restore previous annotations: [{}]", oldVersion, ex);
@@ -340,6 +769,9 @@ public class CasStorageServiceImpl
         if (oldVersion.exists()) {
             FileUtils.forceDelete(oldVersion);
         }
+        if (oldJournal.exists()) {
+            FileUtils.forceDelete(oldJournal);
+        }
 
         // Update the timestamp in the CAS in case we attempt to save it a second time. This
         // happens for example in an annotation replacement operation (change layer of existing
@@ -347,11 +779,142 @@ public class CasStorageServiceImpl
         // save.
         CasMetadataUtils.addOrUpdateCasMetadata(aCas, currentVersion, aDocument, aUserName);
 
+        startJournal(aCas, currentVersion, 0);
+
         manageHistory(currentVersion, aDocument, aUserName);
 
         WicketUtil.serverTiming("realWriteCas", currentTimeMillis() - t0);
     }
 
+    /**
+     * Starts tracking the changes made to the given CAS, so that they can be appended to the
+     * journal when the CAS is written. Called when the CAS has been read or written.
+     * 
+     * @param aJournalSize
+     *            the size of the journal which was applied when reading the CAS.
+     */
+    private void startJournal(CAS aCas, File aCasFile, long aJournalSize) throws IOException
+    {
+        // Delta CASes can only be applied to CASes in the Java-serialized format
+        if (!casStorageProperties.getJournal().isEnabled() || CasPersistenceUtils
+                .getStorageFormat(aCasFile) != CasStorageFormat.JAVA_SERIALIZED) {
+            return;
+        }
+
+        CAS realCas = getRealCas(aCas);
+
+        JournalState state = journalStates.get(realCas);
+        if (state != null && state.marker.isValid()) {
+            // UIMA permits only a single marker per CAS (until the CAS is reset, e.g. by an
+            // upgrade), so the changes can only be tracked relative to the file which was read
+            // when the marker was created. Once the whole CAS has been written, all further
+            // changes are written in full until the CAS is read again.
+            state.casFile = null;
+            return;
+        }
+
+        try {
+            journalStates.put(realCas,
+                    new JournalState(realCas.createMarker(), aCasFile, aJournalSize));
+        }
+        catch (CASRuntimeException e) {
+            log.debug("Unable to track changes to CAS [{}]: {}", aCasFile, e.getMessage());
+        }
+    }
+
+    /**
+     * Appends the changes made to the CAS since it has been read to the journal if possible.
+     * 
+     * @return whether the changes have been written to the journal. If not, the whole CAS must be
+     *         written.
+     */
+    private boolean appendToJournal(SourceDocument aDocument, String aUserName, CAS aCas,
+            File aCurrentVersion)
+    {
+        JournalOptions options = casStorageProperties.getJournal();
+        if (!options.isEnabled() || !aCurrentVersion.exists()) {
+            return false;
+        }
+
+        JournalState state = journalStates.get(getRealCas(aCas));
+        if (state == null || !state.marker.isValid()
+                || !aCurrentVersion.equals(state.casFile)) {
+            return false;
+        }
+
+        File journal = CasJournal.getJournalFile(aCurrentVersion);
+        try {
+            // Compact the journal into a new snapshot once it gets too large or too old
+            if (journal.exists() && (journal.length() > aCurrentVersion.length()
+                    * options.getMaxSizeRatio()
+                    || CasJournal.getStartTime(journal)
+                            + options.getMaxAge().toMillis() < currentTimeMillis())) {
+                return false;
+            }
+
+            setDocumentId(aCas, aUserName);
+            long journalSize = CasJournal.write(aCas, state.marker, aCurrentVersion,
+                    state.journalOffset);
+
+            // The timestamp of the CAS file is the timestamp of the CAS, e.g. for the detection
+            // of concurrent modifications. Make sure it changes even on file systems with a
+            // coarse timestamp resolution.
+            aCurrentVersion.setLastModified(
+                    Math.max(currentTimeMillis(), aCurrentVersion.lastModified() + 1000));
+
+            log.debug("Appended changes for user [{}] on document [{}]({}) in project [{}]({}) "
+                    + "to journal ({} bytes)", aUserName, aDocument.getName(), aDocument.getId(),
+                    aDocument.getProject().getName(), aDocument.getProject().getId(),
+                    journalSize);
+
+            return true;
+        }
+        catch (Exception e) {
+            log.warn("Unable to append changes for user [{}] on document [{}]({}) in project "
+                    + "[{}]({}) to journal - writing the whole CAS instead", aUserName,
+                    aDocument.getName(), aDocument.getId(), aDocument.getProject().getName(),
+                    aDocument.getProject().getId(), e);
+            return false;
+        }
+    }
+
+    /**
+     * Writes the whole CAS if it has a journal, so that the CAS file can be used on its own, e.g.
+     * when it is copied into an export.
+     */
+    private void compactJournal(SourceDocument aDocument, String aUserName) throws IOException
+    {
+        File casFile = getCasFile(aDocument.getProject().getId(), aDocument.getId(), aUserName);
+        if (!CasJournal.getJournalFile(casFile).exists()) {
+            return;
+        }
+
+        try (CasStorageSession session = CasStorageSession.openNested(true)) {
+            try (WithExclusiveAccess access = new WithExclusiveAccess(aDocument, aUserName)) {
+                // Somebody else may have written the whole CAS in the meantime
+                if (!CasJournal.getJournalFile(casFile).exists()) {
+                    return;
+                }
+
+                CAS cas = access.isCasSet() ? access.getCas()
+                        : readUnmanagedCas(aDocument, aUserName);
+
+                session.add(aDocument.getId(), aUserName, EXCLUSIVE_WRITE_ACCESS, cas);
+
+                realWriteCas(aDocument, aUserName, cas, false, false);
+            }
+            finally {
+                session.remove(aDocument.getId(), aUserName);
+            }
+        }
+        catch (IOException e) {
+            throw e;
+        }
+        catch (Exception e) {
+            throw new IOException(e);
+        }
+    }
+
     private void manageHistory(File aCurrentVersion, SourceDocument aDocument, String aUserName)
         throws IOException
     {
@@ -529,6 +1092,7 @@ public class CasStorageServiceImpl
                     }
 
                     holder.setCas(cas);
+                    transferCasOwnershipToCurrentThread(cas);
 
                     // Hook up releasing of the CAS when CAS.release() is called via the
                     // CasStorageSession
@@ -582,6 +1146,8 @@ public class CasStorageServiceImpl
             // Ensure that the CAS is not being re-written and temporarily unavailable while we
             // check for its existence
             try (WithExclusiveAccess access = new WithExclusiveAccess(aDocument, aUsername)) {
+                flushPendingWrite(access);
+
                 // Since we promise to only read the CAS, we don't have to worry about it being
                 // locked to a particular thread...
                 casHolder = sharedAccessCache.get(new CasKey(aDocument, aUsername),
@@ -595,6 +1161,8 @@ public class CasStorageServiceImpl
             // Ensure that the CAS is not being re-written and temporarily unavailable while we
             // check for its existence
             try (WithExclusiveAccess access = new WithExclusiveAccess(aDocument, aUsername)) {
+                flushPendingWrite(access);
+
                 casHolder = CasHolder.of(new CasKey(aDocument, aUsername),
                         () -> readOrCreateUnmanagedCas(aDocument, aUsername, aSupplier,
                                 aUpgradeMode));
@@ -605,6 +1173,8 @@ public class CasStorageServiceImpl
             // Ensure that the CAS is not being re-written and temporarily unavailable while we
             // check for its existence
             try (WithExclusiveAccess access = new WithExclusiveAccess(aDocument, aUsername)) {
+                flushPendingWrite(access);
+
                 casHolder = CasHolder.of(new CasKey(aDocument, aUsername),
                         () -> readUnmanagedCas(aDocument, aUsername));
             }
@@ -655,6 +1225,19 @@ public class CasStorageServiceImpl
      */
     private void returnBorrowedCas(AbstractCas cas, CasKey aKey, CasHolder aHolder)
     {
+        // Check the ownership before returning the CAS, but report a violation only after the CAS
+        // has been returned - otherwise, the document would remain locked forever
+        IllegalStateException ownershipViolation = null;
+        if (cas instanceof CAS) {
+            try {
+                assertCasOwnedByCurrentThread((CAS) cas);
+            }
+            catch (IllegalStateException e) {
+                ownershipViolation = e;
+            }
+            releaseCasOwnership((CAS) cas);
+        }
+
         try {
             log.trace("Returning borrowed CAS [{}] for [{}]@[{}]({})", cas.hashCode(),
                     aKey.getUserId(), aKey.getDocumentName(), aKey.getDocumentId());
@@ -666,6 +1249,10 @@ public class CasStorageServiceImpl
                     cas.hashCode(), aKey.getUserId(), aKey.getDocumentName(), aKey.getDocumentId(),
                     e);
         }
+
+        if (ownershipViolation != null) {
+            throw ownershipViolation;
+        }
     }
 
     private void repairAndUpgradeCasIfRequired(SourceDocument aDocument, String aUsername, CAS aCas,
@@ -721,7 +1308,7 @@ public class CasStorageServiceImpl
         String source;
 
         // If the CAS exists on disk already, load it from there
-        File casFile = getCasFile(aDocument, aUsername);
+        File casFile = getCasFile(aDocument.getProject().getId(), aDocument.getId(), aUsername);
         if (casFile.exists()) {
             log.debug("Reading annotation document [{}] ({}) for user [{}] in project [{}] ({})",
                     aDocument.getName(), aDocument.getId(), aUsername,
@@ -789,6 +1376,10 @@ public class CasStorageServiceImpl
 
         try {
             CasPersistenceUtils.readSerializedCas(cas, casFile);
+            long journalSize = CasJournal.apply(cas, casFile);
+            // Changes are tracked from here on, so the following modifications end up in the
+            // journal as well
+            startJournal(cas, casFile, journalSize);
             // Add/update the CAS metadata
             CasMetadataUtils.addOrUpdateCasMetadata(cas, casFile, aDocument, aUser);
         }
@@ -808,8 +1399,11 @@ public class CasStorageServiceImpl
         throws IOException, CasSessionException
     {
         try (WithExclusiveAccess access = new WithExclusiveAccess(aDocument, aUsername)) {
-            boolean fileWasDeleted = new File(getAnnotationFolder(aDocument), aUsername + ".ser")
-                    .delete();
+            cancelPendingWrite(access.getKey());
+
+            File casFile = new File(getAnnotationFolder(aDocument), aUsername + ".ser");
+            boolean fileWasDeleted = casFile.delete();
+            CasJournal.getJournalFile(casFile).delete();
 
             // Drop the CAS from the shared CAS it doesn't ghost around. Also set the deleted flag
             // in the holder in case anybody might still be holding on to the holder and needs to
@@ -942,6 +1536,10 @@ public class CasStorageServiceImpl
         Validate.notNull(aDocument, "Source document must be specified");
         Validate.notBlank(aUser, "User must be specified");
 
+        // The caller may want to access the file directly, so make sure it is up-to-date
+        flushPendingWrite(aDocument, aUser);
+        compactJournal(aDocument, aUser);
+
         return getCasFile(aDocument.getProject().getId(), aDocument.getId(), aUser);
     }
 
@@ -962,6 +1560,59 @@ public class CasStorageServiceImpl
                 true);
     }
 
+    @Override
+    public boolean upgradeCasIfRequired(SourceDocument aDocument, String aUser) throws IOException
+    {
+        Validate.notNull(aDocument, "Source document must be specified");
+        Validate.notBlank(aUser, "User must be specified");
+
+        if (schemaService == null) {
+            return false;
+        }
+
+        try (CasStorageSession session = CasStorageSession.openNested(true)) {
+            try (WithExclusiveAccess access = new WithExclusiveAccess(aDocument, aUser)) {
+                flushPendingWrite(access);
+
+                // If the CAS is already in memory, upgrade that instance so that the next user
+                // of the CAS does not have to do it. Otherwise, upgrade a copy from storage that
+                // is not attached to the exclusive access pool - when upgrading a whole project,
+                // the pool would otherwise keep all its CASes in memory until they are evicted.
+                CAS cas;
+                if (access.isCasSet()) {
+                    cas = access.getCas();
+                }
+                else {
+                    if (!getCasFile(aDocument.getProject().getId(), aDocument.getId(), aUser)
+                            .exists()) {
+                        return false;
+                    }
+
+                    cas = readUnmanagedCas(aDocument, aUser);
+                }
+
+                session.add(aDocument.getId(), aUser, EXCLUSIVE_WRITE_ACCESS, cas);
+
+                boolean upgraded = schemaService.upgradeCasIfRequired(cas, aDocument);
+                if (upgraded) {
+                    realWriteCas(aDocument, aUser, cas);
+                    sharedAccessCache.invalidate(access.getKey());
+                }
+
+                return upgraded;
+            }
+            finally {
+                session.remove(aDocument.getId(), aUser);
+            }
+        }
+        catch (IOException e) {
+            throw e;
+        }
+        catch (Exception e) {
+            throw new IOException(e);
+        }
+    }
+
     @Override
     public void forceActionOnCas(SourceDocument aDocument, String aUser,
             CasStorageServiceLoader aLoader, CasStorageServiceAction aAction, boolean aSave)
@@ -971,6 +1622,9 @@ public class CasStorageServiceImpl
         // upgrade it, then add this info to a mini-session to ensure that write-access is known
         try (CasStorageSession session = CasStorageSession.openNested(true)) {
             try (WithExclusiveAccess access = new WithExclusiveAccess(aDocument, aUser)) {
+                // The loader may read the CAS from disk, so deferred changes must be there first
+                flushPendingWrite(access);
+
                 session.add(aDocument.getId(), aUser, EXCLUSIVE_WRITE_ACCESS, access.getHolder());
 
                 CAS cas = aLoader.load(aDocument, aUser);
@@ -1003,7 +1657,9 @@ public class CasStorageServiceImpl
         // Ensure that the CAS is not being re-written and temporarily unavailable while we check
         // for its existence
         try (WithExclusiveAccess access = new WithExclusiveAccess(aDocument, aUser)) {
-            return getCasFile(aDocument, aUser).exists();
+            flushPendingWrite(access);
+
+            return getCasFile(aDocument.getProject().getId(), aDocument.getId(), aUser).exists();
         }
         catch (IOException e) {
             throw e;
@@ -1082,6 +1738,7 @@ public class CasStorageServiceImpl
                         .setOwner(_cas -> returnBorrowedCas(_cas, getKey(), holder));
 
                 holder.setCas(aCas);
+                transferCasOwnershipToCurrentThread(aCas);
             }
             else {
                 CasStorageSession.get().getManagedState(documentId, username)
@@ -1150,7 +1807,9 @@ public class CasStorageServiceImpl
         // Ensure that the CAS is not being re-written and temporarily unavailable while we check
         // for its existence
         try (WithExclusiveAccess access = new WithExclusiveAccess(aDocument, aUser)) {
-            File casFile = getCasFile(aDocument, aUser);
+            flushPendingWrite(access);
+
+            File casFile = getCasFile(aDocument.getProject().getId(), aDocument.getId(), aUser);
             if (!casFile.exists()) {
                 return Optional.empty();
             }
@@ -1216,6 +1875,14 @@ public class CasStorageServiceImpl
     @Transactional
     public void beforeLayerConfigurationChanged(LayerConfigurationChangedEvent aEvent)
     {
+        // Write any deferred changes before the CASes are dropped from memory
+        for (PendingWrite pendingWrite : new ArrayList<>(pendingWrites.values())) {
+            if (Objects.equals(pendingWrite.document.getProject().getId(),
+                    aEvent.getProject().getId())) {
+                writeBehind(pendingWrite.document, pendingWrite.username);
+            }
+        }
+
         // Tell the known CAS holders for the given project that their type system is outdated
         // so they can be refreshed when next returned or borrowed
         logExclusiveAccessHolders();
@@ -1234,4 +1901,75 @@ public class CasStorageServiceImpl
         sharedAccessCache.asMap().keySet()
                 .removeIf(key -> Objects.equals(key.getProjectId(), aEvent.getProject().getId()));
     }
+
+    @EventListener
+    public void onSessionDestroyed(SessionDestroyedEvent aEvent)
+    {
+        if (writeBehindExecutor == null) {
+            return;
+        }
+
+        // Do not wait for the write-behind delay to expire when the user is gone
+        aEvent.getSecurityContexts().stream() //
+                .map(SecurityContext::getAuthentication) //
+                .filter(Objects::nonNull) //
+                .map(Authentication::getName) //
+                .forEach(username -> pendingWrites.values().stream() //
+                        .filter(pendingWrite -> username.equals(pendingWrite.username))
+                        .forEach(pendingWrite -> writeBehindExecutor.execute(
+                                () -> writeBehind(pendingWrite.document, pendingWrite.username))));
+    }
+
+    private static class PendingWrite
+    {
+        private final SourceDocument document;
+        private final String username;
+        private final ScheduledFuture<?> future;
+        private final int attempts;
+
+        /**
+         * @param aFuture
+         *            the scheduled write or {@code null} if writing in the background has been
+         *            abandoned.
+         * @param aAttempts
+         *            the number of failed attempts to write the CAS.
+         */
+        public PendingWrite(SourceDocument aDocument, String aUsername, ScheduledFuture<?> aFuture,
+                int aAttempts)
+        {
+            document = aDocument;
+            username = aUsername;
+            future = aFuture;
+            attempts = aAttempts;
+        }
+
+        public boolean isAbandoned()
+        {
+            return future == null;
+        }
+
+        public void cancel()
+        {
+            if (future != null) {
+                future.cancel(false);
+            }
+        }
+    }
+
+    /**
+     * Tracks the changes made to a CAS since it has been read from a particular file.
+     */
+    private static class JournalState
+    {
+        private final Marker marker;
+        private final long journalOffset;
+        private File casFile;
+
+        public JournalState(Marker aMarker, File aCasFile, long aJournalOffset)
+        {
+            marker = aMarker;
+            casFile = aCasFile;
+            journalOffset = aJournalOffset;
+        }
+    }
 }
@@ -40,13 +40,16 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.sql.Timestamp;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
 import java.util.TreeMap;
 
 import javax.persistence.EntityManager;
@@ -99,6 +102,8 @@ import de.tudarmstadt.ukp.clarin.webanno.support.logging.Logging;
 public class DocumentServiceImpl
     implements DocumentService
 {
+    private static final Set<String> SOURCE_DOCUMENT_SORT_PROPERTIES = Set.of("name", "state");
+
     private final Logger log = LoggerFactory.getLogger(getClass());
 
     @PersistenceContext
@@ -462,6 +467,64 @@ public class DocumentServiceImpl
         return sourceDocuments;
     }
 
+    @Override
+    public long countSourceDocuments(Project aProject, String aNameFilter)
+    {
+        Validate.notNull(aProject, "Project must be specified");
+
+        String query = String.join("\n", //
+                "SELECT COUNT(*)", //
+                "FROM SourceDocument", //
+                "WHERE project = :project", //
+                "  AND format <> :format", //
+                "  AND LOWER(name) LIKE :name ESCAPE '!'");
+
+        return entityManager.createQuery(query, Long.class) //
+                .setParameter("project", aProject) //
+                .setParameter("format", WebAnnoConst.TAB_SEP) //
+                .setParameter("name", toNamePattern(aNameFilter)) //
+                .getSingleResult();
+    }
+
+    @Override
+    public List<SourceDocument> listSourceDocuments(Project aProject, String aNameFilter,
+            String aSortProperty, boolean aAscending, long aFirst, long aCount)
+    {
+        Validate.notNull(aProject, "Project must be specified");
+        Validate.isTrue(SOURCE_DOCUMENT_SORT_PROPERTIES.contains(aSortProperty),
+                "Cannot sort source documents by [%s]", aSortProperty);
+
+        // The property is validated above, so it is safe to use it in the query. The ID is used
+        // as a tie-breaker to keep the pages stable.
+        String query = String.join("\n", //
+                "FROM SourceDocument", //
+                "WHERE project = :project", //
+                "  AND format <> :format", //
+                "  AND LOWER(name) LIKE :name ESCAPE '!'", //
+                "ORDER BY " + aSortProperty + (aAscending ? " ASC" : " DESC") + ", id ASC");
+
+        return entityManager.createQuery(query, SourceDocument.class) //
+                .setParameter("project", aProject) //
+                .setParameter("format", WebAnnoConst.TAB_SEP) //
+                .setParameter("name", toNamePattern(aNameFilter)) //
+                .setFirstResult((int) aFirst) //
+                .setMaxResults((int) aCount) //
+                .getResultList();
+    }
+
+    private static String toNamePattern(String aNameFilter)
+    {
+        if (aNameFilter == null) {
+            return "%";
+        }
+
+        String escaped = aNameFilter.toLowerCase(Locale.ROOT) //
+                .replace("!", "!!") //
+                .replace("%", "!%") //
+                .replace("_", "!_");
+        return "%" + escaped + "%";
+    }
+
     @Override
     @Transactional
     public void removeSourceDocument(SourceDocument aDocument) throws IOException
@@ -876,6 +939,26 @@ public class DocumentServiceImpl
                 .getResultList();
     }
 
+    @Override
+    @Transactional(noRollbackFor = NoResultException.class)
+    public List<AnnotationDocument> listAllAnnotationDocuments(Project aProject,
+            Collection<SourceDocument> aDocuments)
+    {
+        Validate.notNull(aProject, "Project must be specified");
+
+        // HQL doesn't seem to like queries with an empty parameter right of "in"
+        if (aDocuments.isEmpty()) {
+            return new ArrayList<>();
+        }
+
+        return entityManager
+                .createQuery("FROM AnnotationDocument WHERE project = :project "
+                        + "AND document IN (:documents)", AnnotationDocument.class)
+                .setParameter("project", aProject) //
+                .setParameter("documents", aDocuments) //
+                .getResultList();
+    }
+
     @Override
     public Map<SourceDocument, AnnotationDocument> listAnnotatableDocuments(Project aProject,
             User aUser)
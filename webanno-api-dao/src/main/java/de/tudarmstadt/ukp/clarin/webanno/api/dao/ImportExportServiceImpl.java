@@ -33,9 +33,11 @@ import static de.tudarmstadt.ukp.clarin.webanno.model.Mode.CORRECTION;
 import static de.tudarmstadt.ukp.clarin.webanno.support.ZipUtils.zipFolder;
 import static de.tudarmstadt.ukp.clarin.webanno.support.logging.Logging.KEY_PROJECT_ID;
 import static java.io.File.createTempFile;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
 import static java.util.Collections.unmodifiableList;
-import static org.apache.commons.io.FileUtils.copyFile;
+import static org.apache.commons.io.FileUtils.cleanDirectory;
 import static org.apache.commons.io.FileUtils.forceDelete;
+import static org.apache.commons.io.FileUtils.forceMkdir;
 import static org.apache.uima.fit.factory.AnalysisEngineFactory.createEngine;
 import static org.apache.uima.fit.factory.CollectionReaderFactory.createReader;
 import static org.apache.uima.fit.factory.ConfigurationParameterFactory.addConfigurationParameters;
@@ -56,6 +58,7 @@ import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Objects;
 
 import org.apache.commons.lang3.ClassUtils;
 import org.apache.commons.lang3.tuple.Pair;
@@ -69,7 +72,7 @@ import org.apache.uima.cas.Type;
 import org.apache.uima.cas.text.AnnotationFS;
 import org.apache.uima.collection.CollectionReader;
 import org.apache.uima.collection.CollectionReaderDescription;
-import org.apache.uima.fit.factory.CasFactory;
+import org.apache.uima.resource.ResourceInitializationException;
 import org.apache.uima.resource.metadata.TypeSystemDescription;
 import org.dkpro.core.api.io.JCasFileWriter_ImplBase;
 import org.dkpro.core.api.io.ResourceCollectionReaderBase;
@@ -84,6 +87,7 @@ import org.springframework.core.annotation.AnnotationAwareOrderComparator;
 import org.springframework.stereotype.Component;
 import org.springframework.transaction.annotation.Transactional;
 
+import de.tudarmstadt.ukp.clarin.webanno.api.AnnotationExportSession;
 import de.tudarmstadt.ukp.clarin.webanno.api.AnnotationSchemaService;
 import de.tudarmstadt.ukp.clarin.webanno.api.CasStorageService;
 import de.tudarmstadt.ukp.clarin.webanno.api.ImportExportService;
@@ -232,27 +236,57 @@ public class ImportExportServiceImpl
             bulkOperationContext = new HashMap<>();
         }
 
-        String username;
+        String username = getExportUser(aUser, aMode);
+
+        // Read file
+        File exportFile;
+        try (CasStorageSession session = CasStorageSession.openNested()) {
+            CAS cas = casStorageService.readCas(aDocument, username);
+            exportFile = exportCasToFile(cas, aDocument, aFileName, aFormat, aStripExtension,
+                    aBulkOperationContext);
+        }
+
+        logAnnotationExport(aDocument, aUser, aFormat);
+
+        return exportFile;
+    }
+
+    @Override
+    public AnnotationExportSession openAnnotationExportSession(Project aProject,
+            Map<Pair<Project, String>, Object> aBulkOperationContext)
+        throws UIMAException, IOException
+    {
+        Map<Pair<Project, String>, Object> bulkOperationContext = aBulkOperationContext;
+        if (bulkOperationContext == null) {
+            bulkOperationContext = new HashMap<>();
+        }
+
+        // Look up the project-wide information right away so the session does not need to hit
+        // the DB when it is used from another thread
+        TypeSystemDescription exportTypeSystem = getExportTypeSystem(aProject,
+                bulkOperationContext);
+        getExportFeatures(aProject, bulkOperationContext);
+
+        return new AnnotationExportSessionImpl(aProject, exportTypeSystem, bulkOperationContext);
+    }
+
+    private static String getExportUser(String aUser, Mode aMode)
+    {
         // for Correction, it will export the corrected document (of the logged in user)
         // (CORRECTION_USER.ser is the automated result displayed for the user to correct it, not
         // the final result) for automation, it will export either the corrected document
         // (Annotated) or the automated document
         if (aMode.equals(ANNOTATION) || aMode.equals(AUTOMATION) || aMode.equals(CORRECTION)) {
-            username = aUser;
+            return aUser;
         }
         // The merge result will be exported
         else {
-            username = CURATION_USER;
-        }
-
-        // Read file
-        File exportFile;
-        try (CasStorageSession session = CasStorageSession.openNested()) {
-            CAS cas = casStorageService.readCas(aDocument, username);
-            exportFile = exportCasToFile(cas, aDocument, aFileName, aFormat, aStripExtension,
-                    aBulkOperationContext);
+            return CURATION_USER;
         }
+    }
 
+    private void logAnnotationExport(SourceDocument aDocument, String aUser, FormatSupport aFormat)
+    {
         Project project = aDocument.getProject();
         try (MDC.MDCCloseable closable = MDC.putCloseable(KEY_PROJECT_ID,
                 String.valueOf(project.getId()))) {
@@ -262,8 +296,6 @@ public class ImportExportServiceImpl
                     aDocument.getName(), aDocument.getId(), aUser, project.getName(),
                     project.getId(), aFormat.getId());
         }
-
-        return exportFile;
     }
 
     @Override
@@ -285,7 +317,8 @@ public class ImportExportServiceImpl
         }
 
         // Prepare a CAS with the project type system
-        CAS cas = CasFactory.createCas(tsd);
+        CAS cas = aFullProjectTypeSystem == null ? annotationService.createCas(aProject)
+                : annotationService.createCas(tsd);
 
         // Convert the source document to CAS
         FormatSupport format = getReadableFormatById(aFormatId).orElseThrow(
@@ -447,70 +480,24 @@ public class ImportExportServiceImpl
             bulkOperationContext = new HashMap<>();
         }
 
-        // Either fetch the type system from the bulk-context or fetch it from the DB and store it
-        // in the bulk-context to avoid further lookups in the same bulk operation
-        Pair<Project, String> exportTypeSystemKey = Pair.of(project, "exportTypeSystem");
-        TypeSystemDescription exportTypeSystem = (TypeSystemDescription) bulkOperationContext
-                .get(exportTypeSystemKey);
-        if (exportTypeSystem == null) {
-            exportTypeSystem = annotationService.getTypeSystemForExport(project);
-            bulkOperationContext.put(exportTypeSystemKey, exportTypeSystem);
-        }
+        TypeSystemDescription exportTypeSystem = getExportTypeSystem(project,
+                bulkOperationContext);
 
         try (CasStorageSession session = CasStorageSession.openNested()) {
-            // Update type system the CAS, compact it (remove all non-reachable feature structures)
-            // and remove all internal feature structures in the process
             CAS exportCas = WebAnnoCasUtil.createCas();
             session.add(EXPORT_CAS, CasAccessMode.EXCLUSIVE_WRITE_ACCESS, exportCas);
-            annotationService.prepareCasForExport(aCas, exportCas, aDocument, exportTypeSystem);
-
-            // Update the source file name in case it is changed for some reason. This is necessary
-            // for the writers to create the files under the correct names.
-            File currentDocumentUri = new File(repositoryProperties.getPath().getAbsolutePath()
-                    + "/" + PROJECT_FOLDER + "/" + project.getId() + "/" + DOCUMENT_FOLDER + "/"
-                    + aDocument.getId() + "/" + SOURCE_FOLDER);
-            DocumentMetaData documentMetadata = DocumentMetaData.get(exportCas.getJCas());
-            documentMetadata
-                    .setDocumentBaseUri(currentDocumentUri.toURI().toURL().toExternalForm());
-            documentMetadata.setDocumentUri(
-                    new File(currentDocumentUri, aFileName).toURI().toURL().toExternalForm());
-            documentMetadata.setCollectionId(currentDocumentUri.toURI().toURL().toExternalForm());
-            documentMetadata.setDocumentId(aFileName);
-
-            // update with the correct tagset name
-            Pair<Project, String> annotationFeaturesKey = Pair.of(project, "annotationFeatures");
-            @SuppressWarnings("unchecked")
-            List<AnnotationFeature> features = (List<AnnotationFeature>) bulkOperationContext
-                    .get(annotationFeaturesKey);
-            if (features == null) {
-                features = annotationService.listAnnotationFeature(project);
-                bulkOperationContext.put(annotationFeaturesKey, features);
-            }
-            for (AnnotationFeature feature : features) {
-                TagSet tagSet = feature.getTagset();
-                if (tagSet == null || CHAIN_TYPE.equals(feature.getLayer().getType())) {
-                    continue;
-                }
-
-                updateCasWithTagSet(exportCas, feature.getLayer().getName(), tagSet.getName());
-            }
+            prepareExportCas(aCas, exportCas, aDocument, aFileName, exportTypeSystem,
+                    bulkOperationContext);
 
             File exportTempDir = Files.createTempDirectory("webanno" + "export").toFile();
             try {
-
-                AnalysisEngineDescription writer = aFormat
-                        .getWriterDescription(aDocument.getProject(), exportTypeSystem, exportCas);
-                addConfigurationParameters(writer, JCasFileWriter_ImplBase.PARAM_USE_DOCUMENT_ID,
-                        true, JCasFileWriter_ImplBase.PARAM_ESCAPE_FILENAME, false,
-                        JCasFileWriter_ImplBase.PARAM_TARGET_LOCATION, exportTempDir,
-                        JCasFileWriter_ImplBase.PARAM_STRIP_EXTENSION, aStripExtension);
-
                 // Not using SimplePipeline.runPipeline here now because it internally works with an
                 // aggregate engine which is slow due to
                 // https://issues.apache.org/jira/browse/UIMA-6200
                 AnalysisEngine engine = null;
                 try {
-                    engine = createEngine(writer);
+                    engine = createWriter(aFormat, project, exportTypeSystem, exportCas,
+                            exportTempDir, aStripExtension);
                     engine.process(getRealCas(exportCas));
                     collectionProcessComplete(engine);
                 }
@@ -518,27 +505,7 @@ public class ImportExportServiceImpl
                     destroy(engine);
                 }
 
-                // If the writer produced more than one file, we package it up as a ZIP file
-                File exportFile;
-                if (exportTempDir.listFiles().length > 1) {
-                    exportFile = new File(exportTempDir.getAbsolutePath() + ".zip");
-                    try {
-                        zipFolder(exportTempDir, exportFile);
-                    }
-                    catch (Exception e) {
-                        try (MDC.MDCCloseable closable = MDC.putCloseable(Logging.KEY_PROJECT_ID,
-                                String.valueOf(project.getId()))) {
-                            log.info("Unable to create zip File");
-                        }
-                    }
-                }
-                else {
-                    exportFile = new File(exportTempDir.getParent(),
-                            exportTempDir.listFiles()[0].getName());
-                    copyFile(exportTempDir.listFiles()[0], exportFile);
-                }
-
-                return exportFile;
+                return collectExportedFile(project, exportTempDir, exportTempDir.getParentFile());
             }
             finally {
                 if (exportTempDir != null) {
@@ -548,6 +515,120 @@ public class ImportExportServiceImpl
         }
     }
 
+    private TypeSystemDescription getExportTypeSystem(Project aProject,
+            Map<Pair<Project, String>, Object> aBulkOperationContext)
+        throws ResourceInitializationException
+    {
+        // Either fetch the type system from the bulk-context or fetch it from the DB and store it
+        // in the bulk-context to avoid further lookups in the same bulk operation
+        Pair<Project, String> exportTypeSystemKey = Pair.of(aProject, "exportTypeSystem");
+        TypeSystemDescription exportTypeSystem = (TypeSystemDescription) aBulkOperationContext
+                .get(exportTypeSystemKey);
+        if (exportTypeSystem == null) {
+            exportTypeSystem = annotationService.getTypeSystemForExport(aProject);
+            aBulkOperationContext.put(exportTypeSystemKey, exportTypeSystem);
+        }
+        return exportTypeSystem;
+    }
+
+    private List<AnnotationFeature> getExportFeatures(Project aProject,
+            Map<Pair<Project, String>, Object> aBulkOperationContext)
+    {
+        Pair<Project, String> annotationFeaturesKey = Pair.of(aProject, "annotationFeatures");
+        @SuppressWarnings("unchecked")
+        List<AnnotationFeature> features = (List<AnnotationFeature>) aBulkOperationContext
+                .get(annotationFeaturesKey);
+        if (features == null) {
+            features = annotationService.listAnnotationFeature(aProject);
+            aBulkOperationContext.put(annotationFeaturesKey, features);
+        }
+        return features;
+    }
+
+    /**
+     * Loads the given CAS into the export CAS using the export type system and sets the document
+     * metadata and tagset descriptions expected by the writers.
+     */
+    private void prepareExportCas(CAS aCas, CAS aExportCas, SourceDocument aDocument,
+            String aFileName, TypeSystemDescription aExportTypeSystem,
+            Map<Pair<Project, String>, Object> aBulkOperationContext)
+        throws UIMAException, IOException
+    {
+        Project project = aDocument.getProject();
+
+        // Update type system the CAS, compact it (remove all non-reachable feature structures)
+        // and remove all internal feature structures in the process
+        annotationService.prepareCasForExport(aCas, aExportCas, aDocument, aExportTypeSystem);
+
+        // Update the source file name in case it is changed for some reason. This is necessary
+        // for the writers to create the files under the correct names.
+        File currentDocumentUri = new File(repositoryProperties.getPath().getAbsolutePath() + "/"
+                + PROJECT_FOLDER + "/" + project.getId() + "/" + DOCUMENT_FOLDER + "/"
+                + aDocument.getId() + "/" + SOURCE_FOLDER);
+        DocumentMetaData documentMetadata = DocumentMetaData.get(aExportCas.getJCas());
+        documentMetadata.setDocumentBaseUri(currentDocumentUri.toURI().toURL().toExternalForm());
+        documentMetadata.setDocumentUri(
+                new File(currentDocumentUri, aFileName).toURI().toURL().toExternalForm());
+        documentMetadata.setCollectionId(currentDocumentUri.toURI().toURL().toExternalForm());
+        documentMetadata.setDocumentId(aFileName);
+
+        // update with the correct tagset name
+        for (AnnotationFeature feature : getExportFeatures(project, aBulkOperationContext)) {
+            TagSet tagSet = feature.getTagset();
+            if (tagSet == null || CHAIN_TYPE.equals(feature.getLayer().getType())) {
+                continue;
+            }
+
+            updateCasWithTagSet(aExportCas, feature.getLayer().getName(), tagSet.getName());
+        }
+    }
+
+    private AnalysisEngine createWriter(FormatSupport aFormat, Project aProject,
+            TypeSystemDescription aExportTypeSystem, CAS aExportCas, File aTargetFolder,
+            boolean aStripExtension)
+        throws ResourceInitializationException
+    {
+        AnalysisEngineDescription writer = aFormat.getWriterDescription(aProject,
+                aExportTypeSystem, aExportCas);
+        addConfigurationParameters(writer, JCasFileWriter_ImplBase.PARAM_USE_DOCUMENT_ID, true,
+                JCasFileWriter_ImplBase.PARAM_ESCAPE_FILENAME, false,
+                JCasFileWriter_ImplBase.PARAM_TARGET_LOCATION, aTargetFolder,
+                JCasFileWriter_ImplBase.PARAM_STRIP_EXTENSION, aStripExtension);
+        return createEngine(writer);
+    }
+
+    /**
+     * Takes the output of a writer from the given folder. If the writer produced more than one
+     * file, the files are packaged up as a ZIP file.
+     */
+    private File collectExportedFile(Project aProject, File aWriterFolder, File aTargetFolder)
+        throws IOException
+    {
+        File[] writtenFiles = aWriterFolder.listFiles();
+
+        // If the writer produced more than one file, we package it up as a ZIP file
+        File exportFile;
+        if (writtenFiles.length > 1) {
+            exportFile = new File(aTargetFolder, aWriterFolder.getName() + ".zip");
+            try {
+                zipFolder(aWriterFolder, exportFile);
+            }
+            catch (Exception e) {
+                try (MDC.MDCCloseable closable = MDC.putCloseable(Logging.KEY_PROJECT_ID,
+                        String.valueOf(aProject.getId()))) {
+                    log.info("Unable to create zip File");
+                }
+            }
+        }
+        else {
+            // Move instead of copying - the file is in the same temporary area anyway
+            exportFile = new File(aTargetFolder, writtenFiles[0].getName());
+            Files.move(writtenFiles[0].toPath(), exportFile.toPath(), REPLACE_EXISTING);
+        }
+
+        return exportFile;
+    }
+
     /**
      * A Helper method to add {@link TagsetDescription} to {@link CAS}
      *
@@ -587,4 +668,97 @@ public class ImportExportServiceImpl
             aCas.addFsToIndexes(fs);
         }
     }
+
+    private class AnnotationExportSessionImpl
+        implements AnnotationExportSession
+    {
+        private final Project project;
+        private final TypeSystemDescription exportTypeSystem;
+        private final Map<Pair<Project, String>, Object> bulkOperationContext;
+        private final File sessionFolder;
+        private final File outputFolder;
+        private final Map<Pair<String, Boolean>, Pair<AnalysisEngine, File>> writers = //
+                new HashMap<>();
+        private CAS exportCas;
+
+        public AnnotationExportSessionImpl(Project aProject,
+                TypeSystemDescription aExportTypeSystem,
+                Map<Pair<Project, String>, Object> aBulkOperationContext)
+            throws IOException
+        {
+            project = aProject;
+            exportTypeSystem = aExportTypeSystem;
+            bulkOperationContext = aBulkOperationContext;
+            sessionFolder = Files.createTempDirectory("webanno" + "export").toFile();
+            outputFolder = new File(sessionFolder, "output");
+            forceMkdir(outputFolder);
+        }
+
+        @Override
+        public File exportAnnotationDocument(SourceDocument aDocument, String aUser,
+                FormatSupport aFormat, String aFileName, Mode aMode, boolean aStripExtension)
+            throws UIMAException, IOException
+        {
+            if (!Objects.equals(project.getId(), aDocument.getProject().getId())) {
+                throw new IllegalArgumentException("Document [" + aDocument.getName()
+                        + "] does not belong to project [" + project.getName() + "]");
+            }
+
+            File exportFile;
+            try (CasStorageSession session = CasStorageSession.openNested()) {
+                CAS cas = casStorageService.readCas(aDocument, getExportUser(aUser, aMode));
+
+                // The export CAS is re-initialized with the export type system each time
+                if (exportCas == null) {
+                    exportCas = WebAnnoCasUtil.createCas();
+                }
+                session.add(EXPORT_CAS, CasAccessMode.EXCLUSIVE_WRITE_ACCESS, exportCas);
+                prepareExportCas(cas, exportCas, aDocument, aFileName, exportTypeSystem,
+                        bulkOperationContext);
+
+                Pair<AnalysisEngine, File> writer = getWriter(aFormat, aStripExtension);
+                try {
+                    writer.getKey().process(getRealCas(exportCas));
+                    collectionProcessComplete(writer.getKey());
+                    exportFile = collectExportedFile(project, writer.getValue(), outputFolder);
+                }
+                finally {
+                    // The writer must find an empty folder for the next document
+                    cleanDirectory(writer.getValue());
+                }
+            }
+
+            logAnnotationExport(aDocument, aUser, aFormat);
+
+            return exportFile;
+        }
+
+        private Pair<AnalysisEngine, File> getWriter(FormatSupport aFormat,
+                boolean aStripExtension)
+            throws ResourceInitializationException, IOException
+        {
+            Pair<String, Boolean> key = Pair.of(aFormat.getId(), aStripExtension);
+            Pair<AnalysisEngine, File> writer = writers.get(key);
+            if (writer == null) {
+                File writerFolder = new File(sessionFolder, "writer-" + writers.size());
+                forceMkdir(writerFolder);
+                writer = Pair.of(createWriter(aFormat, project, exportTypeSystem, exportCas,
+                        writerFolder, aStripExtension), writerFolder);
+                writers.put(key, writer);
+            }
+            return writer;
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            try {
+                writers.values().forEach(writer -> destroy(writer.getKey()));
+                writers.clear();
+            }
+            finally {
+                forceDelete(sessionFolder);
+            }
+        }
+    }
 }
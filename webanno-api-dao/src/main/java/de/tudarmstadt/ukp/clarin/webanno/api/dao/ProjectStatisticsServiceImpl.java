@@ -0,0 +1,251 @@
+/*
+ * Licensed to the Technische Universität Darmstadt under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The Technische Universität Darmstadt 
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.dao;
+
+import static de.tudarmstadt.ukp.clarin.webanno.model.PermissionLevel.ANNOTATOR;
+import static de.tudarmstadt.ukp.clarin.webanno.model.SourceDocumentState.ANNOTATION_IN_PROGRESS;
+
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+
+import org.apache.commons.lang3.Validate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.ProjectStatistics;
+import de.tudarmstadt.ukp.clarin.webanno.api.ProjectStatisticsService;
+import de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst;
+import de.tudarmstadt.ukp.clarin.webanno.api.event.AfterDocumentCreatedEvent;
+import de.tudarmstadt.ukp.clarin.webanno.api.event.AfterDocumentResetEvent;
+import de.tudarmstadt.ukp.clarin.webanno.api.event.AnnotationStateChangeEvent;
+import de.tudarmstadt.ukp.clarin.webanno.api.event.BeforeDocumentRemovedEvent;
+import de.tudarmstadt.ukp.clarin.webanno.api.event.BeforeProjectRemovedEvent;
+import de.tudarmstadt.ukp.clarin.webanno.api.event.DocumentStateChangedEvent;
+import de.tudarmstadt.ukp.clarin.webanno.api.event.ProjectPermissionsChangedEvent;
+import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocumentState;
+import de.tudarmstadt.ukp.clarin.webanno.model.Project;
+import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocumentState;
+
+@Component(ProjectStatisticsService.SERVICE_NAME)
+public class ProjectStatisticsServiceImpl
+    implements ProjectStatisticsService
+{
+    private static final int MAX_CACHED_PROJECTS = 1024;
+
+    private @PersistenceContext EntityManager entityManager;
+
+    /**
+     * Annotators and document counts by project ID. They are dropped whenever a document or a
+     * permission of the project changes and are calculated again when they are next requested.
+     */
+    private final Cache<Long, ProjectCounts> projectCounts = Caffeine.newBuilder()
+            .maximumSize(MAX_CACHED_PROJECTS).build();
+
+    /**
+     * Number of invalidations by project ID. Counts calculated while the project was invalidated
+     * are not cached.
+     */
+    private final Map<Long, Long> generations = new ConcurrentHashMap<>();
+
+    @Override
+    @Transactional
+    public ProjectStatistics getProjectStatistics(Project aProject)
+    {
+        Validate.notNull(aProject, "Project must be specified");
+
+        Long projectId = aProject.getId();
+        ProjectCounts counts = projectCounts.getIfPresent(projectId);
+        if (counts == null) {
+            // The counts are calculated without holding any lock. If the project is invalidated
+            // in the meantime, the counts may be outdated, so they are returned but not cached.
+            long generation = generations.getOrDefault(projectId, 0l);
+            ProjectCounts calculated = calculateCounts(aProject);
+            counts = projectCounts.asMap().compute(projectId, (id, cached) -> {
+                if (cached != null) {
+                    return cached;
+                }
+                return generations.getOrDefault(id, 0l) == generation ? calculated : null;
+            });
+
+            if (counts == null) {
+                counts = calculated;
+            }
+        }
+
+        return new ProjectStatistics(aProject, counts.annotators, counts.total,
+                counts.documentStates, counts.annotationDocumentStates);
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void afterDocumentStateChanged(DocumentStateChangedEvent aEvent)
+    {
+        invalidate(aEvent.getDocument().getProject());
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void afterAnnotationStateChanged(AnnotationStateChangeEvent aEvent)
+    {
+        invalidate(aEvent.getDocument().getProject());
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void afterDocumentCreated(AfterDocumentCreatedEvent aEvent)
+    {
+        invalidate(aEvent.getDocument().getProject());
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void afterDocumentReset(AfterDocumentResetEvent aEvent)
+    {
+        invalidate(aEvent.getDocument().getProject());
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void beforeDocumentRemoved(BeforeDocumentRemovedEvent aEvent)
+    {
+        invalidate(aEvent.getDocument().getProject());
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void beforeProjectRemoved(BeforeProjectRemovedEvent aEvent)
+    {
+        invalidate(aEvent.getProject());
+
+        // Counts of a calculation still running for the removed project might still be cached,
+        // but they are never requested again and are eventually evicted
+        if (aEvent.getProject() != null && aEvent.getProject().getId() != null) {
+            generations.remove(aEvent.getProject().getId());
+        }
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void afterProjectPermissionsChanged(ProjectPermissionsChangedEvent aEvent)
+    {
+        invalidate(aEvent.getProject());
+    }
+
+    private void invalidate(Project aProject)
+    {
+        if (aProject == null || aProject.getId() == null) {
+            return;
+        }
+
+        // The generation is incremented while holding the lock for the project, so a calculation
+        // which started before the change cannot be cached after the counts have been dropped
+        projectCounts.asMap().compute(aProject.getId(), (id, cached) -> {
+            generations.merge(id, 1l, Long::sum);
+            return null;
+        });
+    }
+
+    private ProjectCounts calculateCounts(Project aProject)
+    {
+        // Training documents for the automation are not annotated, so they are not counted
+        String documentQuery = String.join("\n", //
+                "SELECT state, COUNT(*)", //
+                "FROM SourceDocument", //
+                "WHERE project = :project", //
+                "  AND format <> :format", //
+                "GROUP BY state");
+
+        List<Object[]> documentRows = entityManager.createQuery(documentQuery, Object[].class)
+                .setParameter("project", aProject) //
+                .setParameter("format", WebAnnoConst.TAB_SEP) //
+                .getResultList();
+
+        long total = 0;
+        Map<SourceDocumentState, Long> documentStates = new EnumMap<>(SourceDocumentState.class);
+        for (Object[] row : documentRows) {
+            // Documents without a state are considered to be in progress (cf.
+            // ProjectServiceImpl.recalculateProjectState)
+            SourceDocumentState state = row[0] != null ? (SourceDocumentState) row[0]
+                    : ANNOTATION_IN_PROGRESS;
+            long count = (Long) row[1];
+            documentStates.merge(state, count, Long::sum);
+            total += count;
+        }
+
+        String annotationDocumentQuery = String.join("\n", //
+                "SELECT user, state, COUNT(*)", //
+                "FROM AnnotationDocument", //
+                "WHERE project = :project", //
+                "  AND document.format <> :format", //
+                "GROUP BY user, state");
+
+        List<Object[]> annotationDocumentRows = entityManager
+                .createQuery(annotationDocumentQuery, Object[].class)
+                .setParameter("project", aProject) //
+                .setParameter("format", WebAnnoConst.TAB_SEP) //
+                .getResultList();
+
+        Map<String, Map<AnnotationDocumentState, Long>> annotationDocumentStates = new HashMap<>();
+        for (Object[] row : annotationDocumentRows) {
+            annotationDocumentStates
+                    .computeIfAbsent((String) row[0],
+                            user -> new EnumMap<>(AnnotationDocumentState.class))
+                    .put((AnnotationDocumentState) row[1], (Long) row[2]);
+        }
+
+        return new ProjectCounts(listAnnotators(aProject), total, documentStates,
+                annotationDocumentStates);
+    }
+
+    private List<String> listAnnotators(Project aProject)
+    {
+        String query = String.join("\n", //
+                "SELECT DISTINCT p.user", //
+                "FROM ProjectPermission p, User u", //
+                "WHERE p.project = :project", //
+                "  AND p.level   = :level", //
+                "  AND p.user    = u.username", //
+                "ORDER BY p.user");
+
+        return entityManager.createQuery(query, String.class) //
+                .setParameter("project", aProject) //
+                .setParameter("level", ANNOTATOR) //
+                .getResultList();
+    }
+
+    private static final class ProjectCounts
+    {
+        private final List<String> annotators;
+        private final long total;
+        private final Map<SourceDocumentState, Long> documentStates;
+        private final Map<String, Map<AnnotationDocumentState, Long>> annotationDocumentStates;
+
+        public ProjectCounts(List<String> aAnnotators, long aTotal,
+                Map<SourceDocumentState, Long> aDocumentStates,
+                Map<String, Map<AnnotationDocumentState, Long>> aAnnotationDocumentStates)
+        {
+            annotators = aAnnotators;
+            total = aTotal;
+            documentStates = aDocumentStates;
+            annotationDocumentStates = aAnnotationDocumentStates;
+        }
+    }
+}
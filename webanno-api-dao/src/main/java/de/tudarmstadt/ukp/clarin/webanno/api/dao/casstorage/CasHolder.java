@@ -29,6 +29,11 @@ import org.apache.uima.cas.CAS;
  */
 public class CasHolder
 {
+    /**
+     * Rough average heap size of an annotation including its features and index entries.
+     */
+    private static final long ESTIMATED_ANNOTATION_SIZE = 256;
+
     private final CasKey key;
 
     private CAS cas;
@@ -127,6 +132,26 @@ public class CasHolder
         V get() throws Exception;
     }
 
+    /**
+     * @return a rough estimate of the heap size (bytes) occupied by the CAS. The estimate is based
+     *         on the length of the document text and the number of annotations. If no CAS is set,
+     *         the size is {@code 0}.
+     */
+    public long getEstimatedCasSize()
+    {
+        if (cas == null) {
+            return 0;
+        }
+
+        long size = 0;
+        String text = cas.getDocumentText();
+        if (text != null) {
+            size += 2L * text.length();
+        }
+        size += ESTIMATED_ANNOTATION_SIZE * cas.getAnnotationIndex().size();
+        return size;
+    }
+
     public String getCasHashCode()
     {
         if (cas != null) {
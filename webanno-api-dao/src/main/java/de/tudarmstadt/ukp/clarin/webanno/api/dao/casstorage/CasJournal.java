@@ -0,0 +1,236 @@
+/*
+ * Licensed to the Technische Universität Darmstadt under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The Technische Universität Darmstadt 
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.dao.casstorage;
+
+import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil.getRealCas;
+import static java.lang.System.currentTimeMillis;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Iterator;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.Marker;
+import org.apache.uima.cas.impl.CASImpl;
+import org.apache.uima.cas.impl.Serialization;
+
+/**
+ * Journal of changes made to a CAS since its snapshot (the {@code .ser} file) was written. The
+ * journal is stored next to the snapshot and consists of delta CASes (UIMA compressed binary form
+ * 4) which are applied to the snapshot in order when the CAS is read.
+ * <p>
+ * UIMA permits only a single marker per CAS, so each CAS contributes one entry: the changes since
+ * the CAS was read. Each save replaces the entry of the CAS with the new cumulative changes. Thus,
+ * the journal consists of one entry for every time the CAS was read and changed since the last
+ * snapshot was written.
+ * <p>
+ * Format: header (magic, version, time the journal was started, size of the snapshot it belongs
+ * to), followed by the entries (size of the delta, number of indexed feature structures after
+ * applying the delta, the delta).
+ */
+public final class CasJournal
+{
+    public static final String JOURNAL_SUFFIX = ".journal";
+
+    private static final byte[] MAGIC = { 'W', 'A', 'C', 'J' };
+    private static final int VERSION = 1;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private CasJournal()
+    {
+        // No instances
+    }
+
+    public static File getJournalFile(File aCasFile)
+    {
+        return new File(aCasFile.getPath() + JOURNAL_SUFFIX);
+    }
+
+    /**
+     * Applies the journal of the given snapshot (if there is one) to the given CAS. The CAS must
+     * just have been read from the snapshot.
+     * 
+     * @param aCas
+     *            the CAS.
+     * @param aCasFile
+     *            the snapshot file.
+     * @return the size of the journal or {@code 0} if there is no journal.
+     * @throws IOException
+     *             if the journal cannot be read, does not belong to the snapshot or produces a CAS
+     *             which differs from the one which was recorded.
+     */
+    public static long apply(CAS aCas, File aCasFile) throws IOException
+    {
+        File journal = getJournalFile(aCasFile);
+        if (!journal.exists()) {
+            return 0;
+        }
+
+        CAS realCas = getRealCas(aCas);
+        // UIMA-6162 Workaround: synchronize CAS during de/serialization
+        synchronized (((CASImpl) realCas).getBaseCAS()) {
+            try (DataInputStream is = new DataInputStream(
+                    new BufferedInputStream(new FileInputStream(journal), BUFFER_SIZE))) {
+                byte[] magic = is.readNBytes(MAGIC.length);
+                if (!Arrays.equals(MAGIC, magic) || is.read() != VERSION) {
+                    throw new IOException("Unsupported CAS journal format [" + journal + "]");
+                }
+
+                is.readLong(); // Time the journal was started
+
+                long snapshotSize = is.readLong();
+                if (snapshotSize != aCasFile.length()) {
+                    throw new IOException("CAS journal [" + journal + "] does not belong to the "
+                            + "snapshot [" + aCasFile + "] (expected size: " + snapshotSize
+                            + "; actual size: " + aCasFile.length() + ")");
+                }
+
+                int entry = 0;
+                while (true) {
+                    int size;
+                    try {
+                        size = is.readInt();
+                    }
+                    catch (EOFException e) {
+                        break;
+                    }
+
+                    int expectedCount = is.readInt();
+                    byte[] delta = is.readNBytes(size);
+                    if (delta.length != size) {
+                        throw new IOException("CAS journal [" + journal + "] is truncated");
+                    }
+
+                    Serialization.deserializeCAS(realCas, new ByteArrayInputStream(delta));
+
+                    int actualCount = countIndexedFeatureStructures(realCas);
+                    if (actualCount != expectedCount) {
+                        throw new IOException("Applying entry " + entry + " of CAS journal ["
+                                + journal + "] produced " + actualCount + " instead of "
+                                + expectedCount + " indexed feature structures");
+                    }
+                    entry++;
+                }
+            }
+        }
+
+        return journal.length();
+    }
+
+    /**
+     * Records the changes made to the CAS since the given marker was created in the journal of the
+     * given snapshot. The journal file is replaced atomically.
+     * 
+     * @param aCas
+     *            the CAS.
+     * @param aMarker
+     *            the marker which was created when the CAS was read from the snapshot and the
+     *            journal.
+     * @param aCasFile
+     *            the snapshot file.
+     * @param aOffset
+     *            the size of the journal when the marker was created. The part of the journal
+     *            after this offset contains the changes recorded previously for the same marker and
+     *            is replaced.
+     * @return the size of the journal.
+     * @throws IOException
+     *             if the changes could not be recorded. In this case, the journal is unchanged.
+     */
+    public static long write(CAS aCas, Marker aMarker, File aCasFile, long aOffset)
+        throws IOException
+    {
+        File journal = getJournalFile(aCasFile);
+        File tempJournal = new File(journal.getPath() + ".tmp");
+
+        if (aOffset > 0 && (!journal.exists() || journal.length() < aOffset)) {
+            throw new IOException("CAS journal [" + journal + "] has changed since the CAS "
+                    + "was read");
+        }
+
+        CAS realCas = getRealCas(aCas);
+        // UIMA-6162 Workaround: synchronize CAS during de/serialization
+        synchronized (((CASImpl) realCas).getBaseCAS()) {
+            ByteArrayOutputStream delta = new ByteArrayOutputStream();
+            try {
+                Serialization.serializeWithCompression(realCas, delta, aMarker);
+            }
+            catch (Exception e) {
+                throw new IOException("Unable to serialize changes to CAS", e);
+            }
+
+            try (DataOutputStream os = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(tempJournal), BUFFER_SIZE))) {
+                if (aOffset > 0) {
+                    try (InputStream is = new FileInputStream(journal)) {
+                        IOUtils.copyLarge(is, os, 0, aOffset);
+                    }
+                }
+                else {
+                    os.write(MAGIC);
+                    os.write(VERSION);
+                    os.writeLong(currentTimeMillis());
+                    os.writeLong(aCasFile.length());
+                }
+
+                os.writeInt(delta.size());
+                os.writeInt(countIndexedFeatureStructures(realCas));
+                delta.writeTo(os);
+            }
+
+            Files.move(tempJournal.toPath(), journal.toPath(), REPLACE_EXISTING, ATOMIC_MOVE);
+        }
+
+        return journal.length();
+    }
+
+    /**
+     * @return the time at which the first entry was added to the given journal.
+     */
+    public static long getStartTime(File aJournal) throws IOException
+    {
+        try (DataInputStream is = new DataInputStream(new FileInputStream(aJournal))) {
+            IOUtils.skipFully(is, MAGIC.length + 1);
+            return is.readLong();
+        }
+    }
+
+    private static int countIndexedFeatureStructures(CAS aCas)
+    {
+        int count = 0;
+        Iterator<CAS> i = aCas.getViewIterator();
+        while (i.hasNext()) {
+            count += i.next().select().count();
+        }
+        return count;
+    }
+}
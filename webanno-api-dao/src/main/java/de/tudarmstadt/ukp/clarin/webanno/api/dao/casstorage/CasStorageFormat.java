@@ -0,0 +1,39 @@
+/*
+ * Licensed to the Technische Universität Darmstadt under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The Technische Universität Darmstadt 
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.dao.casstorage;
+
+/**
+ * Format used when writing annotation CASes to the storage. When reading, the format is detected
+ * from the file content, so files in any of these formats can be read irrespective of the format
+ * which is currently configured. Files are converted to the configured format the next time they
+ * are written.
+ */
+public enum CasStorageFormat
+{
+    /**
+     * Java serialization of a {@code CASCompleteSerializer}. Every file contains the full type
+     * system and index definitions in addition to the CAS data.
+     */
+    JAVA_SERIALIZED,
+
+    /**
+     * UIMA compressed binary form 6 including a compact binary type system. Optionally, the data
+     * can be additionally compressed (cf. {@code cas-storage.compress}).
+     */
+    COMPACT_BINARY;
+}
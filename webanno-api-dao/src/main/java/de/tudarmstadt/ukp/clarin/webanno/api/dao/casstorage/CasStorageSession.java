@@ -256,6 +256,10 @@ public class CasStorageSession
         Validate.notNull(aMode, "The access mode cannot be null");
         Validate.notNull(aCas, "The CAS cannot be null");
 
+        // Entering a session is the point where a CAS gets attached to the current thread, so
+        // this is where we make sure that no other thread is holding it
+        WebAnnoCasUtil.assertCasOwnedByCurrentThread(aCas);
+
         SessionManagedCas managedCas = new SessionManagedCas(aDocumentId, aUser, aMode, aCas);
 
         add(managedCas);
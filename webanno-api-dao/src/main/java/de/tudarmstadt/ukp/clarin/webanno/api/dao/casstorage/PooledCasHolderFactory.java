@@ -17,6 +17,8 @@
  */
 package de.tudarmstadt.ukp.clarin.webanno.api.dao.casstorage;
 
+import java.util.function.Consumer;
+
 import org.apache.commons.pool2.BaseKeyedPooledObjectFactory;
 import org.apache.commons.pool2.PooledObject;
 import org.apache.commons.pool2.impl.DefaultPooledObject;
@@ -24,6 +26,18 @@ import org.apache.commons.pool2.impl.DefaultPooledObject;
 public class PooledCasHolderFactory
     extends BaseKeyedPooledObjectFactory<CasKey, CasHolder>
 {
+    private final Consumer<CasHolder> destroyListener;
+
+    /**
+     * @param aDestroyListener
+     *            called before a holder is dropped from the pool, e.g. by the idle evictor or to
+     *            make room for the CASes of other documents.
+     */
+    public PooledCasHolderFactory(Consumer<CasHolder> aDestroyListener)
+    {
+        destroyListener = aDestroyListener;
+    }
+
     @Override
     public CasHolder create(CasKey aKey) throws Exception
     {
@@ -36,6 +50,12 @@ public class PooledCasHolderFactory
         return new DefaultPooledObject<CasHolder>(aCas);
     }
 
+    @Override
+    public void destroyObject(CasKey aKey, PooledObject<CasHolder> aP) throws Exception
+    {
+        destroyListener.accept(aP.getObject());
+    }
+
     @Override
     public boolean validateObject(CasKey aKey, PooledObject<CasHolder> aP)
     {
@@ -19,10 +19,13 @@ package de.tudarmstadt.ukp.clarin.webanno.api.dao.export;
 
 import static de.tudarmstadt.ukp.clarin.webanno.api.export.ProjectExportRequest.FORMAT_AUTO;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.util.List;
+import java.util.zip.ZipOutputStream;
 
 import org.apache.commons.io.FileUtils;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -65,10 +68,7 @@ public class ProjectExportCuratedDocumentsTask
     {
         Project project = aRequest.getProject();
         File exportFile = null;
-        File exportTempDir = null;
         try {
-            exportTempDir = Files.createTempDirectory("webanno" + "export").toFile();
-
             boolean curationDocumentExist = documentService.existsCurationDocument(project);
 
             if (!curationDocumentExist) {
@@ -76,47 +76,39 @@ public class ProjectExportCuratedDocumentsTask
                         "No curation document created yet for this document");
             }
 
+            exportFile = Files.createTempFile("webanno", "export_curated_documents.zip")
+                    .toFile();
+
             ProjectExportRequest request = aRequest;
             request.setProject(project);
-            exportCuratedDocuments(request, exportTempDir, false, aMonitor);
-
-            exportFile = new File(exportTempDir.getAbsolutePath() + "_curated_documents.zip");
-            ZipUtils.zipFolder(exportTempDir, exportFile);
+            try (ZipOutputStream zip = new ZipOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(exportFile)))) {
+                exportCuratedDocuments(request, zip, false, aMonitor);
+            }
         }
         catch (Exception e) {
             if (exportFile != null) {
                 try {
-                    FileUtils.forceDelete(exportTempDir);
+                    FileUtils.forceDelete(exportFile);
                 }
                 catch (IOException ex) {
                     aMonitor.addMessage(LogMessage.error(this,
-                            "Unable to export file after export failed: %s", ex.getMessage()));
+                            "Unable to delete file after export failed: %s", ex.getMessage()));
                 }
             }
             throw new ProjectExportException(e);
         }
-        finally {
-            if (exportTempDir != null) {
-                try {
-                    FileUtils.forceDelete(exportTempDir);
-                }
-                catch (IOException e) {
-                    aMonitor.addMessage(LogMessage.error(this, "Unable to delete temp file: %s",
-                            e.getMessage()));
-                }
-            }
-        }
 
         return exportFile;
     }
 
     /**
-     * Copy, if exists, curation documents to a folder that will be exported as Zip file
+     * Add, if exists, curation documents to the Zip file being exported
      * 
-     * @param aCopyDir
-     *            The folder where curated documents are copied to be exported as Zip File
+     * @param aStage
+     *            The Zip file to which the curated documents are added
      */
-    private void exportCuratedDocuments(ProjectExportRequest aModel, File aCopyDir,
+    private void exportCuratedDocuments(ProjectExportRequest aModel, ZipOutputStream aStage,
             boolean aIncludeInProgress, ProjectExportTaskMonitor aMonitor)
         throws ProjectExportException, IOException
     {
@@ -143,13 +135,6 @@ public class ProjectExportCuratedDocumentsTask
         int initProgress = aMonitor.getProgress() - 1;
         int i = 1;
         for (de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument sourceDocument : documents) {
-            File curationCasDir = new File(
-                    aCopyDir + CURATION_AS_SERIALISED_CAS + sourceDocument.getName());
-            FileUtils.forceMkdir(curationCasDir);
-
-            File curationDir = new File(aCopyDir + CURATION_FOLDER + sourceDocument.getName());
-            FileUtils.forceMkdir(curationDir);
-
             // If depending on aInProgress, include only the the curation documents that are
             // finished or also the ones that are in progress
             if ((aIncludeInProgress
@@ -159,15 +144,21 @@ public class ProjectExportCuratedDocumentsTask
                         WebAnnoConst.CURATION_USER);
                 if (curationCasFile.exists()) {
                     // Copy CAS - this is used when importing the project again
-                    FileUtils.copyFileToDirectory(curationCasFile, curationCasDir);
+                    ZipUtils.addFileToZip(aStage, curationCasFile, CURATION_AS_SERIALISED_CAS
+                            + sourceDocument.getName() + "/" + curationCasFile.getName());
 
                     // Copy secondary export format for convenience - not used during import
                     try {
                         File curationFile = importExportService.exportAnnotationDocument(
                                 sourceDocument, WebAnnoConst.CURATION_USER, format,
                                 WebAnnoConst.CURATION_USER, Mode.CURATION);
-                        FileUtils.copyFileToDirectory(curationFile, curationDir);
-                        FileUtils.forceDelete(curationFile);
+                        try {
+                            ZipUtils.addFileToZip(aStage, curationFile, CURATION_FOLDER
+                                    + sourceDocument.getName() + "/" + curationFile.getName());
+                        }
+                        finally {
+                            FileUtils.forceDelete(curationFile);
+                        }
                     }
                     catch (Exception e) {
                         // error("Unexpected error while exporting project: " +
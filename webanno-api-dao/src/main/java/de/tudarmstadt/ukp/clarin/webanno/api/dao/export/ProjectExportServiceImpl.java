@@ -20,10 +20,13 @@ package de.tudarmstadt.ukp.clarin.webanno.api.dao.export;
 import static de.tudarmstadt.ukp.clarin.webanno.api.export.ProjectExportTaskState.NOT_STARTED;
 import static de.tudarmstadt.ukp.clarin.webanno.api.export.ProjectExportTaskState.RUNNING;
 import static java.lang.System.currentTimeMillis;
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.util.Arrays.asList;
 import static org.apache.commons.lang3.time.DurationFormatUtils.formatDurationWords;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.file.Files;
@@ -46,6 +49,7 @@ import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
 
 import org.apache.commons.collections4.SetUtils;
 import org.apache.commons.io.FileUtils;
@@ -77,7 +81,6 @@ import de.tudarmstadt.ukp.clarin.webanno.api.export.ProjectImportRequest;
 import de.tudarmstadt.ukp.clarin.webanno.export.model.ExportedProject;
 import de.tudarmstadt.ukp.clarin.webanno.model.Project;
 import de.tudarmstadt.ukp.clarin.webanno.support.JSONUtil;
-import de.tudarmstadt.ukp.clarin.webanno.support.ZipUtils;
 import de.tudarmstadt.ukp.clarin.webanno.support.logging.LogMessage;
 
 @Component
@@ -156,28 +159,19 @@ public class ProjectExportServiceImpl
         throws ProjectExportException, IOException
     {
         boolean success = false;
-        File exportTempDir = null;
+        File projectZipFile = null;
         try {
-            // Directory to store source documents and annotation documents
-            exportTempDir = Files.createTempDirectory("webanno-project" + "export").toFile();
+            // Target file - all exporters write their data directly into the ZIP file
+            projectZipFile = Files.createTempFile("webanno-project", "export.zip").toFile();
 
-            // Target file
-            File projectZipFile = new File(exportTempDir.getAbsolutePath() + ".zip");
+            try (ZipOutputStream zip = new ZipOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(projectZipFile)))) {
+                ExportedProject exProjekt = exportProject(aRequest, aMonitor, zip);
 
-            ExportedProject exProjekt = exportProject(aRequest, aMonitor, exportTempDir);
-
-            // all metadata and project settings data from the database as JSON file
-            File projectSettings = File.createTempFile(EXPORTED_PROJECT, ".json");
-            JSONUtil.generatePrettyJson(exProjekt, projectSettings);
-            FileUtils.copyFileToDirectory(projectSettings, exportTempDir);
-
-            try {
-                ZipUtils.zipFolder(exportTempDir, projectZipFile);
-            }
-            finally {
-                FileUtils.forceDelete(projectSettings);
-                System.gc();
-                FileUtils.forceDelete(exportTempDir);
+                // all metadata and project settings data from the database as JSON file
+                zip.putNextEntry(new ZipEntry(EXPORTED_PROJECT + ".json"));
+                zip.write(JSONUtil.toPrettyJsonString(exProjekt).getBytes(UTF_8));
+                zip.closeEntry();
             }
 
             success = true;
@@ -185,21 +179,21 @@ public class ProjectExportServiceImpl
             return projectZipFile;
         }
         finally {
-            if (!success && exportTempDir != null) {
+            if (!success && projectZipFile != null) {
                 try {
-                    FileUtils.forceDelete(exportTempDir);
+                    FileUtils.forceDelete(projectZipFile);
                 }
                 catch (IOException e) {
                     aMonitor.addMessage(LogMessage.error(this,
-                            "Unable to delete temporary export directory [%s]", exportTempDir));
-                    log.error("Unable to delete temporary export directory [{}]", exportTempDir);
+                            "Unable to delete temporary export file [%s]", projectZipFile));
+                    log.error("Unable to delete temporary export file [{}]", projectZipFile);
                 }
             }
         }
     }
 
     private ExportedProject exportProject(ProjectExportRequest aRequest,
-            ProjectExportTaskMonitor aMonitor, File aStage)
+            ProjectExportTaskMonitor aMonitor, ZipOutputStream aStage)
         throws ProjectExportException, IOException
     {
         Deque<ProjectExporter> deque = new LinkedList<>(exporters);
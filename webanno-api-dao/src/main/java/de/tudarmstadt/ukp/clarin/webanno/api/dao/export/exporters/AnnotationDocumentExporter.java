@@ -32,27 +32,36 @@ import static java.lang.Math.ceil;
 import static java.lang.System.currentTimeMillis;
 import static java.util.Arrays.asList;
 import static java.util.Collections.emptyList;
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
 import static java.util.function.Function.identity;
 import static java.util.stream.Collectors.groupingBy;
 import static java.util.stream.Collectors.toList;
 import static java.util.stream.Collectors.toMap;
-import static org.apache.commons.io.FileUtils.copyFileToDirectory;
 import static org.apache.commons.io.FileUtils.forceDelete;
-import static org.apache.commons.io.FileUtils.forceMkdir;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Enumeration;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
 
 import org.apache.commons.io.FilenameUtils;
 import org.apache.commons.lang3.time.DurationFormatUtils;
@@ -61,11 +70,13 @@ import org.apache.uima.UIMAException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
 import com.github.benmanes.caffeine.cache.Caffeine;
 import com.github.benmanes.caffeine.cache.LoadingCache;
 
+import de.tudarmstadt.ukp.clarin.webanno.api.AnnotationExportSession;
 import de.tudarmstadt.ukp.clarin.webanno.api.DocumentService;
 import de.tudarmstadt.ukp.clarin.webanno.api.ImportExportService;
 import de.tudarmstadt.ukp.clarin.webanno.api.RepositoryProperties;
@@ -83,6 +94,7 @@ import de.tudarmstadt.ukp.clarin.webanno.model.Project;
 import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
 import de.tudarmstadt.ukp.clarin.webanno.security.UserDao;
 import de.tudarmstadt.ukp.clarin.webanno.security.model.User;
+import de.tudarmstadt.ukp.clarin.webanno.support.ZipUtils;
 import de.tudarmstadt.ukp.clarin.webanno.support.logging.LogMessage;
 import de.tudarmstadt.ukp.clarin.webanno.tsv.WebAnnoTsv3FormatSupport;
 
@@ -100,15 +112,18 @@ public class AnnotationDocumentExporter
     private final UserDao userRepository;
     private final ImportExportService importExportService;
     private final RepositoryProperties repositoryProperties;
+    private final int threads;
 
     @Autowired
     public AnnotationDocumentExporter(DocumentService aDocumentService, UserDao aUserRepository,
-            ImportExportService aImportExportService, RepositoryProperties aRepositoryProperties)
+            ImportExportService aImportExportService, RepositoryProperties aRepositoryProperties,
+            @Value("${export.annotation.threads:1}") int aThreads)
     {
         documentService = aDocumentService;
         userRepository = aUserRepository;
         importExportService = aImportExportService;
         repositoryProperties = aRepositoryProperties;
+        threads = aThreads;
     }
 
     @Override
@@ -125,7 +140,7 @@ public class AnnotationDocumentExporter
 
     @Override
     public void exportData(ProjectExportRequest aRequest, ProjectExportTaskMonitor aMonitor,
-            ExportedProject aExProject, File aStage)
+            ExportedProject aExProject, ZipOutputStream aStage)
         throws UIMAException, ClassNotFoundException, IOException
     {
         exportAnnotationDocuments(aMonitor, aRequest.getProject(), aExProject);
@@ -154,17 +169,19 @@ public class AnnotationDocumentExporter
     }
 
     private void exportAnnotationDocumentContents(ProjectExportRequest aRequest,
-            ProjectExportTaskMonitor aMonitor, ExportedProject aExProject, File aStage)
+            ProjectExportTaskMonitor aMonitor, ExportedProject aExProject,
+            ZipOutputStream aStage)
         throws UIMAException, ClassNotFoundException, IOException
     {
         Project project = aRequest.getProject();
 
         // The export process may store project-related information in this context to ensure it
-        // is looked up only once during the bulk operation and the DB is not hit too often.
-        Map<Pair<Project, String>, Object> bulkOperationContext = new HashMap<>();
+        // is looked up only once during the bulk operation and the DB is not hit too often. The
+        // context is shared by the export workers, so it must be thread-safe.
+        Map<Pair<Project, String>, Object> bulkOperationContext = new ConcurrentHashMap<>();
 
         List<SourceDocument> documents = documentService.listSourceDocuments(project);
-        int i = 1;
+        AtomicInteger done = new AtomicInteger();
         int initProgress = aMonitor.getProgress();
 
         // Create a map containing the annotation documents for each source document. Doing this
@@ -178,124 +195,268 @@ public class AnnotationDocumentExporter
         LoadingCache<String, User> usersCache = Caffeine.newBuilder()
                 .build(key -> userRepository.get(key));
 
-        for (SourceDocument srcDoc : documents) {
-            try (CasStorageSession session = CasStorageSession.openNested()) {
-                //
-                // Export initial CASes
-                //
-
-                // The initial CAS must always be exported to ensure that the converted source
-                // document will *always* have the state it had at the time of the initial import.
-                // We we do have a reliably initial CAS and instead lazily convert whenever an
-                // annotator starts annotating, then we could end up with two annotators having two
-                // different versions of their CAS e.g. if there was a code change in the reader
-                // component that affects its output.
-
-                // If the initial CAS does not exist yet, it must be created before export.
-                if (!documentService.existsInitialCas(srcDoc)) {
-                    documentService.createOrReadInitialCas(srcDoc);
+        // Each worker takes an export session from the queue for every document and puts it back
+        // afterwards. Thus, the export CAS and writers of a session are never used concurrently.
+        int workers = Math.max(1, Math.min(threads, documents.size()));
+        List<AnnotationExportSession> allSessions = new ArrayList<>();
+        BlockingQueue<AnnotationExportSession> sessions = new LinkedBlockingQueue<>();
+        ExecutorService executor = workers > 1 ? Executors.newFixedThreadPool(workers) : null;
+        boolean completed = false;
+        try {
+            for (int n = 0; n < workers; n++) {
+                AnnotationExportSession session = importExportService
+                        .openAnnotationExportSession(project, bulkOperationContext);
+                allSessions.add(session);
+                sessions.add(session);
+            }
+
+            List<Future<?>> futures = new ArrayList<>();
+            for (SourceDocument srcDoc : documents) {
+                // Resolve the format and the users here so the workers do not need to look them up
+                FormatSupport format = getExportFormat(aRequest, aMonitor, srcDoc);
+
+                // copy annotation document only for existing users and the state of the
+                // annotation document is not NEW/IGNORE
+                List<AnnotationDocument> annDocs = srcToAnnIdx
+                        .getOrDefault(srcDoc, emptyList()).stream()
+                        .filter(annDoc -> usersCache.get(annDoc.getUser()) != null
+                                && !annDoc.getState().equals(AnnotationDocumentState.NEW)
+                                && !annDoc.getState().equals(AnnotationDocumentState.IGNORE))
+                        .collect(toList());
+
+                if (executor == null) {
+                    exportSourceDocumentContents(project, srcDoc, annDocs, format,
+                            sessions.peek(), aStage);
+                    reportProgress(aMonitor, initProgress, done.incrementAndGet(),
+                            documents.size());
+                    continue;
                 }
 
-                File targetDir = new File(aStage, ANNOTATION_CAS_FOLDER + srcDoc.getName());
-                forceMkdir(targetDir);
-
-                File initialCasFile = documentService.getCasFile(srcDoc, INITIAL_CAS_PSEUDO_USER);
-
-                copyFileToDirectory(initialCasFile, targetDir);
-
-                log.info("Exported annotation document content for user [" + INITIAL_CAS_PSEUDO_USER
-                        + "] for source document [" + srcDoc.getId() + "] in project ["
-                        + project.getName() + "] with id [" + project.getId() + "]");
-
-                //
-                // Export per-user annotation document
-                //
-
-                // Determine which format to use for export
-                String formatId = FORMAT_AUTO.equals(aRequest.getFormat()) ? srcDoc.getFormat()
-                        : aRequest.getFormat();
-
-                FormatSupport format = importExportService.getWritableFormatById(formatId)
-                        .orElseGet(() -> {
-                            FormatSupport fallbackFormat = new WebAnnoTsv3FormatSupport();
-                            aMonitor.addMessage(LogMessage.warn(this,
-                                    "Annotation: [%s] No writer "
-                                            + "found for original format [%s] - exporting as [%s] "
-                                            + "instead.",
-                                    srcDoc.getName(), formatId, fallbackFormat.getName()));
-                            return fallbackFormat;
-                        });
-
-                // Export annotations from regular users
-                for (AnnotationDocument annDoc : srcToAnnIdx.computeIfAbsent(srcDoc,
-                        key -> emptyList())) {
-
-                    // copy annotation document only for existing users and the state of the
-                    // annotation document is not NEW/IGNORE
-                    if (usersCache.get(annDoc.getUser()) != null
-                            && !annDoc.getState().equals(AnnotationDocumentState.NEW)
-                            && !annDoc.getState().equals(AnnotationDocumentState.IGNORE)) {
-                        File annSerDir = new File(aStage.getAbsolutePath() + ANNOTATION_CAS_FOLDER
-                                + srcDoc.getName());
-                        File annDocDir = new File(aStage.getAbsolutePath()
-                                + ANNOTATION_ORIGINAL_FOLDER + srcDoc.getName());
-
-                        forceMkdir(annSerDir);
-                        forceMkdir(annDocDir);
-
-                        File annSerFile = documentService.getCasFile(srcDoc, annDoc.getUser());
-
-                        File annFile = null;
-                        if (annSerFile.exists()) {
-                            annFile = importExportService.exportAnnotationDocument(srcDoc,
-                                    annDoc.getUser(), format, annDoc.getUser(), ANNOTATION, false,
-                                    bulkOperationContext);
-                        }
-
-                        if (annSerFile.exists()) {
-                            copyFileToDirectory(annSerFile, annSerDir);
-                            copyFileToDirectory(annFile, annDocDir);
-                            forceDelete(annFile);
-                        }
-
-                        log.info("Exported annotation document content for user ["
-                                + annDoc.getUser() + "] for source document [" + srcDoc.getId()
-                                + "] in project [" + project.getName() + "] with id ["
-                                + project.getId() + "]");
+                futures.add(executor.submit(() -> {
+                    AnnotationExportSession session = sessions.take();
+                    try {
+                        exportSourceDocumentContents(project, srcDoc, annDocs, format, session,
+                                aStage);
+                    }
+                    finally {
+                        sessions.add(session);
+                    }
+                    reportProgress(aMonitor, initProgress, done.incrementAndGet(),
+                            documents.size());
+                    return null;
+                }));
+            }
+
+            for (Future<?> future : futures) {
+                future.get();
+            }
+
+            completed = true;
+        }
+        catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof UIMAException) {
+                throw (UIMAException) cause;
+            }
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Annotation export has been interrupted");
+        }
+        finally {
+            // If the workers cannot be stopped, they may still be using the export sessions so
+            // these must not be closed
+            boolean terminated = executor == null || shutdown(executor);
+            if (terminated) {
+                for (AnnotationExportSession session : allSessions) {
+                    try {
+                        session.close();
+                    }
+                    catch (IOException e) {
+                        log.error("Unable to close annotation export session", e);
                     }
                 }
+            }
 
-                // Special handling for the virtual CORRECTION_USER data used in automation and
-                // correction type projects.
-                if (PROJECT_TYPE_AUTOMATION.equals(project.getMode())
-                        || PROJECT_TYPE_CORRECTION.equals(project.getMode())) {
-                    File corrSerFile = documentService.getCasFile(srcDoc, CORRECTION_USER);
-                    if (corrSerFile.exists()) {
-                        // Copy CAS - this is used when importing the project again
-                        // Util WebAnno 3.4.x, the CORRECTION_USER CAS was exported to 'curation'
-                        // and 'curation_ser'.
-                        // Since WebAnno 3.5.x, the CORRECTION_USER CAS is exported to 'annotation'
-                        // and 'annotation_ser'.
-                        File curationSerDir = new File(
-                                aStage + ANNOTATION_AS_SERIALISED_CAS + srcDoc.getName());
-                        forceMkdir(curationSerDir);
-                        copyFileToDirectory(corrSerFile, curationSerDir);
-
-                        // Copy secondary export format for convenience - not used during import
-                        File curationDir = new File(
-                                aStage + ANNOTATION_ORIGINAL_FOLDER + srcDoc.getName());
-                        forceMkdir(curationDir);
-                        File corrFile = importExportService.exportAnnotationDocument(srcDoc,
-                                CORRECTION_USER, format, CORRECTION_USER, CORRECTION);
-                        copyFileToDirectory(corrFile, curationDir);
+            // If the export has already failed, that failure is reported instead - the workers
+            // which did not stop are logged by shutdown()
+            if (!terminated && completed) {
+                throw new IOException("Annotation export workers did not stop in time");
+            }
+        }
+    }
+
+    private FormatSupport getExportFormat(ProjectExportRequest aRequest,
+            ProjectExportTaskMonitor aMonitor, SourceDocument aSrcDoc)
+    {
+        // Determine which format to use for export
+        String formatId = FORMAT_AUTO.equals(aRequest.getFormat()) ? aSrcDoc.getFormat()
+                : aRequest.getFormat();
+
+        return importExportService.getWritableFormatById(formatId).orElseGet(() -> {
+            FormatSupport fallbackFormat = new WebAnnoTsv3FormatSupport();
+            aMonitor.addMessage(LogMessage.warn(this,
+                    "Annotation: [%s] No writer found for original format [%s] - exporting as "
+                            + "[%s] instead.",
+                    aSrcDoc.getName(), formatId, fallbackFormat.getName()));
+            return fallbackFormat;
+        });
+    }
+
+    private void exportSourceDocumentContents(Project aProject, SourceDocument aSrcDoc,
+            List<AnnotationDocument> aAnnDocs, FormatSupport aFormat,
+            AnnotationExportSession aSession, ZipOutputStream aStage)
+        throws UIMAException, IOException
+    {
+        try (CasStorageSession session = CasStorageSession.openNested()) {
+            //
+            // Export initial CASes
+            //
+
+            // The initial CAS must always be exported to ensure that the converted source
+            // document will *always* have the state it had at the time of the initial import.
+            // We we do have a reliably initial CAS and instead lazily convert whenever an
+            // annotator starts annotating, then we could end up with two annotators having two
+            // different versions of their CAS e.g. if there was a code change in the reader
+            // component that affects its output.
+
+            // If the initial CAS does not exist yet, it must be created before export.
+            if (!documentService.existsInitialCas(aSrcDoc)) {
+                documentService.createOrReadInitialCas(aSrcDoc);
+            }
+
+            File initialCasFile = documentService.getCasFile(aSrcDoc, INITIAL_CAS_PSEUDO_USER);
+
+            addToStage(aStage, initialCasFile, ANNOTATION_CAS_FOLDER + aSrcDoc.getName());
+
+            log.info("Exported annotation document content for user [" + INITIAL_CAS_PSEUDO_USER
+                    + "] for source document [" + aSrcDoc.getId() + "] in project ["
+                    + aProject.getName() + "] with id [" + aProject.getId() + "]");
+
+            //
+            // Export per-user annotation document
+            //
+            for (AnnotationDocument annDoc : aAnnDocs) {
+                File annSerFile = documentService.getCasFile(aSrcDoc, annDoc.getUser());
+
+                if (annSerFile.exists()) {
+                    File annFile = aSession.exportAnnotationDocument(aSrcDoc, annDoc.getUser(),
+                            aFormat, annDoc.getUser(), ANNOTATION, false);
+                    try {
+                        addToStage(aStage, annSerFile, ANNOTATION_CAS_FOLDER + aSrcDoc.getName());
+                        addToStage(aStage, annFile,
+                                ANNOTATION_ORIGINAL_FOLDER + aSrcDoc.getName());
+                    }
+                    finally {
+                        forceDelete(annFile);
+                    }
+                }
+
+                log.info("Exported annotation document content for user [" + annDoc.getUser()
+                        + "] for source document [" + aSrcDoc.getId() + "] in project ["
+                        + aProject.getName() + "] with id [" + aProject.getId() + "]");
+            }
+
+            // Special handling for the virtual CORRECTION_USER data used in automation and
+            // correction type projects.
+            if (PROJECT_TYPE_AUTOMATION.equals(aProject.getMode())
+                    || PROJECT_TYPE_CORRECTION.equals(aProject.getMode())) {
+                File corrSerFile = documentService.getCasFile(aSrcDoc, CORRECTION_USER);
+                if (corrSerFile.exists()) {
+                    // Copy CAS - this is used when importing the project again
+                    // Util WebAnno 3.4.x, the CORRECTION_USER CAS was exported to 'curation'
+                    // and 'curation_ser'.
+                    // Since WebAnno 3.5.x, the CORRECTION_USER CAS is exported to 'annotation'
+                    // and 'annotation_ser'.
+                    addToStage(aStage, corrSerFile, ANNOTATION_CAS_FOLDER + aSrcDoc.getName());
+
+                    // Copy secondary export format for convenience - not used during import
+                    File corrFile = aSession.exportAnnotationDocument(aSrcDoc, CORRECTION_USER,
+                            aFormat, CORRECTION_USER, CORRECTION, true);
+                    try {
+                        addToStage(aStage, corrFile,
+                                ANNOTATION_ORIGINAL_FOLDER + aSrcDoc.getName());
+                    }
+                    finally {
                         forceDelete(corrFile);
                     }
                 }
             }
+        }
+    }
+
+    /**
+     * Adds the file to the given folder in the ZIP file. The ZIP stream is shared by the export
+     * workers, so only one file can be added at a time.
+     */
+    private static void addToStage(ZipOutputStream aStage, File aFile, String aFolder)
+        throws IOException
+    {
+        synchronized (aStage) {
+            ZipUtils.addFileToZip(aStage, aFile, aFolder + "/" + aFile.getName());
+        }
+    }
+
+    private static void reportProgress(ProjectExportTaskMonitor aMonitor, int aInitProgress,
+            int aDone, int aTotal)
+    {
+        // Workers may finish out of order - never let the progress go backwards
+        synchronized (aMonitor) {
+            int progress = aInitProgress + (int) ceil(((double) aDone) / aTotal * 80.0);
+            if (progress > aMonitor.getProgress()) {
+                aMonitor.setProgress(progress);
+            }
+        }
+    }
+
+    /**
+     * Stops the export workers and waits until they have actually terminated. Being interrupted
+     * while waiting does not end the wait early because the caller must not release resources
+     * which the workers may still use. The interrupt is passed on once the wait is over.
+     * 
+     * @return whether the workers have terminated in time.
+     */
+    private boolean shutdown(ExecutorService aExecutor)
+    {
+        aExecutor.shutdownNow();
+
+        boolean interrupted = Thread.interrupted();
+        boolean terminated = false;
+        long deadline = System.nanoTime() + MINUTES.toNanos(1);
+        try {
+            while (!terminated) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    break;
+                }
+
+                try {
+                    terminated = aExecutor.awaitTermination(remaining, NANOSECONDS);
+                }
+                catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
 
-            aMonitor.setProgress(initProgress + (int) ceil(((double) i) / documents.size() * 80.0));
-            i++;
+        if (!terminated) {
+            log.error("Annotation export workers did not stop - leaving their export sessions "
+                    + "open");
         }
+
+        return terminated;
     }
 
     @Override
@@ -24,9 +24,7 @@ import static de.tudarmstadt.ukp.clarin.webanno.model.SourceDocumentState.CURATI
 import static de.tudarmstadt.ukp.clarin.webanno.model.SourceDocumentState.CURATION_IN_PROGRESS;
 import static java.lang.Math.ceil;
 import static java.util.Arrays.asList;
-import static org.apache.commons.io.FileUtils.copyFileToDirectory;
 import static org.apache.commons.io.FileUtils.forceDelete;
-import static org.apache.commons.io.FileUtils.forceMkdir;
 
 import java.io.File;
 import java.io.IOException;
@@ -36,6 +34,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.FilenameUtils;
@@ -56,6 +55,7 @@ import de.tudarmstadt.ukp.clarin.webanno.api.format.FormatSupport;
 import de.tudarmstadt.ukp.clarin.webanno.export.model.ExportedProject;
 import de.tudarmstadt.ukp.clarin.webanno.model.Project;
 import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
+import de.tudarmstadt.ukp.clarin.webanno.support.ZipUtils;
 import de.tudarmstadt.ukp.clarin.webanno.support.logging.LogMessage;
 import de.tudarmstadt.ukp.clarin.webanno.tsv.WebAnnoTsv3FormatSupport;
 
@@ -87,14 +87,14 @@ public class CuratedDocumentsExporter
     }
 
     /**
-     * Copy, if exists, curation documents to a folder that will be exported as Zip file
+     * Add, if exists, curation documents to the exported Zip file
      * 
      * @param aStage
-     *            The folder where curated documents are copied to be exported as Zip File
+     *            The Zip file to which the curated documents are added
      */
     @Override
     public void exportData(ProjectExportRequest aRequest, ProjectExportTaskMonitor aMonitor,
-            ExportedProject aExProject, File aStage)
+            ExportedProject aExProject, ZipOutputStream aStage)
         throws Exception
     {
         Project project = aRequest.getProject();
@@ -109,12 +109,6 @@ public class CuratedDocumentsExporter
         int initProgress = aMonitor.getProgress() - 1;
         int i = 1;
         for (SourceDocument sourceDocument : documents) {
-            File curationCasDir = new File(aStage, CURATION_CAS_FOLDER + sourceDocument.getName());
-            forceMkdir(curationCasDir);
-
-            File curationDir = new File(aStage, CURATION_FOLDER + sourceDocument.getName());
-            forceMkdir(curationDir);
-
             // If depending on aInProgress, include only the the curation documents that are
             // finished or also the ones that are in progress
             if ((aRequest.isIncludeInProgress()
@@ -123,7 +117,8 @@ public class CuratedDocumentsExporter
                 File curationCasFile = documentService.getCasFile(sourceDocument, CURATION_USER);
                 if (curationCasFile.exists()) {
                     // Copy CAS - this is used when importing the project again
-                    copyFileToDirectory(curationCasFile, curationCasDir);
+                    ZipUtils.addFileToZip(aStage, curationCasFile, CURATION_CAS_FOLDER
+                            + sourceDocument.getName() + "/" + curationCasFile.getName());
 
                     // Determine which format to use for export
                     String formatId = FORMAT_AUTO.equals(aRequest.getFormat())
@@ -145,8 +140,13 @@ public class CuratedDocumentsExporter
                         File curationFile = importExportService.exportAnnotationDocument(
                                 sourceDocument, CURATION_USER, format, CURATION_USER, CURATION,
                                 true, bulkOperationContext);
-                        copyFileToDirectory(curationFile, curationDir);
-                        forceDelete(curationFile);
+                        try {
+                            ZipUtils.addFileToZip(aStage, curationFile, CURATION_FOLDER
+                                    + sourceDocument.getName() + "/" + curationFile.getName());
+                        }
+                        finally {
+                            forceDelete(curationFile);
+                        }
                     }
                     catch (Exception e) {
                         // error("Unexpected error while exporting project: " +
@@ -22,6 +22,7 @@ import java.io.IOException;
 import java.util.Enumeration;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.FilenameUtils;
@@ -52,14 +53,12 @@ public class ProjectMetaInfExporter
 
     @Override
     public void exportData(ProjectExportRequest aRequest, ProjectExportTaskMonitor aMonitor,
-            ExportedProject aExProject, File aStage)
+            ExportedProject aExProject, ZipOutputStream aStage)
         throws IOException
     {
-        File metaInfDir = new File(aStage + META_INF);
-        FileUtils.forceMkdir(metaInfDir);
         File metaInf = projectService.getMetaInfFolder(aRequest.getProject());
         if (metaInf.exists()) {
-            FileUtils.copyDirectory(metaInf, metaInfDir);
+            ZipUtils.addFolderToZip(aStage, metaInf, META_INF + "/");
         }
     }
 
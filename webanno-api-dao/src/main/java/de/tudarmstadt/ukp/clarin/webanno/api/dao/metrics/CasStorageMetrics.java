@@ -0,0 +1,56 @@
+/*
+ * Licensed to the Technische Universität Darmstadt under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The Technische Universität Darmstadt 
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.dao.metrics;
+
+public interface CasStorageMetrics
+{
+    /**
+     * Retrieve the number of requests served from the shared CAS cache
+     */
+    public long getSharedCasCacheHits();
+
+    /**
+     * Retrieve the number of requests which had to load the CAS into the shared CAS cache
+     */
+    public long getSharedCasCacheMisses();
+
+    /**
+     * Retrieve the average time (milliseconds) spent loading a CAS into the shared CAS cache
+     */
+    public double getSharedCasCacheAverageLoadTime();
+
+    /**
+     * Retrieve the number of CASes evicted from the shared CAS cache
+     */
+    public long getSharedCasCacheEvictions();
+
+    /**
+     * Retrieve the number of CASes currently held in the shared CAS cache
+     */
+    public long getSharedCasCacheEntries();
+
+    /**
+     * Retrieve the estimated heap size (KB) currently occupied by the shared CAS cache
+     */
+    public long getSharedCasCacheSize();
+
+    /**
+     * Retrieve the maximum estimated heap size (KB) the shared CAS cache may occupy
+     */
+    public long getSharedCasCacheMaxSize();
+}
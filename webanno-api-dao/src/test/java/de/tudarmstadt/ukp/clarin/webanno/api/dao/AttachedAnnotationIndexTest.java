@@ -0,0 +1,370 @@
+/*
+ * Licensed to the Technische Universität Darmstadt under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The Technische Universität Darmstadt 
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.dao;
+
+import static de.tudarmstadt.ukp.clarin.webanno.api.AttachedAnnotation.Direction.INCOMING;
+import static de.tudarmstadt.ukp.clarin.webanno.api.AttachedAnnotation.Direction.OUTGOING;
+import static de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst.FEAT_REL_SOURCE;
+import static de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst.FEAT_REL_TARGET;
+import static de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst.RELATION_TYPE;
+import static de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst.SPAN_TYPE;
+import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil.getAddr;
+import static de.tudarmstadt.ukp.clarin.webanno.model.AnchoringMode.SINGLE_TOKEN;
+import static de.tudarmstadt.ukp.clarin.webanno.model.OverlapMode.ANY_OVERLAP;
+import static de.tudarmstadt.ukp.clarin.webanno.model.OverlapMode.NO_OVERLAP;
+import static de.tudarmstadt.ukp.clarin.webanno.model.OverlapMode.OVERLAP_ONLY;
+import static java.util.Arrays.asList;
+import static org.apache.uima.fit.factory.TypeSystemDescriptionFactory.createTypeSystemDescription;
+import static org.apache.uima.fit.util.CasUtil.getType;
+import static org.apache.uima.fit.util.JCasUtil.select;
+import static org.apache.uima.util.CasCreationUtils.mergeTypeSystems;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.spy;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.uima.cas.ArrayFS;
+import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.FeatureStructure;
+import org.apache.uima.cas.text.AnnotationFS;
+import org.apache.uima.fit.factory.JCasFactory;
+import org.apache.uima.fit.testing.factory.TokenBuilder;
+import org.apache.uima.fit.util.FSUtil;
+import org.apache.uima.jcas.JCas;
+import org.apache.uima.resource.metadata.TypeDescription;
+import org.apache.uima.resource.metadata.TypeSystemDescription;
+import org.apache.uima.resource.metadata.impl.TypeSystemDescription_impl;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.AttachedAnnotation;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.adapter.RelationAdapter;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.adapter.SpanAdapter;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.event.FeatureValueUpdatedEvent;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.event.RelationCreatedEvent;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.event.RelationDeletedEvent;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.event.SpanCreatedEvent;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.event.SpanDeletedEvent;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.feature.FeatureSupportRegistryImpl;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.feature.SlotFeatureSupport;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.layer.LayerSupportRegistry;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.layer.LayerSupportRegistryImpl;
+import de.tudarmstadt.ukp.clarin.webanno.api.dao.AttachedAnnotationIndex.ReverseIndex;
+import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationFeature;
+import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationLayer;
+import de.tudarmstadt.ukp.clarin.webanno.model.LinkMode;
+import de.tudarmstadt.ukp.clarin.webanno.model.MultiValueMode;
+import de.tudarmstadt.ukp.clarin.webanno.model.Project;
+import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Sentence;
+import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Token;
+import de.tudarmstadt.ukp.dkpro.core.api.syntax.type.dependency.Dependency;
+
+public class AttachedAnnotationIndexTest
+{
+    private static final String HOST_TYPE = "webanno.custom.SimpleLinkHost";
+    private static final String LINK_TYPE = "webanno.custom.LinkType";
+
+    private AnnotationSchemaServiceImpl sut;
+    private AnnotationLayer tokenLayer;
+    private AnnotationLayer depLayer;
+    private AnnotationLayer hostLayer;
+    private AnnotationFeature slotFeature;
+    private JCas jcas;
+    private List<Token> tokens;
+
+    @Before
+    public void setup() throws Exception
+    {
+        Project project = new Project();
+        project.setId(1l);
+
+        tokenLayer = new AnnotationLayer(Token.class.getName(), "Token", SPAN_TYPE, project, true,
+                SINGLE_TOKEN, NO_OVERLAP);
+        tokenLayer.setId(1l);
+
+        depLayer = new AnnotationLayer(Dependency.class.getName(), "Dependency", RELATION_TYPE,
+                project, true, SINGLE_TOKEN, OVERLAP_ONLY);
+        depLayer.setId(2l);
+        depLayer.setAttachType(tokenLayer);
+
+        hostLayer = new AnnotationLayer(HOST_TYPE, "Host", SPAN_TYPE, project, false,
+                SINGLE_TOKEN, ANY_OVERLAP);
+        hostLayer.setId(3l);
+
+        slotFeature = new AnnotationFeature(1l, hostLayer, "links", Token.class.getName());
+        slotFeature.setLinkTypeName(LINK_TYPE);
+        slotFeature.setLinkMode(LinkMode.WITH_ROLE);
+        slotFeature.setLinkTypeRoleFeatureName("role");
+        slotFeature.setLinkTypeTargetFeatureName("target");
+        slotFeature.setMode(MultiValueMode.ARRAY);
+
+        LayerSupportRegistry layerSupportRegistry = new LayerSupportRegistryImpl(asList());
+        FeatureSupportRegistryImpl featureSupportRegistry = new FeatureSupportRegistryImpl(
+                asList(new SlotFeatureSupport(null)));
+        featureSupportRegistry.init();
+
+        // Only the schema lookups which would otherwise hit the database are stubbed
+        sut = spy(new AnnotationSchemaServiceImpl());
+        doReturn(new SpanAdapter(layerSupportRegistry, featureSupportRegistry, null, tokenLayer,
+                () -> asList(), null)).when(sut).getAdapter(tokenLayer);
+        doReturn(new RelationAdapter(layerSupportRegistry, featureSupportRegistry, null, depLayer,
+                FEAT_REL_TARGET, FEAT_REL_SOURCE, () -> asList(), null)).when(sut)
+                        .getAdapter(depLayer);
+        doReturn(new SpanAdapter(layerSupportRegistry, featureSupportRegistry, null, hostLayer,
+                () -> asList(slotFeature), null)).when(sut).getAdapter(hostLayer);
+        doReturn(asList(depLayer)).when(sut).listAttachedRelationLayers(tokenLayer);
+        doReturn(asList(slotFeature)).when(sut).listAttachedLinkFeatures(tokenLayer);
+
+        TypeSystemDescription tsd = new TypeSystemDescription_impl();
+        TypeDescription linkType = tsd.addType(LINK_TYPE, "", CAS.TYPE_NAME_TOP);
+        linkType.addFeature("role", "", CAS.TYPE_NAME_STRING);
+        linkType.addFeature("target", "", Token.class.getName());
+        TypeDescription hostType = tsd.addType(HOST_TYPE, "", CAS.TYPE_NAME_ANNOTATION);
+        hostType.addFeature("links", "", CAS.TYPE_NAME_FS_ARRAY, LINK_TYPE, false);
+
+        jcas = JCasFactory
+                .createJCas(mergeTypeSystems(asList(createTypeSystemDescription(), tsd)));
+        new TokenBuilder<>(Token.class, Sentence.class).buildTokens(jcas, "This is a test .");
+        tokens = new ArrayList<>(select(jcas, Token.class));
+    }
+
+    @Test
+    public void thatReverseIndexTracksAnnotationsByEndpoint()
+    {
+        CAS cas = jcas.getCas();
+        ReverseIndex sut = new ReverseIndex(2, cas);
+        sut.add(1, 10);
+        sut.add(2, 10);
+        sut.add(1, 11);
+        sut.add(1, 11);
+
+        assertThat(sut.get(1)).containsExactly(10, 11);
+        assertThat(sut.get(2)).containsExactly(10);
+        assertThat(sut.get(3)).isEmpty();
+
+        sut.remove(1, 10);
+        sut.remove(2, 10);
+        sut.adjustExpectedSize(-1);
+
+        assertThat(sut.get(1)).containsExactly(11);
+        assertThat(sut.get(2)).isEmpty();
+        assertThat(sut.isValid(1, cas)).isTrue();
+        assertThat(sut.isValid(2, cas)).as("Unnoticed changes invalidate the index").isFalse();
+
+        cas.createFS(getType(cas, LINK_TYPE));
+        assertThat(sut.isValid(1, cas)).as("Unnoticed new feature structures invalidate the index")
+                .isFalse();
+    }
+
+    @Test
+    public void thatAttachedRelationsAreSelectedViaIndex()
+    {
+        Dependency dep1 = addDependency(tokens.get(0), tokens.get(1));
+        Dependency dep2 = addDependency(tokens.get(1), tokens.get(2));
+
+        assertThat(sut.getAttachedRels(tokenLayer, tokens.get(1)))
+                .extracting(AttachedAnnotation::getRelation, AttachedAnnotation::getDirection)
+                .containsExactlyInAnyOrder(tuple(dep1, INCOMING), tuple(dep2, OUTGOING));
+        assertThat(sut.getAttachedRels(tokenLayer, tokens.get(3))).isEmpty();
+    }
+
+    @Test
+    public void thatRelationIndexIsRebuiltAfterUnnoticedChange()
+    {
+        addDependency(tokens.get(0), tokens.get(1));
+        assertThat(sut.getAttachedRels(tokenLayer, tokens.get(3))).isEmpty();
+
+        // Added without an event, so only the changed number of relations reveals it
+        Dependency dep = addDependency(tokens.get(2), tokens.get(3));
+
+        assertThat(sut.getAttachedRels(tokenLayer, tokens.get(3)))
+                .extracting(AttachedAnnotation::getRelation).containsExactly(dep);
+    }
+
+    @Test
+    public void thatRelationIndexIsRebuiltAfterReset()
+    {
+        addDependency(tokens.get(0), tokens.get(1));
+        assertThat(sut.getAttachedRels(tokenLayer, tokens.get(1))).hasSize(1);
+
+        // Refill the same CAS object with the same number of relations without any events, like
+        // a re-merge does
+        jcas.reset();
+        new TokenBuilder<>(Token.class, Sentence.class).buildTokens(jcas, "This is a test .");
+        tokens = new ArrayList<>(select(jcas, Token.class));
+        Dependency dep = addDependency(tokens.get(2), tokens.get(3));
+
+        assertThat(sut.getAttachedRels(tokenLayer, tokens.get(1))).isEmpty();
+        assertThat(sut.getAttachedRels(tokenLayer, tokens.get(3)))
+                .extracting(AttachedAnnotation::getRelation).containsExactly(dep);
+    }
+
+    @Test
+    public void thatRemovedRelationsAreNotReturned()
+    {
+        Dependency dep1 = addDependency(tokens.get(0), tokens.get(1));
+        sut.getAttachedRels(tokenLayer, tokens.get(1));
+        ReverseIndex index = sut.getAttachedAnnotationIndex(jcas.getCas())
+                .getRelations(depLayer.getName());
+
+        // Removed without an event, but the index has been told the size already matches
+        dep1.removeFromIndexes();
+        index.adjustExpectedSize(-1);
+
+        assertThat(sut.getAttachedRels(tokenLayer, tokens.get(1))).isEmpty();
+    }
+
+    @Test
+    public void thatRelationEventsUpdateIndex()
+    {
+        Dependency dep1 = addDependency(tokens.get(0), tokens.get(1));
+        sut.getAttachedRels(tokenLayer, tokens.get(1));
+        ReverseIndex index = sut.getAttachedAnnotationIndex(jcas.getCas())
+                .getRelations(depLayer.getName());
+
+        Dependency dep2 = addDependency(tokens.get(2), tokens.get(3));
+        sut.onRelationCreated(new RelationCreatedEvent(this, null, null, depLayer, dep2,
+                tokens.get(3), tokens.get(2)));
+
+        assertThat(index.isValid(2, jcas.getCas())).isTrue();
+        assertThat(index.get(getAddr(tokens.get(3)))).containsExactly(getAddr(dep2));
+
+        dep1.removeFromIndexes();
+        sut.onRelationDeleted(new RelationDeletedEvent(this, null, null, depLayer, dep1,
+                tokens.get(1), tokens.get(0)));
+
+        assertThat(index.isValid(1, jcas.getCas())).isTrue();
+        assertThat(index.get(getAddr(tokens.get(1)))).isEmpty();
+
+        assertThat(sut.getAttachedRels(tokenLayer, tokens.get(1))).isEmpty();
+        assertThat(sut.getAttachedAnnotationIndex(jcas.getCas()).getRelations(depLayer.getName()))
+                .as("Index is updated in place instead of being rebuilt").isSameAs(index);
+    }
+
+    @Test
+    public void thatAttachedLinkHostsAreSelectedViaIndex()
+    {
+        AnnotationFS host1 = addHost(tokens.get(0));
+        addHost(tokens.get(1));
+
+        assertThat(sut.getAttachedLinks(tokenLayer, tokens.get(0)))
+                .extracting(AttachedAnnotation::getEndpoint).containsExactly(host1);
+        assertThat(sut.getAttachedLinks(tokenLayer, tokens.get(3))).isEmpty();
+    }
+
+    @Test
+    public void thatLinkIndexIsRebuiltAfterUnnoticedChange()
+    {
+        AnnotationFS host1 = addHost(tokens.get(0));
+        sut.getAttachedLinks(tokenLayer, tokens.get(0));
+
+        // Added without an event, so only the changed number of hosts reveals it
+        AnnotationFS host2 = addHost(tokens.get(0));
+
+        assertThat(sut.getAttachedLinks(tokenLayer, tokens.get(0)))
+                .extracting(AttachedAnnotation::getEndpoint)
+                .containsExactlyInAnyOrder(host1, host2);
+    }
+
+    @Test
+    public void thatLinkIndexIsRebuiltAfterSilencedLinkChange()
+    {
+        AnnotationFS host = addHost(tokens.get(0));
+        sut.getAttachedLinks(tokenLayer, tokens.get(0));
+
+        // Replacing the links without an event does not change the number of hosts, like a merge
+        // of a slot feature with silenced events
+        setLinks(host, tokens.get(1));
+
+        assertThat(sut.getAttachedLinks(tokenLayer, tokens.get(0))).isEmpty();
+        assertThat(sut.getAttachedLinks(tokenLayer, tokens.get(1)))
+                .extracting(AttachedAnnotation::getEndpoint).containsExactly(host);
+    }
+
+    @Test
+    public void thatSpanEventsUpdateLinkIndex()
+    {
+        addHost(tokens.get(0));
+        sut.getAttachedLinks(tokenLayer, tokens.get(0));
+        AttachedAnnotationIndex index = sut.getAttachedAnnotationIndex(jcas.getCas());
+
+        // A new host does not link to anything yet, so the index just needs to account for it
+        AnnotationFS host2 = addHost();
+        sut.onSpanCreated(new SpanCreatedEvent(this, null, null, hostLayer, host2));
+
+        assertThat(index.getLinks(HOST_TYPE, slotFeature.getName()).isValid(2, jcas.getCas()))
+                .isTrue();
+
+        host2.getCAS().removeFsFromIndexes(host2);
+        sut.onSpanDeleted(new SpanDeletedEvent(this, null, null, hostLayer, host2));
+
+        assertThat(index.getLinks(HOST_TYPE, slotFeature.getName())).isNull();
+    }
+
+    @Test
+    public void thatFeatureValueUpdateInvalidatesLinkIndex()
+    {
+        AnnotationFS host1 = addHost(tokens.get(0));
+        AnnotationFS host2 = addHost(tokens.get(1));
+        sut.getAttachedLinks(tokenLayer, tokens.get(0));
+
+        // Changing the links does not change the number of hosts, so the event is needed
+        setLinks(host1, tokens.get(1));
+        sut.onFeatureValueUpdated(new FeatureValueUpdatedEvent(this, null, null, hostLayer, host1,
+                slotFeature, null, null));
+
+        assertThat(sut.getAttachedLinks(tokenLayer, tokens.get(0))).isEmpty();
+        assertThat(sut.getAttachedLinks(tokenLayer, tokens.get(1)))
+                .extracting(AttachedAnnotation::getEndpoint)
+                .containsExactlyInAnyOrder(host1, host2);
+    }
+
+    private Dependency addDependency(Token aGovernor, Token aDependent)
+    {
+        Dependency dep = new Dependency(jcas, aDependent.getBegin(), aDependent.getEnd());
+        dep.setGovernor(aGovernor);
+        dep.setDependent(aDependent);
+        dep.addToIndexes();
+        return dep;
+    }
+
+    private AnnotationFS addHost(Token... aTargets)
+    {
+        CAS cas = jcas.getCas();
+        AnnotationFS host = cas.createAnnotation(getType(cas, HOST_TYPE), 0, 4);
+        setLinks(host, aTargets);
+        cas.addFsToIndexes(host);
+        return host;
+    }
+
+    private void setLinks(AnnotationFS aHost, Token... aTargets)
+    {
+        CAS cas = jcas.getCas();
+        ArrayFS array = cas.createArrayFS(aTargets.length);
+        for (int i = 0; i < aTargets.length; i++) {
+            FeatureStructure link = cas.createFS(getType(cas, LINK_TYPE));
+            FSUtil.setFeature(link, "role", "role");
+            FSUtil.setFeature(link, "target", aTargets[i]);
+            array.set(i, link);
+        }
+        aHost.setFeatureValue(aHost.getType().getFeatureByBaseName("links"), array);
+    }
+}
@@ -32,7 +32,9 @@ import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
 
+import de.tudarmstadt.ukp.clarin.webanno.api.dao.casstorage.CasStorageFormat;
 import de.tudarmstadt.ukp.dkpro.core.api.metadata.type.DocumentMetaData;
+import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Token;
 
 public class CasPersistenceUtilsTest
 {
@@ -67,4 +69,47 @@ public class CasPersistenceUtilsTest
                 .extracting(fs -> fs.getType().getName())
                 .containsExactly(DocumentMetaData.class.getName());
     }
+
+    @Test
+    public void thatCompactBinaryFormatCanBeReadBack() throws Exception
+    {
+        for (boolean compress : new boolean[] { false, true }) {
+            CAS cas = CasFactory.createText("This is a test", "en");
+            DocumentMetaData.create(cas).setDocumentId("doc");
+            cas.addFsToIndexes(new Token(cas.getJCas(), 0, 4));
+
+            File file = testFolder.newFile();
+
+            CasPersistenceUtils.writeCompactBinaryCas(cas, file, compress);
+
+            assertThat(CasPersistenceUtils.getStorageFormat(file))
+                    .isEqualTo(CasStorageFormat.COMPACT_BINARY);
+
+            CAS cas2 = CasCreationUtils.createCas((TypeSystemDescription) null, null, null);
+
+            CasPersistenceUtils.readSerializedCas(cas2, file);
+
+            assertThat(cas2.getDocumentText()).isEqualTo(cas.getDocumentText());
+            assertThat(cas2.getTypeSystem().getType(Token.class.getName())).isNotNull();
+            assertThat(cas2.select(Token.class.getName()).asList())
+                    .extracting(fs -> ((AnnotationFS) fs).getCoveredText())
+                    .containsExactly("This");
+            assertThat(cas2.select(DocumentAnnotation.class).asList())
+                    .extracting(fs -> fs.getType().getName())
+                    .containsExactly(DocumentMetaData.class.getName());
+        }
+    }
+
+    @Test
+    public void thatJavaSerializedFormatIsDetected() throws Exception
+    {
+        CAS cas = CasFactory.createText("This is a test", "en");
+
+        File file = testFolder.newFile();
+
+        CasPersistenceUtils.writeSerializedCas(cas, file);
+
+        assertThat(CasPersistenceUtils.getStorageFormat(file))
+                .isEqualTo(CasStorageFormat.JAVA_SERIALIZED);
+    }
 }
@@ -0,0 +1,118 @@
+/*
+ * Licensed to the Technische Universität Darmstadt under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The Technische Universität Darmstadt 
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.dao;
+
+import static de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst.INITIAL_CAS_PSEUDO_USER;
+import static java.util.Arrays.asList;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.same;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.time.Duration;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.CasStorageService;
+import de.tudarmstadt.ukp.clarin.webanno.api.DocumentService;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.event.DocumentOpenedEvent;
+import de.tudarmstadt.ukp.clarin.webanno.api.event.LayerConfigurationChangedEvent;
+import de.tudarmstadt.ukp.clarin.webanno.model.Project;
+import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
+
+public class CasPreUpgradeSchedulerTest
+{
+    private DocumentService documentService;
+    private CasStorageService casStorageService;
+    private CasStorageProperties casStorageProperties;
+    private CasPreUpgradeScheduler sut;
+
+    private Project project;
+    private SourceDocument doc1;
+    private SourceDocument doc2;
+
+    @Before
+    public void setup()
+    {
+        documentService = mock(DocumentService.class);
+        casStorageService = mock(CasStorageService.class);
+        casStorageProperties = new CasStorageProperties();
+        casStorageProperties.getPreUpgrade().setDelay(Duration.ZERO);
+
+        project = new Project();
+        project.setId(1l);
+        project.setName("project");
+
+        doc1 = makeSourceDocument(1l, "doc1");
+        doc2 = makeSourceDocument(2l, "doc2");
+
+        when(documentService.listSourceDocuments(project)).thenReturn(asList(doc1, doc2));
+    }
+
+    @After
+    public void tearDown()
+    {
+        if (sut != null) {
+            sut.destroy();
+        }
+    }
+
+    @Test
+    public void thatOnlyRecentlyOpenedDocumentsAreUpgraded() throws Exception
+    {
+        sut = new CasPreUpgradeScheduler(documentService, casStorageService,
+                casStorageProperties);
+
+        sut.onDocumentOpened(new DocumentOpenedEvent(this, null, doc1, "user", "user"));
+        sut.afterLayerConfigurationChanged(new LayerConfigurationChangedEvent(this, project));
+
+        verify(casStorageService, timeout(5000)).upgradeCasIfRequired(doc1, "user");
+        verify(casStorageService, never()).upgradeCasIfRequired(same(doc2), anyString());
+        verify(documentService, never()).listSourceDocuments(any(Project.class));
+    }
+
+    @Test
+    public void thatAllDocumentsAreUpgradedIfConfigured() throws Exception
+    {
+        casStorageProperties.getPreUpgrade().setAllDocuments(true);
+        sut = new CasPreUpgradeScheduler(documentService, casStorageService,
+                casStorageProperties);
+
+        sut.afterLayerConfigurationChanged(new LayerConfigurationChangedEvent(this, project));
+
+        verify(casStorageService, timeout(5000)).upgradeCasIfRequired(doc1,
+                INITIAL_CAS_PSEUDO_USER);
+        verify(casStorageService, timeout(5000)).upgradeCasIfRequired(doc2,
+                INITIAL_CAS_PSEUDO_USER);
+    }
+
+    private SourceDocument makeSourceDocument(long aId, String aName)
+    {
+        SourceDocument doc = new SourceDocument();
+        doc.setId(aId);
+        doc.setName(aName);
+        doc.setProject(project);
+        return doc;
+    }
+}
@@ -36,11 +36,15 @@ import static org.apache.uima.fit.util.JCasUtil.select;
 import static org.apache.uima.util.CasCreationUtils.mergeTypeSystems;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
 
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.lang.reflect.Proxy;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Random;
@@ -62,9 +66,11 @@ import org.junit.rules.TemporaryFolder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import de.tudarmstadt.ukp.clarin.webanno.api.AnnotationSchemaService;
 import de.tudarmstadt.ukp.clarin.webanno.api.CasProvider;
 import de.tudarmstadt.ukp.clarin.webanno.api.RepositoryProperties;
 import de.tudarmstadt.ukp.clarin.webanno.api.casstorage.CasSessionException;
+import de.tudarmstadt.ukp.clarin.webanno.api.dao.casstorage.CasJournal;
 import de.tudarmstadt.ukp.clarin.webanno.api.dao.casstorage.CasStorageSession;
 import de.tudarmstadt.ukp.clarin.webanno.api.event.LayerConfigurationChangedEvent;
 import de.tudarmstadt.ukp.clarin.webanno.api.type.CASMetadata;
@@ -108,7 +114,8 @@ public class CasStorageServiceImplTest
         repositoryProperties = new RepositoryProperties();
         repositoryProperties.setPath(testFolder.newFolder());
 
-        sut = new CasStorageServiceImpl(null, null, repositoryProperties, backupProperties);
+        sut = new CasStorageServiceImpl(null, null, repositoryProperties, backupProperties,
+                new CasStorageProperties());
     }
 
     @Test
@@ -224,6 +231,374 @@ public class CasStorageServiceImplTest
                 .isNotEqualTo(casIdentity3);
     }
 
+    @Test
+    public void testUpgradeCasIfRequiredOnlyWritesUpgradedCas() throws Exception
+    {
+        AnnotationSchemaService schemaService = mock(AnnotationSchemaService.class);
+        sut = new CasStorageServiceImpl(null, schemaService, repositoryProperties,
+                backupProperties, new CasStorageProperties());
+
+        // Setup fixture
+        SourceDocument doc = makeSourceDocument(9l, 9l, "test");
+        String user = "test";
+        try (CasStorageSession session = openNested(true)) {
+            createCasFile(doc, user, "This is a test");
+        }
+
+        // Actual test
+        when(schemaService.upgradeCasIfRequired(any(CAS.class), any(SourceDocument.class)))
+                .thenAnswer(invocation -> {
+                    invocation.getArgument(0, CAS.class).setDocumentLanguage("xx");
+                    return false;
+                });
+        assertThat(sut.upgradeCasIfRequired(doc, user)).isFalse();
+        try (CasStorageSession session = openNested(true)) {
+            assertThat(sut.readCas(doc, user, UNMANAGED_NON_INITIALIZING_ACCESS)
+                    .getDocumentLanguage()).as("CAS is not written if no upgrade was performed")
+                            .isNotEqualTo("xx");
+        }
+
+        when(schemaService.upgradeCasIfRequired(any(CAS.class), any(SourceDocument.class)))
+                .thenAnswer(invocation -> {
+                    invocation.getArgument(0, CAS.class).setDocumentLanguage("yy");
+                    return true;
+                });
+        assertThat(sut.upgradeCasIfRequired(doc, user)).isTrue();
+        try (CasStorageSession session = openNested(true)) {
+            assertThat(sut.readCas(doc, user, UNMANAGED_NON_INITIALIZING_ACCESS)
+                    .getDocumentLanguage()).as("CAS is written if an upgrade was performed")
+                            .isEqualTo("yy");
+        }
+
+        assertThat(sut.upgradeCasIfRequired(doc, "otherUser"))
+                .as("Non-existing CASes are not upgraded").isFalse();
+        try (CasStorageSession session = openNested(true)) {
+            assertThat(sut.existsCas(doc, "otherUser")).isFalse();
+        }
+    }
+
+    @Test
+    public void testUpgradeCasIfRequiredDoesNotKeepCasInMemory() throws Exception
+    {
+        // Setup fixture - the CAS file is created through a different storage instance so that
+        // the CAS is not yet in the exclusive access pool of the instance under test
+        SourceDocument doc = makeSourceDocument(10l, 10l, "test");
+        String user = "test";
+        try (CasStorageSession session = openNested(true)) {
+            createCasFile(doc, user, "This is a test");
+        }
+
+        AnnotationSchemaService schemaService = mock(AnnotationSchemaService.class);
+        sut = new CasStorageServiceImpl(null, schemaService, repositoryProperties,
+                backupProperties, new CasStorageProperties());
+
+        // The CAS is only loaded into the exclusive access pool when it is first read that way
+        // and the exclusive access pool returns the instance it holds. So if the instance that
+        // was upgraded had been kept, the marker set here would be visible to the next read.
+        when(schemaService.upgradeCasIfRequired(any(CAS.class), any(SourceDocument.class)))
+                .thenAnswer(invocation -> {
+                    invocation.getArgument(0, CAS.class).setDocumentLanguage("xx");
+                    return false;
+                });
+
+        // Actual test
+        assertThat(sut.upgradeCasIfRequired(doc, user)).isFalse();
+
+        try (CasStorageSession session = openNested(true)) {
+            assertThat(sut.readCas(doc, user, EXCLUSIVE_WRITE_ACCESS).getDocumentLanguage())
+                    .as("CAS upgraded from storage is not kept in the exclusive access pool")
+                    .isNotEqualTo("xx");
+        }
+    }
+
+    @Test
+    public void testWriteBehindIsVisibleToSubsequentReads() throws Exception
+    {
+        CasStorageProperties casStorageProperties = new CasStorageProperties();
+        casStorageProperties.getWriteBehind().setEnabled(true);
+        casStorageProperties.getWriteBehind().setDelay(Duration.ofMinutes(1));
+        sut = new CasStorageServiceImpl(null, null, repositoryProperties, backupProperties,
+                casStorageProperties);
+
+        // Setup fixture
+        SourceDocument doc = makeSourceDocument(9l, 9l, "test");
+        String user = "test";
+        File casFile = sut.getCasFile(doc, user);
+        try (CasStorageSession session = openNested(true)) {
+            createCasFile(doc, user, "This is a test");
+        }
+        long casFileLastModified = casFile.lastModified();
+
+        // Actual test
+        try (CasStorageSession session = openNested(true)) {
+            CAS cas = sut.readCas(doc, user, EXCLUSIVE_WRITE_ACCESS);
+            cas.addFsToIndexes(cas.createAnnotation(cas.getAnnotationType(), 0, 4));
+            sut.writeCas(doc, cas, user);
+        }
+
+        assertThat(casFile.lastModified())
+                .as("Writing the CAS is deferred")
+                .isEqualTo(casFileLastModified);
+
+        try (CasStorageSession session = openNested(true)) {
+            CAS cas = sut.readCas(doc, user, EXCLUSIVE_WRITE_ACCESS);
+            assertThat(cas.getAnnotationIndex().select().at(0, 4).asList())
+                    .as("Exclusive access returns the modified CAS from memory")
+                    .hasSize(1);
+        }
+
+        try (CasStorageSession session = openNested(true)) {
+            CAS cas = sut.readCas(doc, user, UNMANAGED_NON_INITIALIZING_ACCESS);
+            assertThat(cas.getAnnotationIndex().select().at(0, 4).asList())
+                    .as("Reading from storage writes the deferred CAS first")
+                    .hasSize(1);
+        }
+
+        sut.destroy();
+    }
+
+    @Test
+    public void testChangesAreAppendedToJournal() throws Exception
+    {
+        CasStorageProperties casStorageProperties = new CasStorageProperties();
+        casStorageProperties.getJournal().setEnabled(true);
+        casStorageProperties.getJournal().setMaxSizeRatio(100);
+        sut = new CasStorageServiceImpl(null, null, repositoryProperties, backupProperties,
+                casStorageProperties);
+
+        // Setup fixture
+        SourceDocument doc = makeSourceDocument(10l, 10l, "test");
+        String user = "test";
+        File casFile = sut.getCasFile(doc.getProject().getId(), doc.getId(), user);
+        File journalFile = CasJournal.getJournalFile(casFile);
+        try (CasStorageSession session = openNested(true)) {
+            createCasFile(doc, user, "This is a test");
+        }
+        long casFileSize = casFile.length();
+
+        // Actual test
+        try (CasStorageSession session = openNested(true)) {
+            CAS cas = sut.readCas(doc, user, EXCLUSIVE_WRITE_ACCESS);
+            cas.addFsToIndexes(cas.createAnnotation(cas.getAnnotationType(), 0, 4));
+            sut.writeCas(doc, cas, user);
+        }
+
+        assertThat(journalFile)
+                .as("Changes are appended to the journal")
+                .exists();
+        assertThat(casFile.length())
+                .as("The CAS file itself is not rewritten")
+                .isEqualTo(casFileSize);
+
+        try (CasStorageSession session = openNested(true)) {
+            CAS cas = sut.readCas(doc, user, UNMANAGED_NON_INITIALIZING_ACCESS);
+            assertThat(cas.getAnnotationIndex().select().at(0, 4).asList())
+                    .as("Reading from storage applies the journal")
+                    .hasSize(1);
+        }
+
+        sut.getCasFile(doc, user);
+
+        assertThat(journalFile)
+                .as("Accessing the CAS file compacts the journal")
+                .doesNotExist();
+
+        try (CasStorageSession session = openNested(true)) {
+            CAS cas = sut.readCas(doc, user, UNMANAGED_NON_INITIALIZING_ACCESS);
+            assertThat(cas.getAnnotationIndex().select().at(0, 4).asList())
+                    .as("Compaction retains the journaled changes")
+                    .hasSize(1);
+        }
+    }
+
+    @Test
+    public void testFailedWriteBehindIsKeptAndReportedToReader() throws Exception
+    {
+        CasStorageProperties casStorageProperties = new CasStorageProperties();
+        casStorageProperties.getWriteBehind().setEnabled(true);
+        casStorageProperties.getWriteBehind().setDelay(Duration.ofMinutes(1));
+        sut = new CasStorageServiceImpl(null, null, repositoryProperties, backupProperties,
+                casStorageProperties);
+
+        // Setup fixture
+        SourceDocument doc = makeSourceDocument(12l, 12l, "test");
+        String user = "test";
+        File casFile = sut.getCasFile(doc, user);
+        try (CasStorageSession session = openNested(true)) {
+            createCasFile(doc, user, "This is a test");
+        }
+
+        try (CasStorageSession session = openNested(true)) {
+            CAS cas = sut.readCas(doc, user, EXCLUSIVE_WRITE_ACCESS);
+            cas.addFsToIndexes(cas.createAnnotation(cas.getAnnotationType(), 0, 4));
+            sut.writeCas(doc, cas, user);
+        }
+
+        // Simulate a concurrent modification of the file so that the deferred write fails
+        long casFileLastModified = casFile.lastModified();
+        assertThat(casFile.setLastModified(casFileLastModified + 10_000)).isTrue();
+
+        // Actual test
+        try (CasStorageSession session = openNested(true)) {
+            assertThatExceptionOfType(IOException.class)
+                    .as("Failure to write the deferred CAS is reported to the reader")
+                    .isThrownBy(() -> sut.readCas(doc, user, UNMANAGED_NON_INITIALIZING_ACCESS));
+        }
+
+        assertThat(casFile.setLastModified(casFileLastModified)).isTrue();
+
+        try (CasStorageSession session = openNested(true)) {
+            CAS cas = sut.readCas(doc, user, UNMANAGED_NON_INITIALIZING_ACCESS);
+            assertThat(cas.getAnnotationIndex().select().at(0, 4).asList())
+                    .as("Deferred changes are retained after a failed write")
+                    .hasSize(1);
+        }
+
+        sut.destroy();
+    }
+
+    @Test
+    public void testAbandonedWriteBehindIsReportedToWriter() throws Exception
+    {
+        CasStorageProperties casStorageProperties = new CasStorageProperties();
+        casStorageProperties.getWriteBehind().setEnabled(true);
+        casStorageProperties.getWriteBehind().setDelay(Duration.ofMinutes(1));
+        casStorageProperties.getWriteBehind().setMaxAttempts(1);
+        sut = new CasStorageServiceImpl(null, null, repositoryProperties, backupProperties,
+                casStorageProperties);
+
+        // Setup fixture
+        SourceDocument doc = makeSourceDocument(15l, 15l, "test");
+        String user = "test";
+        File casFile = sut.getCasFile(doc, user);
+        try (CasStorageSession session = openNested(true)) {
+            createCasFile(doc, user, "This is a test");
+        }
+
+        try (CasStorageSession session = openNested(true)) {
+            CAS cas = sut.readCas(doc, user, EXCLUSIVE_WRITE_ACCESS);
+            cas.addFsToIndexes(cas.createAnnotation(cas.getAnnotationType(), 0, 4));
+            sut.writeCas(doc, cas, user);
+        }
+
+        // Simulate a concurrent modification of the file so that the deferred write fails. The
+        // only attempt is used up by the reader.
+        long casFileLastModified = casFile.lastModified();
+        assertThat(casFile.setLastModified(casFileLastModified + 10_000)).isTrue();
+        try (CasStorageSession session = openNested(true)) {
+            assertThatExceptionOfType(IOException.class)
+                    .isThrownBy(() -> sut.readCas(doc, user, UNMANAGED_NON_INITIALIZING_ACCESS));
+        }
+
+        // Actual test
+        try (CasStorageSession session = openNested(true)) {
+            CAS cas = sut.readCas(doc, user, EXCLUSIVE_WRITE_ACCESS);
+            cas.addFsToIndexes(cas.createAnnotation(cas.getAnnotationType(), 5, 7));
+            assertThatExceptionOfType(IOException.class)
+                    .as("Once writing in the background has been abandoned, the CAS is written "
+                            + "directly and the failure is reported to the writer")
+                    .isThrownBy(() -> sut.writeCas(doc, cas, user));
+        }
+
+        assertThat(casFile.setLastModified(casFileLastModified)).isTrue();
+
+        try (CasStorageSession session = openNested(true)) {
+            CAS cas = sut.readCas(doc, user, EXCLUSIVE_WRITE_ACCESS);
+            sut.writeCas(doc, cas, user);
+        }
+
+        assertThat(casFile.lastModified())
+                .as("CAS is written directly once the problem is gone")
+                .isNotEqualTo(casFileLastModified);
+
+        try (CasStorageSession session = openNested(true)) {
+            CAS cas = sut.readCas(doc, user, UNMANAGED_NON_INITIALIZING_ACCESS);
+            assertThat(cas.getAnnotationIndex().select().coveredBy(0, 7).asList())
+                    .as("All deferred changes have been written")
+                    .hasSize(2);
+        }
+
+        sut.destroy();
+    }
+
+    @Test
+    public void testWriteBehindIsFlushedWhenCasIsDroppedFromPool() throws Exception
+    {
+        CasStorageProperties casStorageProperties = new CasStorageProperties();
+        casStorageProperties.getWriteBehind().setEnabled(true);
+        casStorageProperties.getWriteBehind().setDelay(Duration.ofMinutes(1));
+        casStorageProperties.getExclusivePool().setMaxTotal(1);
+        sut = new CasStorageServiceImpl(null, null, repositoryProperties, backupProperties,
+                casStorageProperties);
+
+        // Setup fixture
+        SourceDocument doc1 = makeSourceDocument(13l, 13l, "test1");
+        SourceDocument doc2 = makeSourceDocument(13l, 14l, "test2");
+        String user = "test";
+        File casFile = sut.getCasFile(doc1, user);
+        try (CasStorageSession session = openNested(true)) {
+            createCasFile(doc1, user, "This is a test");
+        }
+        try (CasStorageSession session = openNested(true)) {
+            createCasFile(doc2, user, "This is another test");
+        }
+        // Make sure that we can see the file being written again
+        assertThat(casFile.setLastModified(casFile.lastModified() - 10_000)).isTrue();
+        long casFileLastModified = casFile.lastModified();
+
+        try (CasStorageSession session = openNested(true)) {
+            CAS cas = sut.readCas(doc1, user, EXCLUSIVE_WRITE_ACCESS);
+            cas.addFsToIndexes(cas.createAnnotation(cas.getAnnotationType(), 0, 4));
+            sut.writeCas(doc1, cas, user);
+        }
+
+        assertThat(casFile.lastModified())
+                .as("Writing the CAS is deferred")
+                .isEqualTo(casFileLastModified);
+
+        // Actual test - the pool is full, so it has to drop the idle CAS of the first document
+        // to make room for the second document
+        try (CasStorageSession session = openNested(true)) {
+            sut.readCas(doc2, user, EXCLUSIVE_WRITE_ACCESS);
+        }
+
+        assertThat(casFile.lastModified())
+                .as("Deferred CAS is written when it is dropped from the pool")
+                .isNotEqualTo(casFileLastModified);
+
+        try (CasStorageSession session = openNested(true)) {
+            CAS cas = sut.readCas(doc1, user, UNMANAGED_NON_INITIALIZING_ACCESS);
+            assertThat(cas.getAnnotationIndex().select().at(0, 4).asList())
+                    .as("Deferred changes have not been lost")
+                    .hasSize(1);
+        }
+
+        sut.destroy();
+    }
+
+    @Test
+    public void testSharedCacheRecordsStatistics() throws Exception
+    {
+        // Setup fixture
+        SourceDocument doc = makeSourceDocument(11l, 11l, "test");
+        String user = "test";
+        try (CasStorageSession session = openNested(true)) {
+            createCasFile(doc, user, "This is a test");
+        }
+
+        // Actual test
+        try (CasStorageSession session = openNested(true)) {
+            sut.readCas(doc, user, SHARED_READ_ONLY_ACCESS);
+        }
+        try (CasStorageSession session = openNested(true)) {
+            sut.readCas(doc, user, SHARED_READ_ONLY_ACCESS);
+        }
+
+        assertThat(sut.getSharedCasCacheMisses()).isEqualTo(1);
+        assertThat(sut.getSharedCasCacheHits()).isEqualTo(1);
+        assertThat(sut.getSharedCasCacheMaxWeight()).isPositive();
+    }
+
     @Test
     public void testConcurrentAccess() throws Exception
     {
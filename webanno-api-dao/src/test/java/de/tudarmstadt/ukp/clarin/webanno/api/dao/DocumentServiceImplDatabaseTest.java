@@ -17,8 +17,15 @@
  */
 package de.tudarmstadt.ukp.clarin.webanno.api.dao;
 
+import static de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst.TAB_SEP;
 import static de.tudarmstadt.ukp.clarin.webanno.model.PermissionLevel.ANNOTATOR;
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyList;
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.ArrayList;
+import java.util.List;
 
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -88,6 +95,114 @@ public class DocumentServiceImplDatabaseTest
         assertThat(documentService.listAnnotationDocuments(doc)).isEmpty();
     }
 
+    @Test
+    public void thatNameFilterMatchesSpecialCharactersLiterally() throws Exception
+    {
+        Project project = new Project("project-filter");
+        projectService.createProject(project);
+
+        createSourceDocuments(project, "a_b", "axb", "50%", "500", "hi!", "hix");
+
+        assertThat(documentService.countSourceDocuments(project, "A_B")).isEqualTo(1);
+        assertThat(documentService.listSourceDocuments(project, "_", "name", true, 0, 10))
+                .extracting(SourceDocument::getName)
+                .containsExactly("a_b");
+        assertThat(documentService.listSourceDocuments(project, "%", "name", true, 0, 10))
+                .extracting(SourceDocument::getName)
+                .containsExactly("50%");
+        assertThat(documentService.listSourceDocuments(project, "!", "name", true, 0, 10))
+                .extracting(SourceDocument::getName)
+                .containsExactly("hi!");
+        assertThat(documentService.countSourceDocuments(project, null)).isEqualTo(6);
+    }
+
+    @Test
+    public void thatTrainingDocumentsAreNotListed() throws Exception
+    {
+        Project project = new Project("project-training");
+        projectService.createProject(project);
+
+        createSourceDocuments(project, "doc");
+        documentService.createSourceDocument(new SourceDocument("train", project, TAB_SEP));
+
+        assertThat(documentService.countSourceDocuments(project, null)).isEqualTo(1);
+        assertThat(documentService.listSourceDocuments(project, null, "name", true, 0, 10))
+                .extracting(SourceDocument::getName)
+                .containsExactly("doc");
+    }
+
+    @Test
+    public void thatSourceDocumentsCannotBeSortedByArbitraryProperties() throws Exception
+    {
+        Project project = new Project("project-sort");
+        projectService.createProject(project);
+
+        assertThatThrownBy(() -> documentService.listSourceDocuments(project, null,
+                "name; DELETE FROM SourceDocument", true, 0, 10))
+                        .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> documentService.listSourceDocuments(project, null, "format",
+                true, 0, 10)).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    public void thatPagesAreStableWhenSortPropertyIsNotUnique() throws Exception
+    {
+        Project project = new Project("project-paging");
+        projectService.createProject(project);
+
+        List<SourceDocument> docs = createSourceDocuments(project, "e", "c", "a", "d", "b");
+
+        // All documents are in the same state, so only the ID determines their order
+        List<SourceDocument> pages = new ArrayList<>();
+        for (int first = 0; first < docs.size(); first += 2) {
+            pages.addAll(documentService.listSourceDocuments(project, null, "state", false,
+                    first, 2));
+        }
+
+        assertThat(pages).containsExactlyElementsOf(docs);
+        assertThat(documentService.listSourceDocuments(project, null, "name", false, 1, 2))
+                .extracting(SourceDocument::getName)
+                .containsExactly("d", "c");
+    }
+
+    @Test
+    public void thatAnnotationDocumentsAreListedForGivenDocumentsOnly() throws Exception
+    {
+        User user = new User("user3");
+        userRepository.create(user);
+
+        Project project = new Project("project-annotations");
+        projectService.createProject(project);
+        projectService.createProjectPermission(
+                new ProjectPermission(project, user.getUsername(), ANNOTATOR));
+
+        List<SourceDocument> docs = createSourceDocuments(project, "doc1", "doc2");
+
+        AnnotationDocument ann1 = new AnnotationDocument("doc1", project, user.getUsername(),
+                docs.get(0));
+        documentService.createAnnotationDocument(ann1);
+        AnnotationDocument ann2 = new AnnotationDocument("doc2", project, user.getUsername(),
+                docs.get(1));
+        documentService.createAnnotationDocument(ann2);
+
+        assertThat(documentService.listAllAnnotationDocuments(project, asList(docs.get(0))))
+                .containsExactly(ann1);
+        assertThat(documentService.listAllAnnotationDocuments(project, docs))
+                .containsExactlyInAnyOrder(ann1, ann2);
+        assertThat(documentService.listAllAnnotationDocuments(project, emptyList())).isEmpty();
+    }
+
+    private List<SourceDocument> createSourceDocuments(Project aProject, String... aNames)
+    {
+        List<SourceDocument> docs = new ArrayList<>();
+        for (String name : aNames) {
+            SourceDocument doc = new SourceDocument(name, aProject, "text");
+            documentService.createSourceDocument(doc);
+            docs.add(doc);
+        }
+        return docs;
+    }
+
     @Configuration
     public static class TestContext
     {
@@ -118,7 +233,7 @@ public class DocumentServiceImplDatabaseTest
         public CasStorageService casStorageService()
         {
             return new CasStorageServiceImpl(null, null, repositoryProperties(),
-                    backupProperties());
+                    backupProperties(), new CasStorageProperties());
         }
 
         @Bean
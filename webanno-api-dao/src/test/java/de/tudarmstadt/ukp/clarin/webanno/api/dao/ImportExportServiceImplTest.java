@@ -85,7 +85,7 @@ public class ImportExportServiceImplTest
         repositoryProperties.setPath(testFolder.newFolder());
 
         storageService = new CasStorageServiceImpl(null, null, repositoryProperties,
-                backupProperties);
+                backupProperties, new CasStorageProperties());
 
         sut = new ImportExportServiceImpl(repositoryProperties, asList(new XmiFormatSupport()),
                 storageService, schemaService);
@@ -0,0 +1,239 @@
+/*
+ * Licensed to the Technische Universität Darmstadt under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The Technische Universität Darmstadt 
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.dao;
+
+import static de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst.TAB_SEP;
+import static de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocumentState.FINISHED;
+import static de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocumentState.IGNORE;
+import static de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocumentState.IN_PROGRESS;
+import static de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocumentState.NEW;
+import static de.tudarmstadt.ukp.clarin.webanno.model.PermissionLevel.ANNOTATOR;
+import static de.tudarmstadt.ukp.clarin.webanno.model.PermissionLevel.CURATOR;
+import static de.tudarmstadt.ukp.clarin.webanno.model.SourceDocumentState.CURATION_FINISHED;
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.boot.autoconfigure.domain.EntityScan;
+import org.springframework.boot.autoconfigure.liquibase.LiquibaseAutoConfiguration;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.CasStorageService;
+import de.tudarmstadt.ukp.clarin.webanno.api.DocumentService;
+import de.tudarmstadt.ukp.clarin.webanno.api.ProjectService;
+import de.tudarmstadt.ukp.clarin.webanno.api.ProjectStatistics;
+import de.tudarmstadt.ukp.clarin.webanno.api.RepositoryProperties;
+import de.tudarmstadt.ukp.clarin.webanno.api.event.AnnotationStateChangeEvent;
+import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocument;
+import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocumentState;
+import de.tudarmstadt.ukp.clarin.webanno.model.Project;
+import de.tudarmstadt.ukp.clarin.webanno.model.ProjectPermission;
+import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
+import de.tudarmstadt.ukp.clarin.webanno.project.ProjectServiceImpl;
+import de.tudarmstadt.ukp.clarin.webanno.security.UserDao;
+import de.tudarmstadt.ukp.clarin.webanno.security.UserDaoImpl;
+import de.tudarmstadt.ukp.clarin.webanno.security.model.User;
+import de.tudarmstadt.ukp.clarin.webanno.support.ApplicationContextProvider;
+
+@RunWith(SpringRunner.class)
+@EnableAutoConfiguration
+@DataJpaTest(excludeAutoConfiguration = LiquibaseAutoConfiguration.class)
+@EntityScan({ "de.tudarmstadt.ukp.clarin.webanno.model",
+        "de.tudarmstadt.ukp.clarin.webanno.security.model" })
+@Transactional(propagation = Propagation.NEVER)
+public class ProjectStatisticsServiceImplDatabaseTest
+{
+    private @Autowired ProjectService projectService;
+    private @Autowired UserDao userRepository;
+    private @Autowired DocumentService documentService;
+    private @Autowired ProjectStatisticsServiceImpl sut;
+
+    @Test
+    public void thatDocumentsAreCountedByState() throws Exception
+    {
+        User user1 = new User("user1");
+        userRepository.create(user1);
+        User user2 = new User("user2");
+        userRepository.create(user2);
+
+        Project project = new Project("project");
+        projectService.createProject(project);
+        projectService.createProjectPermission(
+                new ProjectPermission(project, user1.getUsername(), ANNOTATOR));
+        projectService.createProjectPermission(
+                new ProjectPermission(project, user2.getUsername(), ANNOTATOR));
+
+        SourceDocument doc1 = new SourceDocument("doc1", project, "text");
+        documentService.createSourceDocument(doc1);
+        SourceDocument doc2 = new SourceDocument("doc2", project, "text");
+        doc2.setState(CURATION_FINISHED);
+        documentService.createSourceDocument(doc2);
+
+        createAnnotationDocument(doc1, user1, FINISHED);
+        createAnnotationDocument(doc2, user1, IN_PROGRESS);
+        createAnnotationDocument(doc1, user2, IGNORE);
+
+        ProjectStatistics stats = sut.getProjectStatistics(project);
+
+        assertThat(stats.getAnnotators()).containsExactly("user1", "user2");
+        assertThat(stats.getDocumentCount()).isEqualTo(2);
+        assertThat(stats.getDocumentCount(CURATION_FINISHED)).isEqualTo(1);
+        assertThat(stats.getAnnotationDocumentCount("user1", FINISHED)).isEqualTo(1);
+        assertThat(stats.getAnnotatableDocumentCount("user1")).isEqualTo(2);
+        assertThat(stats.getAnnotatableDocumentCount("user2")).isEqualTo(1);
+        assertThat(stats.getFinishedAnnotationDocumentCount()).isEqualTo(1);
+        assertThat(stats.getExpectedAnnotationDocumentCount()).isEqualTo(3);
+
+        // The counts are only calculated again after a change has been announced
+        AnnotationDocument ann = createAnnotationDocument(doc2, user2, FINISHED);
+        assertThat(sut.getProjectStatistics(project).getFinishedAnnotationDocumentCount())
+                .isEqualTo(1);
+
+        sut.afterAnnotationStateChanged(new AnnotationStateChangeEvent(this, ann, NEW));
+        assertThat(sut.getProjectStatistics(project).getFinishedAnnotationDocumentCount())
+                .isEqualTo(2);
+    }
+
+    @Test
+    public void thatTrainingDocumentsAreNotCounted() throws Exception
+    {
+        User user = new User("user3");
+        userRepository.create(user);
+
+        Project project = new Project("project2");
+        projectService.createProject(project);
+        projectService.createProjectPermission(
+                new ProjectPermission(project, user.getUsername(), ANNOTATOR));
+
+        SourceDocument doc = new SourceDocument("doc", project, "text");
+        documentService.createSourceDocument(doc);
+        SourceDocument trainingDoc = new SourceDocument("train", project, TAB_SEP);
+        documentService.createSourceDocument(trainingDoc);
+
+        createAnnotationDocument(doc, user, FINISHED);
+        createAnnotationDocument(trainingDoc, user, FINISHED);
+
+        ProjectStatistics stats = sut.getProjectStatistics(project);
+
+        assertThat(stats.getDocumentCount()).isEqualTo(1);
+        assertThat(stats.getAnnotationDocumentCount("user3", FINISHED)).isEqualTo(1);
+        assertThat(stats.getAnnotatableDocumentCount("user3")).isEqualTo(1);
+        assertThat(stats.getFinishedAnnotationDocumentCount()).isEqualTo(1);
+        assertThat(stats.getExpectedAnnotationDocumentCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void thatAnnotatorsAreUpdatedWhenPermissionsChange() throws Exception
+    {
+        User user4 = new User("user4");
+        userRepository.create(user4);
+        User user5 = new User("user5");
+        userRepository.create(user5);
+
+        Project project = new Project("project3");
+        projectService.createProject(project);
+        projectService.createProjectPermission(
+                new ProjectPermission(project, user4.getUsername(), ANNOTATOR));
+
+        assertThat(sut.getProjectStatistics(project).getAnnotators()).containsExactly("user4");
+
+        projectService.setProjectPermissionLevels(user5, project, asList(ANNOTATOR));
+        assertThat(sut.getProjectStatistics(project).getAnnotators())
+                .containsExactly("user4", "user5");
+
+        projectService.setProjectPermissionLevels(user5, project, asList(CURATOR));
+        assertThat(sut.getProjectStatistics(project).getAnnotators()).containsExactly("user4");
+    }
+
+    private AnnotationDocument createAnnotationDocument(SourceDocument aDocument, User aUser,
+            AnnotationDocumentState aState)
+    {
+        AnnotationDocument ann = new AnnotationDocument(aDocument.getName(),
+                aDocument.getProject(), aUser.getUsername(), aDocument);
+        ann.setState(aState);
+        documentService.createAnnotationDocument(ann);
+        return ann;
+    }
+
+    @Configuration
+    public static class TestContext
+    {
+        @Autowired
+        ApplicationEventPublisher applicationEventPublisher;
+
+        @Bean
+        public ProjectService projectService()
+        {
+            return new ProjectServiceImpl(userRepository(), applicationEventPublisher,
+                    repositoryProperties(), null);
+        }
+
+        @Bean
+        public UserDao userRepository()
+        {
+            return new UserDaoImpl();
+        }
+
+        @Bean
+        public DocumentService documentService()
+        {
+            return new DocumentServiceImpl(repositoryProperties(), casStorageService(), null, null,
+                    applicationEventPublisher);
+        }
+
+        @Bean
+        public ProjectStatisticsServiceImpl projectStatisticsService()
+        {
+            return new ProjectStatisticsServiceImpl();
+        }
+
+        @Bean
+        public CasStorageService casStorageService()
+        {
+            return new CasStorageServiceImpl(null, null, repositoryProperties(),
+                    backupProperties(), new CasStorageProperties());
+        }
+
+        @Bean
+        public RepositoryProperties repositoryProperties()
+        {
+            return new RepositoryProperties();
+        }
+
+        @Bean
+        public BackupProperties backupProperties()
+        {
+            return new BackupProperties();
+        }
+
+        @Bean
+        public ApplicationContextProvider contextProvider()
+        {
+            return new ApplicationContextProvider();
+        }
+    }
+}
@@ -46,6 +46,7 @@ import de.tudarmstadt.ukp.clarin.webanno.api.DocumentService;
 import de.tudarmstadt.ukp.clarin.webanno.api.ImportExportService;
 import de.tudarmstadt.ukp.clarin.webanno.api.RepositoryProperties;
 import de.tudarmstadt.ukp.clarin.webanno.api.dao.BackupProperties;
+import de.tudarmstadt.ukp.clarin.webanno.api.dao.CasStorageProperties;
 import de.tudarmstadt.ukp.clarin.webanno.api.dao.CasStorageServiceImpl;
 import de.tudarmstadt.ukp.clarin.webanno.api.dao.ImportExportServiceImpl;
 import de.tudarmstadt.ukp.clarin.webanno.api.dao.export.ProjectExportServiceImpl;
@@ -91,13 +92,13 @@ public class AnnotationDocumentsExporterTest
         repositoryProperties.setPath(workFolder);
 
         casStorageService = new CasStorageServiceImpl(null, schemaService, repositoryProperties,
-                backupProperties);
+                backupProperties, new CasStorageProperties());
 
         importExportSerivce = new ImportExportServiceImpl(repositoryProperties,
                 asList(new XmiFormatSupport()), casStorageService, schemaService);
 
         sut = new AnnotationDocumentExporter(documentService, null, importExportSerivce,
-                repositoryProperties);
+                repositoryProperties, 1);
     }
 
     @Test
@@ -34,8 +34,10 @@ import static org.mockito.Mockito.when;
 import static org.mockito.MockitoAnnotations.initMocks;
 
 import java.io.File;
+import java.io.FileOutputStream;
 import java.util.List;
 import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
 
 import org.junit.Before;
 import org.junit.Rule;
@@ -116,7 +118,10 @@ public class LayerExporterTest
         exportRequest.setProject(project);
         ExportedProject exportedProject = new ExportedProject();
 
-        sut.exportData(exportRequest, monitor, exportedProject, workFolder);
+        try (ZipOutputStream zos = new ZipOutputStream(
+                new FileOutputStream(new File(workFolder, "export.zip")))) {
+            sut.exportData(exportRequest, monitor, exportedProject, zos);
+        }
 
         // Import the project again
         ArgumentCaptor<AnnotationLayer> captor = ArgumentCaptor.forClass(AnnotationLayer.class);
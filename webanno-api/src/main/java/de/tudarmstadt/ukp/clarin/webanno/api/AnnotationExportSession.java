@@ -0,0 +1,68 @@
+/*
+ * Licensed to the Technische Universität Darmstadt under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The Technische Universität Darmstadt 
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.uima.UIMAException;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.format.FormatSupport;
+import de.tudarmstadt.ukp.clarin.webanno.model.Mode;
+import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
+
+/**
+ * Exports many annotation documents of a single project in a row. The session keeps its export CAS
+ * and the writer engines alive across documents instead of creating them for every document.
+ * <p>
+ * A session is not thread-safe. Use one session per thread.
+ * 
+ * @see ImportExportService#openAnnotationExportSession
+ */
+public interface AnnotationExportSession
+    extends AutoCloseable
+{
+    /**
+     * Exports the annotations of the given user in the given document.
+     * 
+     * @param aDocument
+     *            the source document.
+     * @param aUser
+     *            the annotator.
+     * @param aFormat
+     *            the format.
+     * @param aFileName
+     *            the file name.
+     * @param aMode
+     *            the mode.
+     * @param aStripExtension
+     *            whether to strip the extension from the file name.
+     * @return a temporary file owned by the caller. It must be deleted before the next document
+     *         is exported in this session.
+     * @throws UIMAException
+     *             if there was a conversion error.
+     * @throws IOException
+     *             if there was an I/O error.
+     */
+    File exportAnnotationDocument(SourceDocument aDocument, String aUser, FormatSupport aFormat,
+            String aFileName, Mode aMode, boolean aStripExtension)
+        throws UIMAException, IOException;
+
+    @Override
+    void close() throws IOException;
+}
@@ -174,7 +174,56 @@ public interface CasStorageService
      */
     void upgradeCas(SourceDocument aDocument, String aUser) throws IOException, CasSessionException;
 
+    /**
+     * Upgrades the given CAS in the storage if it is not compatible with the current project type
+     * system. The CAS is only written back if an upgrade was actually performed.
+     * 
+     * @param aDocument
+     *            the document to upgrade the CAS for.
+     * @param aUser
+     *            the user to upgrade the CAS for.
+     * @return whether an upgrade was performed.
+     * @throws IOException
+     *             if the CAS could not be loaded, upgraded or saved.
+     */
+    boolean upgradeCasIfRequired(SourceDocument aDocument, String aUser) throws IOException;
+
     void forceActionOnCas(SourceDocument aDocument, String aUser, CasStorageServiceLoader aLoader,
             CasStorageServiceAction aAction, boolean aSave)
         throws IOException;
+
+    /**
+     * @return number of requests served from the shared read-only CAS cache.
+     */
+    long getSharedCasCacheHits();
+
+    /**
+     * @return number of requests which had to load the CAS into the shared read-only CAS cache.
+     */
+    long getSharedCasCacheMisses();
+
+    /**
+     * @return average time (milliseconds) spent loading a CAS into the shared read-only CAS cache.
+     */
+    double getSharedCasCacheAverageLoadTime();
+
+    /**
+     * @return number of CASes evicted from the shared read-only CAS cache.
+     */
+    long getSharedCasCacheEvictions();
+
+    /**
+     * @return number of CASes currently in the shared read-only CAS cache.
+     */
+    long getSharedCasCacheEntries();
+
+    /**
+     * @return estimated heap size (KB) currently occupied by the shared read-only CAS cache.
+     */
+    long getSharedCasCacheWeight();
+
+    /**
+     * @return maximum estimated heap size (KB) which the shared read-only CAS cache may occupy.
+     */
+    long getSharedCasCacheMaxWeight();
 }
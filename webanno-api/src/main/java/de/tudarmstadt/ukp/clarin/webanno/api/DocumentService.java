@@ -20,6 +20,7 @@ package de.tudarmstadt.ukp.clarin.webanno.api;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
@@ -125,6 +126,41 @@ public interface DocumentService
      */
     List<SourceDocument> listSourceDocuments(Project aProject);
 
+    /**
+     * Count the source documents in a project whose name contains the given filter. Like
+     * {@link #listSourceDocuments(Project)}, this does not include training documents.
+     *
+     * @param aProject
+     *            the project.
+     * @param aNameFilter
+     *            a case-insensitive part of the document name or {@code null} to count all
+     *            documents.
+     * @return the number of matching source documents.
+     */
+    long countSourceDocuments(Project aProject, String aNameFilter);
+
+    /**
+     * List a page of the source documents in a project whose name contains the given filter. Like
+     * {@link #listSourceDocuments(Project)}, this does not include training documents.
+     *
+     * @param aProject
+     *            the project.
+     * @param aNameFilter
+     *            a case-insensitive part of the document name or {@code null} to list all
+     *            documents.
+     * @param aSortProperty
+     *            the property to sort by, either {@code name} or {@code state}.
+     * @param aAscending
+     *            whether to sort in ascending order.
+     * @param aFirst
+     *            the index of the first document to return.
+     * @param aCount
+     *            the maximum number of documents to return.
+     * @return the matching source documents.
+     */
+    List<SourceDocument> listSourceDocuments(Project aProject, String aNameFilter,
+            String aSortProperty, boolean aAscending, long aFirst, long aCount);
+
     /**
      * ROLE_ADMINs or project admins can remove source documents from a project. removing a a source
      * document also removes an annotation document related to that document
@@ -556,6 +592,21 @@ public interface DocumentService
      */
     List<AnnotationDocument> listAllAnnotationDocuments(SourceDocument document);
 
+    /**
+     * List all annotation documents of the given source documents in a single query.
+     * <p>
+     * Note that this method returns <b>ALL</b> {@link AnnotationDocument annotation documents}
+     * even if the user owning the document does not actually exist in the system!
+     *
+     * @param aProject
+     *            the project containing the source documents.
+     * @param aDocuments
+     *            the source documents.
+     * @return the annotation documents.
+     */
+    List<AnnotationDocument> listAllAnnotationDocuments(Project aProject,
+            Collection<SourceDocument> aDocuments);
+
     /**
      * Check if the user finished annotating the {@link SourceDocument} in this {@link Project}
      *
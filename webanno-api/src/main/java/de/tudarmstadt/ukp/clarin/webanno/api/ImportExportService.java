@@ -187,4 +187,24 @@ public interface ImportExportService
             String fileName, Mode mode, boolean stripExtension,
             Map<Pair<Project, String>, Object> aBulkOperationContext)
         throws UIMAException, IOException, ClassNotFoundException;
+
+    /**
+     * Opens a session for exporting many annotation documents of the given project. Project-wide
+     * information like the export type system is looked up when the session is opened and stored
+     * in the bulk operation context. Sessions sharing a context can therefore be opened in one
+     * thread and used in others, as long as the context is thread-safe.
+     *
+     * @param aProject
+     *            the project.
+     * @param aBulkOperationContext
+     *            the bulk operation context.
+     * @return the session. It must be closed by the caller.
+     * @throws UIMAException
+     *             if the export type system could not be created.
+     * @throws IOException
+     *             if there was an I/O error.
+     */
+    AnnotationExportSession openAnnotationExportSession(Project aProject,
+            Map<Pair<Project, String>, Object> aBulkOperationContext)
+        throws UIMAException, IOException;
 }
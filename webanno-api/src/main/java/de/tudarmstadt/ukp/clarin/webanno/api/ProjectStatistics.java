@@ -0,0 +1,112 @@
+/*
+ * Licensed to the Technische Universität Darmstadt under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The Technische Universität Darmstadt 
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api;
+
+import static java.util.Collections.emptyMap;
+import static java.util.Collections.unmodifiableList;
+import static java.util.Collections.unmodifiableMap;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocumentState;
+import de.tudarmstadt.ukp.clarin.webanno.model.Project;
+import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocumentState;
+
+/**
+ * Number of source documents and annotation documents by state in a project.
+ * 
+ * @see ProjectStatisticsService
+ */
+public final class ProjectStatistics
+{
+    private final Project project;
+    private final List<String> annotators;
+    private final long documentCount;
+    private final Map<SourceDocumentState, Long> documentStateCounts;
+    private final Map<String, Map<AnnotationDocumentState, Long>> annotationDocumentStateCounts;
+
+    public ProjectStatistics(Project aProject, List<String> aAnnotators, long aDocumentCount,
+            Map<SourceDocumentState, Long> aDocumentStateCounts,
+            Map<String, Map<AnnotationDocumentState, Long>> aAnnotationDocumentStateCounts)
+    {
+        project = aProject;
+        annotators = unmodifiableList(new ArrayList<>(aAnnotators));
+        documentCount = aDocumentCount;
+        documentStateCounts = unmodifiableMap(aDocumentStateCounts);
+        annotationDocumentStateCounts = unmodifiableMap(aAnnotationDocumentStateCounts);
+    }
+
+    public Project getProject()
+    {
+        return project;
+    }
+
+    /**
+     * @return the names of the users with the annotator permission in the project.
+     */
+    public List<String> getAnnotators()
+    {
+        return annotators;
+    }
+
+    public long getDocumentCount()
+    {
+        return documentCount;
+    }
+
+    public long getDocumentCount(SourceDocumentState aState)
+    {
+        return documentStateCounts.getOrDefault(aState, 0l);
+    }
+
+    public long getAnnotationDocumentCount(String aUser, AnnotationDocumentState aState)
+    {
+        return annotationDocumentStateCounts.getOrDefault(aUser, emptyMap()).getOrDefault(aState,
+                0l);
+    }
+
+    /**
+     * @return the number of documents the given user can annotate, i.e. all documents of the
+     *         project except those ignored for the user.
+     */
+    public long getAnnotatableDocumentCount(String aUser)
+    {
+        return documentCount - getAnnotationDocumentCount(aUser, AnnotationDocumentState.IGNORE);
+    }
+
+    /**
+     * @return the number of documents finished by the annotators of the project.
+     */
+    public long getFinishedAnnotationDocumentCount()
+    {
+        return annotators.stream()
+                .mapToLong(user -> getAnnotationDocumentCount(user,
+                        AnnotationDocumentState.FINISHED))
+                .sum();
+    }
+
+    /**
+     * @return the number of documents the annotators of the project are expected to annotate.
+     */
+    public long getExpectedAnnotationDocumentCount()
+    {
+        return annotators.stream().mapToLong(this::getAnnotatableDocumentCount).sum();
+    }
+}
@@ -0,0 +1,41 @@
+/*
+ * Licensed to the Technische Universität Darmstadt under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The Technische Universität Darmstadt 
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api;
+
+import de.tudarmstadt.ukp.clarin.webanno.model.Project;
+
+/**
+ * Provides aggregated document statistics for projects, e.g. for monitoring the annotation
+ * progress.
+ */
+public interface ProjectStatisticsService
+{
+    String SERVICE_NAME = "projectStatisticsService";
+
+    /**
+     * Gets the annotators and the number of source documents and annotation documents by state
+     * in the given project. Training documents for the automation are not counted. The counts
+     * are calculated using aggregate queries and kept until a document or a permission of the
+     * project changes.
+     *
+     * @param aProject
+     *            the project.
+     * @return the statistics.
+     */
+    ProjectStatistics getProjectStatistics(Project aProject);
+}
@@ -17,11 +17,11 @@
  */
 package de.tudarmstadt.ukp.clarin.webanno.api.export;
 
-import java.io.File;
 import java.util.Collections;
 import java.util.List;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
 
 import de.tudarmstadt.ukp.clarin.webanno.export.model.ExportedProject;
 import de.tudarmstadt.ukp.clarin.webanno.model.Project;
@@ -38,8 +38,23 @@ public interface ProjectExporter
         return Collections.emptyList();
     }
 
+    /**
+     * Exports the data handled by this exporter. Settings are added to the exported project model
+     * while files are written directly as entries to the ZIP stream of the export.
+     * 
+     * @param aRequest
+     *            the export request.
+     * @param aMonitor
+     *            the export monitor.
+     * @param aExProject
+     *            the exported project model which is written to the ZIP after all exporters ran.
+     * @param aStage
+     *            the ZIP stream of the export. Entry names must not start with a "/".
+     * @throws Exception
+     *             if the export fails.
+     */
     void exportData(ProjectExportRequest aRequest, ProjectExportTaskMonitor aMonitor,
-            ExportedProject aExProject, File aStage)
+            ExportedProject aExProject, ZipOutputStream aStage)
         throws Exception;
 
     void importData(ProjectImportRequest aRequest, Project aProject, ExportedProject aExProject,
@@ -170,7 +170,14 @@ public class MiraAutomationServiceImpl
     @Transactional
     public void createAutomationStatus(AutomationStatus aStatus)
     {
-        entityManager.persist(aStatus);
+        // The status is updated repeatedly by the automation task outside of any request, so it
+        // may be detached here
+        if (isNull(aStatus.getId())) {
+            entityManager.persist(aStatus);
+        }
+        else {
+            entityManager.merge(aStatus);
+        }
     }
 
     @Override
@@ -27,6 +27,7 @@ import java.util.Enumeration;
 import java.util.List;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.FilenameUtils;
@@ -51,6 +52,7 @@ import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationFeature;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationLayer;
 import de.tudarmstadt.ukp.clarin.webanno.model.Project;
 import de.tudarmstadt.ukp.clarin.webanno.model.TrainingDocument;
+import de.tudarmstadt.ukp.clarin.webanno.support.ZipUtils;
 import de.tudarmstadt.ukp.clarin.webanno.support.logging.LogMessage;
 
 @Component
@@ -74,11 +76,11 @@ public class AutomationTrainingDocumentExporter
 
     @Override
     public void exportData(ProjectExportRequest aRequest, ProjectExportTaskMonitor aMonitor,
-            ExportedProject aExProject, File aCopyDir)
+            ExportedProject aExProject, ZipOutputStream aStage)
         throws Exception
     {
         exportTrainingDocuments(aRequest.getProject(), aExProject);
-        exportTrainingDocumentContents(aRequest, aMonitor, aExProject, aCopyDir);
+        exportTrainingDocumentContents(aRequest, aMonitor, aExProject, aStage);
     }
 
     private void exportTrainingDocuments(Project aProject, ExportedProject aExProject)
@@ -107,20 +109,20 @@ public class AutomationTrainingDocumentExporter
     }
 
     private void exportTrainingDocumentContents(ProjectExportRequest aRequest,
-            ProjectExportTaskMonitor aMonitor, ExportedProject aExProject, File aCopyDir)
+            ProjectExportTaskMonitor aMonitor, ExportedProject aExProject,
+            ZipOutputStream aStage)
         throws IOException, ProjectExportException
     {
         Project project = aRequest.getProject();
-        File trainDocumentDir = new File(aCopyDir + TRAIN_FOLDER);
-        FileUtils.forceMkdir(trainDocumentDir);
         // Get all the training documents from the project
         List<TrainingDocument> documents = automationService.listTrainingDocuments(project);
         int i = 1;
         for (TrainingDocument trainingDocument : documents) {
             try {
-                FileUtils.copyFileToDirectory(
-                        automationService.getTrainingDocumentFile(trainingDocument),
-                        trainDocumentDir);
+                File trainingDocumentFile = automationService
+                        .getTrainingDocumentFile(trainingDocument);
+                ZipUtils.addFileToZip(aStage, trainingDocumentFile,
+                        TRAIN_FOLDER + "/" + trainingDocumentFile.getName());
                 aMonitor.setProgress((int) Math.ceil(((double) i) / documents.size() * 10.0));
                 i++;
                 log.info("Imported content for training document [" + trainingDocument.getId()
@@ -17,12 +17,11 @@
  */
 package de.tudarmstadt.ukp.clarin.webanno.constraints.export;
 
-import java.io.File;
 import java.util.Enumeration;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
 
-import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.FilenameUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -51,17 +50,13 @@ public class ConstraintsExporter
 
     @Override
     public void exportData(ProjectExportRequest aRequest, ProjectExportTaskMonitor aMonitor,
-            ExportedProject aExProject, File aStage)
+            ExportedProject aExProject, ZipOutputStream aStage)
         throws Exception
     {
-        File constraintsDir = new File(aStage + CONSTRAINTS);
-        FileUtils.forceMkdir(constraintsDir);
-        String fileName;
         for (ConstraintSet set : constraintsService.listConstraintSets(aRequest.getProject())) {
-            fileName = set.getName();
             // Copying with file's original name to save ConstraintSet's name
-            FileUtils.copyFile(constraintsService.exportConstraintAsFile(set),
-                    new File(constraintsDir, fileName));
+            ZipUtils.addFileToZip(aStage, constraintsService.exportConstraintAsFile(set),
+                    CONSTRAINTS + set.getName());
         }
     }
 
@@ -41,8 +41,10 @@ import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Objects;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.function.Predicate;
 
 import org.apache.commons.lang3.StringUtils;
 import org.apache.uima.cas.ArrayFS;
@@ -66,6 +68,7 @@ import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.api.Position;
 import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.internal.AID;
 import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.relation.RelationDiffAdapter;
 import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.span.SpanDiffAdapter;
+import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.span.SpanPosition;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationFeature;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationLayer;
 
@@ -75,9 +78,20 @@ public class CasDiff
 
     private Map<String, List<CAS>> cases = new LinkedHashMap<>();
 
-    private final Map<Position, ConfigurationSet> configSets = new TreeMap<>();
+    /**
+     * Configuration sets by position. Positions are collected in a hash map and only sorted once
+     * when they are requested - see {@link #getSortedConfigSets()}.
+     */
+    private final Map<Position, ConfigurationSet> configSets = new HashMap<>();
+
+    /**
+     * Configuration sets sorted by position. Once the diff is complete, it may be shared by
+     * concurrent readers (e.g. the pairwise agreement calculation), so the sorted map is only
+     * published after it has been fully built.
+     */
+    private volatile Map<Position, ConfigurationSet> sortedConfigSets;
 
-    private final Map<String, String[]> sortedFeaturesCache = new HashMap<>();
+    private final Map<String, List<String>> comparedFeaturesCache = new HashMap<>();
 
     private int begin;
 
@@ -89,6 +103,8 @@ public class CasDiff
 
     private boolean recurseIntoLinkFeatures = false;
 
+    private static final int MAX_HASH_DEPTH = 8;
+
     private CasDiff(int aBegin, int aEnd, Iterable<? extends DiffAdapter> aAdapters,
             LinkCompareBehavior aLinkCompareBehavior)
     {
@@ -194,6 +210,44 @@ public class CasDiff
         return diff;
     }
 
+    /**
+     * Combine diffs which were calculated over the same CAS groups but on different CASes, e.g. on
+     * different documents. Each CAS must have been added to at most one of the given diffs using
+     * the same CAS ID as its index in the given CAS map. This allows re-using the diffs of
+     * documents which did not change instead of diffing all the CASes again.
+     * 
+     * @param aDiffs
+     *            the diffs to combine.
+     * @param aCasMap
+     *            the CASes of all the diffs, each associated with an ID.
+     * @return the combined diff.
+     */
+    public static CasDiff merge(List<CasDiff> aDiffs, Map<String, List<CAS>> aCasMap)
+    {
+        if (aDiffs.isEmpty()) {
+            throw new IllegalArgumentException("At least one diff is required");
+        }
+
+        CasDiff first = aDiffs.get(0);
+        CasDiff merged = new CasDiff(first.begin, first.end, first.typeAdapters.values(),
+                first.linkCompareBehavior);
+
+        for (Entry<String, List<CAS>> e : aCasMap.entrySet()) {
+            merged.cases.put(e.getKey(), new ArrayList<>(e.getValue()));
+        }
+
+        for (CasDiff diff : aDiffs) {
+            for (Entry<Position, ConfigurationSet> e : diff.configSets.entrySet()) {
+                if (merged.configSets.putIfAbsent(e.getKey(), e.getValue()) != null) {
+                    throw new IllegalArgumentException(
+                            "Position [" + e.getKey() + "] is contained in multiple diffs");
+                }
+            }
+        }
+
+        return merged;
+    }
+
     /**
      * Sanity check - all CASes should have the same text.
      */
@@ -333,47 +387,44 @@ public class CasDiff
         LOG.debug("CAS group [" + aCasGroupId + "] CAS [" + aCasId + "] contains ["
                 + annotations.size() + "] annotations of type [" + aType + "]");
 
-        int posBefore = configSets.keySet().size();
-        LOG.debug("Positions before: [" + posBefore + "]");
+        int posBefore = configSets.size();
+        LOG.debug("Positions before: [{}]", posBefore);
 
+        DiffAdapter adapter = getAdapter(aType);
         for (AnnotationFS fs : annotations) {
-            List<Position> positions = new ArrayList<>();
-
             // Get/create configuration set at the current position
-            positions.add(getAdapter(aType).getPosition(aCasId, fs));
+            addConfiguration(adapter.getPosition(aCasId, fs), aCasGroupId, fs);
 
             // Generate secondary positions for multi-link features
-            positions.addAll(
-                    getAdapter(aType).generateSubPositions(aCasId, fs, linkCompareBehavior));
-
-            for (Position pos : positions) {
-                ConfigurationSet configSet = configSets.get(pos);
-                if (configSet == null) {
-                    configSet = new ConfigurationSet(pos);
-                    configSets.put(pos, configSet);
-                }
-
-                // REC: appears to be left-over debug code that can be removed...
-                // if (pos.getClass() != configSet.position.getClass()) {
-                // pos.compareTo(configSet.position);
-                // }
-
-                assert pos.getClass() == configSet.position.getClass() : "Position type mismatch ["
-                        + pos.getClass() + "] vs [" + configSet.position.getClass() + "]";
-
-                // Merge FS into current set
-                addConfiguration(configSet, aCasGroupId, fs);
+            for (Position pos : adapter.generateSubPositions(aCasId, fs, linkCompareBehavior)) {
+                addConfiguration(pos, aCasGroupId, fs);
             }
         }
 
-        LOG.debug("Positions after: [" + configSets.keySet().size() + "] (delta: "
-                + (configSets.keySet().size() - posBefore) + ")");
+        LOG.debug("Positions after: [{}] (delta: {})", configSets.size(),
+                configSets.size() - posBefore);
 
         //
         // // Remember that we have processed the type
         // entryTypes.add(aType);
     }
 
+    private void addConfiguration(Position aPosition, String aCasGroupId, FeatureStructure aFS)
+    {
+        ConfigurationSet configSet = configSets.get(aPosition);
+        if (configSet == null) {
+            configSet = new ConfigurationSet(aPosition);
+            configSets.put(aPosition, configSet);
+            sortedConfigSets = null;
+        }
+
+        assert aPosition.getClass() == configSet.position.getClass() : "Position type mismatch ["
+                + aPosition.getClass() + "] vs [" + configSet.position.getClass() + "]";
+
+        // Merge FS into current set
+        addConfiguration(configSet, aCasGroupId, aFS);
+    }
+
     private void addConfiguration(ConfigurationSet aSet, String aCasGroupId, FeatureStructure aFS)
     {
         if (aFS instanceof SofaFS) {
@@ -381,20 +432,15 @@ public class CasDiff
         }
 
         if (aSet.position.getFeature() == null) {
-            // Check if this configuration is already present
-            Configuration configuration = null;
-            for (Configuration cfg : aSet.configurations) {
-                // Handle main positions
-                if (equalsFS(cfg.getRepresentative(cases), aFS)) {
-                    configuration = cfg;
-                    break;
-                }
-            }
+            // Check if this configuration is already present - the hash only narrows down the
+            // candidates, the actual comparison is still done by equalsFS
+            int hash = hashFS(aFS, 0);
+            Configuration configuration = findConfiguration(aSet, hash,
+                    cfg -> equalsFS(cfg.getRepresentative(cases), aFS));
 
             // Not found, add new one
             if (configuration == null) {
-                configuration = new Configuration(aSet.position);
-                aSet.configurations.add(configuration);
+                configuration = addConfiguration(aSet, hash);
             }
 
             configuration.add(aCasGroupId, aFS);
@@ -418,6 +464,7 @@ public class CasDiff
 
                 // Check if this configuration is already present
                 Configuration configuration = null;
+                int hash;
                 switch (aSet.position.getLinkCompareBehavior()) {
                 case LINK_TARGET_AS_LABEL: {
                     String role = link.getStringValue(
@@ -429,21 +476,12 @@ public class CasDiff
                     AnnotationFS target = (AnnotationFS) link.getFeatureValue(
                             link.getType().getFeatureByBaseName(decl.getTargetFeature()));
 
-                    cfgLoop: for (Configuration cfg : aSet.configurations) {
-                        FeatureStructure repFS = cfg.getRepresentative(cases);
-                        AID repAID = cfg.getRepresentativeAID();
-                        FeatureStructure repLink = ((ArrayFS) repFS.getFeatureValue(
-                                repFS.getType().getFeatureByBaseName(decl.getName())))
-                                        .get(repAID.index);
-                        AnnotationFS repTarget = (AnnotationFS) repLink.getFeatureValue(
-                                repLink.getType().getFeatureByBaseName(decl.getTargetFeature()));
-
-                        // Compare targets
-                        if (equalsAnnotationFS(repTarget, target)) {
-                            configuration = cfg;
-                            break cfgLoop;
-                        }
-                    }
+                    // Compare targets
+                    hash = hashAnnotationFS(target);
+                    configuration = findConfiguration(aSet, hash, cfg -> equalsAnnotationFS(
+                            (AnnotationFS) getRepresentativeLinkValue(cfg, decl,
+                                    decl.getTargetFeature()),
+                            target));
                     break;
                 }
                 case LINK_ROLE_AS_LABEL: {
@@ -457,21 +495,11 @@ public class CasDiff
                     String role = link.getStringValue(
                             link.getType().getFeatureByBaseName(decl.getRoleFeature()));
 
-                    cfgLoop: for (Configuration cfg : aSet.configurations) {
-                        FeatureStructure repFS = cfg.getRepresentative(cases);
-                        AID repAID = cfg.getRepresentativeAID();
-                        FeatureStructure repLink = ((ArrayFS) repFS.getFeatureValue(
-                                repFS.getType().getFeatureByBaseName(decl.getName())))
-                                        .get(repAID.index);
-                        String linkRole = repLink.getStringValue(
-                                repLink.getType().getFeatureByBaseName(decl.getRoleFeature()));
-
-                        // Compare roles
-                        if (role.equals(linkRole)) {
-                            configuration = cfg;
-                            break cfgLoop;
-                        }
-                    }
+                    // Compare roles
+                    hash = role.hashCode();
+                    configuration = findConfiguration(aSet, hash,
+                            cfg -> role.equals(getRepresentativeLinkValue(cfg, decl,
+                                    decl.getRoleFeature())));
                     break;
                 }
                 default:
@@ -481,8 +509,7 @@ public class CasDiff
 
                 // Not found, add new one
                 if (configuration == null) {
-                    configuration = new Configuration(aSet.position);
-                    aSet.configurations.add(configuration);
+                    configuration = addConfiguration(aSet, hash);
                 }
 
                 configuration.add(aCasGroupId, aFS, aSet.position.getFeature(), i);
@@ -492,6 +519,45 @@ public class CasDiff
         aSet.casGroupIds.add(aCasGroupId);
     }
 
+    private Configuration findConfiguration(ConfigurationSet aSet, int aHash,
+            Predicate<Configuration> aMatcher)
+    {
+        for (Configuration cfg : aSet.getConfigurationsByHash(aHash)) {
+            if (aMatcher.test(cfg)) {
+                return cfg;
+            }
+        }
+
+        return null;
+    }
+
+    private Configuration addConfiguration(ConfigurationSet aSet, int aHash)
+    {
+        Configuration configuration = new Configuration(aSet.position);
+        configuration.labelHash = aHash;
+        aSet.addConfiguration(configuration);
+        return configuration;
+    }
+
+    /**
+     * @return the value of the given feature of the link referenced by the representative of the
+     *         given configuration. Only applicable to configurations at link sub-positions.
+     */
+    private Object getRepresentativeLinkValue(Configuration aCfg, LinkFeatureDecl aDecl,
+            String aFeature)
+    {
+        FeatureStructure repFS = aCfg.getRepresentative(cases);
+        AID repAID = aCfg.getRepresentativeAID();
+        FeatureStructure repLink = ((ArrayFS) repFS
+                .getFeatureValue(repFS.getType().getFeatureByBaseName(aDecl.getName())))
+                        .get(repAID.index);
+        Feature feature = repLink.getType().getFeatureByBaseName(aFeature);
+        if (feature.getRange().isPrimitive()) {
+            return repLink.getFeatureValueAsString(feature);
+        }
+        return repLink.getFeatureValue(feature);
+    }
+
     /**
      * The set of configurations seen at a particular position.
      */
@@ -504,11 +570,45 @@ public class CasDiff
         private List<Configuration> configurations = new ArrayList<>();
         private Set<String> casGroupIds = new LinkedHashSet<>();
 
+        /**
+         * Configurations indexed by their label hash - only used while building the diff.
+         */
+        private transient Map<Integer, List<Configuration>> configurationsByHash = new HashMap<>();
+
         public ConfigurationSet(Position aPosition)
         {
             position = aPosition;
         }
 
+        private Map<Integer, List<Configuration>> getConfigurationsByHash()
+        {
+            // The index is not serialized, so rebuild it if necessary
+            if (configurationsByHash == null) {
+                configurationsByHash = new HashMap<>();
+                for (Configuration cfg : configurations) {
+                    configurationsByHash.computeIfAbsent(cfg.labelHash, k -> new ArrayList<>(1))
+                            .add(cfg);
+                }
+            }
+
+            return configurationsByHash;
+        }
+
+        private List<Configuration> getConfigurationsByHash(int aHash)
+        {
+            return getConfigurationsByHash().getOrDefault(aHash, Collections.emptyList());
+        }
+
+        private void addConfiguration(Configuration aConfiguration)
+        {
+            // Obtain the index before adding the configuration, otherwise a rebuilt index would
+            // contain it twice
+            Map<Integer, List<Configuration>> index = getConfigurationsByHash();
+            configurations.add(aConfiguration);
+            index.computeIfAbsent(aConfiguration.labelHash, k -> new ArrayList<>(1))
+                    .add(aConfiguration);
+        }
+
         /**
          * Gets the total number of configurations recorded in this set. If a configuration has been
          * seen in multiple CASes, it will be counted multiple times.
@@ -565,7 +665,24 @@ public class CasDiff
 
     public Collection<Position> getPositions()
     {
-        return configSets.keySet();
+        return getSortedConfigSets().keySet();
+    }
+
+    private Map<Position, ConfigurationSet> getSortedConfigSets()
+    {
+        Map<Position, ConfigurationSet> sorted = sortedConfigSets;
+        if (sorted == null) {
+            List<Position> positions = new ArrayList<>(configSets.keySet());
+            Collections.sort(positions);
+
+            sorted = new LinkedHashMap<>();
+            for (Position pos : positions) {
+                sorted.put(pos, configSets.get(pos));
+            }
+            sortedConfigSets = sorted;
+        }
+
+        return sorted;
     }
 
     /**
@@ -617,19 +734,6 @@ public class CasDiff
 
         assert type1.getNumberOfFeatures() == type2.getNumberOfFeatures();
 
-        // Sort features by name to be independent over implementation details that may change the
-        // order of the features as returned from Type.getFeatures().
-        String[] cachedSortedFeatures = sortedFeaturesCache.get(type1.getName());
-        if (cachedSortedFeatures == null) {
-            cachedSortedFeatures = new String[type1.getNumberOfFeatures()];
-            int i = 0;
-            for (Feature f : aFS1.getType().getFeatures()) {
-                cachedSortedFeatures[i] = f.getShortName();
-                i++;
-            }
-            sortedFeaturesCache.put(type1.getName(), cachedSortedFeatures);
-        }
-
         DiffAdapter adapter = typeAdapters.get(type1.getName());
 
         if (adapter == null) {
@@ -637,21 +741,7 @@ public class CasDiff
             return true;
         }
 
-        // Only consider label features. In particular these must not include position features
-        // such as begin, end, etc.
-        List<String> sortedFeatures = new ArrayList<>(asList(cachedSortedFeatures));
-        Set<String> labelFeatures = adapter.getLabelFeatures();
-        sortedFeatures.removeIf(f -> !labelFeatures.contains(f));
-
-        if (!recurseIntoLinkFeatures) {
-            // #1795 Chili REC: We can/should change CasDiff2 such that it does not recurse into
-            // link features (or rather into any features that are covered by their own
-            // sub-positions). So when when comparing two spans that differ only in their slots
-            // (sub-positions) the main position could still exhibit agreement.
-            sortedFeatures.removeIf(f -> adapter.getLinkFeature(f) != null);
-        }
-
-        nextFeature: for (String feature : sortedFeatures) {
+        nextFeature: for (String feature : getComparedFeatures(type1, adapter)) {
             Feature f1 = type1.getFeatureByBaseName(feature);
             Feature f2 = type2.getFeatureByBaseName(feature);
 
@@ -782,6 +872,147 @@ public class CasDiff
         return true;
     }
 
+    /**
+     * Get the names of the features which are compared by {@link #equalsFS} sorted by name to be
+     * independent over implementation details that may change the order of the features as
+     * returned from {@link Type#getFeatures()}.
+     */
+    private List<String> getComparedFeatures(Type aType, DiffAdapter aAdapter)
+    {
+        return comparedFeaturesCache.computeIfAbsent(aType.getName(), typeName -> {
+            // Only consider label features. In particular these must not include position
+            // features such as begin, end, etc.
+            Set<String> labelFeatures = aAdapter.getLabelFeatures();
+            List<String> features = new ArrayList<>();
+            for (Feature f : aType.getFeatures()) {
+                if (!labelFeatures.contains(f.getShortName())) {
+                    continue;
+                }
+
+                // #1795 Chili REC: We can/should change CasDiff2 such that it does not recurse
+                // into link features (or rather into any features that are covered by their own
+                // sub-positions). So when when comparing two spans that differ only in their
+                // slots (sub-positions) the main position could still exhibit agreement.
+                if (!recurseIntoLinkFeatures && aAdapter.getLinkFeature(f.getShortName()) != null) {
+                    continue;
+                }
+
+                features.add(f.getShortName());
+            }
+            Collections.sort(features);
+            return features;
+        });
+    }
+
+    /**
+     * Calculates a hash over the label features of the given feature structure which is consistent
+     * with {@link #equalsFS}: feature structures that are equal have the same hash. The hash does
+     * not depend on the order of the features. Features that are set to their default value do not
+     * contribute to the hash because {@link #equalsFS} considers them equal to undeclared features.
+     * 
+     * @param aFS
+     *            a feature structure.
+     * @param aDepth
+     *            the recursion depth.
+     * @return the hash.
+     */
+    private int hashFS(FeatureStructure aFS, int aDepth)
+    {
+        if (aFS == null) {
+            return 0;
+        }
+
+        Type type = aFS.getType();
+        int hash = type.getName().hashCode();
+
+        DiffAdapter adapter = typeAdapters.get(type.getName());
+
+        // Without an adapter, all feature structures of the same type are considered equal. Also
+        // avoid recursing endlessly through cyclic structures - the hash only needs to be
+        // consistent with equalsFS, not unique.
+        if (adapter == null || aDepth > MAX_HASH_DEPTH) {
+            return hash;
+        }
+
+        for (String feature : getComparedFeatures(type, adapter)) {
+            Feature f = type.getFeatureByBaseName(feature);
+
+            // The features are cached by type name, but CASes that have not been upgraded yet may
+            // not declare all of them - equalsFS treats undeclared features like default values
+            if (f == null) {
+                continue;
+            }
+
+            int valueHash;
+            switch (f.getRange().getName()) {
+            case CAS.TYPE_NAME_BOOLEAN:
+                valueHash = aFS.getBooleanValue(f) ? 1 : 0;
+                break;
+            case CAS.TYPE_NAME_BYTE:
+                valueHash = aFS.getByteValue(f);
+                break;
+            case CAS.TYPE_NAME_DOUBLE: {
+                // Make sure that 0.0 and -0.0 which are equal also have the same hash
+                double value = aFS.getDoubleValue(f);
+                valueHash = value == 0.0d ? 0 : Double.hashCode(value);
+                break;
+            }
+            case CAS.TYPE_NAME_FLOAT: {
+                float value = aFS.getFloatValue(f);
+                valueHash = value == 0.0f ? 0 : Float.hashCode(value);
+                break;
+            }
+            case CAS.TYPE_NAME_INTEGER:
+                valueHash = aFS.getIntValue(f);
+                break;
+            case CAS.TYPE_NAME_LONG:
+                valueHash = Long.hashCode(aFS.getLongValue(f));
+                break;
+            case CAS.TYPE_NAME_SHORT:
+                valueHash = aFS.getShortValue(f);
+                break;
+            case CAS.TYPE_NAME_STRING:
+                valueHash = Objects.hashCode(aFS.getStringValue(f));
+                break;
+            default: {
+                FeatureStructure value = aFS.getFeatureValue(f);
+                if (value instanceof SofaFS) {
+                    continue;
+                }
+                valueHash = hashFS(value, aDepth + 1);
+                break;
+            }
+            }
+
+            // Sum up so the hash does not depend on the order of the features
+            if (valueHash != 0) {
+                hash += 31 * feature.hashCode() + valueHash;
+            }
+        }
+
+        return hash;
+    }
+
+    /**
+     * Calculates a hash over an annotation which is consistent with {@link #equalsAnnotationFS}.
+     */
+    private int hashAnnotationFS(AnnotationFS aFS)
+    {
+        if (aFS == null) {
+            return 0;
+        }
+
+        // Positions can only be equal if they have the same type. Span positions additionally
+        // need to have the same offsets.
+        Position pos = getAdapter(aFS.getType().getName()).getPosition(0, aFS);
+        int hash = pos.getType().hashCode();
+        if (pos instanceof SpanPosition) {
+            hash = 31 * (31 * hash + ((SpanPosition) pos).getBegin())
+                    + ((SpanPosition) pos).getEnd();
+        }
+        return hash;
+    }
+
     private boolean equalsAnnotationFS(AnnotationFS aFS1, AnnotationFS aFS2)
     {
         // Null check
@@ -809,6 +1040,12 @@ public class CasDiff
         private final Position position;
         private final Map<String, AID> fsAddresses = new TreeMap<>();
 
+        /**
+         * Hash over the label of this configuration. Configurations which are considered equal by
+         * the diff always have the same hash, but configurations with the same hash may differ.
+         */
+        private int labelHash;
+
         /**
          * Flag indicating that there is at least once CAS group containing more than one annotation
          * at this position - i.e. a stacked annotation.
@@ -945,11 +1182,46 @@ public class CasDiff
 
         private DiffResult(CasDiff aDiff)
         {
-            data = Collections.unmodifiableMap(aDiff.configSets);
+            data = Collections.unmodifiableMap(aDiff.getSortedConfigSets());
             casGroupIds = new LinkedHashSet<>(aDiff.cases.keySet());
             cachedHasDifferences = !getDifferingConfigurationSets().isEmpty();
         }
 
+        private DiffResult(Map<Position, ConfigurationSet> aData, Set<String> aCasGroupIds)
+        {
+            data = Collections.unmodifiableMap(aData);
+            casGroupIds = aCasGroupIds;
+            cachedHasDifferences = !getDifferingConfigurationSets().isEmpty();
+        }
+
+        /**
+         * Restrict the result to the given CAS groups. Only positions at which at least one of the
+         * given CAS groups has a configuration are retained. The configuration sets themselves are
+         * not altered, so they may still contain configurations from other CAS groups.
+         * 
+         * @param aCasGroupIds
+         *            the CAS groups to retain.
+         * @return the restricted result.
+         */
+        public DiffResult forCasGroups(Collection<String> aCasGroupIds)
+        {
+            Set<String> groups = new LinkedHashSet<>(casGroupIds);
+            groups.retainAll(aCasGroupIds);
+
+            if (groups.equals(casGroupIds)) {
+                return this;
+            }
+
+            Map<Position, ConfigurationSet> subset = new LinkedHashMap<>();
+            for (Entry<Position, ConfigurationSet> e : data.entrySet()) {
+                if (groups.stream().anyMatch(e.getValue().getCasGroupIds()::contains)) {
+                    subset.put(e.getKey(), e.getValue());
+                }
+            }
+
+            return new DiffResult(subset, groups);
+        }
+
         public boolean hasDifferences()
         {
             return cachedHasDifferences;
@@ -84,6 +84,11 @@ public abstract class DiffAdapter_ImplBase
     public List<? extends Position> generateSubPositions(int aCasId, AnnotationFS aFs,
             LinkCompareBehavior aLinkCompareBehavior)
     {
+        // Avoid allocating a list for every annotation of a type without link features
+        if (linkFeatures.isEmpty()) {
+            return Collections.emptyList();
+        }
+
         List<Position> subPositions = new ArrayList<>();
 
         for (LinkFeatureDecl decl : linkFeatures) {
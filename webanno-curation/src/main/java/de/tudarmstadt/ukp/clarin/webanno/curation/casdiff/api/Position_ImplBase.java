@@ -17,6 +17,8 @@
  */
 package de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.api;
 
+import java.util.Objects;
+
 import org.apache.commons.lang3.ObjectUtils;
 import org.apache.commons.lang3.StringUtils;
 
@@ -171,6 +173,48 @@ public abstract class Position_ImplBase
         }
     }
 
+    /**
+     * Positions are equal if they compare as equal. This allows collecting positions in hash-based
+     * data structures and sorting them only once afterwards.
+     */
+    @Override
+    public boolean equals(Object aOther)
+    {
+        if (this == aOther) {
+            return true;
+        }
+
+        if (aOther == null || getClass() != aOther.getClass()) {
+            return false;
+        }
+
+        return compareTo((Position) aOther) == 0;
+    }
+
+    @Override
+    public int hashCode()
+    {
+        int hash = 31 * casId + type.hashCode();
+        hash = 31 * hash + Objects.hashCode(feature);
+        hash = 31 * hash + Objects.hashCode(linkCompareBehavior);
+
+        if (linkCompareBehavior != null) {
+            switch (linkCompareBehavior) {
+            case LINK_TARGET_AS_LABEL:
+                hash = 31 * hash + Objects.hashCode(role);
+                break;
+            case LINK_ROLE_AS_LABEL:
+                hash = 31 * (31 * hash + linkTargetBegin) + linkTargetEnd;
+                break;
+            default:
+                throw new IllegalStateException(
+                        "Unknown link target comparison mode [" + linkCompareBehavior + "]");
+            }
+        }
+
+        return hash;
+    }
+
     protected void toStringFragment(StringBuilder builder)
     {
         builder.append("cas=");
@@ -110,6 +110,15 @@ public class RelationPosition
         }
     }
 
+    @Override
+    public int hashCode()
+    {
+        int hash = 31 * super.hashCode() + sourceBegin;
+        hash = 31 * hash + sourceEnd;
+        hash = 31 * hash + targetBegin;
+        return 31 * hash + targetEnd;
+    }
+
     @Override
     public String toString()
     {
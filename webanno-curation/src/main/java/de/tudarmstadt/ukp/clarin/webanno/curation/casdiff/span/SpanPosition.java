@@ -81,6 +81,12 @@ public class SpanPosition
         }
     }
 
+    @Override
+    public int hashCode()
+    {
+        return 31 * (31 * super.hashCode() + begin) + end;
+    }
+
     @Override
     public String toString()
     {
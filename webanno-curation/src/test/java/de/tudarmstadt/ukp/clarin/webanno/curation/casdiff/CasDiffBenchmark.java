@@ -0,0 +1,145 @@
+/*
+ * Licensed to the Technische Universität Darmstadt under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The Technische Universität Darmstadt 
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.curation.casdiff;
+
+import static de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff.doDiff;
+import static de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.LinkCompareBehavior.LINK_TARGET_AS_LABEL;
+import static de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.span.SpanDiffAdapter.NER_DIFF_ADAPTER;
+import static de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.span.SpanDiffAdapter.POS_DIFF_ADAPTER;
+import static java.util.Arrays.asList;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.uima.cas.CAS;
+import org.apache.uima.fit.factory.JCasFactory;
+import org.apache.uima.jcas.JCas;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff.DiffResult;
+import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.api.DiffAdapter;
+import de.tudarmstadt.ukp.dkpro.core.api.lexmorph.type.pos.POS;
+import de.tudarmstadt.ukp.dkpro.core.api.ner.type.NamedEntity;
+
+/**
+ * Benchmarks the calculation of a whole-document diff on synthetic CASes annotated by multiple
+ * users. The annotations of the users agree only partially, so there are multiple configurations
+ * at many positions. The benchmark is not run as part of the tests - run it via {@link #main} on
+ * different revisions to compare implementations.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CasDiffBenchmark
+{
+    private static final String[] POS_TAGS = { "NN", "NE", "VVFIN", "ART", "ADJA", "APPR" };
+    private static final String[] NE_TAGS = { "PER", "LOC", "ORG", "OTH" };
+
+    private static final List<? extends DiffAdapter> ADAPTERS = asList(POS_DIFF_ADAPTER,
+            NER_DIFF_ADAPTER);
+
+    @Param({ "2", "10" })
+    public int users;
+
+    @Param({ "10000" })
+    public int tokens;
+
+    /**
+     * Probability that a user picks a different label than the first user.
+     */
+    @Param({ "0.2" })
+    public double disagreement;
+
+    private Map<String, List<CAS>> casByUser;
+
+    @Setup
+    public void setup() throws Exception
+    {
+        Random rnd = new Random(42);
+
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < tokens; i++) {
+            text.append("token ");
+        }
+
+        casByUser = new LinkedHashMap<>();
+        for (int u = 0; u < users; u++) {
+            JCas jcas = JCasFactory.createJCas();
+            jcas.setDocumentText(text.toString());
+
+            Random labelRnd = new Random(42);
+            for (int i = 0; i < tokens; i++) {
+                int begin = i * 6;
+                int end = begin + 5;
+
+                String tag = POS_TAGS[labelRnd.nextInt(POS_TAGS.length)];
+                if (u > 0 && rnd.nextDouble() < disagreement) {
+                    tag = POS_TAGS[rnd.nextInt(POS_TAGS.length)];
+                }
+
+                POS pos = new POS(jcas, begin, end);
+                pos.setPosValue(tag);
+                pos.addToIndexes();
+
+                // Every fifth token is additionally annotated as a named entity
+                if (i % 5 == 0) {
+                    String ne = NE_TAGS[labelRnd.nextInt(NE_TAGS.length)];
+                    if (u > 0 && rnd.nextDouble() < disagreement) {
+                        ne = NE_TAGS[rnd.nextInt(NE_TAGS.length)];
+                    }
+
+                    NamedEntity namedEntity = new NamedEntity(jcas, begin, end);
+                    namedEntity.setValue(ne);
+                    namedEntity.addToIndexes();
+                }
+            }
+
+            casByUser.put("user" + u, asList(jcas.getCas()));
+        }
+    }
+
+    @Benchmark
+    public DiffResult diff()
+    {
+        return doDiff(ADAPTERS, LINK_TARGET_AS_LABEL, casByUser).toResult();
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        new Runner(new OptionsBuilder().include(CasDiffBenchmark.class.getSimpleName()).build())
+                .run();
+    }
+}
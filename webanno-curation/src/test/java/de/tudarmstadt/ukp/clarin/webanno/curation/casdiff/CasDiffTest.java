@@ -250,6 +250,40 @@ public class CasDiffTest
         // assertEquals(0, agreement.getIncompleteSetsByPosition().size());
     }
 
+    @Test
+    public void mergedDiffsEqualFullDiffTest() throws Exception
+    {
+        Map<String, List<CAS>> doc1 = load("casdiff/noDifferences/data.conll",
+                "casdiff/noDifferences/data.conll");
+        Map<String, List<CAS>> doc2 = load("casdiff/someDifferences/user1.conll",
+                "casdiff/someDifferences/user2.conll");
+
+        Map<String, List<CAS>> casByUser = new LinkedHashMap<>();
+        Map<String, List<CAS>> doc1ByUser = new LinkedHashMap<>();
+        Map<String, List<CAS>> doc2ByUser = new LinkedHashMap<>();
+        for (String user : doc1.keySet()) {
+            casByUser.put(user, asList(doc1.get(user).get(0), doc2.get(user).get(0)));
+            doc1ByUser.put(user, asList(doc1.get(user).get(0), null));
+            doc2ByUser.put(user, asList(null, doc2.get(user).get(0)));
+        }
+
+        List<SpanDiffAdapter> diffAdapters = asList(POS_DIFF_ADAPTER);
+
+        DiffResult expected = doDiff(diffAdapters, LINK_TARGET_AS_LABEL, casByUser).toResult();
+
+        DiffResult result = CasDiff.merge(
+                asList(doDiff(diffAdapters, LINK_TARGET_AS_LABEL, doc1ByUser),
+                        doDiff(diffAdapters, LINK_TARGET_AS_LABEL, doc2ByUser)),
+                casByUser).toResult();
+
+        assertEquals(new ArrayList<>(expected.getPositions()),
+                new ArrayList<>(result.getPositions()));
+        assertEquals(expected.getDifferingConfigurationSets().keySet(),
+                result.getDifferingConfigurationSets().keySet());
+        assertEquals(expected.getIncompleteConfigurationSets().keySet(),
+                result.getIncompleteConfigurationSets().keySet());
+    }
+
     @Test
     public void someDifferencesTest() throws Exception
     {
@@ -23,6 +23,7 @@ import static de.tudarmstadt.ukp.clarin.webanno.model.SourceDocumentState.CURATI
 import static de.tudarmstadt.ukp.clarin.webanno.model.SourceDocumentState.CURATION_IN_PROGRESS;
 import static de.tudarmstadt.ukp.clarin.webanno.model.SourceDocumentState.NEW;
 import static java.nio.file.Files.newDirectoryStream;
+import static java.util.Collections.emptySet;
 import static java.util.Comparator.comparingInt;
 import static java.util.stream.Collectors.toList;
 import static org.apache.commons.io.IOUtils.closeQuietly;
@@ -46,12 +47,16 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.Deque;
+import java.util.EnumSet;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 
 import javax.persistence.EntityManager;
@@ -63,7 +68,6 @@ import org.apache.commons.collections4.SetUtils;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.FilenameUtils;
 import org.apache.commons.lang3.ClassUtils;
-import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.slf4j.MDC;
@@ -80,12 +84,15 @@ import org.springframework.core.type.filter.AnnotationTypeFilter;
 import org.springframework.stereotype.Component;
 import org.springframework.transaction.annotation.Isolation;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import de.tudarmstadt.ukp.clarin.webanno.api.ProjectService;
 import de.tudarmstadt.ukp.clarin.webanno.api.ProjectType;
 import de.tudarmstadt.ukp.clarin.webanno.api.RepositoryProperties;
 import de.tudarmstadt.ukp.clarin.webanno.api.event.AfterProjectCreatedEvent;
 import de.tudarmstadt.ukp.clarin.webanno.api.event.BeforeProjectRemovedEvent;
+import de.tudarmstadt.ukp.clarin.webanno.api.event.ProjectPermissionsChangedEvent;
 import de.tudarmstadt.ukp.clarin.webanno.api.event.ProjectStateChangedEvent;
 import de.tudarmstadt.ukp.clarin.webanno.api.project.ProjectInitializer;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocumentState;
@@ -117,6 +124,14 @@ public class ProjectServiceImpl
 
     private List<ProjectType> projectTypes;
 
+    /**
+     * Snapshot of the permissions of each user by project ID. A snapshot is loaded with a single
+     * query when a permission of the user is first checked and dropped when the permissions of
+     * the user are changed.
+     */
+    private final Map<String, Map<Long, Set<PermissionLevel>>> permissionCache =
+            new ConcurrentHashMap<>();
+
     @Autowired
     public ProjectServiceImpl(UserDao aUserRepository,
             ApplicationEventPublisher aApplicationEventPublisher,
@@ -268,6 +283,9 @@ public class ProjectServiceImpl
     public void createProjectPermission(ProjectPermission aPermission)
     {
         entityManager.persist(aPermission);
+        invalidatePermissionCache(aPermission.getUser());
+        applicationEventPublisher.publishEvent(new ProjectPermissionsChangedEvent(this,
+                aPermission.getProject(), aPermission.getUser()));
 
         try (MDC.MDCCloseable closable = MDC.putCloseable(Logging.KEY_PROJECT_ID,
                 String.valueOf(aPermission.getProject().getId()))) {
@@ -465,6 +483,8 @@ public class ProjectServiceImpl
         for (PermissionLevel level : levelsToBeGranted) {
             createProjectPermission(new ProjectPermission(aProject, aUser.getUsername(), level));
         }
+
+        invalidatePermissionCache(aUser.getUsername());
     }
 
     @Override
@@ -625,6 +645,7 @@ public class ProjectServiceImpl
 
         for (ProjectPermission permissions : getProjectPermissions(aProject)) {
             entityManager.remove(permissions);
+            invalidatePermissionCache(permissions.getUser());
         }
 
         entityManager.remove(project);
@@ -668,6 +689,9 @@ public class ProjectServiceImpl
     public void removeProjectPermission(ProjectPermission aPermission)
     {
         entityManager.remove(aPermission);
+        invalidatePermissionCache(aPermission.getUser());
+        applicationEventPublisher.publishEvent(new ProjectPermissionsChangedEvent(this,
+                aPermission.getProject(), aPermission.getUser()));
 
         try (MDC.MDCCloseable closable = MDC.putCloseable(Logging.KEY_PROJECT_ID,
                 String.valueOf(aPermission.getProject().getId()))) {
@@ -709,9 +733,9 @@ public class ProjectServiceImpl
         }
 
         // else only list projects where she is admin / user / curator
+        Map<Long, Set<PermissionLevel>> permissions = getPermissionSnapshot(user);
         for (Project project : allProjects) {
-            if (this.isManager(project, user) || this.isAnnotator(project, user)
-                    || this.isCurator(project, user)) {
+            if (!permissions.getOrDefault(project.getId(), emptySet()).isEmpty()) {
                 allowedProject.add(project);
             }
         }
@@ -822,34 +846,14 @@ public class ProjectServiceImpl
             return true;
         }
 
-        for (Project project : listProjects()) {
-            if (isManager(project, user)) {
-                return true;
-            }
-        }
-
-        return false;
+        return getPermissionSnapshot(user).values().stream()
+                .anyMatch(levels -> levels.contains(PermissionLevel.MANAGER));
     }
 
     @Override
     public boolean isManager(Project aProject, User aUser)
     {
-        boolean projectAdmin = false;
-        try {
-            List<ProjectPermission> permissionLevels = listProjectPermissionLevel(aUser, aProject);
-            for (ProjectPermission permissionLevel : permissionLevels) {
-                if (StringUtils.equalsIgnoreCase(permissionLevel.getLevel().getName(),
-                        PermissionLevel.MANAGER.getName())) {
-                    projectAdmin = true;
-                    break;
-                }
-            }
-        }
-        catch (NoResultException ex) {
-            log.info("No permision is given to this user " + ex);
-        }
-
-        return projectAdmin;
+        return hasPermissionLevel(aProject, aUser, PermissionLevel.MANAGER);
     }
 
     @Override
@@ -862,44 +866,63 @@ public class ProjectServiceImpl
     @Override
     public boolean isCurator(Project aProject, User aUser)
     {
-        boolean curator = false;
-        try {
-            List<ProjectPermission> permissionLevels = listProjectPermissionLevel(aUser, aProject);
-            for (ProjectPermission permissionLevel : permissionLevels) {
-                if (StringUtils.equalsIgnoreCase(permissionLevel.getLevel().getName(),
-                        PermissionLevel.CURATOR.getName())) {
-                    curator = true;
-                    break;
-                }
-            }
-        }
-        catch (NoResultException ex) {
-            log.info("No permision is given to this user " + ex);
-        }
-
-        return curator;
+        return hasPermissionLevel(aProject, aUser, PermissionLevel.CURATOR);
     }
 
     @Override
     public boolean isAnnotator(Project aProject, User aUser)
     {
-        boolean user = false;
-        try {
-            List<ProjectPermission> permissionLevels = listProjectPermissionLevel(aUser, aProject);
-            for (ProjectPermission permissionLevel : permissionLevels) {
-                if (StringUtils.equalsIgnoreCase(permissionLevel.getLevel().getName(),
-                        PermissionLevel.ANNOTATOR.getName())) {
-                    user = true;
-                    break;
-                }
-            }
-        }
+        return hasPermissionLevel(aProject, aUser, PermissionLevel.ANNOTATOR);
+    }
 
-        catch (NoResultException ex) {
-            log.info("No permision is given to this user " + ex);
+    private boolean hasPermissionLevel(Project aProject, User aUser, PermissionLevel aLevel)
+    {
+        return getPermissionSnapshot(aUser).getOrDefault(aProject.getId(), emptySet())
+                .contains(aLevel);
+    }
+
+    private Map<Long, Set<PermissionLevel>> getPermissionSnapshot(User aUser)
+    {
+        return permissionCache.computeIfAbsent(aUser.getUsername(),
+                this::loadPermissionSnapshot);
+    }
+
+    private Map<Long, Set<PermissionLevel>> loadPermissionSnapshot(String aUsername)
+    {
+        String query = String.join("\n", //
+                "SELECT pp.project.id, pp.level", //
+                "FROM ProjectPermission pp", //
+                "WHERE pp.user = :user");
+
+        List<Object[]> rows = entityManager.createQuery(query, Object[].class) //
+                .setParameter("user", aUsername) //
+                .getResultList();
+
+        Map<Long, Set<PermissionLevel>> permissions = new HashMap<>();
+        for (Object[] row : rows) {
+            permissions.computeIfAbsent((Long) row[0], id -> EnumSet.noneOf(PermissionLevel.class))
+                    .add((PermissionLevel) row[1]);
         }
+        return permissions;
+    }
 
-        return user;
+    private void invalidatePermissionCache(String aUsername)
+    {
+        permissionCache.remove(aUsername);
+
+        // Another thread may have loaded the old permissions again before the transaction is
+        // committed, so the snapshot needs to be dropped again once the transaction is complete
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(
+                    new TransactionSynchronization()
+                    {
+                        @Override
+                        public void afterCompletion(int aStatus)
+                        {
+                            permissionCache.remove(aUsername);
+                        }
+                    });
+        }
     }
 
     @EventListener
@@ -24,6 +24,7 @@ package de.tudarmstadt.ukp.clarin.webanno.project;
 import static de.tudarmstadt.ukp.clarin.webanno.model.PermissionLevel.ANNOTATOR;
 import static de.tudarmstadt.ukp.clarin.webanno.model.PermissionLevel.CURATOR;
 import static de.tudarmstadt.ukp.clarin.webanno.model.PermissionLevel.MANAGER;
+import static java.util.Arrays.asList;
 import static org.assertj.core.api.Assertions.assertThat;
 
 import java.util.List;
@@ -38,6 +39,7 @@ import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
 import org.springframework.boot.autoconfigure.domain.EntityScan;
 import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
 import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.test.context.junit4.SpringRunner;
 
 import de.tudarmstadt.ukp.clarin.webanno.api.ProjectService;
@@ -63,7 +65,11 @@ public class ProjectServiceImplTest
     @Before
     public void setUp() throws Exception
     {
-        sut = new ProjectServiceImpl(null, null, null, null, testEntityManager.getEntityManager());
+        ApplicationEventPublisher eventPublisher = aEvent -> {
+            // Events are not relevant for these tests
+        };
+        sut = new ProjectServiceImpl(null, eventPublisher, null, null,
+                testEntityManager.getEntityManager());
 
         // create users
         beate = new User("beate", Role.ROLE_USER, Role.ROLE_ADMIN);
@@ -152,4 +158,30 @@ public class ProjectServiceImplTest
 
         assertThat(foundUsers).containsExactly(beate, kevin);
     }
+
+    @Test
+    public void permissionChecks_ShouldReflectPermissionsPerProject()
+    {
+        assertThat(sut.isAnnotator(testProject, kevin)).isTrue();
+        assertThat(sut.isCurator(testProject, kevin)).isFalse();
+        assertThat(sut.isManager(testProject, kevin)).isFalse();
+        assertThat(sut.isAnnotator(testProject2, kevin)).isFalse();
+        assertThat(sut.isCurator(testProject2, beate)).isTrue();
+    }
+
+    @Test
+    public void setProjectPermissionLevels_ShouldUpdatePermissionChecks()
+    {
+        assertThat(sut.isManager(testProject2, kevin)).isFalse();
+
+        sut.setProjectPermissionLevels(kevin, testProject2, asList(MANAGER));
+
+        assertThat(sut.isManager(testProject2, kevin)).isTrue();
+        assertThat(sut.isAnnotator(testProject, kevin)).isTrue();
+
+        sut.setProjectPermissionLevels(kevin, testProject, asList());
+
+        assertThat(sut.isAnnotator(testProject, kevin)).isFalse();
+        assertThat(sut.isManager(testProject2, kevin)).isTrue();
+    }
 }
@@ -105,23 +105,74 @@ public class ZipUtils
             }
         }
         else {
-            FileInputStream in = null;
-            try {
-                in = new FileInputStream(aPath);
-                String relativePath = aBasePath.toURI().relativize(aPath.toURI()).getPath();
-                zip.putNextEntry(new ZipEntry(relativePath));
-                IOUtils.copy(in, zip);
+            String relativePath = aBasePath.toURI().relativize(aPath.toURI()).getPath();
+            addFileToZip(zip, aPath, relativePath);
+        }
+    }
+
+    /**
+     * Adds the given file to the ZIP stream as a new entry.
+     * 
+     * @param aZip
+     *            the ZIP stream.
+     * @param aFile
+     *            the file to add.
+     * @param aEntryName
+     *            the name of the new entry. A leading "/" is removed.
+     * @throws IOException
+     *             if an I/O error occurs.
+     */
+    public static void addFileToZip(ZipOutputStream aZip, File aFile, String aEntryName)
+        throws IOException
+    {
+        try (InputStream in = new FileInputStream(aFile)) {
+            aZip.putNextEntry(new ZipEntry(normalizeEntryName(aEntryName)));
+            IOUtils.copy(in, aZip);
+            aZip.closeEntry();
+        }
+    }
+
+    /**
+     * Adds all files in the given folder and its sub-folders to the ZIP stream. The entry names
+     * are the paths of the files relative to the folder, prefixed with the given prefix.
+     * 
+     * @param aZip
+     *            the ZIP stream.
+     * @param aFolder
+     *            the folder to add.
+     * @param aPrefix
+     *            the prefix of the entry names, e.g. {@code "guideline/"}.
+     * @throws IOException
+     *             if an I/O error occurs.
+     */
+    public static void addFolderToZip(ZipOutputStream aZip, File aFolder, String aPrefix)
+        throws IOException
+    {
+        File base = aFolder.getAbsoluteFile();
+        File[] files = base.listFiles();
+        if (files == null) {
+            return;
+        }
+
+        for (File file : files) {
+            if (file.isDirectory()) {
+                addFolderToZip(aZip, file, aPrefix + file.getName() + "/");
             }
-            finally {
-                closeQuietly(in);
+            else {
+                addFileToZip(aZip, file, aPrefix + file.getName());
             }
         }
     }
 
     public static String normalizeEntryName(ZipEntry aEntry)
+    {
+        return normalizeEntryName(aEntry.toString());
+    }
+
+    public static String normalizeEntryName(String aEntryName)
     {
         // Strip leading "/" that we had in ZIP files prior to 2.0.8 (bug #985)
-        String entryName = aEntry.toString();
+        String entryName = aEntryName;
         if (entryName.startsWith("/")) {
             entryName = entryName.substring(1);
         }
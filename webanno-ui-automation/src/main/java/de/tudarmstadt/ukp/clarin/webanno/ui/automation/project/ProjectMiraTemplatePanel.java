@@ -20,18 +20,18 @@ package de.tudarmstadt.ukp.clarin.webanno.ui.automation.project;
 import static java.util.Objects.isNull;
 
 import java.io.Serializable;
-import java.sql.Timestamp;
+import java.time.Duration;
 import java.util.ArrayList;
-import java.util.Date;
 import java.util.List;
+import java.util.Optional;
 
-import org.apache.commons.lang3.exception.ExceptionUtils;
-import org.apache.uima.UIMAException;
+import org.apache.wicket.ajax.AbstractAjaxTimerBehavior;
 import org.apache.wicket.ajax.AjaxRequestTarget;
 import org.apache.wicket.extensions.ajax.markup.html.IndicatingAjaxButton;
 import org.apache.wicket.extensions.markup.html.tabs.AbstractTab;
 import org.apache.wicket.extensions.markup.html.tabs.ITab;
 import org.apache.wicket.feedback.IFeedback;
+import org.apache.wicket.markup.html.basic.Label;
 import org.apache.wicket.markup.html.form.Button;
 import org.apache.wicket.markup.html.form.CheckBox;
 import org.apache.wicket.markup.html.form.ChoiceRenderer;
@@ -46,29 +46,22 @@ import org.apache.wicket.model.LoadableDetachableModel;
 import org.apache.wicket.model.Model;
 import org.apache.wicket.model.StringResourceModel;
 import org.apache.wicket.spring.injection.annot.SpringBean;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 
 import de.agilecoders.wicket.extensions.markup.html.bootstrap.form.select.BootstrapSelect;
 import de.tudarmstadt.ukp.clarin.webanno.api.AnnotationSchemaService;
-import de.tudarmstadt.ukp.clarin.webanno.api.CorrectionDocumentService;
 import de.tudarmstadt.ukp.clarin.webanno.api.DocumentService;
 import de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst;
-import de.tudarmstadt.ukp.clarin.webanno.api.annotation.exception.AnnotationException;
-import de.tudarmstadt.ukp.clarin.webanno.automation.model.AutomationStatus;
 import de.tudarmstadt.ukp.clarin.webanno.automation.model.MiraTemplate;
 import de.tudarmstadt.ukp.clarin.webanno.automation.service.AutomationService;
-import de.tudarmstadt.ukp.clarin.webanno.curation.storage.CurationDocumentService;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationFeature;
 import de.tudarmstadt.ukp.clarin.webanno.model.Project;
 import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
 import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocumentState;
-import de.tudarmstadt.ukp.clarin.webanno.model.Status;
 import de.tudarmstadt.ukp.clarin.webanno.model.TrainDocumentState;
 import de.tudarmstadt.ukp.clarin.webanno.model.TrainingDocument;
-import de.tudarmstadt.ukp.clarin.webanno.security.UserDao;
 import de.tudarmstadt.ukp.clarin.webanno.support.bootstrap.BootstrapAjaxTabbedPanel;
-import de.tudarmstadt.ukp.clarin.webanno.ui.automation.util.AutomationUtil;
+import de.tudarmstadt.ukp.clarin.webanno.support.lambda.LambdaAjaxButton;
+import de.tudarmstadt.ukp.clarin.webanno.ui.automation.task.AutomationTaskService;
 import de.tudarmstadt.ukp.clarin.webanno.ui.automation.util.TabSepDocModel;
 import de.tudarmstadt.ukp.clarin.webanno.ui.core.settings.ProjectSettingsPanelBase;
 import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Lemma;
@@ -82,14 +75,12 @@ public class ProjectMiraTemplatePanel
 {
     private static final long serialVersionUID = 2116717853865353733L;
 
-    private static final Logger LOG = LoggerFactory.getLogger(ProjectMiraTemplatePanel.class);
+    private static final Duration PROGRESS_INTERVAL = Duration.ofSeconds(2);
 
     private @SpringBean AnnotationSchemaService annotationService;
     private @SpringBean AutomationService automationService;
     private @SpringBean DocumentService documentService;
-    private @SpringBean CurationDocumentService curationDocumentService;
-    private @SpringBean CorrectionDocumentService correctionDocumentService;
-    private @SpringBean UserDao userRepository;
+    private @SpringBean AutomationTaskService automationTaskService;
 
     private MiraTrainLayerSelectionForm miraTrainLayerSelectionForm;
     private MiraTemplateDetailForm miraTemplateDetailForm;
@@ -613,10 +604,41 @@ public class ProjectMiraTemplatePanel
     {
         private static final long serialVersionUID = -683824912741426241L;
 
+        private AbstractAjaxTimerBehavior progressTimer;
+
         public ApplyForm(String id)
         {
             super(id);
 
+            setOutputMarkupPlaceholderTag(true);
+
+            add(new Label("progress", LoadableDetachableModel.of(() -> automationTaskService
+                    .getProgress(miraTemplateDetailForm.getModelObject()) + "%"))
+            {
+                private static final long serialVersionUID = 2373616470409785738L;
+
+                @Override
+                protected void onConfigure()
+                {
+                    super.onConfigure();
+
+                    setVisible(isAutomationRunning());
+                }
+            });
+
+            add(new LambdaAjaxButton<>("cancel", this::actionCancel)
+            {
+                private static final long serialVersionUID = -8474180287349137398L;
+
+                @Override
+                protected void onConfigure()
+                {
+                    super.onConfigure();
+
+                    setVisible(isAutomationRunning());
+                }
+            });
+
             add(new IndicatingAjaxButton("apply", new StringResourceModel("label"))
             {
 
@@ -633,166 +655,138 @@ public class ProjectMiraTemplatePanel
                         // No support yet for relation automation
                         return;
                     }
-                    AutomationStatus automationStatus = new AutomationStatus();
-                    try {
-                        Project project = ProjectMiraTemplatePanel.this.getModelObject();
-
-                        // no training document is added / no curation is done yet!
-                        boolean existsTrainDocument = false;
-                        for (TrainingDocument document : automationService
-                                .listTrainingDocuments(project)) {
-                            if (document.getState().equals(TrainDocumentState.CURATION_IN_PROGRESS)
-                                    || template.getTrainFeature().equals(document.getFeature())) {
-                                existsTrainDocument = true;
-                                break;
-                            }
-                        }
-                        if (automationService.listTabSepDocuments(project).size() > 0) {
-                            existsTrainDocument = true;
-                        }
 
-                        if (!existsTrainDocument) {
-                            error("No training document exists to proceed.");
-                            aTarget.appendJavaScript(
-                                    "alert('No training document exists to proceed.')");
-                            return;
-                        }
-                        if (!template.isCurrentLayer()) {
-                            error("Please save automation layer details to proceed.");
-                            aTarget.appendJavaScript(
-                                    "alert('Please save automation layer details to proceed.')");
-                            return;
-                        }
+                    Project project = ProjectMiraTemplatePanel.this.getModelObject();
 
-                        // no need to re-train if no new document is added
-                        boolean existUnprocessedDocument = false;
-                        for (SourceDocument document : documentService
-                                .listSourceDocuments(project)) {
-                            if (document.getState().equals(SourceDocumentState.CURATION_FINISHED)) {
-                                existUnprocessedDocument = true;
-                                break;
-                            }
-                        }
-                        for (TrainingDocument document : automationService
-                                .listTrainingDocuments(project)) {
-                            if (!document.isProcessed()) {
-                                existUnprocessedDocument = true;
-                                break;
-                            }
-                        }
-                        if (!existUnprocessedDocument) {
-                            error("No new training/annotation document added.");
-                            aTarget.appendJavaScript(
-                                    "alert('No new training/annotation document added.')");
-                            return;
+                    // no training document is added / no curation is done yet!
+                    boolean existsTrainDocument = false;
+                    for (TrainingDocument document : automationService
+                            .listTrainingDocuments(project)) {
+                        if (document.getState().equals(TrainDocumentState.CURATION_IN_PROGRESS)
+                                || template.getTrainFeature().equals(document.getFeature())) {
+                            existsTrainDocument = true;
+                            break;
                         }
+                    }
+                    if (automationService.listTabSepDocuments(project).size() > 0) {
+                        existsTrainDocument = true;
+                    }
 
-                        int annodoc = 0, trainDoc = 0;
+                    if (!existsTrainDocument) {
+                        error("No training document exists to proceed.");
+                        aTarget.appendJavaScript(
+                                "alert('No training document exists to proceed.')");
+                        return;
+                    }
+                    if (!template.isCurrentLayer()) {
+                        error("Please save automation layer details to proceed.");
+                        aTarget.appendJavaScript(
+                                "alert('Please save automation layer details to proceed.')");
+                        return;
+                    }
 
-                        for (SourceDocument document : documentService
-                                .listSourceDocuments(project)) {
-                            if (document.getState().equals(SourceDocumentState.CURATION_FINISHED)) {
-                                trainDoc++;
-                            }
-                            else {
-                                annodoc++;
-                            }
+                    // no need to re-train if no new document is added
+                    boolean existUnprocessedDocument = false;
+                    for (SourceDocument document : documentService.listSourceDocuments(project)) {
+                        if (document.getState().equals(SourceDocumentState.CURATION_FINISHED)) {
+                            existUnprocessedDocument = true;
+                            break;
                         }
-
-                        trainDoc = trainDoc
-                                + automationService.listTrainingDocuments(project).size();
-
-                        automationStatus = automationService.existsAutomationStatus(template)
-                                ? automationService.getAutomationStatus(template)
-                                : automationStatus;
-                        automationStatus.setStartime(new Timestamp(new Date().getTime()));
-                        automationStatus.setEndTime(new Timestamp(new Date().getTime()));
-                        automationStatus.setTrainDocs(trainDoc);
-                        automationStatus.setAnnoDocs(annodoc);
-                        automationStatus.setTotalDocs(annodoc + trainDoc);
-                        automationStatus.setTemplate(template);
-
-                        automationService.createAutomationStatus(automationStatus);
-
-                        template.setAutomationStarted(true);
-
-                        automationStatus.setStatus(Status.GENERATE_TRAIN_DOC);
-                        template.setResult("---");
-
-                        AutomationUtil.addOtherFeatureTrainDocument(template, annotationService,
-                                automationService, userRepository);
-                        AutomationUtil.otherFeatureClassifiers(template, documentService,
-                                automationService);
-
-                        AutomationUtil.addTabSepTrainDocument(template, automationService);
-                        AutomationUtil.tabSepClassifiers(template, automationService);
-
-                        AutomationUtil.generateTrainDocument(template, documentService,
-                                curationDocumentService, annotationService, automationService,
-                                userRepository, true);
-                        AutomationUtil.generatePredictDocument(template, documentService,
-                                correctionDocumentService, annotationService, automationService,
-                                userRepository);
-
-                        automationStatus.setStatus(Status.GENERATE_CLASSIFIER);
-                        miraTemplateDetailForm.getModelObject()
-                                .setResult(AutomationUtil.generateFinalClassifier(template,
-                                        documentService, curationDocumentService, annotationService,
-                                        automationService, userRepository));
-                        AutomationUtil.addOtherFeatureToPredictDocument(template, documentService,
-                                annotationService, automationService, userRepository);
-
-                        automationStatus.setStatus(Status.PREDICTION);
-                        AutomationUtil.predict(template, documentService, correctionDocumentService,
-                                automationService, userRepository);
-
-                        template.setAutomationStarted(false);
-                        automationStatus.setStatus(Status.COMPLETED);
-                        automationStatus.setEndTime(new Timestamp(new Date().getTime()));
-                        automationService.createTemplate(template);
-                        automationService.createAutomationStatus(automationStatus);
-
                     }
-                    catch (UIMAException e) {
-                        template.setAutomationStarted(false);
-                        automationStatus.setStatus(Status.INTERRUPTED);
-                        automationStatus.setEndTime(new Timestamp(new Date().getTime()));
-                        automationService.createTemplate(template);
-                        automationService.createAutomationStatus(automationStatus);
-                        error("Error during automation: " + ExceptionUtils.getRootCause(e));
-                        LOG.error("Error during automation", e);
-                        aTarget.addChildren(getPage(), IFeedback.class);
+                    for (TrainingDocument document : automationService
+                            .listTrainingDocuments(project)) {
+                        if (!document.isProcessed()) {
+                            existUnprocessedDocument = true;
+                            break;
+                        }
                     }
-                    catch (AnnotationException e) {
-                        error("Error during automation: " + e.getMessage());
-                        LOG.error("Error during automation", e);
-                        aTarget.addChildren(getPage(), IFeedback.class);
+                    if (!existUnprocessedDocument) {
+                        error("No new training/annotation document added.");
+                        aTarget.appendJavaScript(
+                                "alert('No new training/annotation document added.')");
+                        return;
                     }
-                    catch (Exception e) {
-                        template.setAutomationStarted(false);
-                        automationStatus.setStatus(Status.INTERRUPTED);
-                        automationStatus.setEndTime(new Timestamp(new Date().getTime()));
-                        automationService.createTemplate(template);
-                        automationService.createAutomationStatus(automationStatus);
-                        error("Error during automation: " + e.getMessage());
-                        LOG.error("Error during automation", e);
+
+                    if (!automationTaskService.startAutomation(template)) {
+                        error("Automation is already running.");
                         aTarget.addChildren(getPage(), IFeedback.class);
+                        return;
                     }
-                    finally {
-                        automationStatus.setStatus(Status.COMPLETED);
-                        automationStatus.setEndTime(new Timestamp(new Date().getTime()));
-                        template.setAutomationStarted(false);
-                        automationService.createTemplate(template);
-                    }
+
+                    info("Automation started.");
+                    aTarget.addChildren(getPage(), IFeedback.class);
+                    startProgressTimer(aTarget);
                 }
 
                 @Override
                 public boolean isEnabled()
                 {
-                    return miraTemplateDetailForm != null
-                            && !miraTemplateDetailForm.getModelObject().isAutomationStarted();
+                    return miraTemplateDetailForm != null && !isAutomationRunning();
+                }
+            });
+
+            if (isAutomationRunning()) {
+                startProgressTimer(null);
+            }
+        }
+
+        private boolean isAutomationRunning()
+        {
+            return miraTemplateDetailForm != null
+                    && miraTemplateDetailForm.getModelObject().getId() != null
+                    && automationTaskService.isRunning(miraTemplateDetailForm.getModelObject());
+        }
+
+        private void startProgressTimer(AjaxRequestTarget aTarget)
+        {
+            if (progressTimer != null) {
+                remove(progressTimer);
+            }
+
+            add(progressTimer = new AbstractAjaxTimerBehavior(PROGRESS_INTERVAL)
+            {
+                private static final long serialVersionUID = 6285961224464549434L;
+
+                @Override
+                protected void onTimer(AjaxRequestTarget aTimerTarget)
+                {
+                    if (!isAutomationRunning()) {
+                        stop(aTimerTarget);
+                        onAutomationFinished(aTimerTarget);
+                    }
+                    aTimerTarget.add(ApplyForm.this);
                 }
             });
+
+            if (aTarget != null) {
+                aTarget.add(this);
+            }
+        }
+
+        private void onAutomationFinished(AjaxRequestTarget aTarget)
+        {
+            MiraTemplate template = miraTemplateDetailForm.getModelObject();
+            MiraTemplate updated = automationService.getMiraTemplate(template.getTrainFeature());
+            template.setResult(updated.getResult());
+            template.setAutomationStarted(updated.isAutomationStarted());
+
+            Optional<String> lastError = automationTaskService.getLastError(template);
+            if (lastError.isPresent()) {
+                error(lastError.get());
+            }
+            else {
+                info("Automation finished.");
+            }
+            aTarget.addChildren(getPage(), IFeedback.class);
+            aTarget.add(targetLayerDetailForm);
+        }
+
+        private void actionCancel(AjaxRequestTarget aTarget, Form<?> aForm)
+        {
+            if (automationTaskService.cancelAutomation(miraTemplateDetailForm.getModelObject())) {
+                info("Cancelling automation...");
+                aTarget.addChildren(getPage(), IFeedback.class);
+            }
         }
     }
 
@@ -0,0 +1,317 @@
+/*
+ * Licensed to the Technische Universität Darmstadt under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The Technische Universität Darmstadt 
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.ui.automation.task;
+
+import static de.tudarmstadt.ukp.clarin.webanno.model.SourceDocumentState.CURATION_FINISHED;
+import static de.tudarmstadt.ukp.clarin.webanno.model.Status.COMPLETED;
+import static de.tudarmstadt.ukp.clarin.webanno.model.Status.GENERATE_CLASSIFIER;
+import static de.tudarmstadt.ukp.clarin.webanno.model.Status.GENERATE_TRAIN_DOC;
+import static de.tudarmstadt.ukp.clarin.webanno.model.Status.INTERRUPTED;
+import static de.tudarmstadt.ukp.clarin.webanno.model.Status.PREDICTION;
+
+import java.util.Date;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.AnnotationSchemaService;
+import de.tudarmstadt.ukp.clarin.webanno.api.CorrectionDocumentService;
+import de.tudarmstadt.ukp.clarin.webanno.api.DocumentService;
+import de.tudarmstadt.ukp.clarin.webanno.api.dao.casstorage.CasStorageSession;
+import de.tudarmstadt.ukp.clarin.webanno.automation.model.AutomationStatus;
+import de.tudarmstadt.ukp.clarin.webanno.automation.model.MiraTemplate;
+import de.tudarmstadt.ukp.clarin.webanno.automation.service.AutomationService;
+import de.tudarmstadt.ukp.clarin.webanno.curation.storage.CurationDocumentService;
+import de.tudarmstadt.ukp.clarin.webanno.model.Project;
+import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
+import de.tudarmstadt.ukp.clarin.webanno.model.Status;
+import de.tudarmstadt.ukp.clarin.webanno.security.UserDao;
+import de.tudarmstadt.ukp.clarin.webanno.support.logging.Logging;
+import de.tudarmstadt.ukp.clarin.webanno.ui.automation.util.AutomationUtil;
+
+/**
+ * Trains the classifier for a template and predicts suggestions for all source documents of the
+ * project. The phase of the task is persisted in the {@link AutomationStatus} of the template
+ * while the finer-grained progress is only kept in memory. The progress counts each source
+ * document processed by the steps which go through all documents plus each of the steps which
+ * train classifiers.
+ */
+public class AutomationTask
+    implements Runnable
+{
+    private static final Logger LOG = LoggerFactory.getLogger(AutomationTask.class);
+
+    private static final int CLASSIFIER_STEPS = 5;
+
+    /**
+     * The steps which process each source document: generating the training document, generating
+     * the prediction document, adding the other features to the prediction document and predicting.
+     */
+    private static final int DOCUMENT_STEPS = 4;
+
+    private final MiraTemplate template;
+    private final String username;
+
+    private final DocumentService documentService;
+    private final CurationDocumentService curationDocumentService;
+    private final CorrectionDocumentService correctionDocumentService;
+    private final AnnotationSchemaService annotationService;
+    private final AutomationService automationService;
+    private final UserDao userRepository;
+    private final int predictionThreads;
+    private final Consumer<AutomationTask> exitHandler;
+
+    private final CountDownLatch finished = new CountDownLatch(1);
+    private boolean cancelled = false;
+    private Thread worker;
+
+    private final AtomicInteger completedUnits = new AtomicInteger();
+    private volatile int totalUnits = 0;
+    private volatile String error;
+
+    public AutomationTask(MiraTemplate aTemplate, String aUsername,
+            DocumentService aDocumentService, CurationDocumentService aCurationDocumentService,
+            CorrectionDocumentService aCorrectionDocumentService,
+            AnnotationSchemaService aAnnotationService, AutomationService aAutomationService,
+            UserDao aUserRepository, int aPredictionThreads,
+            Consumer<AutomationTask> aExitHandler)
+    {
+        template = aTemplate;
+        username = aUsername;
+        documentService = aDocumentService;
+        curationDocumentService = aCurationDocumentService;
+        correctionDocumentService = aCorrectionDocumentService;
+        annotationService = aAnnotationService;
+        automationService = aAutomationService;
+        userRepository = aUserRepository;
+        predictionThreads = aPredictionThreads;
+        exitHandler = aExitHandler;
+    }
+
+    @Override
+    public void run()
+    {
+        try {
+            synchronized (this) {
+                if (cancelled) {
+                    return;
+                }
+                worker = Thread.currentThread();
+            }
+
+            try {
+                runAutomation();
+            }
+            finally {
+                // The executor thread must not be interrupted by a late cancel while it runs the
+                // next task
+                synchronized (this) {
+                    worker = null;
+                }
+            }
+        }
+        finally {
+            // The exit handler runs before the task is reported as finished. Otherwise, a new task
+            // for the template could be started while the handler still works on the old one.
+            try {
+                exitHandler.accept(this);
+            }
+            finally {
+                finished.countDown();
+            }
+        }
+    }
+
+    private void runAutomation()
+    {
+        Project project = template.getTrainFeature().getProject();
+
+        // We are in a new thread. Set up thread-specific MDC
+        Logging.setMDC(project.getId(), username);
+
+        // Work on a fresh copy of the template instead of the one held by the UI
+        MiraTemplate tmpl = automationService.getMiraTemplate(template.getTrainFeature());
+        AutomationStatus status = automationService.existsAutomationStatus(tmpl)
+                ? automationService.getAutomationStatus(tmpl)
+                : new AutomationStatus();
+        // The automation steps read the annotation and curation CASes, so the worker thread
+        // needs its own CAS storage session
+        try (CasStorageSession session = CasStorageSession.open()) {
+            startStatus(tmpl, status);
+
+            updateStatus(status, GENERATE_TRAIN_DOC);
+            AutomationUtil.addOtherFeatureTrainDocument(tmpl, annotationService,
+                    automationService, userRepository);
+            completeStep(true);
+            AutomationUtil.otherFeatureClassifiers(tmpl, documentService, automationService);
+            completeStep(true);
+            AutomationUtil.addTabSepTrainDocument(tmpl, automationService);
+            completeStep(true);
+            AutomationUtil.tabSepClassifiers(tmpl, automationService);
+            completeStep(true);
+            AutomationUtil.generateTrainDocument(tmpl, documentService, curationDocumentService,
+                    annotationService, automationService, userRepository, true,
+                    completedUnits::incrementAndGet);
+            completeStep(false);
+            AutomationUtil.generatePredictDocument(tmpl, documentService,
+                    correctionDocumentService, annotationService, automationService,
+                    userRepository, completedUnits::incrementAndGet);
+            completeStep(false);
+
+            updateStatus(status, GENERATE_CLASSIFIER);
+            tmpl.setResult(AutomationUtil.generateFinalClassifier(tmpl, documentService,
+                    curationDocumentService, annotationService, automationService,
+                    userRepository));
+            completeStep(true);
+            AutomationUtil.addOtherFeatureToPredictDocument(tmpl, documentService,
+                    annotationService, automationService, userRepository,
+                    completedUnits::incrementAndGet);
+            completeStep(false);
+
+            updateStatus(status, PREDICTION);
+            AutomationUtil.predict(tmpl, documentService, correctionDocumentService,
+                    automationService, userRepository, predictionThreads,
+                    completedUnits::incrementAndGet);
+            completeStep(false);
+
+            status.setStatus(COMPLETED);
+            LOG.info("Automation for feature [{}] in project [{}] completed",
+                    tmpl.getTrainFeature().getUiName(), project.getName());
+        }
+        catch (Exception e) {
+            status.setStatus(INTERRUPTED);
+            if (Thread.currentThread().isInterrupted()
+                    || ExceptionUtils.indexOfThrowable(e, InterruptedException.class) != -1) {
+                LOG.info("Automation for feature [{}] in project [{}] was cancelled",
+                        tmpl.getTrainFeature().getUiName(), project.getName());
+            }
+            else {
+                error = "Error during automation: " + ExceptionUtils.getRootCauseMessage(e);
+                LOG.error("Error during automation", e);
+            }
+        }
+        finally {
+            // Once the worker is cleared, the task can no longer be interrupted. Clear the
+            // interrupt flag - otherwise the final state could not be persisted if the task was
+            // cancelled
+            synchronized (this) {
+                worker = null;
+            }
+            Thread.interrupted();
+
+            status.setEndTime(new Date());
+            tmpl.setAutomationStarted(false);
+            automationService.createTemplate(tmpl);
+            automationService.createAutomationStatus(status);
+
+            Logging.clearMDC();
+        }
+    }
+
+    private void startStatus(MiraTemplate aTemplate, AutomationStatus aStatus)
+    {
+        List<SourceDocument> sourceDocuments = documentService
+                .listSourceDocuments(aTemplate.getTrainFeature().getProject());
+        int annoDocs = 0;
+        int trainDocs = 0;
+        for (SourceDocument document : sourceDocuments) {
+            if (CURATION_FINISHED.equals(document.getState())) {
+                trainDocs++;
+            }
+            else {
+                annoDocs++;
+            }
+        }
+        trainDocs += automationService
+                .listTrainingDocuments(aTemplate.getTrainFeature().getProject()).size();
+
+        Date now = new Date();
+        aStatus.setStartime(now);
+        aStatus.setEndTime(now);
+        aStatus.setTrainDocs(trainDocs);
+        aStatus.setAnnoDocs(annoDocs);
+        aStatus.setTotalDocs(annoDocs + trainDocs);
+        aStatus.setTemplate(aTemplate);
+
+        totalUnits = CLASSIFIER_STEPS + DOCUMENT_STEPS * sourceDocuments.size();
+
+        aTemplate.setAutomationStarted(true);
+        aTemplate.setResult("---");
+        automationService.createTemplate(aTemplate);
+    }
+
+    private void updateStatus(AutomationStatus aStatus, Status aPhase)
+    {
+        aStatus.setStatus(aPhase);
+        automationService.createAutomationStatus(aStatus);
+    }
+
+    private void completeStep(boolean aCountStep) throws InterruptedException
+    {
+        // The steps going through the documents have already counted each document
+        if (aCountStep) {
+            completedUnits.incrementAndGet();
+        }
+
+        if (Thread.currentThread().isInterrupted()) {
+            throw new InterruptedException();
+        }
+    }
+
+    /**
+     * Cancels the task. If the task is already running, it stops at the next document or step
+     * boundary. Otherwise, it exits as soon as it is picked up by the executor.
+     */
+    public synchronized void cancel()
+    {
+        cancelled = true;
+        if (worker != null) {
+            worker.interrupt();
+        }
+    }
+
+    /**
+     * @return whether the task has exited. A cancelled task has only exited once it has reached
+     *         a step boundary and has persisted its final state.
+     */
+    public boolean isFinished()
+    {
+        return finished.getCount() == 0;
+    }
+
+    public int getProgress()
+    {
+        int total = totalUnits;
+        if (total == 0) {
+            return 0;
+        }
+
+        return Math.min(completedUnits.get() * 100 / total, 100);
+    }
+
+    public Optional<String> getError()
+    {
+        return Optional.ofNullable(error);
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Licensed to the Technische Universität Darmstadt under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The Technische Universität Darmstadt 
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.ui.automation.task;
+
+import java.util.Optional;
+
+import de.tudarmstadt.ukp.clarin.webanno.automation.model.MiraTemplate;
+
+/**
+ * Runs the training of the automation classifier and the prediction of suggestions as background
+ * tasks. At most one task runs per template at any time.
+ */
+public interface AutomationTaskService
+{
+    /**
+     * Schedules the automation for the given template.
+     * 
+     * @param aTemplate
+     *            the template.
+     * @return {@code true} if a new task was scheduled and {@code false} if a task for the
+     *         template is already queued or running.
+     */
+    boolean startAutomation(MiraTemplate aTemplate);
+
+    /**
+     * @param aTemplate
+     *            the template.
+     * @return whether a task for the given template is queued or running. A cancelled task is
+     *         considered running until it has exited.
+     */
+    boolean isRunning(MiraTemplate aTemplate);
+
+    /**
+     * @param aTemplate
+     *            the template.
+     * @return the progress of the queued or running task for the given template in percent or
+     *         {@code 0} if there is no such task.
+     */
+    int getProgress(MiraTemplate aTemplate);
+
+    /**
+     * Cancels the task for the given template. The task stops at the next document or step
+     * boundary and the automation status is set to {@code INTERRUPTED}.
+     * 
+     * @param aTemplate
+     *            the template.
+     * @return {@code true} if there was a task to cancel.
+     */
+    boolean cancelAutomation(MiraTemplate aTemplate);
+
+    /**
+     * @param aTemplate
+     *            the template.
+     * @return the error message of the last task for the given template if it failed. The
+     *         message is kept until the next task for the template is started.
+     */
+    Optional<String> getLastError(MiraTemplate aTemplate);
+}
@@ -0,0 +1,160 @@
+/*
+ * Licensed to the Technische Universität Darmstadt under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The Technische Universität Darmstadt 
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.ui.automation.task;
+
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.concurrent.DelegatingSecurityContextRunnable;
+import org.springframework.stereotype.Component;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.AnnotationSchemaService;
+import de.tudarmstadt.ukp.clarin.webanno.api.CorrectionDocumentService;
+import de.tudarmstadt.ukp.clarin.webanno.api.DocumentService;
+import de.tudarmstadt.ukp.clarin.webanno.automation.model.MiraTemplate;
+import de.tudarmstadt.ukp.clarin.webanno.automation.service.AutomationService;
+import de.tudarmstadt.ukp.clarin.webanno.curation.storage.CurationDocumentService;
+import de.tudarmstadt.ukp.clarin.webanno.security.UserDao;
+
+@Component
+public class AutomationTaskServiceImpl
+    implements AutomationTaskService, DisposableBean
+{
+    private final DocumentService documentService;
+    private final CurationDocumentService curationDocumentService;
+    private final CorrectionDocumentService correctionDocumentService;
+    private final AnnotationSchemaService annotationService;
+    private final AutomationService automationService;
+    private final UserDao userRepository;
+
+    private final ExecutorService taskExecutor;
+    private final int predictionThreads;
+    private final Map<Long, AutomationTask> tasks = new ConcurrentHashMap<>();
+    // Only failed tasks leave an entry behind which is kept until the next task for the template is
+    // started
+    private final Map<Long, String> errors = new ConcurrentHashMap<>();
+
+    @Autowired
+    public AutomationTaskServiceImpl(DocumentService aDocumentService,
+            CurationDocumentService aCurationDocumentService,
+            CorrectionDocumentService aCorrectionDocumentService,
+            AnnotationSchemaService aAnnotationService, AutomationService aAutomationService,
+            UserDao aUserRepository, @Value("${automation.tasks.threads:1}") int aThreads,
+            @Value("${automation.prediction.threads:1}") int aPredictionThreads)
+    {
+        documentService = aDocumentService;
+        curationDocumentService = aCurationDocumentService;
+        correctionDocumentService = aCorrectionDocumentService;
+        annotationService = aAnnotationService;
+        automationService = aAutomationService;
+        userRepository = aUserRepository;
+        taskExecutor = Executors.newFixedThreadPool(aThreads);
+        predictionThreads = aPredictionThreads;
+    }
+
+    @Override
+    public void destroy()
+    {
+        taskExecutor.shutdownNow();
+    }
+
+    @Override
+    public boolean startAutomation(MiraTemplate aTemplate)
+    {
+        boolean[] scheduled = { false };
+        tasks.compute(aTemplate.getId(), (k, previous) -> {
+            // A cancelled task may still be working towards its next step boundary, so a new task
+            // is only started once the previous one has exited
+            if (previous != null && !previous.isFinished()) {
+                return previous;
+            }
+
+            AutomationTask task = new AutomationTask(aTemplate, userRepository.getCurrentUsername(),
+                    documentService, curationDocumentService, correctionDocumentService,
+                    annotationService, automationService, userRepository, predictionThreads,
+                    _task -> taskExited(k, _task));
+            scheduled[0] = true;
+            errors.remove(k);
+            // The automation looks up the current user, so the security context of the user
+            // starting the task is passed on to the worker thread
+            taskExecutor.execute(new DelegatingSecurityContextRunnable(task));
+            return task;
+        });
+
+        return scheduled[0];
+    }
+
+    private void taskExited(Long aTemplateId, AutomationTask aTask)
+    {
+        // Done within the map operation so it is atomic with the check in startAutomation
+        tasks.computeIfPresent(aTemplateId, (k, current) -> {
+            if (current != aTask) {
+                return current;
+            }
+
+            // Keep the error so it can still be reported once the task is gone
+            aTask.getError().ifPresent(error -> errors.put(k, error));
+            return null;
+        });
+    }
+
+    @Override
+    public boolean isRunning(MiraTemplate aTemplate)
+    {
+        AutomationTask task = tasks.get(aTemplate.getId());
+        return task != null && !task.isFinished();
+    }
+
+    @Override
+    public int getProgress(MiraTemplate aTemplate)
+    {
+        AutomationTask task = tasks.get(aTemplate.getId());
+        return task != null ? task.getProgress() : 0;
+    }
+
+    @Override
+    public boolean cancelAutomation(MiraTemplate aTemplate)
+    {
+        AutomationTask task = tasks.get(aTemplate.getId());
+
+        if (task == null || task.isFinished()) {
+            return false;
+        }
+
+        task.cancel();
+
+        return true;
+    }
+
+    @Override
+    public Optional<String> getLastError(MiraTemplate aTemplate)
+    {
+        AutomationTask task = tasks.get(aTemplate.getId());
+        if (task != null && task.getError().isPresent()) {
+            return task.getError();
+        }
+
+        return Optional.ofNullable(errors.get(aTemplate.getId()));
+    }
+}
@@ -22,26 +22,40 @@ import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUt
 import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil.selectSentences;
 import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil.selectTokens;
 import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil.selectTokensCovered;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
 import static org.apache.uima.fit.util.CasUtil.getType;
 import static org.apache.uima.fit.util.CasUtil.select;
 import static org.apache.uima.fit.util.CasUtil.selectCovered;
 
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
 import java.io.PrintStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.StringTokenizer;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
 
 import javax.persistence.NoResultException;
 
@@ -74,6 +88,7 @@ import de.tudarmstadt.ukp.clarin.webanno.api.annotation.model.AnnotatorState;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.model.VID;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil;
 import de.tudarmstadt.ukp.clarin.webanno.api.dao.CasMetadataUtils;
+import de.tudarmstadt.ukp.clarin.webanno.api.dao.casstorage.CasStorageSession;
 import de.tudarmstadt.ukp.clarin.webanno.automation.model.AutomationStatus;
 import de.tudarmstadt.ukp.clarin.webanno.automation.model.MiraTemplate;
 import de.tudarmstadt.ukp.clarin.webanno.automation.service.AutomationService;
@@ -96,6 +111,9 @@ public class AutomationUtil
     private static Logger LOG = LoggerFactory.getLogger(AutomationUtil.class);
     private static final String NILL = "__nill__";
 
+    private static final String SEGMENT_FOLDER = "segments";
+    private static final String SEGMENT_SUFFIX = ".seg";
+
     public static void repeatSpanAnnotation(AnnotatorState aState, DocumentService aDocumentService,
             CorrectionDocumentService aCorrectionDocumentService,
             AnnotationSchemaService aAnnotationService, int aStart, int aEnd,
@@ -474,11 +492,17 @@ public class AutomationUtil
                     .listTrainingDocuments(feature.getProject())) {
                 if ((trainingDocument.getFeature() != null
                         && trainingDocument.getFeature().equals(feature))) {
-                    CAS cas = aAutomationService.readTrainingAnnotationCas(trainingDocument);
-                    for (AnnotationFS sentence : selectSentences(cas)) {
-                        trainOut.append(getMiraLine(aAnnotationService, sentence, feature, adapter)
-                                .toString()).append("\n");
-                    }
+                    appendSegment(trainOut, miraDir,
+                            "train-" + trainingDocument.getId() + "-" + feature.getId(),
+                            getCasVersion(aAutomationService.getCasFile(trainingDocument)),
+                            out -> {
+                                CAS cas = aAutomationService
+                                        .readTrainingAnnotationCas(trainingDocument);
+                                for (AnnotationFS sentence : selectSentences(cas)) {
+                                    out.append(getMiraLine(aAnnotationService, sentence, feature,
+                                            adapter).toString()).append("\n");
+                                }
+                            });
                     trainingDocument.setProcessed(false);
                     status.setTrainDocs(status.getTrainDocs() - 1);
                 }
@@ -605,7 +629,7 @@ public class AutomationUtil
     public static void generateTrainDocument(MiraTemplate aTemplate, DocumentService aRepository,
             CurationDocumentService aCurationDocumentService,
             AnnotationSchemaService aAnnotationService, AutomationService aAutomationService,
-            UserDao aUserDao, boolean aBase)
+            UserDao aUserDao, boolean aBase, Runnable aDocumentProcessed)
         throws IOException, UIMAException, ClassNotFoundException, AutomationException
     {
         LOG.info("Starting to generate training document");
@@ -615,6 +639,7 @@ public class AutomationUtil
             FileUtils.forceMkdir(miraDir);
         }
         AnnotationFeature feature = aTemplate.getTrainFeature();
+        removeObsoleteSegments(miraDir, aRepository, aAutomationService, feature);
         boolean documentChanged = false;
         // A. training document for other train layers were changed
         for (AnnotationFeature otherrFeature : aTemplate.getOtherFeatures()) {
@@ -672,21 +697,19 @@ public class AutomationUtil
                 .listTrainingDocuments(feature.getProject());
         int trainingDocsCount = 0;
         for (TrainingDocument trainingDocument : trainingDocuments) {
+            checkInterrupted();
             if ((trainingDocument.getFeature() != null
                     && trainingDocument.getFeature().equals(feature))
                     && !trainingDocument.getFormat().equals(WebAnnoConst.TAB_SEP)) {
-                CAS cas = aAutomationService.readTrainingAnnotationCas(trainingDocument);
-                for (AnnotationFS sentence : selectSentences(cas)) {
-                    if (aBase) { // base training document
-                        trainOut.append(
-                                getMiraLine(aAnnotationService, sentence, null, adapter).toString())
-                                .append("\n");
-                    }
-                    else { // training document with other features
-                        trainOut.append(getMiraLine(aAnnotationService, sentence, feature, adapter)
-                                .toString()).append("\n");
-                    }
-                }
+                appendSegment(trainOut, miraDir,
+                        "train-" + trainingDocument.getId() + "-" + feature.getId()
+                                + (aBase ? "-base" : ""),
+                        getCasVersion(aAutomationService.getCasFile(trainingDocument)), out -> {
+                            CAS cas = aAutomationService
+                                    .readTrainingAnnotationCas(trainingDocument);
+                            appendMiraLines(out, aAnnotationService, cas, feature, adapter,
+                                    aBase);
+                        });
                 trainingDocument.setProcessed(!aBase);
                 if (!aBase) {
                     status.setTrainDocs(status.getTrainDocs() - 1);
@@ -697,19 +720,18 @@ public class AutomationUtil
         List<SourceDocument> sourceDocuments = aRepository
                 .listSourceDocuments(feature.getProject());
         for (SourceDocument sourceDocument : sourceDocuments) {
+            checkInterrupted();
             if (sourceDocument.getState().equals(SourceDocumentState.CURATION_FINISHED)) {
-                CAS cas = aCurationDocumentService.readCurationCas(sourceDocument);
-                for (AnnotationFS sentence : selectSentences(cas)) {
-                    if (aBase) { // base training document
-                        trainOut.append(
-                                getMiraLine(aAnnotationService, sentence, null, adapter).toString())
-                                .append("\n");
-                    }
-                    else { // training document with other features
-                        trainOut.append(getMiraLine(aAnnotationService, sentence, feature, adapter)
-                                .toString()).append("\n");
-                    }
-                }
+                appendSegment(trainOut, miraDir,
+                        "curation-" + sourceDocument.getId() + "-" + feature.getId()
+                                + (aBase ? "-base" : ""),
+                        getCurationCasVersion(aRepository, aCurationDocumentService,
+                                sourceDocument),
+                        out -> {
+                            CAS cas = aCurationDocumentService.readCurationCas(sourceDocument);
+                            appendMiraLines(out, aAnnotationService, cas, feature, adapter,
+                                    aBase);
+                        });
                 if (!aBase) {
                     status.setTrainDocs(status.getTrainDocs() - 1);
                 }
@@ -717,6 +739,7 @@ public class AutomationUtil
             trainingDocsCount++;
             LOG.info("Processed source document " + trainingDocsCount + " of "
                     + trainingDocuments.size());
+            aDocumentProcessed.run();
         }
         // Tab-sep documents to be used as a target layer train document
         int goldStandardDocsCounter = 0;
@@ -757,11 +780,179 @@ public class AutomationUtil
         LOG.info("Completed generating training document");
     }
 
+    private static void appendMiraLines(Writer aOut, AnnotationSchemaService aAnnotationService,
+            CAS aCas, AnnotationFeature aFeature, TypeAdapter aAdapter, boolean aBase)
+        throws IOException, CASException
+    {
+        for (AnnotationFS sentence : selectSentences(aCas)) {
+            if (aBase) { // base training document
+                aOut.append(getMiraLine(aAnnotationService, sentence, null, aAdapter).toString())
+                        .append("\n");
+            }
+            else { // training document with other features
+                aOut.append(getMiraLine(aAnnotationService, sentence, aFeature, aAdapter)
+                        .toString()).append("\n");
+            }
+        }
+    }
+
+    /**
+     * Identifies the content of a serialized CAS. Unlike the modification time of the file, this
+     * changes only if the CAS itself changes and it cannot remain unchanged if the CAS changes, e.g.
+     * if the file is restored from a backup or written twice within the timestamp resolution of
+     * the file system.
+     * 
+     * @return the version or {@code null} if there is no such CAS.
+     */
+    private static String getCasVersion(File aCasFile) throws IOException
+    {
+        if (!aCasFile.exists()) {
+            return null;
+        }
+
+        return aCasFile.length() + "-" + FileUtils.checksumCRC32(aCasFile);
+    }
+
+    private static String getCurationCasVersion(DocumentService aRepository,
+            CurationDocumentService aCurationDocumentService, SourceDocument aDocument)
+        throws IOException
+    {
+        // Looking up the timestamp also writes any deferred changes of the curation CAS to disk
+        if (!aCurationDocumentService.getCurationCasTimestamp(aDocument).isPresent()) {
+            return null;
+        }
+
+        return getCasVersion(aRepository.getCasFile(aDocument, WebAnnoConst.CURATION_USER));
+    }
+
+    /**
+     * Appends the training lines of a single document to the given training file. The lines are
+     * cached in a segment file which carries the version of the document CAS in its name. The
+     * segment is only generated again when the CAS has changed since, so that retraining after a
+     * small change only needs to load the CASes of the changed documents.
+     * 
+     * @param aOut
+     *            the training file writer.
+     * @param aMiraDir
+     *            the MIRA folder of the project.
+     * @param aSegmentKey
+     *            identifies the document and the kind of training lines.
+     * @param aVersion
+     *            the version of the document CAS (see {@link #getCasVersion}) or {@code null} if
+     *            it is not known. In the latter case, the lines are generated without using the
+     *            cache.
+     * @param aGenerator
+     *            writes the training lines of the document.
+     */
+    private static void appendSegment(Writer aOut, File aMiraDir, String aSegmentKey,
+            String aVersion, SegmentGenerator aGenerator)
+        throws IOException, UIMAException
+    {
+        if (aVersion == null) {
+            aGenerator.write(aOut);
+            return;
+        }
+
+        File segmentDir = new File(aMiraDir, SEGMENT_FOLDER);
+        File segment = new File(segmentDir, aSegmentKey + "-" + aVersion + SEGMENT_SUFFIX);
+
+        if (!segment.exists()) {
+            FileUtils.forceMkdir(segmentDir);
+
+            // Remove segments generated from previous versions of the CAS
+            File[] staleSegments = segmentDir.listFiles((dir, name) -> name
+                    .startsWith(aSegmentKey + "-") && name.endsWith(SEGMENT_SUFFIX)
+                    && name.substring(aSegmentKey.length() + 1, name.length()
+                            - SEGMENT_SUFFIX.length()).matches("[0-9]+-[0-9]+"));
+            if (staleSegments != null) {
+                for (File staleSegment : staleSegments) {
+                    FileUtils.deleteQuietly(staleSegment);
+                }
+            }
+
+            // Write to a temporary file first so that an interrupted run does not leave an
+            // incomplete segment behind
+            File tmpSegment = new File(segmentDir, segment.getName() + ".tmp");
+            try (Writer out = new BufferedWriter(new FileWriter(tmpSegment))) {
+                aGenerator.write(out);
+            }
+            Files.move(tmpSegment.toPath(), segment.toPath(), REPLACE_EXISTING);
+        }
+
+        try (Reader in = new BufferedReader(new FileReader(segment))) {
+            IOUtils.copy(in, aOut);
+        }
+    }
+
+    /**
+     * Removes the segments of training documents which no longer exist and of source documents
+     * which no longer exist or are no longer curated. Such segments would otherwise remain in the
+     * MIRA folder forever. Left-over temporary files of interrupted runs are removed as well.
+     */
+    private static void removeObsoleteSegments(File aMiraDir, DocumentService aRepository,
+            AutomationService aAutomationService, AnnotationFeature aFeature)
+    {
+        File[] segments = new File(aMiraDir, SEGMENT_FOLDER).listFiles();
+        if (segments == null) {
+            return;
+        }
+
+        Set<String> trainingDocumentIds = aAutomationService
+                .listTrainingDocuments(aFeature.getProject()).stream()
+                .map(doc -> String.valueOf(doc.getId()))
+                .collect(Collectors.toSet());
+        Set<String> curatedDocumentIds = aRepository.listSourceDocuments(aFeature.getProject())
+                .stream()
+                .filter(doc -> SourceDocumentState.CURATION_FINISHED.equals(doc.getState()))
+                .map(doc -> String.valueOf(doc.getId()))
+                .collect(Collectors.toSet());
+
+        for (File segment : segments) {
+            // Segment names start with "train-<id>-" or "curation-<id>-"
+            String[] parts = segment.getName().split("-", 3);
+            boolean obsolete;
+            if (!segment.getName().endsWith(SEGMENT_SUFFIX) || parts.length < 3) {
+                obsolete = true;
+            }
+            else if ("train".equals(parts[0])) {
+                obsolete = !trainingDocumentIds.contains(parts[1]);
+            }
+            else if ("curation".equals(parts[0])) {
+                obsolete = !curatedDocumentIds.contains(parts[1]);
+            }
+            else {
+                obsolete = true;
+            }
+
+            if (obsolete) {
+                LOG.debug("Removing obsolete segment [{}]", segment.getName());
+                FileUtils.deleteQuietly(segment);
+            }
+        }
+    }
+
+    @FunctionalInterface
+    private interface SegmentGenerator
+    {
+        void write(Writer aOut) throws IOException, UIMAException;
+    }
+
+    /**
+     * Stops a background automation at the next document boundary once it has been cancelled.
+     * The interrupt flag is kept, so the caller can tell a cancellation from an error.
+     */
+    private static void checkInterrupted() throws InterruptedIOException
+    {
+        if (Thread.currentThread().isInterrupted()) {
+            throw new InterruptedIOException("Automation has been interrupted");
+        }
+    }
+
     // TODO: rename to predictDocument
     public static void generatePredictDocument(MiraTemplate aTemplate, DocumentService aRepository,
             CorrectionDocumentService aCorrectionDocumentService,
             AnnotationSchemaService aAnnotationService, AutomationService aAutomationService,
-            UserDao aUserDao)
+            UserDao aUserDao, Runnable aDocumentProcessed)
         throws IOException, UIMAException, ClassNotFoundException
     {
         File miraDir = aAutomationService.getMiraDir(aTemplate.getTrainFeature());
@@ -773,6 +964,7 @@ public class AutomationUtil
         AnnotationFeature feature = aTemplate.getTrainFeature();
         TypeAdapter adapter = aAnnotationService.getAdapter(feature.getLayer());
         for (SourceDocument document : aRepository.listSourceDocuments(feature.getProject())) {
+            checkInterrupted();
             File predFile = new File(miraDir, document.getId() + ".pred.ft");
             BufferedWriter predOut = new BufferedWriter(new FileWriter(predFile));
             CAS cas;
@@ -790,6 +982,7 @@ public class AutomationUtil
                         .append("\n");
             }
             predOut.close();
+            aDocumentProcessed.run();
         }
     }
 
@@ -1332,7 +1525,9 @@ public class AutomationUtil
                 predictions, mira, predFile, predcitedFile);
 
         generateTrainDocument(aTemplate, aRepository, aCurationDocumentService, aAnnotationService,
-                aAutomationService, aUserDao, false);
+                aAutomationService, aUserDao, false, () -> {
+                    // Progress is only reported for the base training document
+                });
 
         String trainTemplate;
         if (predictions.size() == 0) {
@@ -1507,7 +1702,7 @@ public class AutomationUtil
      */
     public static void addOtherFeatureToPredictDocument(MiraTemplate aTemplate,
             DocumentService aRepository, AnnotationSchemaService aAnnotationService,
-            AutomationService aAutomationService, UserDao aUserDao)
+            AutomationService aAutomationService, UserDao aUserDao, Runnable aDocumentProcessed)
         throws UIMAException, ClassNotFoundException, IOException, AnnotationException,
         AutomationException
     {
@@ -1515,6 +1710,7 @@ public class AutomationUtil
 
         File miraDir = aAutomationService.getMiraDir(layerFeature);
         for (SourceDocument document : aRepository.listSourceDocuments(layerFeature.getProject())) {
+            checkInterrupted();
             List<List<String>> predictions = new ArrayList<>();
             File predFtFile = new File(miraDir, document.getId() + ".pred.ft");
             Mira mira = new Mira();
@@ -1541,6 +1737,7 @@ public class AutomationUtil
                 buildPredictFile(predFtFile, basePredFile, predictions,
                         aTemplate.getTrainFeature());
             }
+            aDocumentProcessed.run();
         }
     }
 
@@ -1738,73 +1935,185 @@ public class AutomationUtil
         }
     }
 
+    /**
+     * Predicts the labels for all source documents of the project and writes them to the
+     * correction CASes. The documents are processed by up to {@code aThreads} worker threads. It
+     * is not known whether the MIRA classifier may be used by several threads at once, so each
+     * worker loads its own copy of the model - the memory required for prediction thus grows with
+     * the number of threads.
+     */
     public static void predict(MiraTemplate aTemplate, DocumentService aRepository,
             CorrectionDocumentService aCorrectionDocumentService,
-            AutomationService aAutomationService, UserDao aUserDao)
+            AutomationService aAutomationService, UserDao aUserDao, int aThreads,
+            Runnable aDocumentProcessed)
         throws UIMAException, ClassNotFoundException, IOException, AnnotationException
     {
         AnnotationFeature layerFeature = aTemplate.getTrainFeature();
 
         File miraDir = aAutomationService.getMiraDir(layerFeature);
         AutomationStatus status = aAutomationService.getAutomationStatus(aTemplate);
-        for (SourceDocument document : aRepository.listSourceDocuments(layerFeature.getProject())) {
-            File predFile = new File(miraDir, document.getId() + ".pred");
-            Mira mira = new Mira();
-            int shiftColumns = 0;
-            int nbest = 1;
-            int beamSize = 0;
-            boolean maxPosteriors = false;
-            String modelName = aAutomationService.getMiraModel(layerFeature, false, null)
-                    .getAbsolutePath();
-            String testName = predFile.getAbsolutePath();
-            File predcitedFile = new File(predFile.getAbsolutePath() + "-pred");
-            PrintStream stream = new PrintStream(predcitedFile);
-            BufferedReader input = new BufferedReader(new InputStreamReader(System.in));
-            if (testName != null) {
-                input = new BufferedReader(new FileReader(testName));
+        String modelName = aAutomationService.getMiraModel(layerFeature, false, null)
+                .getAbsolutePath();
+        // The current user is bound to the calling thread, so it must be resolved before the
+        // documents are handed over to the worker threads
+        User user = aUserDao.getCurrentUser();
+        List<SourceDocument> documents = aRepository
+                .listSourceDocuments(layerFeature.getProject());
+
+        if (documents.isEmpty()) {
+            return;
+        }
+
+        // Each worker thread loads the model once and then uses it for all the documents it
+        // processes
+        ThreadLocal<Mira> miras = new ThreadLocal<>();
+        int threads = Math.max(1, Math.min(aThreads, documents.size()));
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Void>> results = new ArrayList<>();
+            for (SourceDocument document : documents) {
+                results.add(executor.submit(() -> {
+                    Mira mira = miras.get();
+                    if (mira == null) {
+                        mira = loadPredictionModel(modelName);
+                        miras.set(mira);
+                    }
+
+                    File predFile = new File(miraDir, document.getId() + ".pred");
+                    List<String> annotations = predictLabels(mira, predFile);
+                    LOG.info("[{}] predictions found to be written to the CAS",
+                            annotations.size());
+
+                    try (CasStorageSession session = CasStorageSession.openNested()) {
+                        AnnotationDocument annoDocument = aRepository
+                                .getAnnotationDocument(document, user);
+                        CAS cas = aRepository.readAnnotationCas(annoDocument);
+                        automate(cas, layerFeature, annotations);
+                        // We need to clear the timestamp since we read from the annotation CAS
+                        // and write to the correction CAS - this makes the comparison between the
+                        // time stamp stored in the CAS and the on-disk timestamp of the
+                        // correction CAS invalid
+                        CasMetadataUtils.clearCasMetadata(cas);
+                        aCorrectionDocumentService.writeCorrectionCas(cas, document);
+                        synchronized (status) {
+                            status.setAnnoDocs(status.getAnnoDocs() - 1);
+                        }
+                    }
+                    catch (DataRetrievalFailureException e) {
+                        LOG.error("Error during prediction", e);
+                    }
+
+                    aDocumentProcessed.run();
+                    return null;
+                }));
             }
-            mira.loadModel(modelName);
-            mira.setShiftColumns(shiftColumns);
-            mira.nbest = nbest;
-            mira.beamSize = beamSize;
-            mira.maxPosteriors = maxPosteriors;
-            mira.test(input, stream);
 
-            LOG.info("Prediction is written to a MIRA File. To be done is writing back to the CAS");
-            LineIterator it = IOUtils.lineIterator(new FileReader(predcitedFile));
-            List<String> annotations = new ArrayList<>();
+            for (Future<Void> result : results) {
+                result.get();
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Prediction has been interrupted", e);
+        }
+        catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof UIMAException) {
+                throw (UIMAException) cause;
+            }
+            if (cause instanceof ClassNotFoundException) {
+                throw (ClassNotFoundException) cause;
+            }
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof AnnotationException) {
+                throw (AnnotationException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
 
-            while (it.hasNext()) {
-                String line = it.next();
-                if (line.trim().equals("")) {
-                    continue;
-                }
-                StringTokenizer st = new StringTokenizer(line, " ");
-                String tag = "";
-                while (st.hasMoreTokens()) {
-                    tag = st.nextToken();
+    private static Mira loadPredictionModel(String aModelName)
+        throws IOException, ClassNotFoundException
+    {
+        Mira mira = new Mira();
+        mira.loadModel(aModelName);
+        mira.setShiftColumns(0);
+        mira.nbest = 1;
+        mira.beamSize = 0;
+        mira.maxPosteriors = false;
+        return mira;
+    }
 
-                }
-                annotations.add(tag);
+    /**
+     * Runs the classifier over the feature lines in the given file and returns the predicted
+     * label for each token. The labels are picked from the classifier output as it is written
+     * instead of being written to a file and parsed back.
+     */
+    private static List<String> predictLabels(Mira aMira, File aPredFile) throws IOException
+    {
+        PredictedLabelCollector labels = new PredictedLabelCollector();
+        try (BufferedReader input = new BufferedReader(new FileReader(aPredFile));
+                PrintStream output = new PrintStream(labels, false, UTF_8.name())) {
+            aMira.test(input, output);
+        }
+        return labels.getLabels();
+    }
+
+    /**
+     * Collects the predicted label - the last column - of each non-empty line written by the
+     * classifier. Only the line currently being written is buffered.
+     */
+    private static class PredictedLabelCollector
+        extends OutputStream
+    {
+        private final List<String> labels = new ArrayList<>();
+        private final ByteArrayOutputStream line = new ByteArrayOutputStream();
+
+        @Override
+        public void write(int aByte)
+        {
+            if (aByte == '\n') {
+                endLine();
+            }
+            else if (aByte != '\r') {
+                line.write(aByte);
             }
+        }
 
-            LOG.info("[{}] predictions found to be written to the CAS", annotations.size());
-            CAS cas = null;
-            User user = aUserDao.getCurrentUser();
-            try {
-                AnnotationDocument annoDocument = aRepository.getAnnotationDocument(document, user);
-                cas = aRepository.readAnnotationCas(annoDocument);
-                automate(cas, layerFeature, annotations);
-                // We need to clear the timestamp since we read from the annotation CAS and write
-                // to the correction CAS - this makes the comparison between the time stamp
-                // stored in the CAS and the on-disk timestamp of the correction CAS invalid
-                CasMetadataUtils.clearCasMetadata(cas);
-                aCorrectionDocumentService.writeCorrectionCas(cas, document);
-                status.setAnnoDocs(status.getAnnoDocs() - 1);
-            }
-            catch (DataRetrievalFailureException e) {
-                LOG.error("Error during prediction", e);
+        @Override
+        public void close()
+        {
+            endLine();
+        }
+
+        private void endLine()
+        {
+            String text = new String(line.toByteArray(), UTF_8);
+            line.reset();
+
+            if (text.trim().equals("")) {
+                return;
             }
+
+            StringTokenizer st = new StringTokenizer(text, " ");
+            String tag = "";
+            while (st.hasMoreTokens()) {
+                tag = st.nextToken();
+            }
+            labels.add(tag);
+        }
+
+        public List<String> getLabels()
+        {
+            return labels;
         }
     }
 
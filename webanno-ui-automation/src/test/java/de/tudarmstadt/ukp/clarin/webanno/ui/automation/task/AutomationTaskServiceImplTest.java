@@ -0,0 +1,227 @@
+/*
+ * Licensed to the Technische Universität Darmstadt under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The Technische Universität Darmstadt 
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.ui.automation.task;
+
+import static de.tudarmstadt.ukp.clarin.webanno.model.Status.COMPLETED;
+import static de.tudarmstadt.ukp.clarin.webanno.model.Status.INTERRUPTED;
+import static java.lang.System.currentTimeMillis;
+import static java.util.Collections.emptyList;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+import java.io.File;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.Mock;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.AnnotationSchemaService;
+import de.tudarmstadt.ukp.clarin.webanno.api.CorrectionDocumentService;
+import de.tudarmstadt.ukp.clarin.webanno.api.DocumentService;
+import de.tudarmstadt.ukp.clarin.webanno.api.casstorage.CasSessionException;
+import de.tudarmstadt.ukp.clarin.webanno.api.dao.casstorage.CasStorageSession;
+import de.tudarmstadt.ukp.clarin.webanno.automation.model.AutomationStatus;
+import de.tudarmstadt.ukp.clarin.webanno.automation.model.MiraTemplate;
+import de.tudarmstadt.ukp.clarin.webanno.automation.service.AutomationService;
+import de.tudarmstadt.ukp.clarin.webanno.curation.storage.CurationDocumentService;
+import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationFeature;
+import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationLayer;
+import de.tudarmstadt.ukp.clarin.webanno.model.Project;
+import de.tudarmstadt.ukp.clarin.webanno.security.UserDao;
+
+public class AutomationTaskServiceImplTest
+{
+    private @Mock DocumentService documentService;
+    private @Mock CurationDocumentService curationDocumentService;
+    private @Mock CorrectionDocumentService correctionDocumentService;
+    private @Mock AnnotationSchemaService annotationService;
+    private @Mock AutomationService automationService;
+    private @Mock UserDao userRepository;
+
+    public @Rule TemporaryFolder miraFolder = new TemporaryFolder();
+
+    private AutomationTaskServiceImpl sut;
+    private MiraTemplate template;
+    private AutomationStatus status;
+
+    @Before
+    public void setup() throws Exception
+    {
+        initMocks(this);
+
+        Project project = new Project();
+        project.setId(1l);
+        project.setName("project");
+
+        AnnotationLayer layer = new AnnotationLayer();
+        layer.setId(1l);
+        layer.setProject(project);
+
+        AnnotationFeature feature = new AnnotationFeature();
+        feature.setId(1l);
+        feature.setProject(project);
+        feature.setLayer(layer);
+        feature.setUiName("feature");
+
+        template = new MiraTemplate();
+        template.setId(1l);
+        template.setTrainFeature(feature);
+
+        when(userRepository.getCurrentUsername()).thenReturn("user");
+        when(automationService.getMiraTemplate(feature)).thenReturn(template);
+
+        status = new AutomationStatus();
+        when(automationService.existsAutomationStatus(template)).thenReturn(true);
+        when(automationService.getAutomationStatus(template)).thenReturn(status);
+        File miraDir = miraFolder.newFolder();
+        when(automationService.getMiraDir(any())).thenReturn(miraDir);
+        when(automationService.getMiraModel(any(), anyBoolean(), any()))
+                .thenReturn(new File(miraDir, "model"));
+
+        sut = new AutomationTaskServiceImpl(documentService, curationDocumentService,
+                correctionDocumentService, annotationService, automationService, userRepository,
+                1, 1);
+    }
+
+    @After
+    public void tearDown()
+    {
+        sut.destroy();
+    }
+
+    @Test
+    public void thatTaskRunsInCasStorageSession() throws Exception
+    {
+        AtomicBoolean sessionAvailable = new AtomicBoolean(false);
+        when(documentService.listSourceDocuments(any())).thenAnswer(invocation -> {
+            try {
+                CasStorageSession.get();
+                sessionAvailable.set(true);
+            }
+            catch (CasSessionException e) {
+                sessionAvailable.set(false);
+            }
+            return emptyList();
+        });
+
+        assertThat(sut.startAutomation(template)).isTrue();
+        awaitTaskExit();
+
+        assertThat(sessionAvailable).as("Task has a CAS storage session").isTrue();
+        assertThat(sut.getLastError(template)).isEmpty();
+        assertThat(status.getStatus()).isEqualTo(COMPLETED);
+        assertThat(status.getTemplate()).isSameAs(template);
+        verify(automationService, atLeastOnce()).createAutomationStatus(status);
+        assertThat(template.isAutomationStarted()).isFalse();
+    }
+
+    @Test
+    public void thatFailedTaskIsRemovedAndErrorIsKept() throws Exception
+    {
+        when(documentService.listSourceDocuments(any()))
+                .thenThrow(new IllegalStateException("broken"));
+
+        assertThat(sut.startAutomation(template)).isTrue();
+        awaitTaskExit();
+
+        assertThat(status.getStatus()).isEqualTo(INTERRUPTED);
+        verify(automationService, atLeastOnce()).createAutomationStatus(status);
+        assertThat(sut.getProgress(template)).as("Finished task has been removed").isZero();
+        assertThat(sut.getLastError(template)).hasValueSatisfying(
+                error -> assertThat(error).contains("broken"));
+
+        when(documentService.listSourceDocuments(any())).thenReturn(emptyList());
+        assertThat(sut.startAutomation(template)).isTrue();
+        awaitTaskExit();
+
+        assertThat(sut.getLastError(template))
+                .as("Error is cleared when the next task is started").isEmpty();
+        assertThat(status.getStatus()).isEqualTo(COMPLETED);
+    }
+
+    @Test
+    public void thatNewTaskIsOnlyStartedOnceCancelledTaskHasExited() throws Exception
+    {
+        CountDownLatch entered = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        when(documentService.listSourceDocuments(any())).thenAnswer(invocation -> {
+            entered.countDown();
+            // Simulate a step which does not react to being interrupted right away
+            awaitUninterruptibly(release);
+            return emptyList();
+        });
+
+        assertThat(sut.startAutomation(template)).isTrue();
+        assertThat(entered.await(10, SECONDS)).isTrue();
+
+        assertThat(sut.cancelAutomation(template)).isTrue();
+        assertThat(sut.isRunning(template))
+                .as("Cancelled task is running until it has exited")
+                .isTrue();
+        assertThat(sut.startAutomation(template))
+                .as("No new task is started while the cancelled task is still running")
+                .isFalse();
+
+        release.countDown();
+        awaitTaskExit();
+
+        assertThat(sut.cancelAutomation(template)).isFalse();
+        assertThat(sut.startAutomation(template))
+                .as("New task is started once the cancelled task has exited")
+                .isTrue();
+    }
+
+    private void awaitTaskExit() throws InterruptedException
+    {
+        long deadline = currentTimeMillis() + 10_000;
+        while (sut.isRunning(template) && currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+
+        assertThat(sut.isRunning(template)).as("Task has exited").isFalse();
+    }
+
+    private static void awaitUninterruptibly(CountDownLatch aLatch)
+    {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                aLatch.await();
+                break;
+            }
+            catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,316 @@
+/*
+ * Licensed to the Technische Universität Darmstadt under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The Technische Universität Darmstadt 
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.ui.curation.component.model;
+
+import static de.tudarmstadt.ukp.clarin.webanno.api.CasUpgradeMode.AUTO_CAS_UPGRADE;
+import static de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst.CORRECTION_USER;
+import static de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst.CURATION_USER;
+import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil.getFirstSentence;
+import static de.tudarmstadt.ukp.clarin.webanno.api.casstorage.CasAccessMode.SHARED_READ_ONLY_ACCESS;
+import static de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff.getDiffAdapters;
+import static de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocumentState.FINISHED;
+import static de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocumentState.IN_PROGRESS;
+import static de.tudarmstadt.ukp.clarin.webanno.model.SourceDocumentState.CURATION_FINISHED;
+import static de.tudarmstadt.ukp.clarin.webanno.model.SourceDocumentState.CURATION_IN_PROGRESS;
+import static java.util.Collections.unmodifiableMap;
+import static java.util.stream.Collectors.toList;
+import static org.apache.uima.fit.util.CasUtil.getType;
+import static org.apache.uima.fit.util.CasUtil.selectCovered;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.uima.UIMAException;
+import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.text.AnnotationFS;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.slf4j.MDC;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.AnnotationSchemaService;
+import de.tudarmstadt.ukp.clarin.webanno.api.CasStorageService;
+import de.tudarmstadt.ukp.clarin.webanno.api.DocumentService;
+import de.tudarmstadt.ukp.clarin.webanno.api.dao.casstorage.CasStorageSession;
+import de.tudarmstadt.ukp.clarin.webanno.api.event.AfterCasWrittenEvent;
+import de.tudarmstadt.ukp.clarin.webanno.api.event.AnnotationStateChangeEvent;
+import de.tudarmstadt.ukp.clarin.webanno.api.event.DocumentStateChangedEvent;
+import de.tudarmstadt.ukp.clarin.webanno.api.event.LayerConfigurationChangedEvent;
+import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocument;
+import de.tudarmstadt.ukp.clarin.webanno.model.Project;
+import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
+import de.tudarmstadt.ukp.clarin.webanno.support.logging.Logging;
+import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Sentence;
+
+/**
+ * Caches the sentences in which the finished annotators of a document disagree, so that the
+ * curation page does not have to diff the annotator CASes every time it is rendered. Entries are
+ * keyed by the timestamps of the annotator CASes, so an entry is never used once any of these
+ * CASes has changed. The differences are calculated for all layers of the project such that an
+ * entry can be used no matter which layers the curator has enabled.
+ */
+@Component
+public class CurationStateCache
+    implements DisposableBean
+{
+    private static final int MAX_ENTRIES = 1000;
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private final DocumentService documentService;
+    private final CasStorageService casStorageService;
+    private final AnnotationSchemaService schemaService;
+
+    private final Cache<Key, Map<String, Set<Integer>>> disagreementsCache;
+    private final ExecutorService precomputeExecutor;
+
+    public CurationStateCache(@Autowired DocumentService aDocumentService,
+            @Autowired CasStorageService aCasStorageService,
+            @Autowired AnnotationSchemaService aSchemaService)
+    {
+        documentService = aDocumentService;
+        casStorageService = aCasStorageService;
+        schemaService = aSchemaService;
+
+        disagreementsCache = Caffeine.newBuilder().maximumSize(MAX_ENTRIES).build();
+        precomputeExecutor = Executors.newSingleThreadExecutor();
+    }
+
+    @Override
+    public void destroy()
+    {
+        precomputeExecutor.shutdownNow();
+    }
+
+    /**
+     * Gets the sentences in which the given finished annotators disagree, calculating them if
+     * necessary.
+     * 
+     * @param aDocument
+     *            the source document.
+     * @param aFinishedDocuments
+     *            the finished annotation documents of the annotators to compare.
+     * @param aSentenceBeginEnd
+     *            the sentences of the document by begin offset.
+     * @param aCasProvider
+     *            provides the annotator CASes if the differences need to be calculated.
+     * @return for each type, the begins of the sentences containing a difference.
+     */
+    public Map<String, Set<Integer>> getDisagreements(SourceDocument aDocument,
+            List<AnnotationDocument> aFinishedDocuments, Map<Integer, Integer> aSentenceBeginEnd,
+            AnnotatorCasProvider aCasProvider)
+        throws UIMAException, ClassNotFoundException, IOException
+    {
+        Key key = new Key(aDocument, getCasTimestamps(aDocument, aFinishedDocuments),
+                aSentenceBeginEnd);
+
+        Map<String, Set<Integer>> disagreements = disagreementsCache.getIfPresent(key);
+        if (disagreements != null) {
+            return disagreements;
+        }
+
+        disagreements = calculateDisagreements(aDocument.getProject(), aCasProvider.get(),
+                aSentenceBeginEnd);
+        disagreementsCache.put(key, disagreements);
+        return disagreements;
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void afterCasWritten(AfterCasWrittenEvent aEvent)
+    {
+        // Changes made by the curator do not affect the differences between the annotators
+        String user = aEvent.getDocument().getUser();
+        if (CURATION_USER.equals(user) || CORRECTION_USER.equals(user)) {
+            return;
+        }
+
+        invalidate(aEvent.getDocument().getDocument());
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void afterDocumentStateChanged(DocumentStateChangedEvent aEvent)
+    {
+        // Starting or finishing the curation does not affect the differences between the
+        // annotators
+        if (aEvent.getNewState() == CURATION_IN_PROGRESS
+                || aEvent.getNewState() == CURATION_FINISHED) {
+            return;
+        }
+
+        invalidate(aEvent.getDocument());
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void afterAnnotationStateChanged(AnnotationStateChangeEvent aEvent)
+    {
+        SourceDocument document = aEvent.getDocument();
+        invalidate(document);
+
+        if (aEvent.getNewState() != FINISHED) {
+            return;
+        }
+
+        // Once the last annotator has finished, the document is likely to be curated next
+        List<AnnotationDocument> annotationDocuments = documentService
+                .listAnnotationDocuments(document);
+        if (annotationDocuments.stream().noneMatch(d -> d.getState() == IN_PROGRESS)) {
+            List<AnnotationDocument> finishedDocuments = annotationDocuments.stream()
+                    .filter(d -> d.getState() == FINISHED)
+                    .collect(toList());
+            precomputeExecutor.submit(() -> precompute(document, finishedDocuments));
+        }
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void afterLayerConfigurationChanged(LayerConfigurationChangedEvent aEvent)
+    {
+        Project project = aEvent.getProject();
+        if (project == null || project.getId() == null) {
+            return;
+        }
+
+        disagreementsCache.asMap().keySet()
+                .removeIf(key -> Objects.equals(key.projectId, project.getId()));
+    }
+
+    private void invalidate(SourceDocument aDocument)
+    {
+        if (aDocument == null || aDocument.getId() == null) {
+            return;
+        }
+
+        disagreementsCache.asMap().keySet()
+                .removeIf(key -> Objects.equals(key.documentId, aDocument.getId()));
+    }
+
+    private void precompute(SourceDocument aDocument, List<AnnotationDocument> aFinishedDocuments)
+    {
+        Project project = aDocument.getProject();
+        try (MDC.MDCCloseable closable = MDC.putCloseable(Logging.KEY_PROJECT_ID,
+                String.valueOf(project.getId()));
+                CasStorageSession session = CasStorageSession.openNested()) {
+            Map<String, CAS> casses = new HashMap<>();
+            for (AnnotationDocument annDoc : aFinishedDocuments) {
+                casses.put(annDoc.getUser(), documentService.readAnnotationCas(aDocument,
+                        annDoc.getUser(), AUTO_CAS_UPGRADE, SHARED_READ_ONLY_ACCESS));
+            }
+
+            if (casses.isEmpty()) {
+                return;
+            }
+
+            // All annotator CASes share the sentences of the initial CAS
+            CAS cas = casses.values().iterator().next();
+            Map<Integer, Integer> sentenceBeginEnd = new HashMap<>();
+            for (AnnotationFS sentence : selectCovered(cas, getType(cas, Sentence.class),
+                    getFirstSentence(cas).getBegin(), cas.getDocumentText().length())) {
+                sentenceBeginEnd.put(sentence.getBegin(), sentence.getEnd());
+            }
+
+            long t0 = System.currentTimeMillis();
+            getDisagreements(aDocument, aFinishedDocuments, sentenceBeginEnd, () -> casses);
+            log.debug("Precomputed curation state of document [{}]({}) in project [{}]({}) in "
+                    + "{}ms", aDocument.getName(), aDocument.getId(), project.getName(),
+                    project.getId(), System.currentTimeMillis() - t0);
+        }
+        catch (Exception e) {
+            log.error("Unable to precompute curation state of document [{}]({}) in project "
+                    + "[{}]({})", aDocument.getName(), aDocument.getId(), project.getName(),
+                    project.getId(), e);
+        }
+    }
+
+    private Map<String, Set<Integer>> calculateDisagreements(Project aProject,
+            Map<String, CAS> aCasses, Map<Integer, Integer> aSentenceBeginEnd)
+    {
+        return unmodifiableMap(SuggestionBuilder.calculateDisagreements(
+                getDiffAdapters(schemaService, schemaService.listAnnotationLayer(aProject)),
+                aCasses, aSentenceBeginEnd));
+    }
+
+    private Map<String, Long> getCasTimestamps(SourceDocument aDocument,
+            List<AnnotationDocument> aFinishedDocuments)
+        throws IOException
+    {
+        Map<String, Long> timestamps = new HashMap<>();
+        for (AnnotationDocument annDoc : aFinishedDocuments) {
+            timestamps.put(annDoc.getUser(),
+                    casStorageService.getCasTimestamp(aDocument, annDoc.getUser()).orElse(-1l));
+        }
+        return timestamps;
+    }
+
+    /**
+     * Provides the annotator CASes if the differences are not cached.
+     */
+    @FunctionalInterface
+    public interface AnnotatorCasProvider
+    {
+        Map<String, CAS> get() throws UIMAException, ClassNotFoundException, IOException;
+    }
+
+    private static final class Key
+    {
+        private final long projectId;
+        private final long documentId;
+        private final Map<String, Long> casTimestamps;
+        private final Map<Integer, Integer> sentenceBeginEnd;
+
+        public Key(SourceDocument aDocument, Map<String, Long> aCasTimestamps,
+                Map<Integer, Integer> aSentenceBeginEnd)
+        {
+            projectId = aDocument.getProject().getId();
+            documentId = aDocument.getId();
+            casTimestamps = aCasTimestamps;
+            sentenceBeginEnd = new HashMap<>(aSentenceBeginEnd);
+        }
+
+        @Override
+        public boolean equals(Object aOther)
+        {
+            if (this == aOther) {
+                return true;
+            }
+            if (!(aOther instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) aOther;
+            return projectId == other.projectId && documentId == other.documentId
+                    && casTimestamps.equals(other.casTimestamps)
+                    && sentenceBeginEnd.equals(other.sentenceBeginEnd);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return Objects.hash(projectId, documentId, casTimestamps, sentenceBeginEnd);
+        }
+    }
+}
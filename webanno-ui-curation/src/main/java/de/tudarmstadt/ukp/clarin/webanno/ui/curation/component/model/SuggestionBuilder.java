@@ -32,15 +32,22 @@ import static de.tudarmstadt.ukp.clarin.webanno.model.Mode.CORRECTION;
 import static de.tudarmstadt.ukp.clarin.webanno.model.SourceDocumentStateTransition.NEW_TO_ANNOTATION_IN_PROGRESS;
 import static de.tudarmstadt.ukp.clarin.webanno.ui.curation.component.model.SentenceState.AGREE;
 import static de.tudarmstadt.ukp.clarin.webanno.ui.curation.component.model.SentenceState.DISAGREE;
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptySet;
 import static org.apache.uima.fit.util.CasUtil.getType;
 import static org.apache.uima.fit.util.CasUtil.selectCovered;
 
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.TreeMap;
 
 import org.apache.commons.lang3.Validate;
 import org.apache.uima.UIMAException;
@@ -97,6 +104,7 @@ public class SuggestionBuilder
     private final CurationDocumentService curationDocumentService;
     private final UserDao userRepository;
     private final CasStorageService casStorageService;
+    private final CurationStateCache curationStateCache;
 
     private int diffRangeBegin;
     private int diffRangeEnd;
@@ -105,6 +113,21 @@ public class SuggestionBuilder
             CorrectionDocumentService aCorrectionDocumentService,
             CurationDocumentService aCurationDocumentService,
             AnnotationSchemaService aAnnotationService, UserDao aUserDao)
+    {
+        this(aCasStorageService, aDocumentService, aCorrectionDocumentService,
+                aCurationDocumentService, aAnnotationService, aUserDao, null);
+    }
+
+    /**
+     * @param aCurationStateCache
+     *            cache for the curation differences. If this is {@code null}, the differences are
+     *            calculated every time the curation container is built.
+     */
+    public SuggestionBuilder(CasStorageService aCasStorageService, DocumentService aDocumentService,
+            CorrectionDocumentService aCorrectionDocumentService,
+            CurationDocumentService aCurationDocumentService,
+            AnnotationSchemaService aAnnotationService, UserDao aUserDao,
+            CurationStateCache aCurationStateCache)
     {
         documentService = aDocumentService;
         correctionDocumentService = aCorrectionDocumentService;
@@ -112,6 +135,7 @@ public class SuggestionBuilder
         schemaService = aAnnotationService;
         userRepository = aUserDao;
         casStorageService = aCasStorageService;
+        curationStateCache = aCurationStateCache;
     }
 
     public CurationContainer buildCurationContainer(AnnotatorState aState)
@@ -139,8 +163,11 @@ public class SuggestionBuilder
         AnnotationDocument randomAnnotationDocument = null;
         CAS mergeCas;
 
+        boolean correctionMode = aState.getMode().equals(AUTOMATION)
+                || aState.getMode().equals(CORRECTION);
+
         // get the correction/automation CAS for the logged in user
-        if (aState.getMode().equals(AUTOMATION) || aState.getMode().equals(CORRECTION)) {
+        if (correctionMode) {
             casses = listCasesforCorrection(randomAnnotationDocument, sourceDocument,
                     aState.getMode());
             mergeCas = getMergeCas(aState, sourceDocument, casses, randomAnnotationDocument, false,
@@ -151,7 +178,12 @@ public class SuggestionBuilder
                     aState.getWindowEndOffset());
         }
         else {
-            casses = listCassesforCuration(finishedAnnotationDocuments, aState.getMode());
+            // With the curation state cache, the annotator CASes are only needed to create the
+            // merge CAS or if the differences are not cached
+            if (curationStateCache == null
+                    || !curationDocumentService.existsCurationCas(sourceDocument)) {
+                casses = listCassesforCuration(finishedAnnotationDocuments, aState.getMode());
+            }
             mergeCas = getMergeCas(aState, sourceDocument, casses, randomAnnotationDocument, false,
                     false, false);
             updateSegment(aState, segmentBeginEnd, segmentNumber, segmentAdress, mergeCas,
@@ -170,50 +202,33 @@ public class SuggestionBuilder
 
         long diffStart = System.currentTimeMillis();
         log.debug("Calculating differences...");
-        int count = 0;
-        for (Integer begin : segmentBeginEnd.keySet()) {
-            Integer end = segmentBeginEnd.get(begin);
-
-            count++;
-            if (count % 100 == 0) {
-                log.debug("Processing differences: {} of {} sentences...", count,
-                        segmentBeginEnd.size());
-            }
+        Map<String, Set<Integer>> disagreements;
+        if (curationStateCache != null && !correctionMode) {
+            Map<String, CAS> annotatorCasses = casses;
+            disagreements = curationStateCache.getDisagreements(sourceDocument,
+                    finishedAnnotationDocuments, segmentBeginEnd,
+                    () -> !annotatorCasses.isEmpty() ? annotatorCasses
+                            : listCassesforCuration(finishedAnnotationDocuments,
+                                    aState.getMode()));
+        }
+        else {
+            disagreements = calculateDisagreements(adapters, casses, segmentBeginEnd);
+        }
 
-            DiffResult diff = doDiffSingle(adapters, LINK_ROLE_AS_LABEL, casses, begin, end)
-                    .toResult();
+        // Only the differences on the layers selected by the user are relevant
+        Set<Integer> disagreeingSentences = new HashSet<>();
+        for (DiffAdapter adapter : adapters) {
+            disagreeingSentences
+                    .addAll(disagreements.getOrDefault(adapter.getType(), emptySet()));
+        }
 
+        for (Integer begin : segmentBeginEnd.keySet()) {
             SourceListView curationSegment = new SourceListView();
             curationSegment.setBegin(begin);
-            curationSegment.setEnd(end);
+            curationSegment.setEnd(segmentBeginEnd.get(begin));
             curationSegment.setSentenceNumber(segmentNumber.get(begin));
-            if (diff.hasDifferences() || !diff.getIncompleteConfigurationSets().isEmpty()) {
-                // Is this confSet a diff due to stacked annotations (with same configuration)?
-                boolean stackedDiff = false;
-
-                stackedDiffSet: for (ConfigurationSet d : diff.getDifferingConfigurationSets()
-                        .values()) {
-                    for (Configuration c : d.getConfigurations()) {
-                        if (c.getCasGroupIds().size() != d.getCasGroupIds().size()) {
-                            stackedDiff = true;
-                            break stackedDiffSet;
-                        }
-                    }
-                }
-
-                if (stackedDiff) {
-                    curationSegment.setSentenceState(DISAGREE);
-                }
-                else if (!diff.getIncompleteConfigurationSets().isEmpty()) {
-                    curationSegment.setSentenceState(DISAGREE);
-                }
-                else {
-                    curationSegment.setSentenceState(AGREE);
-                }
-            }
-            else {
-                curationSegment.setSentenceState(AGREE);
-            }
+            curationSegment.setSentenceState(
+                    disagreeingSentences.contains(begin) ? DISAGREE : AGREE);
 
             for (String username : segmentAdress.keySet()) {
                 curationSegment.getSentenceAddress().put(username,
@@ -227,6 +242,61 @@ public class SuggestionBuilder
         return curationContainer;
     }
 
+    /**
+     * Calculates the differences for all the given sentences in a single pass over the CASes. Each
+     * configuration set is assigned to the sentence covering it. Sets which are not covered by any
+     * sentence are ignored, just as if the differences were calculated sentence by sentence.
+     * 
+     * @return for each type, the begins of the sentences which contain a difference or an
+     *         incomplete configuration set of that type.
+     */
+    static Map<String, Set<Integer>> calculateDisagreements(List<DiffAdapter> aAdapters,
+            Map<String, CAS> aCasses, Map<Integer, Integer> aSentenceBeginEnd)
+    {
+        Map<String, Set<Integer>> disagreements = new HashMap<>();
+        if (aSentenceBeginEnd.isEmpty()) {
+            return disagreements;
+        }
+
+        TreeMap<Integer, Integer> sentences = new TreeMap<>(aSentenceBeginEnd);
+        int begin = sentences.firstKey();
+        int end = sentences.values().stream().mapToInt(Integer::intValue).max().getAsInt();
+
+        DiffResult diff = doDiffSingle(aAdapters, LINK_ROLE_AS_LABEL, aCasses, begin, end)
+                .toResult();
+
+        Map<String, List<CAS>> casMap = new LinkedHashMap<>();
+        aCasses.forEach((user, cas) -> casMap.put(user, asList(cas)));
+
+        for (ConfigurationSet set : diff.getConfigurationSets()) {
+            // Is this confSet a diff due to stacked annotations (with same configuration)?
+            boolean stackedDiff = false;
+            if (!diff.isAgreement(set)) {
+                for (Configuration c : set.getConfigurations()) {
+                    if (c.getCasGroupIds().size() != set.getCasGroupIds().size()) {
+                        stackedDiff = true;
+                        break;
+                    }
+                }
+            }
+
+            if (!stackedDiff && diff.isComplete(set)) {
+                continue;
+            }
+
+            Configuration cfg = set.getConfigurations().get(0);
+            AnnotationFS fs = (AnnotationFS) cfg.getFs(cfg.getCasGroupIds().iterator().next(),
+                    set.getPosition().getCasId(), casMap);
+            Entry<Integer, Integer> sentence = sentences.floorEntry(fs.getBegin());
+            if (sentence != null && fs.getEnd() <= sentence.getValue()) {
+                disagreements.computeIfAbsent(set.getPosition().getType(), k -> new HashSet<>())
+                        .add(sentence.getKey());
+            }
+        }
+
+        return disagreements;
+    }
+
     /**
      * Get a sentence at the end of an annotation
      */
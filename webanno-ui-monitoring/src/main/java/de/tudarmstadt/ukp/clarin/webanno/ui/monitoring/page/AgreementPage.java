@@ -17,17 +17,15 @@
  */
 package de.tudarmstadt.ukp.clarin.webanno.ui.monitoring.page;
 
-import static de.tudarmstadt.ukp.clarin.webanno.api.CasUpgradeMode.AUTO_CAS_UPGRADE;
 import static de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst.PAGE_PARAM_PROJECT_ID;
-import static de.tudarmstadt.ukp.clarin.webanno.api.casstorage.CasAccessMode.SHARED_READ_ONLY_ACCESS;
-import static de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocumentState.FINISHED;
 import static de.tudarmstadt.ukp.clarin.webanno.model.PermissionLevel.ANNOTATOR;
 import static de.tudarmstadt.ukp.clarin.webanno.support.lambda.LambdaBehavior.enabledWhen;
+import static de.tudarmstadt.ukp.clarin.webanno.support.lambda.LambdaBehavior.visibleWhen;
 
 import java.io.Serializable;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
@@ -36,12 +34,13 @@ import java.util.stream.Collectors;
 
 import javax.persistence.NoResultException;
 
+import org.apache.commons.lang3.SerializationUtils;
 import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.apache.commons.lang3.time.DateFormatUtils;
 import org.apache.commons.lang3.tuple.Pair;
 import org.apache.uima.cas.CAS;
-import org.apache.uima.cas.FeatureStructure;
-import org.apache.uima.fit.util.FSUtil;
 import org.apache.wicket.Component;
+import org.apache.wicket.ajax.AbstractAjaxTimerBehavior;
 import org.apache.wicket.ajax.AjaxRequestTarget;
 import org.apache.wicket.feedback.IFeedback;
 import org.apache.wicket.markup.html.WebMarkupContainer;
@@ -56,24 +55,25 @@ import org.apache.wicket.model.IModel;
 import org.apache.wicket.model.LoadableDetachableModel;
 import org.apache.wicket.model.Model;
 import org.apache.wicket.model.PropertyModel;
+import org.apache.wicket.model.StringResourceModel;
 import org.apache.wicket.request.mapper.parameter.PageParameters;
 import org.apache.wicket.spring.injection.annot.SpringBean;
 import org.apache.wicket.util.string.StringValue;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 import org.wicketstuff.annotation.mount.MountPath;
 
 import de.agilecoders.wicket.extensions.markup.html.bootstrap.form.select.BootstrapSelect;
-import de.tudarmstadt.ukp.clarin.webanno.agreement.measures.AgreementMeasure;
+import de.tudarmstadt.ukp.clarin.webanno.agreement.AgreementCasLoader;
+import de.tudarmstadt.ukp.clarin.webanno.agreement.AgreementRequest;
+import de.tudarmstadt.ukp.clarin.webanno.agreement.AgreementService;
+import de.tudarmstadt.ukp.clarin.webanno.agreement.CachedAgreementResult;
 import de.tudarmstadt.ukp.clarin.webanno.agreement.measures.AgreementMeasureSupport;
 import de.tudarmstadt.ukp.clarin.webanno.agreement.measures.AgreementMeasureSupportRegistry;
 import de.tudarmstadt.ukp.clarin.webanno.agreement.measures.DefaultAgreementTraits;
+import de.tudarmstadt.ukp.clarin.webanno.agreement.results.AgreementSummaryTable;
 import de.tudarmstadt.ukp.clarin.webanno.api.AnnotationSchemaService;
 import de.tudarmstadt.ukp.clarin.webanno.api.DocumentService;
 import de.tudarmstadt.ukp.clarin.webanno.api.ProjectService;
 import de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst;
-import de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil;
-import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocument;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationFeature;
 import de.tudarmstadt.ukp.clarin.webanno.model.Project;
 import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
@@ -92,21 +92,26 @@ public class AgreementPage
 {
     private static final long serialVersionUID = 5333662917247971912L;
 
-    private static final Logger LOG = LoggerFactory.getLogger(AgreementPage.class);
-
     private static final String MID_TRAITS_CONTAINER = "traitsContainer";
     private static final String MID_TRAITS = "traits";
     private static final String MID_RESULTS = "results";
 
+    private static final Duration REFRESH_INTERVAL = Duration.ofSeconds(2);
+
     private @SpringBean DocumentService documentService;
     private @SpringBean ProjectService projectService;
     private @SpringBean AnnotationSchemaService annotationService;
     private @SpringBean UserDao userRepository;
     private @SpringBean AgreementMeasureSupportRegistry agreementRegistry;
+    private @SpringBean AgreementCasLoader casLoader;
+    private @SpringBean AgreementService agreementService;
 
     private ProjectSelectionForm projectSelectionForm;
     private AgreementForm agreementForm;
     private WebMarkupContainer resultsContainer;
+    private Label resultStatus;
+    private AbstractAjaxTimerBehavior refreshTimer;
+    private AgreementRequest currentRequest;
 
     public AgreementPage()
     {
@@ -191,6 +196,10 @@ public class AgreementPage
             featureList.add(new LambdaAjaxFormComponentUpdatingBehavior("change",
                     this::actionSelectFeature));
 
+            add(resultStatus = new Label("resultStatus", Model.of()));
+            resultStatus.setOutputMarkupPlaceholderTag(true);
+            resultStatus.add(visibleWhen(() -> resultStatus.getDefaultModelObject() != null));
+
             runCalculationsButton = new LambdaAjaxButton<>("run", this::actionRunCalculations);
             runCalculationsButton.triggerAfterSubmit();
             add(runCalculationsButton);
@@ -244,7 +253,6 @@ public class AgreementPage
             aTarget.add(measureDropDown, runCalculationsButton, traitsContainer);
         }
 
-        @SuppressWarnings({ "rawtypes", "unchecked" })
         private void actionRunCalculations(AjaxRequestTarget aTarget, Form<?> aForm)
         {
             AnnotationFeature feature = featureList.getModelObject();
@@ -255,26 +263,34 @@ public class AgreementPage
                 return;
             }
 
-            AgreementMeasureSupport ams = agreementRegistry
-                    .getAgreementMeasureSupport(measureDropDown.getModelObject().getKey());
+            // Copy the traits so that later changes in the traits editor do not affect the
+            // request
+            AgreementRequest request = new AgreementRequest(feature, measureHandle.getKey(),
+                    SerializationUtils.clone((DefaultAgreementTraits) traitsContainer
+                            .get(MID_TRAITS).getDefaultModelObject()));
 
-            AgreementMeasure measure = ams.createMeasure(feature,
-                    (DefaultAgreementTraits) traitsContainer.get(MID_TRAITS)
-                            .getDefaultModelObject());
+            // Show the last result immediately (if any) while it is being refreshed in the
+            // background
+            currentRequest = request;
+            agreementService.refresh(request);
+            showResult(aTarget);
 
-            Map<String, List<CAS>> casMap = getCasMap();
-
-            if (casMap.values().stream().allMatch(list -> list == null || list.isEmpty())) {
-                error("No documents with annotations were found.");
-                aTarget.addChildren(getPage(), IFeedback.class);
-            }
-            else {
-                Serializable result = measure.getAgreement(casMap);
-                resultsContainer.addOrReplace(ams.createResultsPanel(MID_RESULTS, Model.of(result),
-                        AgreementPage.this::getCasMap));
-                aTarget.add(resultsContainer);
+            if (refreshTimer != null) {
+                resultsContainer.remove(refreshTimer);
             }
+            resultsContainer.add(refreshTimer = new AbstractAjaxTimerBehavior(REFRESH_INTERVAL)
+            {
+                private static final long serialVersionUID = -3475620371563566287L;
 
+                @Override
+                protected void onTimer(AjaxRequestTarget aTimerTarget)
+                {
+                    if (!agreementService.isRefreshing(request)) {
+                        stop(aTimerTarget);
+                        showResult(aTimerTarget);
+                    }
+                }
+            });
         }
 
         List<Pair<String, String>> listMeasures()
@@ -342,7 +358,13 @@ public class AgreementPage
         private void onSelectionChanged(AjaxRequestTarget aTarget)
         {
             agreementForm.setModelObject(new AgreementFormModel());
+            currentRequest = null;
+            if (refreshTimer != null) {
+                resultsContainer.remove(refreshTimer);
+                refreshTimer = null;
+            }
             resultsContainer.addOrReplace(new EmptyPanel(MID_RESULTS));
+            resultStatus.setDefaultModelObject(null);
             aTarget.add(resultsContainer, agreementForm);
         }
 
@@ -369,6 +391,49 @@ public class AgreementPage
         public Map<String, Integer> annotatorsProgressInPercent = new TreeMap<>();
     }
 
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    private void showResult(AjaxRequestTarget aTarget)
+    {
+        AgreementRequest request = currentRequest;
+        if (request == null) {
+            return;
+        }
+
+        CachedAgreementResult result = agreementService.getLastResult(request);
+        boolean refreshing = agreementService.isRefreshing(request);
+
+        if (result != null) {
+            if (result.getResult() != null) {
+                AgreementMeasureSupport ams = agreementRegistry
+                        .getAgreementMeasureSupport(request.getMeasure());
+                resultsContainer.addOrReplace(ams.createResultsPanel(MID_RESULTS,
+                        Model.of(result.getResult()), AgreementPage.this::getCasMap));
+            }
+            else {
+                // Restored from the persisted summary - the details are available once the
+                // refresh is done
+                resultsContainer.addOrReplace(
+                        new AgreementSummaryTable(MID_RESULTS, Model.of(result.getSummary())));
+            }
+            resultStatus.setDefaultModelObject(
+                    new StringResourceModel(refreshing ? "result.refreshing" : "result.calculated",
+                            this).setParameters(DateFormatUtils.format(result.getTimestamp(),
+                                    "yyyy-MM-dd HH:mm:ss")).getString());
+        }
+        else {
+            resultsContainer.addOrReplace(new EmptyPanel(MID_RESULTS));
+            resultStatus.setDefaultModelObject(
+                    refreshing ? getString("result.calculating") : null);
+        }
+
+        if (!refreshing) {
+            agreementService.getLastError(request).ifPresent(this::error);
+        }
+
+        aTarget.add(resultsContainer, resultStatus);
+        aTarget.addChildren(getPage(), IFeedback.class);
+    }
+
     private Optional<Project> getProjectFromParameters(StringValue projectParam)
     {
         if (projectParam == null || projectParam.isEmpty()) {
@@ -412,60 +477,9 @@ public class AgreementPage
 
         List<SourceDocument> sourceDocuments = documentService.listSourceDocuments(project);
 
-        cachedCASes = new LinkedHashMap<>();
-        for (User user : users) {
-            List<CAS> cases = new ArrayList<>();
-
-            // Bulk-fetch all source documents for which there is already an annotation document for
-            // the user which is faster then checking for their existence individually
-            List<SourceDocument> docsForUser = documentService
-                    .listAnnotationDocuments(project, user).stream()
-                    .map(AnnotationDocument::getDocument).distinct().collect(Collectors.toList());
-
-            nextDocument: for (SourceDocument document : sourceDocuments) {
-                CAS cas = null;
-
-                try {
-                    if (docsForUser.contains(document)) {
-                        AnnotationDocument annotationDocument = documentService
-                                .getAnnotationDocument(document, user);
-
-                        if (traits.isLimitToFinishedDocuments()
-                                && !annotationDocument.getState().equals(FINISHED)) {
-                            // Add a skip marker (null) for the current CAS to the CAS list - this
-                            // is necessary because we expect the CAS lists for all users to have
-                            // the same size
-                            cases.add(null);
-                            continue nextDocument;
-                        }
-                    }
-
-                    // Reads the user's annotation document or the initial source document -
-                    // depending on what is available
-                    cas = documentService.readAnnotationCas(document, user.getUsername(),
-                            AUTO_CAS_UPGRADE, SHARED_READ_ONLY_ACCESS);
-                }
-                catch (Exception e) {
-                    error("Unable to load data: " + ExceptionUtils.getRootCauseMessage(e));
-                    LOG.error("Unable to load data", e);
-                }
-
-                if (cas != null) {
-                    // Set the CAS name in the DocumentMetaData so that we can pick it
-                    // up in the Diff position for the purpose of debugging / transparency.
-                    FeatureStructure dmd = WebAnnoCasUtil.getDocumentMetadata(cas);
-                    FSUtil.setFeature(dmd, "documentId", document.getName());
-                    FSUtil.setFeature(dmd, "collectionId", document.getProject().getName());
-
-                }
-
-                // The next line can enter null values into the list if a user didn't work on this
-                // source document yet.
-                cases.add(cas);
-            }
-
-            cachedCASes.put(user.getUsername(), cases);
-        }
+        cachedCASes = casLoader.loadCases(project, users, sourceDocuments,
+                traits.isLimitToFinishedDocuments(), e -> error(
+                        "Unable to load data: " + ExceptionUtils.getRootCauseMessage(e)));
 
         cachedProject = project;
         cachedLimitToFinishedDocuments = traits.isLimitToFinishedDocuments();
@@ -19,10 +19,10 @@ package de.tudarmstadt.ukp.clarin.webanno.ui.monitoring.page;
 
 import static de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst.CURATION_USER;
 import static de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst.PAGE_PARAM_PROJECT_ID;
+import static de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocumentState.FINISHED;
 import static de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocumentStateTransition.ANNOTATION_FINISHED_TO_ANNOTATION_IN_PROGRESS;
 import static de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocumentStateTransition.ANNOTATION_IN_PROGRESS_TO_ANNOTATION_FINISHED;
 import static de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocumentStateTransition.IGNORE_TO_NEW;
-import static de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocumentStateTransition.NEW_TO_ANNOTATION_IN_PROGRESS;
 import static de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocumentStateTransition.NEW_TO_IGNORE;
 import static de.tudarmstadt.ukp.clarin.webanno.model.PermissionLevel.ANNOTATOR;
 import static de.tudarmstadt.ukp.clarin.webanno.model.SourceDocumentState.ANNOTATION_FINISHED;
@@ -34,9 +34,7 @@ import static de.tudarmstadt.ukp.clarin.webanno.model.SourceDocumentStateTransit
 import static de.tudarmstadt.ukp.clarin.webanno.model.SourceDocumentStateTransition.CURATION_FINISHED_TO_CURATION_IN_PROGRESS;
 import static de.tudarmstadt.ukp.clarin.webanno.model.SourceDocumentStateTransition.CURATION_IN_PROGRESS_TO_CURATION_FINISHED;
 import static java.util.Collections.emptyMap;
-import static java.util.Objects.isNull;
-import static java.util.stream.Collectors.groupingBy;
-import static java.util.stream.Collectors.toMap;
+import static java.util.stream.Collectors.toList;
 
 import java.awt.Color;
 import java.io.Serializable;
@@ -48,10 +46,8 @@ import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
 import java.util.Optional;
 import java.util.TreeMap;
-import java.util.function.BinaryOperator;
 
 import javax.persistence.NoResultException;
 
@@ -61,16 +57,18 @@ import org.apache.wicket.ajax.AjaxEventBehavior;
 import org.apache.wicket.ajax.AjaxRequestTarget;
 import org.apache.wicket.ajax.form.OnChangeAjaxBehavior;
 import org.apache.wicket.behavior.AttributeAppender;
-import org.apache.wicket.extensions.markup.html.repeater.data.grid.DataGridView;
 import org.apache.wicket.extensions.markup.html.repeater.data.grid.ICellPopulator;
 import org.apache.wicket.extensions.markup.html.repeater.data.table.AbstractColumn;
+import org.apache.wicket.extensions.markup.html.repeater.data.table.DataTable;
 import org.apache.wicket.extensions.markup.html.repeater.data.table.DefaultDataTable;
 import org.apache.wicket.extensions.markup.html.repeater.data.table.IColumn;
+import org.apache.wicket.extensions.markup.html.repeater.data.table.PropertyColumn;
 import org.apache.wicket.markup.html.basic.Label;
 import org.apache.wicket.markup.html.form.ChoiceRenderer;
 import org.apache.wicket.markup.html.form.Form;
 import org.apache.wicket.markup.html.form.FormComponentUpdatingBehavior;
 import org.apache.wicket.markup.html.form.ListChoice;
+import org.apache.wicket.markup.html.form.TextField;
 import org.apache.wicket.markup.html.panel.EmptyPanel;
 import org.apache.wicket.markup.html.panel.Panel;
 import org.apache.wicket.markup.repeater.Item;
@@ -103,14 +101,13 @@ import org.wicketstuff.annotation.mount.MountPath;
 import de.tudarmstadt.ukp.clarin.webanno.api.AnnotationSchemaService;
 import de.tudarmstadt.ukp.clarin.webanno.api.DocumentService;
 import de.tudarmstadt.ukp.clarin.webanno.api.ProjectService;
+import de.tudarmstadt.ukp.clarin.webanno.api.ProjectStatistics;
+import de.tudarmstadt.ukp.clarin.webanno.api.ProjectStatisticsService;
 import de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst;
 import de.tudarmstadt.ukp.clarin.webanno.automation.model.MiraTemplate;
 import de.tudarmstadt.ukp.clarin.webanno.automation.service.AutomationService;
-import de.tudarmstadt.ukp.clarin.webanno.curation.storage.CurationDocumentService;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocument;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocumentState;
-import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocumentStateTransition;
-import de.tudarmstadt.ukp.clarin.webanno.model.PermissionLevel;
 import de.tudarmstadt.ukp.clarin.webanno.model.Project;
 import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
 import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocumentState;
@@ -118,9 +115,11 @@ import de.tudarmstadt.ukp.clarin.webanno.security.UserDao;
 import de.tudarmstadt.ukp.clarin.webanno.security.model.User;
 import de.tudarmstadt.ukp.clarin.webanno.support.EntityModel;
 import de.tudarmstadt.ukp.clarin.webanno.support.jfreechart.SvgChart;
+import de.tudarmstadt.ukp.clarin.webanno.support.lambda.LambdaAjaxFormComponentUpdatingBehavior;
 import de.tudarmstadt.ukp.clarin.webanno.ui.core.page.ApplicationPageBase;
+import de.tudarmstadt.ukp.clarin.webanno.ui.monitoring.support.DocumentStatusDataProvider;
 import de.tudarmstadt.ukp.clarin.webanno.ui.monitoring.support.EmbeddableImage;
-import de.tudarmstadt.ukp.clarin.webanno.ui.monitoring.support.TableDataProvider;
+import de.tudarmstadt.ukp.clarin.webanno.ui.monitoring.support.LastAccessToolbar;
 
 /**
  * A Page To display different monitoring and statistics measurements tabularly and graphically.
@@ -133,19 +132,8 @@ public class MonitoringPage
 
     private static final long serialVersionUID = -2102136855109258306L;
 
-    /**
-     * The user column in the user-document status table
-     */
-    public static final String USER = "user:";
-
-    /**
-     * The document column in the user-document status table
-     */
-    public static final String DOCUMENT = "document:";
-
     public static final String CURATION = "curation";
 
-    public static final String LAST_ACCESS = "last access:";
     public static final String LAST_ACCESS_ROW = "last access";
 
     private @SpringBean AnnotationSchemaService annotationService;
@@ -153,7 +141,7 @@ public class MonitoringPage
     private @SpringBean DocumentService documentService;
     private @SpringBean ProjectService projectService;
     private @SpringBean UserDao userRepository;
-    private @SpringBean CurationDocumentService curationService;
+    private @SpringBean ProjectStatisticsService projectStatisticsService;
 
     private ProjectSelectionForm projectSelectionForm;
     private MonitoringDetailForm monitoringDetailForm;
@@ -163,6 +151,7 @@ public class MonitoringPage
     private TrainingResultForm trainingResultForm;
 
     private Panel annotationDocumentStatusTable;
+    private final IModel<String> documentNameFilter = new Model<>();
 
     private String result;
 
@@ -266,30 +255,7 @@ public class MonitoringPage
         add(projectSelectionForm);
 
         if (!projectService.listProjects().isEmpty()) {
-            Project project = projectService.listProjects().get(0);
-            List<List<String>> userAnnotationDocumentLists = new ArrayList<>();
-            List<SourceDocument> dc = documentService.listSourceDocuments(project);
-            for (int j = 0; j < projectService.listProjectUsersWithPermissions(project)
-                    .size(); j++) {
-                List<String> userAnnotationDocument = new ArrayList<>();
-                userAnnotationDocument.add("");
-                for (int i = 0; i < dc.size(); i++) {
-                    userAnnotationDocument.add("");
-                }
-                userAnnotationDocumentLists.add(userAnnotationDocument);
-            }
-            List<String> documentListAsColumnHeader = new ArrayList<>();
-            documentListAsColumnHeader.add("Users");
-            for (SourceDocument d : dc) {
-                documentListAsColumnHeader.add(d.getName());
-            }
-            TableDataProvider prov = new TableDataProvider(documentListAsColumnHeader,
-                    userAnnotationDocumentLists);
-            List<IColumn<?, ?>> cols = new ArrayList<>();
-            for (int i = 0; i < prov.getColumnCount(); i++) {
-                cols.add(new DocumentStatusColumnMetaData(prov, i, new Project()));
-            }
-            annotationDocumentStatusTable = new DefaultDataTable("rsTable", cols, prov, 2);
+            annotationDocumentStatusTable = new EmptyPanel("rsTable");
             monitoringDetailForm.setVisible(false);
             add(monitoringDetailForm.add(annotatorsProgressImage)
                     .add(annotatorsProgressPercentageImage).add(annotationDocumentStatusTable));
@@ -397,9 +363,6 @@ public class MonitoringPage
                 return;
             }
 
-            List<SourceDocument> sourceDocuments = documentService
-                    .listSourceDocuments(aNewSelection);
-
             monitoringDetailForm.setModelObject(aNewSelection);
             monitoringDetailForm.setVisible(true);
 
@@ -411,7 +374,8 @@ public class MonitoringPage
             projectSelectionModel.project = aNewSelection;
             projectSelectionModel.annotatorsProgress = new TreeMap<>();
             projectSelectionModel.annotatorsProgressInPercent = new TreeMap<>();
-            projectSelectionModel.totalDocuments = sourceDocuments.size();
+            projectSelectionModel.totalDocuments = (int) documentService
+                    .countSourceDocuments(aNewSelection, null);
             ProjectSelectionForm.this.setVisible(true);
 
             // Annotator's Progress
@@ -425,76 +389,30 @@ public class MonitoringPage
             annotatorsProgressImage.setVisible(true);
             annotatorsProgressPercentageImage.setVisible(true);
 
-            List<String> documentListAsColumnHeader = new ArrayList<>();
-            documentListAsColumnHeader.add("Documents");
-
-            // A column for curation user annotation document status
-            documentListAsColumnHeader.add(CURATION);
-
             // List of users with USER permission level
-            List<User> users = projectService.listProjectUsersWithPermissions(
-                    projectSelectionModel.project, PermissionLevel.ANNOTATOR);
-
-            for (User user : users) {
-                documentListAsColumnHeader.add(user.getUsername());
-            }
-
-            List<List<String>> userAnnotationDocumentStatusList = new ArrayList<>();
-
-            // Add a timestamp row for every user.
-            List<String> projectTimeStamp = new ArrayList<>();
-            projectTimeStamp.add(LAST_ACCESS + LAST_ACCESS_ROW); // first
-                                                                 // column
-            if (projectService.existsProjectTimeStamp(aNewSelection)) {
-                projectTimeStamp.add(LAST_ACCESS + new SimpleDateFormat("dd/MM/yyyy HH:mm:ss")
-                        .format(projectService.getProjectTimeStamp(aNewSelection)));
-            }
-            else {
-                projectTimeStamp.add(LAST_ACCESS + "__");
-            }
-
-            for (User user : users) {
-                if (projectService.existsProjectTimeStamp(projectSelectionModel.project,
-                        user.getUsername())) {
-                    projectTimeStamp.add(LAST_ACCESS + new SimpleDateFormat("dd/MM/yyyy HH:mm:ss")
-                            .format(projectService.getProjectTimeStamp(
-                                    projectSelectionModel.project, user.getUsername())));
-                }
-                else {
-                    projectTimeStamp.add(LAST_ACCESS + "__");
-                }
-            }
-
-            userAnnotationDocumentStatusList.add(projectTimeStamp);
-
-            for (SourceDocument document : sourceDocuments) {
-                List<String> userAnnotationDocuments = new ArrayList<>();
-                userAnnotationDocuments.add(DOCUMENT + document.getName());
-
-                // Curation Document status
-                userAnnotationDocuments
-                        .add(WebAnnoConst.CURATION_USER + "-" + DOCUMENT + document.getName());
+            List<String> users = projectService
+                    .listProjectUsersWithPermissions(projectSelectionModel.project,
+                            ANNOTATOR)
+                    .stream().map(User::getUsername).collect(toList());
 
-                for (User user : users) {
-                    // annotation document status for this annotator
-                    userAnnotationDocuments
-                            .add(user.getUsername() + "-" + DOCUMENT + document.getName());
-                }
+            DocumentStatusDataProvider provider = new DocumentStatusDataProvider(projectModel,
+                    documentNameFilter);
 
-                userAnnotationDocumentStatusList.add(userAnnotationDocuments);
+            List<IColumn<SourceDocument, String>> columns = new ArrayList<>();
+            columns.add(new PropertyColumn<>(Model.of("Documents"), "name", "name"));
+            // A column for curation user annotation document status
+            columns.add(new CurationStatusColumn());
+            for (String user : users) {
+                columns.add(new AnnotationStatusColumn(provider, user));
             }
 
-            TableDataProvider provider = new TableDataProvider(documentListAsColumnHeader,
-                    userAnnotationDocumentStatusList);
+            DataTable<SourceDocument, String> table = new DefaultDataTable<>("rsTable", columns,
+                    provider, 20);
+            table.addTopToolbar(new LastAccessToolbar(table,
+                    LoadableDetachableModel.of(() -> listLastAccess(users))));
 
-            List<IColumn<?, ?>> columns = new ArrayList<>();
-
-            for (int i = 0; i < provider.getColumnCount(); i++) {
-                columns.add(new DocumentStatusColumnMetaData(provider, i,
-                        projectSelectionModel.project));
-            }
             annotationDocumentStatusTable.remove();
-            annotationDocumentStatusTable = new DefaultDataTable("rsTable", columns, provider, 20);
+            annotationDocumentStatusTable = table;
             annotationDocumentStatusTable.setOutputMarkupId(true);
             monitoringDetailForm.add(annotationDocumentStatusTable);
         }
@@ -517,27 +435,19 @@ public class MonitoringPage
             return emptyMap();
         }
 
-        Map<String, List<AnnotationDocument>> docsPerUser = documentService
-                .listFinishedAnnotationDocuments(aProject).stream()
-                .collect(groupingBy(AnnotationDocument::getUser));
-
-        // We explicitly use HashMap::new below since we *really* want a mutable map and
-        // Collectors.toMap(...) doesn't make guarantees about the mutability of the map type it
-        // internally creates.
-        Map<String, Integer> finishedDocumentsPerUser = docsPerUser.entrySet().stream().collect(
-                toMap(Entry::getKey, e -> e.getValue().size(), throwingMerger(), HashMap::new));
+        ProjectStatistics stats = projectStatisticsService.getProjectStatistics(aProject);
 
         // Make sure we also have all annotators in the map who have not actually annotated
         // anything
-        projectService.listProjectUsersWithPermissions(aProject, ANNOTATOR).stream()
-                .map(User::getUsername)
-                .forEach(user -> finishedDocumentsPerUser.computeIfAbsent(user, _it -> 0));
+        Map<String, Integer> finishedDocumentsPerUser = new HashMap<>();
+        for (String annotator : stats.getAnnotators()) {
+            finishedDocumentsPerUser.put(annotator,
+                    (int) stats.getAnnotationDocumentCount(annotator, FINISHED));
+        }
 
         // Add the finished documents for the curation user
-        List<SourceDocument> curatedDocuments = curationService.listCuratedDocuments(aProject);
-
-        // Little hack: to ensure that the curation user comes first on screen, add a space
-        finishedDocumentsPerUser.put(CURATION_USER, curatedDocuments.size());
+        finishedDocumentsPerUser.put(CURATION_USER,
+                (int) stats.getDocumentCount(CURATION_FINISHED));
 
         return finishedDocumentsPerUser;
     }
@@ -548,22 +458,19 @@ public class MonitoringPage
             return emptyMap();
         }
 
+        ProjectStatistics stats = projectStatisticsService.getProjectStatistics(aProject);
         Map<String, Integer> finishedDocumentsPerUser = getFinishedDocumentsPerUser(aProject);
 
         Map<String, Integer> percentageFinishedPerUser = new HashMap<>();
-        List<User> annotators = new ArrayList<>(
-                projectService.listProjectUsersWithPermissions(aProject, ANNOTATOR));
+        List<String> annotators = new ArrayList<>(stats.getAnnotators());
 
         // Little hack: to ensure that the curation user comes first on screen, add a space
-        annotators.add(new User(CURATION_USER));
+        annotators.add(CURATION_USER);
 
-        for (User annotator : annotators) {
-            Map<SourceDocument, AnnotationDocument> docsForUser = documentService
-                    .listAnnotatableDocuments(aProject, annotator);
-
-            int finished = finishedDocumentsPerUser.get(annotator.getUsername());
-            int annotatableDocs = docsForUser.size();
-            percentageFinishedPerUser.put(annotator.getUsername(),
+        for (String annotator : annotators) {
+            int finished = finishedDocumentsPerUser.get(annotator);
+            long annotatableDocs = stats.getAnnotatableDocumentCount(annotator);
+            percentageFinishedPerUser.put(annotator,
                     (int) Math.round((double) (finished * 100) / annotatableDocs));
         }
 
@@ -578,8 +485,9 @@ public class MonitoringPage
         for (Project project : projectService.listProjects()) {
             if (projectService.isCurator(project, user)
                     || projectService.isManager(project, user)) {
-                int annoFinished = documentService.listFinishedAnnotationDocuments(project).size();
-                int allAnno = documentService.numberOfExpectedAnnotationDocuments(project);
+                ProjectStatistics stats = projectStatisticsService.getProjectStatistics(project);
+                long annoFinished = stats.getFinishedAnnotationDocumentCount();
+                long allAnno = stats.getExpectedAnnotationDocumentCount();
                 int progress = (int) Math.round((double) (annoFinished * 100) / (allAnno));
                 overallProjectProgress.put(project.getName(), progress);
             }
@@ -613,6 +521,11 @@ public class MonitoringPage
             super(id, new CompoundPropertyModel<>(new EntityModel<>(new Project())));
 
             add(new Label("name"));
+
+            TextField<String> filter = new TextField<>("documentNameFilter", documentNameFilter);
+            filter.add(new LambdaAjaxFormComponentUpdatingBehavior("change",
+                    MonitoringPage.this::actionFilterDocuments));
+            add(filter);
         }
     }
 
@@ -878,219 +791,181 @@ public class MonitoringPage
         return chart;
     }
 
-    /**
-     * Build dynamic columns for the user's annotation documents status {@link DataGridView}
-     */
-    public class DocumentStatusColumnMetaData
-        extends AbstractColumn<List<String>, Object>
+    private void actionFilterDocuments(AjaxRequestTarget aTarget)
     {
-        // private RepositoryService projectRepositoryService;
+        if (annotationDocumentStatusTable instanceof DataTable) {
+            ((DataTable<?, ?>) annotationDocumentStatusTable).setCurrentPage(0);
+            aTarget.add(annotationDocumentStatusTable);
+        }
+    }
 
-        private static final long serialVersionUID = 1L;
-        private int columnNumber;
+    private List<String> listLastAccess(List<String> aUsers)
+    {
+        Project project = projectModel.getObject();
+        SimpleDateFormat format = new SimpleDateFormat("dd/MM/yyyy HH:mm:ss");
 
-        private Project project;
+        List<String> lastAccess = new ArrayList<>();
+        lastAccess.add(LAST_ACCESS_ROW);
 
-        public DocumentStatusColumnMetaData(final TableDataProvider prov, final int colNumber,
-                Project aProject)
-        {
-            super(LoadableDetachableModel.of(() -> prov.getColNames().get(colNumber)));
-            columnNumber = colNumber;
-            project = aProject;
+        if (projectService.existsProjectTimeStamp(project)) {
+            lastAccess.add(format.format(projectService.getProjectTimeStamp(project)));
+        }
+        else {
+            lastAccess.add("__");
         }
 
-        @Override
-        public void populateItem(final Item<ICellPopulator<List<String>>> aCellItem,
-                final String componentId, final IModel<List<String>> rowModel)
-        {
-            String username = SecurityContextHolder.getContext().getAuthentication().getName();
-            final User user = userRepository.get(username);
-
-            int rowNumber = aCellItem.getIndex();
-            aCellItem.setOutputMarkupId(true);
-
-            final String value = getCellValue(rowModel.getObject().get(columnNumber)).trim();
-            if (rowNumber == 0) {
-                aCellItem.add(new Label(componentId, value.substring(value.indexOf(":") + 1)));
+        for (String user : aUsers) {
+            if (projectService.existsProjectTimeStamp(project, user)) {
+                lastAccess.add(format.format(projectService.getProjectTimeStamp(project, user)));
             }
-            else if (value.startsWith(MonitoringPage.LAST_ACCESS)) {
-                aCellItem.add(new Label(componentId, value.substring(value.indexOf(":") + 1)));
-                aCellItem.add(AttributeModifier.append("class", "centering"));
+            else {
+                lastAccess.add("__");
             }
-            else if (value.substring(0, value.indexOf(":")).equals(WebAnnoConst.CURATION_USER)) {
-                SourceDocument document = documentService.getSourceDocument(project,
-                        value.substring(value.indexOf(":") + 1));
-                SourceDocumentState state = document.getState();
-                EmbeddableImage icon = new EmbeddableImage(componentId, ICONS.get(state));
-                icon.add(new AttributeAppender("style", "cursor: pointer", ";"));
-                aCellItem.add(icon);
-                aCellItem.add(AttributeModifier.append("class", "centering"));
-                aCellItem.add(new AjaxEventBehavior("click")
-                {
-                    private static final long serialVersionUID = -4213621740511947285L;
+        }
 
-                    @Override
-                    protected void onEvent(AjaxRequestTarget aTarget)
-                    {
-                        if (!projectService.isCurator(project, user)) {
-                            aTarget.appendJavaScript(
-                                    "alert('the state can only be changed explicitly by the curator')");
-                            return;
-                        }
+        return lastAccess;
+    }
 
-                        SourceDocument doc = documentService.getSourceDocument(project,
-                                value.substring(value.indexOf(":") + 1));
-                        if (doc.getState().equals(CURATION_FINISHED)) {
-                            documentService.transitionSourceDocumentState(doc,
-                                    CURATION_FINISHED_TO_CURATION_IN_PROGRESS);
-                        }
-                        else if (doc.getState().equals(CURATION_IN_PROGRESS)) {
-                            documentService.transitionSourceDocumentState(doc,
-                                    CURATION_IN_PROGRESS_TO_CURATION_FINISHED);
-                        }
-                        else if (doc.getState().equals(ANNOTATION_IN_PROGRESS)) {
-                            documentService.transitionSourceDocumentState(doc,
-                                    ANNOTATION_IN_PROGRESS_TO_CURATION_IN_PROGRESS);
-                        }
+    private void updateStats(AjaxRequestTarget aTarget)
+    {
+        ProjectSelectionModel model = projectSelectionForm.getModelObject();
 
-                        aTarget.add(aCellItem);
-                        updateStats(aTarget, projectSelectionForm.getModelObject());
-                    }
-                });
-            }
-            else {
-                SourceDocument document = documentService.getSourceDocument(project,
-                        value.substring(value.indexOf(":") + 1));
-                User annotator = userRepository.get(value.substring(0, value.indexOf(":")));
-
-                AnnotationDocumentState state;
-                AnnotationDocument annoDoc = null;
-                if (documentService.existsAnnotationDocument(document, annotator)) {
-                    annoDoc = documentService.getAnnotationDocument(document, annotator);
-                    state = annoDoc.getState();
-                }
-                // user didn't even start working on it
-                else {
-                    state = AnnotationDocumentState.NEW;
-                    AnnotationDocument annotationDocument = new AnnotationDocument();
-                    annotationDocument.setDocument(document);
-                    annotationDocument.setName(document.getName());
-                    annotationDocument.setProject(project);
-                    annotationDocument.setUser(annotator.getUsername());
-                    annotationDocument.setState(state);
-                    documentService.createAnnotationDocument(annotationDocument);
-                }
+        model.annotatorsProgress.clear();
+        model.annotatorsProgress.putAll(getFinishedDocumentsPerUser(model.project));
+        aTarget.add(annotatorsProgressImage);
 
-                EmbeddableImage icon = new EmbeddableImage(componentId, ICONS.get(state));
-                icon.add(new AttributeAppender("style", "cursor: pointer", ";"));
-                aCellItem.add(icon);
-                aCellItem.add(AttributeModifier.append("class", "centering"));
-                aCellItem.add(new AjaxEventBehavior("click")
-                {
-                    private static final long serialVersionUID = -5089819284917455111L;
+        model.annotatorsProgressInPercent.clear();
+        model.annotatorsProgressInPercent
+                .putAll(getPercentageOfFinishedDocumentsPerUser(model.project));
+        aTarget.add(annotatorsProgressPercentageImage);
 
-                    @Override
-                    protected void onEvent(AjaxRequestTarget aTarget)
-                    {
-                        SourceDocument document = documentService.getSourceDocument(project,
-                                value.substring(value.indexOf(":") + 1));
-                        User user = userRepository.get(value.substring(0, value.indexOf(":")));
-
-                        AnnotationDocumentState state;
-                        if (documentService.existsAnnotationDocument(document, user)) {
-                            AnnotationDocument annoDoc = documentService
-                                    .getAnnotationDocument(document, user);
-                            state = annoDoc.getState();
-                            if (state.toString()
-                                    .equals(AnnotationDocumentState.FINISHED.toString())) {
-                                changeAnnotationDocumentState(document, user,
-                                        ANNOTATION_FINISHED_TO_ANNOTATION_IN_PROGRESS);
-                            }
-                            else if (state.toString()
-                                    .equals(AnnotationDocumentState.IN_PROGRESS.toString())) {
-                                changeAnnotationDocumentState(document, user,
-                                        ANNOTATION_IN_PROGRESS_TO_ANNOTATION_FINISHED);
-                            }
-                            if (state.toString().equals(AnnotationDocumentState.NEW.toString())) {
-                                changeAnnotationDocumentState(document, user, NEW_TO_IGNORE);
-                            }
-                            if (state.toString()
-                                    .equals(AnnotationDocumentState.IGNORE.toString())) {
-                                changeAnnotationDocumentState(document, user, IGNORE_TO_NEW);
-                            }
-                        }
-                        // user didn't even start working on it
-                        else {
-                            AnnotationDocument annotationDocument = new AnnotationDocument();
-                            annotationDocument.setDocument(document);
-                            annotationDocument.setName(document.getName());
-                            annotationDocument.setProject(project);
-                            annotationDocument.setUser(user.getUsername());
-                            documentService.createAnnotationDocument(annotationDocument);
-                            documentService.transitionAnnotationDocumentState(annotationDocument,
-                                    NEW_TO_ANNOTATION_IN_PROGRESS);
-                        }
+        aTarget.add(monitoringDetailForm);
+    }
 
-                        aTarget.add(aCellItem);
-                        updateStats(aTarget, projectSelectionForm.getModelObject());
-                    }
-                });
-            }
+    /**
+     * Column showing the curation state of the documents in the document status table.
+     */
+    private class CurationStatusColumn
+        extends AbstractColumn<SourceDocument, String>
+    {
+        private static final long serialVersionUID = -2584915398476612406L;
+
+        public CurationStatusColumn()
+        {
+            super(Model.of(CURATION), "state");
         }
 
-        private void updateStats(AjaxRequestTarget aTarget, ProjectSelectionModel aModel)
+        @Override
+        public void populateItem(Item<ICellPopulator<SourceDocument>> aCellItem,
+                String aComponentId, IModel<SourceDocument> aRowModel)
         {
-            aModel.annotatorsProgress.clear();
-            aModel.annotatorsProgress.putAll(getFinishedDocumentsPerUser(project));
-            aTarget.add(annotatorsProgressImage);
+            SourceDocumentState state = aRowModel.getObject().getState();
+            EmbeddableImage icon = new EmbeddableImage(aComponentId, ICONS.get(state));
+            icon.add(new AttributeAppender("style", "cursor: pointer", ";"));
+            aCellItem.add(icon);
+            aCellItem.add(AttributeModifier.append("class", "centering"));
+            aCellItem.add(new AjaxEventBehavior("click")
+            {
+                private static final long serialVersionUID = -4213621740511947285L;
+
+                @Override
+                protected void onEvent(AjaxRequestTarget aTarget)
+                {
+                    Project project = projectModel.getObject();
+                    if (!projectService.isCurator(project, userRepository.getCurrentUser())) {
+                        aTarget.appendJavaScript(
+                                "alert('the state can only be changed explicitly by the curator')");
+                        return;
+                    }
 
-            aModel.annotatorsProgressInPercent.clear();
-            aModel.annotatorsProgressInPercent
-                    .putAll(getPercentageOfFinishedDocumentsPerUser(project));
-            aTarget.add(annotatorsProgressPercentageImage);
+                    SourceDocument doc = documentService.getSourceDocument(project,
+                            aRowModel.getObject().getName());
+                    if (doc.getState().equals(CURATION_FINISHED)) {
+                        documentService.transitionSourceDocumentState(doc,
+                                CURATION_FINISHED_TO_CURATION_IN_PROGRESS);
+                    }
+                    else if (doc.getState().equals(CURATION_IN_PROGRESS)) {
+                        documentService.transitionSourceDocumentState(doc,
+                                CURATION_IN_PROGRESS_TO_CURATION_FINISHED);
+                    }
+                    else if (doc.getState().equals(ANNOTATION_IN_PROGRESS)) {
+                        documentService.transitionSourceDocumentState(doc,
+                                ANNOTATION_IN_PROGRESS_TO_CURATION_IN_PROGRESS);
+                    }
 
-            aTarget.add(monitoringDetailForm);
+                    updateStats(aTarget);
+                }
+            });
         }
+    }
 
-        /**
-         * Helper method to get the cell value for the user-annotation document status as
-         * <b>username:documentName</b>
-         */
-        private String getCellValue(String aValue)
-        {
-            // It is the user column, return user name
-            if (aValue.startsWith(MonitoringPage.DOCUMENT)) {
-                return aValue.substring(aValue.indexOf(MonitoringPage.DOCUMENT));
-            }
-            // return as it is
-            else if (aValue.startsWith(MonitoringPage.LAST_ACCESS)) {
-                return aValue;
-            }
-            // Initialization of the appliaction, no project selected
-            else if (isNull(project.getId())) {
-                return "";
-            }
-            // It is document column, get the status from the database
-            else {
+    /**
+     * Column showing the annotation state of the documents for one annotator in the document
+     * status table. The states are looked up from the page loaded by the
+     * {@link DocumentStatusDataProvider}.
+     */
+    private class AnnotationStatusColumn
+        extends AbstractColumn<SourceDocument, String>
+    {
+        private static final long serialVersionUID = 2866434427738425146L;
 
-                String username = aValue.substring(0, aValue.indexOf(MonitoringPage.DOCUMENT) - 1);
-                String documentName = aValue.substring(
-                        aValue.indexOf(MonitoringPage.DOCUMENT) + MonitoringPage.DOCUMENT.length());
-                return username + ":" + documentName;
-            }
+        private final DocumentStatusDataProvider provider;
+        private final String username;
+
+        public AnnotationStatusColumn(DocumentStatusDataProvider aProvider, String aUsername)
+        {
+            super(Model.of(aUsername));
+            provider = aProvider;
+            username = aUsername;
         }
 
-        /**
-         * change the state of an annotation document. used to re-open closed documents
-         */
-        private void changeAnnotationDocumentState(SourceDocument aSourceDocument, User aUser,
-                AnnotationDocumentStateTransition aAnnotationDocumentStateTransition)
+        @Override
+        public void populateItem(Item<ICellPopulator<SourceDocument>> aCellItem,
+                String aComponentId, IModel<SourceDocument> aRowModel)
         {
-            AnnotationDocument annotationDocument = documentService
-                    .getAnnotationDocument(aSourceDocument, aUser);
+            AnnotationDocumentState state = provider
+                    .getAnnotationDocumentState(aRowModel.getObject(), username);
+            EmbeddableImage icon = new EmbeddableImage(aComponentId, ICONS.get(state));
+            icon.add(new AttributeAppender("style", "cursor: pointer", ";"));
+            aCellItem.add(icon);
+            aCellItem.add(AttributeModifier.append("class", "centering"));
+            aCellItem.add(new AjaxEventBehavior("click")
+            {
+                private static final long serialVersionUID = -5089819284917455111L;
+
+                @Override
+                protected void onEvent(AjaxRequestTarget aTarget)
+                {
+                    SourceDocument document = documentService.getSourceDocument(
+                            projectModel.getObject(), aRowModel.getObject().getName());
+                    User user = userRepository.get(username);
+
+                    // The annotation document is created lazily when the user has not even
+                    // started working on the document
+                    AnnotationDocument annoDoc = documentService
+                            .createOrGetAnnotationDocument(document, user);
+                    switch (annoDoc.getState()) {
+                    case FINISHED:
+                        documentService.transitionAnnotationDocumentState(annoDoc,
+                                ANNOTATION_FINISHED_TO_ANNOTATION_IN_PROGRESS);
+                        break;
+                    case IN_PROGRESS:
+                        documentService.transitionAnnotationDocumentState(annoDoc,
+                                ANNOTATION_IN_PROGRESS_TO_ANNOTATION_FINISHED);
+                        break;
+                    case NEW:
+                        documentService.transitionAnnotationDocumentState(annoDoc,
+                                NEW_TO_IGNORE);
+                        break;
+                    case IGNORE:
+                        documentService.transitionAnnotationDocumentState(annoDoc,
+                                IGNORE_TO_NEW);
+                        break;
+                    }
 
-            documentService.transitionAnnotationDocumentState(annotationDocument,
-                    aAnnotationDocumentStateTransition);
+                    updateStats(aTarget);
+                }
+            });
         }
     }
 
@@ -1107,11 +982,4 @@ public class MonitoringPage
             return Optional.empty();
         }
     }
-
-    private static <T> BinaryOperator<T> throwingMerger()
-    {
-        return (u, v) -> {
-            throw new IllegalStateException(String.format("Duplicate key %s", u));
-        };
-    }
 }
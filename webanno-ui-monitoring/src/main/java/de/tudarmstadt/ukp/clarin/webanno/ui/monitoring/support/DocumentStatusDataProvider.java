@@ -0,0 +1,130 @@
+/*
+ * Licensed to the Technische Universität Darmstadt under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The Technische Universität Darmstadt 
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.ui.monitoring.support;
+
+import static java.util.Collections.emptyMap;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.wicket.extensions.markup.html.repeater.data.sort.SortOrder;
+import org.apache.wicket.extensions.markup.html.repeater.data.table.DataTable;
+import org.apache.wicket.extensions.markup.html.repeater.util.SortParam;
+import org.apache.wicket.extensions.markup.html.repeater.util.SortableDataProvider;
+import org.apache.wicket.injection.Injector;
+import org.apache.wicket.model.IModel;
+import org.apache.wicket.model.Model;
+import org.apache.wicket.spring.injection.annot.SpringBean;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.DocumentService;
+import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocument;
+import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocumentState;
+import de.tudarmstadt.ukp.clarin.webanno.model.Project;
+import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
+
+/**
+ * Data provider for the document status {@link DataTable}. Only the visible page of source
+ * documents is loaded from the database. The annotation document states of all cells on the page
+ * are fetched with a single query when the page is loaded.
+ */
+public class DocumentStatusDataProvider
+    extends SortableDataProvider<SourceDocument, String>
+{
+    private static final long serialVersionUID = 4290617946355125536L;
+
+    private @SpringBean DocumentService documentService;
+
+    private final IModel<Project> project;
+    private final IModel<String> nameFilter;
+
+    private transient Long size;
+    private transient Map<Long, Map<String, AnnotationDocumentState>> annotationDocumentStates;
+
+    public DocumentStatusDataProvider(IModel<Project> aProject, IModel<String> aNameFilter)
+    {
+        Injector.get().inject(this);
+
+        project = aProject;
+        nameFilter = aNameFilter;
+
+        setSort("name", SortOrder.ASCENDING);
+    }
+
+    @Override
+    public Iterator<SourceDocument> iterator(long aFirst, long aCount)
+    {
+        SortParam<String> sort = getSort();
+        List<SourceDocument> documents = documentService.listSourceDocuments(project.getObject(),
+                nameFilter.getObject(), sort.getProperty(), sort.isAscending(), aFirst, aCount);
+
+        annotationDocumentStates = new HashMap<>();
+        for (AnnotationDocument annDoc : documentService
+                .listAllAnnotationDocuments(project.getObject(), documents)) {
+            annotationDocumentStates
+                    .computeIfAbsent(annDoc.getDocument().getId(), id -> new HashMap<>())
+                    .put(annDoc.getUser(), annDoc.getState());
+        }
+
+        return documents.iterator();
+    }
+
+    /**
+     * @return the state of the annotation document of the given user for a document on the
+     *         current page. If the user has not opened the document yet, the state is
+     *         {@link AnnotationDocumentState#NEW NEW}.
+     */
+    public AnnotationDocumentState getAnnotationDocumentState(SourceDocument aDocument,
+            String aUser)
+    {
+        if (annotationDocumentStates == null) {
+            throw new IllegalStateException("No page of documents has been loaded");
+        }
+
+        return annotationDocumentStates.getOrDefault(aDocument.getId(), emptyMap())
+                .getOrDefault(aUser, AnnotationDocumentState.NEW);
+    }
+
+    @Override
+    public long size()
+    {
+        if (size == null) {
+            size = documentService.countSourceDocuments(project.getObject(),
+                    nameFilter.getObject());
+        }
+
+        return size;
+    }
+
+    @Override
+    public IModel<SourceDocument> model(SourceDocument aObject)
+    {
+        return Model.of(aObject);
+    }
+
+    @Override
+    public void detach()
+    {
+        size = null;
+        annotationDocumentStates = null;
+        project.detach();
+        nameFilter.detach();
+        super.detach();
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * Licensed to the Technische Universität Darmstadt under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The Technische Universität Darmstadt 
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.ui.monitoring.support;
+
+import java.util.List;
+
+import org.apache.wicket.AttributeModifier;
+import org.apache.wicket.extensions.markup.html.repeater.data.table.AbstractToolbar;
+import org.apache.wicket.extensions.markup.html.repeater.data.table.DataTable;
+import org.apache.wicket.markup.html.basic.Label;
+import org.apache.wicket.markup.html.list.ListItem;
+import org.apache.wicket.markup.html.list.ListView;
+import org.apache.wicket.model.IModel;
+
+/**
+ * Toolbar showing when each user last accessed the project, one cell per column of the document
+ * status {@link DataTable}.
+ */
+public class LastAccessToolbar
+    extends AbstractToolbar
+{
+    private static final long serialVersionUID = -3196513512563580617L;
+
+    public LastAccessToolbar(DataTable<?, ?> aTable, IModel<List<String>> aCells)
+    {
+        super(aTable);
+
+        add(new ListView<String>("cells", aCells)
+        {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected void populateItem(ListItem<String> aItem)
+            {
+                aItem.add(new Label("label", aItem.getModel()));
+                if (aItem.getIndex() > 0) {
+                    aItem.add(AttributeModifier.append("class", "centering"));
+                }
+            }
+        });
+    }
+}